@@ -5,9 +5,14 @@
 +-------------------------------------------------------------------------*/
 package com.teamscale.jacoco.agent;
 
+import com.squareup.moshi.JsonAdapter;
+import com.squareup.moshi.Moshi;
+import com.teamscale.jacoco.agent.metrics.AgentMetrics;
 import com.teamscale.jacoco.agent.options.AgentOptions;
 import com.teamscale.jacoco.agent.upload.IUploader;
 import com.teamscale.jacoco.agent.upload.UploaderException;
+import com.teamscale.jacoco.agent.upload.delay.DelayedUploader;
+import com.teamscale.jacoco.agent.util.AdaptiveTimer;
 import com.teamscale.jacoco.agent.util.Benchmark;
 import com.teamscale.jacoco.agent.util.Timer;
 import com.teamscale.report.jacoco.CoverageFile;
@@ -22,9 +27,11 @@ import spark.Service;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.lang.instrument.Instrumentation;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.Duration;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static com.teamscale.jacoco.agent.util.LoggingUtils.wrap;
 
@@ -34,15 +41,54 @@ import static com.teamscale.jacoco.agent.util.LoggingUtils.wrap;
  */
 public class Agent extends AgentBase {
 
+	/** The maximum time to wait for dumps triggered via HTTP on shutdown. */
+	private static final Duration DUMP_JOB_SHUTDOWN_TIMEOUT = Duration.ofMinutes(1);
+
 	/** Converts binary data to XML. */
 	private JaCoCoXmlReportGenerator generator;
 
-	/** Regular dump task. */
+	/** Regular dump task with a fixed interval or null. */
 	private Timer timer;
 
+	/** Regular dump task with an adaptive interval or null. */
+	private AdaptiveTimer adaptiveTimer;
+
+	/** Keeps track of the probes hit so far to adapt the dump interval or null if the interval is fixed. */
+	private final DeltaCoverageFilter newCoverageDetector;
+
+	/** Whether new probes have been hit since the last interval dump. */
+	private final AtomicBoolean foundNewCoverage = new AtomicBoolean();
+
+	/**
+	 * Collects the coverage of interval dumps until it is uploaded in the upload interval or null if every interval
+	 * dump should be uploaded right away.
+	 */
+	private final CoverageAggregator coverageAggregator;
+
+	/** Regular upload of the aggregated coverage or null. */
+	private Timer uploadTimer;
+
 	/** Stores the XML files. */
 	protected final IUploader uploader;
 
+	/** The uploader if it caches execution data until the commit is found, otherwise null. */
+	private final DelayedUploader<?> execCachingUploader;
+
+	/** Reduces dumps to newly covered classes or null if every dump should be reported completely. */
+	private final DeltaCoverageFilter deltaCoverageFilter;
+
+	/**
+	 * The coverage of dumps whose conversion to XML failed. The probes of these dumps have already been reset, so the
+	 * coverage is included in the next converted dump instead.
+	 */
+	private final CoverageAggregator failedConversions = new CoverageAggregator();
+
+	/** Converts and uploads the dumps triggered via HTTP in the background. */
+	private final DumpJobQueue dumpJobQueue = new DumpJobQueue();
+
+	/** Serializes the state of dump jobs. */
+	private final JsonAdapter<DumpJob> dumpJobJsonAdapter = new Moshi.Builder().build().adapter(DumpJob.class);
+
 	/** Constructor. */
 	public Agent(AgentOptions options,
 				 Instrumentation instrumentation) throws IllegalStateException, UploaderException {
@@ -51,14 +97,49 @@ public class Agent extends AgentBase {
 		uploader = options.createUploader(instrumentation);
 		logger.info("Upload method: {}", uploader.describe());
 
+		if (options.shouldDumpDeltas()) {
+			deltaCoverageFilter = new DeltaCoverageFilter();
+		} else {
+			deltaCoverageFilter = null;
+		}
+
+		// Delta dumps only contain the classes whose coverage grew. Including all other classes as uncovered would
+		// only bloat the reports, since Teamscale treats classes that are missing in a report as uncovered anyway.
 		generator = new JaCoCoXmlReportGenerator(options.getClassDirectoriesOrZips(),
 				options.getLocationIncludeFilter(),
-				options.getDuplicateClassFileBehavior(), options.shouldIgnoreUncoveredClasses(), wrap(logger));
+				options.getDuplicateClassFileBehavior(),
+				options.shouldIgnoreUncoveredClasses() || options.shouldDumpDeltas(),
+				options.shouldCacheClassStructure(), options.getAnalysisThreads(), wrap(logger));
 
-		if (options.shouldDumpInIntervals()) {
-			timer = new Timer(this::dumpReport, Duration.ofMinutes(options.getDumpIntervalInMinutes()));
-			timer.start();
-			logger.info("Dumping every {} minutes.", options.getDumpIntervalInMinutes());
+		if (options.shouldCacheExecutionDataUntilCommitFound() && uploader instanceof DelayedUploader) {
+			execCachingUploader = (DelayedUploader<?>) uploader;
+			execCachingUploader.cacheExecutionData(dump -> convertToXml(dump, createReportPath()));
+		} else {
+			execCachingUploader = null;
+		}
+
+		if (options.shouldAggregateCoverage()) {
+			coverageAggregator = new CoverageAggregator();
+			uploadTimer = new Timer(this::uploadAggregatedCoverage, options.getUploadInterval());
+			uploadTimer.start();
+			logger.info("Uploading the aggregated coverage every {} seconds.", options.getUploadInterval().getSeconds());
+		} else {
+			coverageAggregator = null;
+		}
+		if (options.shouldAdaptDumpInterval()) {
+			newCoverageDetector = new DeltaCoverageFilter();
+			adaptiveTimer = new AdaptiveTimer(this::dumpReportAndCheckForNewCoverage, options.getDumpInterval(),
+					options.getMinDumpInterval(), options.getMaxDumpInterval());
+			adaptiveTimer.start();
+			logger.info("Dumping every {} to {} seconds depending on the amount of new coverage.",
+					options.getMinDumpInterval().getSeconds(), options.getMaxDumpInterval().getSeconds());
+		} else {
+			newCoverageDetector = null;
+			if (options.shouldDumpInIntervals()) {
+				timer = new Timer(this::dumpReport, options.getDumpInterval());
+				timer.start();
+				logger.info("Dumping every {} seconds.", options.getDumpInterval().getSeconds());
+			}
 		}
 		if (options.getTeamscaleServerOptions().partition != null) {
 			controller.setSessionId(options.getTeamscaleServerOptions().partition);
@@ -72,17 +153,65 @@ public class Agent extends AgentBase {
 		spark.get("/message", (request, response) ->
 				Optional.ofNullable(options.getTeamscaleServerOptions().getMessage()).orElse(""));
 		spark.post("/dump", this::handleDump);
+		spark.get("/dump/:id", this::handleGetDumpJob);
 		spark.post("/reset", this::handleReset);
 		spark.put("/partition", this::handleSetPartition);
 		spark.put("/message", this::handleSetMessage);
 	}
 
-	/** Handles dumping a XML coverage report for coverage collected until now. */
+	/**
+	 * Handles dumping a XML coverage report for coverage collected until now. The coverage is dumped immediately, but
+	 * converted and uploaded in the background. Responds with the created {@link DumpJob}, whose progress can be
+	 * queried via {@link #handleGetDumpJob(Request, Response)}.
+	 */
 	private String handleDump(Request request, Response response) {
 		logger.debug("Dumping report triggered via HTTP request");
-		dumpReport();
-		response.status(HttpServletResponse.SC_NO_CONTENT);
-		return "";
+		return submitDumpJob(response, () -> includeAggregatedCoverage(takeSnapshot()), this::convertAndUpload);
+	}
+
+	/**
+	 * Submits a dump job to the {@link #dumpJobQueue} and responds with the created {@link DumpJob} or an error if the
+	 * job could not be submitted.
+	 */
+	private String submitDumpJob(Response response, DumpJobQueue.IDumpSupplier dumpSupplier,
+								 DumpJobQueue.IDumpJobProcessor processor) {
+		DumpJob job;
+		try {
+			job = dumpJobQueue.trySubmit(dumpSupplier, processor);
+		} catch (JacocoRuntimeController.DumpException e) {
+			logger.error("Dumping failed", e);
+			response.status(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+			return "Dumping failed: " + e.getMessage();
+		}
+
+		if (job == null) {
+			String errorMessage = "Too many dumps are waiting for their conversion. Please retry later.";
+			logger.warn(errorMessage);
+			response.status(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+			return errorMessage;
+		}
+
+		response.status(HttpServletResponse.SC_ACCEPTED);
+		response.type("application/json");
+		return dumpJobJsonAdapter.toJson(job);
+	}
+
+	/** Handles querying the state of a dump job. */
+	private String handleGetDumpJob(Request request, Response response) {
+		DumpJob job = null;
+		try {
+			job = dumpJobQueue.getJob(Long.parseLong(request.params(":id")));
+		} catch (NumberFormatException e) {
+			// handled below
+		}
+
+		if (job == null) {
+			response.status(HttpServletResponse.SC_NOT_FOUND);
+			return "Unknown dump job " + request.params(":id");
+		}
+
+		response.type("application/json");
+		return dumpJobJsonAdapter.toJson(job);
 	}
 
 	/** Handles resetting of coverage. */
@@ -93,7 +222,12 @@ public class Agent extends AgentBase {
 		return "";
 	}
 
-	/** Handles setting the partition name. */
+	/**
+	 * Handles setting the partition name. The coverage aggregated so far belongs to the previous partition, so it is
+	 * taken immediately, but converted and uploaded in the background like a dump triggered via HTTP. The partition is
+	 * only changed once this and all dumps submitted before have been uploaded, since the uploaders read the partition
+	 * when they upload. Responds with the created {@link DumpJob}.
+	 */
 	private String handleSetPartition(Request request, Response response) {
 		String partition = request.body();
 		if (partition == null || partition.isEmpty()) {
@@ -104,12 +238,57 @@ public class Agent extends AgentBase {
 			return errorMessage;
 		}
 
+		return submitDumpJob(response, () -> {
+			// Coverage collected from now on belongs to the new partition
+			controller.setSessionId(partition);
+			return takeAggregatedCoverage();
+		}, (dump, job) -> {
+			try {
+				uploadCoverageOfPreviousPartition(dump, job);
+			} finally {
+				changePartition(partition);
+			}
+		});
+	}
+
+	/** Returns the coverage aggregated since the last upload or null if there is none. */
+	private Dump takeAggregatedCoverage() {
+		if (coverageAggregator == null) {
+			return null;
+		}
+		return coverageAggregator.takeAggregate();
+	}
+
+	/**
+	 * Converts and uploads the given coverage of the previous partition before the partition is changed, together with
+	 * the coverage of dumps whose conversion failed before. If the conversion fails again, this coverage is discarded,
+	 * since it must not be uploaded to the new partition with the next dump.
+	 */
+	private void uploadCoverageOfPreviousPartition(Dump dump, DumpJob job) {
+		if (dump == null) {
+			dump = takeFailedConversions();
+		}
+		if (dump == null) {
+			job.skip("No coverage was aggregated for the previous partition.");
+			return;
+		}
+		convertAndUpload(dump, job);
+
+		Dump discardedDump = takeFailedConversions();
+		if (discardedDump != null) {
+			logger.error("Discarding the coverage of {} classes, since it could not be converted before the partition" +
+					" was changed. It belongs to the previous partition.", discardedDump.store.getContents().size());
+		}
+	}
+
+	/** Uploads all further reports to the given partition. */
+	private void changePartition(String partition) {
 		logger.debug("Changing partition name to " + partition);
-		controller.setSessionId(partition);
 		options.getTeamscaleServerOptions().partition = partition;
-
-		response.status(HttpServletResponse.SC_NO_CONTENT);
-		return "";
+		if (deltaCoverageFilter != null) {
+			// Coverage reported for the previous partition does not count for the new one
+			deltaCoverageFilter.clear();
+		}
 	}
 
 	/** Handles setting the partition name. */
@@ -135,9 +314,21 @@ public class Agent extends AgentBase {
 		if (timer != null) {
 			timer.stop();
 		}
+		if (adaptiveTimer != null) {
+			adaptiveTimer.stop();
+		}
+		if (uploadTimer != null) {
+			uploadTimer.stop();
+		}
+		if (!dumpJobQueue.shutdown(DUMP_JOB_SHUTDOWN_TIMEOUT)) {
+			logger.warn("Not all dumps triggered via HTTP could be converted and uploaded within {} seconds.",
+					DUMP_JOB_SHUTDOWN_TIMEOUT.getSeconds());
+		}
 		if (options.shouldDumpOnExit()) {
 			dumpReport();
 		}
+		// Coverage aggregated before must not get lost, even if the coverage at exit should not be dumped
+		uploadAggregatedCoverage();
 
 		try {
 			com.teamscale.jacoco.agent.util.FileSystemUtils.deleteDirectoryIfEmpty(options.getOutputDirectory());
@@ -151,7 +342,8 @@ public class Agent extends AgentBase {
 
 	/**
 	 * Dumps the current execution data, converts it, writes it to the output directory defined in {@link #options} and
-	 * uploads it if an uploader is configured. Logs any errors, never throws an exception.
+	 * uploads it if an uploader is configured. If the coverage is aggregated, it is only added to the aggregate. Logs
+	 * any errors, never throws an exception.
 	 */
 	private void dumpReport() {
 		logger.debug("Starting dump");
@@ -164,29 +356,186 @@ public class Agent extends AgentBase {
 		}
 	}
 
+	/**
+	 * Dumps the current execution data like {@link #dumpReport()} and returns whether new probes have been hit since
+	 * the last call. Also takes dumps triggered via HTTP into account.
+	 */
+	private boolean dumpReportAndCheckForNewCoverage() {
+		dumpReport();
+		boolean result = foundNewCoverage.getAndSet(false);
+		logger.debug("{} since the last interval dump.", result ? "New coverage was collected" : "No new coverage");
+		return result;
+	}
+
+	/**
+	 * Converts and uploads the coverage aggregated since the last call if there is any. Logs any errors, never throws
+	 * an exception.
+	 */
+	private void uploadAggregatedCoverage() {
+		if (coverageAggregator == null) {
+			return;
+		}
+
+		try {
+			Dump dump = takeAggregatedCoverage();
+			if (dump == null) {
+				logger.debug("No coverage was aggregated since the last upload.");
+				return;
+			}
+			convertAndUpload(dump, dumpJobQueue.createUnrememberedJob());
+		} catch (Throwable t) {
+			// we want to catch anything in order to avoid crashing the whole system under test
+			logger.error("Uploading the aggregated coverage failed with an exception", t);
+		}
+	}
+
+	/** Merges the coverage aggregated so far into the given dump if the coverage is aggregated. */
+	private Dump includeAggregatedCoverage(Dump dump) {
+		if (coverageAggregator == null) {
+			return dump;
+		}
+		coverageAggregator.add(dump);
+		return coverageAggregator.takeAggregate();
+	}
+
+	/** Dumps and resets the current execution data. */
+	private Dump takeSnapshot() throws JacocoRuntimeController.DumpException {
+		Dump dump = controller.dumpAndReset();
+		detectNewCoverage(dump);
+		return dump;
+	}
+
+	/** Remembers whether the given dump contains new coverage if the dump interval is adaptive. */
+	private void detectNewCoverage(Dump dump) {
+		if (newCoverageDetector != null && newCoverageDetector.filter(dump) != null) {
+			newCoverageDetector.markAsReported(dump);
+			foundNewCoverage.set(true);
+		}
+	}
+
+	/** Remembers the coverage of the given dump as reported if delta dumps are enabled. */
+	private void markAsReported(Dump dump) {
+		if (deltaCoverageFilter != null) {
+			deltaCoverageFilter.markAsReported(dump);
+		}
+	}
+
 	private void dumpReportUnsafe() {
 		Dump dump;
 		try {
-			dump = controller.dumpAndReset();
+			dump = takeSnapshot();
 		} catch (JacocoRuntimeController.DumpException e) {
 			logger.error("Dumping failed, retrying later", e);
 			return;
 		}
 
+		if (coverageAggregator != null) {
+			coverageAggregator.add(dump);
+			logger.debug("Added the dumped coverage to the aggregate, which is uploaded later on.");
+			return;
+		}
+		convertAndUpload(dump, dumpJobQueue.createUnrememberedJob());
+	}
+
+	/** Converts the given dump to XML, writes it to the output directory and uploads it. */
+	private void convertAndUpload(Dump dump, DumpJob job) {
+		dump = includeFailedConversions(dump);
+		if (deltaCoverageFilter != null) {
+			dump = deltaCoverageFilter.filter(dump);
+			if (dump == null) {
+				logger.debug("No new coverage was collected since the last dump. Skipping conversion and upload.");
+				job.skip("No new coverage was collected since the last dump.");
+				return;
+			}
+		}
+
+		if (cacheExecutionData(dump, job)) {
+			return;
+		}
+
 		CoverageFile coverageFile;
-		long currentTime = System.currentTimeMillis();
-		Path outputPath = options.getOutputDirectory().resolve("jacoco-" + currentTime + ".xml");
+		Path outputPath = createReportPath();
 
-		try (Benchmark ignored = new Benchmark("Generating the XML report")) {
-			FileSystemUtils.ensureParentDirectoryExists(outputPath.toFile());
-			coverageFile = generator.convert(dump, outputPath);
+		job.startConversion();
+		try {
+			coverageFile = convertToXml(dump, outputPath);
 		} catch (IOException e) {
-			logger.error("Converting binary dump to XML failed", e);
+			logger.error("Converting binary dump to XML failed. Retrying with the next dump", e);
+			failedConversions.add(dump);
+			job.fail("Converting binary dump to XML failed: " + e.getMessage());
 			return;
 		} catch (EmptyReportException e) {
+			// The new coverage only belongs to classes that are not part of the report, there is no point in
+			// converting it again with every subsequent dump
+			markAsReported(dump);
 			logger.warn("No coverage was collected.", e);
+			job.skip("No coverage was collected.");
 			return;
 		}
+		markAsReported(dump);
+
+		job.startUpload(outputPath.toString());
 		uploader.upload(coverageFile);
+		// Uploaders delete the report once it has been uploaded successfully
+		job.finish(!Files.exists(outputPath));
+	}
+
+	/** Returns the coverage of previously failed conversions or null if there is none. */
+	private Dump takeFailedConversions() {
+		synchronized (failedConversions) {
+			return failedConversions.takeAggregate();
+		}
+	}
+
+	/** Merges the coverage of previously failed conversions into the given dump if there is any. */
+	private Dump includeFailedConversions(Dump dump) {
+		synchronized (failedConversions) {
+			if (failedConversions.isEmpty()) {
+				return dump;
+			}
+			failedConversions.add(dump);
+			return failedConversions.takeAggregate();
+		}
+	}
+
+	/** Returns the path of a new XML report in the output directory. */
+	private Path createReportPath() {
+		long currentTime = System.currentTimeMillis();
+		return options.getOutputDirectory().resolve("jacoco-" + currentTime + ".xml");
+	}
+
+	/** Converts the given dump to an XML report at the given path. */
+	private CoverageFile convertToXml(Dump dump, Path outputPath) throws IOException, EmptyReportException {
+		try (Benchmark ignored = new Benchmark("Generating the XML report", AgentMetrics.CONVERSION_DURATION)) {
+			FileSystemUtils.ensureParentDirectoryExists(outputPath.toFile());
+			CoverageFile coverageFile = generator.convert(dump, outputPath);
+			AgentMetrics.XML_REPORT_SIZE.observe(Files.size(outputPath));
+			return coverageFile;
+		}
+	}
+
+	/**
+	 * Caches the execution data of the given dump instead of converting it if the commit to upload to has not been
+	 * found yet. Returns whether the dump has been cached.
+	 */
+	private boolean cacheExecutionData(Dump dump, DumpJob job) {
+		if (execCachingUploader == null) {
+			return false;
+		}
+
+		Path execFile;
+		try {
+			execFile = execCachingUploader.cacheDump(dump);
+		} catch (IOException e) {
+			logger.error("Caching the execution data failed. Converting the dump to XML instead", e);
+			return false;
+		}
+		if (execFile == null) {
+			return false;
+		}
+		markAsReported(dump);
+		job.startUpload(execFile.toString());
+		job.finish(false);
+		return true;
 	}
 }
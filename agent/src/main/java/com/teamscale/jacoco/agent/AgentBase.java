@@ -1,6 +1,7 @@
 package com.teamscale.jacoco.agent;
 
 import com.teamscale.client.HttpUtils;
+import com.teamscale.jacoco.agent.metrics.AgentMetrics;
 import com.teamscale.jacoco.agent.options.AgentOptionParseException;
 import com.teamscale.jacoco.agent.options.AgentOptions;
 import com.teamscale.jacoco.agent.options.AgentOptionsParser;
@@ -37,6 +38,9 @@ public abstract class AgentBase {
 	/** The agent options. */
 	protected AgentOptions options;
 
+	/** The content type of the Prometheus text exposition format. */
+	private static final String PROMETHEUS_CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
 	private static LoggingUtils.LoggingResources loggingResources;
 
 	private final Service spark = Service.ignite();
@@ -65,6 +69,10 @@ public abstract class AgentBase {
 		logger.info("Listening for test events on port {}.", options.getHttpServerPort());
 		spark.port(options.getHttpServerPort());
 
+		spark.get("/metrics", (request, response) -> {
+			response.type(PROMETHEUS_CONTENT_TYPE);
+			return AgentMetrics.toPrometheusText();
+		});
 		initServerEndpoints(spark);
 		// this is needed during our tests which will try to access the API
 		// directly after creating an agent
@@ -103,6 +111,7 @@ public abstract class AgentBase {
 		delayedLogger.logTo(logger);
 
 		HttpUtils.setShouldValidateSsl(agentOptions.shouldValidateSsl());
+		HttpUtils.setConnectionPool(agentOptions.getHttpMaxIdleConnections(), agentOptions.getHttpKeepAlive());
 
 		logger.info("Starting JaCoCo's agent");
 		JacocoAgentBuilder agentBuilder = new JacocoAgentBuilder(agentOptions);
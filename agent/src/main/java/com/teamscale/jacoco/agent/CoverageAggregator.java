@@ -0,0 +1,82 @@
+package com.teamscale.jacoco.agent;
+
+import com.teamscale.jacoco.agent.util.LoggingUtils;
+import com.teamscale.report.jacoco.dump.Dump;
+import org.jacoco.core.data.ExecutionData;
+import org.jacoco.core.data.ExecutionDataStore;
+import org.jacoco.core.data.SessionInfo;
+import org.slf4j.Logger;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Merges the coverage of multiple dumps in memory, so it can be converted and uploaded as a single report. Probes are
+ * merged per class ID, i.e. a probe is covered in the aggregate if it was covered in any of the dumps.
+ */
+public class CoverageAggregator {
+
+	/** The logger. */
+	private final Logger logger = LoggingUtils.getLogger(this);
+
+	/** The merged execution data by class ID. */
+	private Map<Long, ExecutionData> executionData = new HashMap<>();
+
+	/** The start of the earliest aggregated dump or null if nothing has been aggregated. */
+	private SessionInfo firstSessionInfo;
+
+	/** The latest aggregated dump. */
+	private SessionInfo lastSessionInfo;
+
+	/** Adds the coverage of the given dump to the aggregate. */
+	public synchronized void add(Dump dump) {
+		if (firstSessionInfo == null) {
+			firstSessionInfo = dump.info;
+		}
+		lastSessionInfo = dump.info;
+
+		for (ExecutionData data : dump.store.getContents()) {
+			ExecutionData aggregated = executionData.get(data.getId());
+			if (aggregated == null) {
+				// Copy the probes since the merge changes them in place
+				executionData.put(data.getId(),
+						new ExecutionData(data.getId(), data.getName(), data.getProbes().clone()));
+			} else if (aggregated.getProbes().length != data.getProbes().length ||
+					!aggregated.getName().equals(data.getName())) {
+				// Can only happen if a class with the same ID is loaded with different probes, e.g. due to a CRC64
+				// collision. JaCoCo would refuse to merge this, so we keep the latest execution data.
+				logger.warn("Execution data for class {} with ID {} is incompatible with previous dumps. Only the" +
+						" latest coverage is kept.", data.getName(), data.getId());
+				executionData.put(data.getId(),
+						new ExecutionData(data.getId(), data.getName(), data.getProbes().clone()));
+			} else {
+				aggregated.merge(data);
+			}
+		}
+	}
+
+	/** Returns whether no dumps have been added since the last call of {@link #takeAggregate()}. */
+	public synchronized boolean isEmpty() {
+		return firstSessionInfo == null;
+	}
+
+	/**
+	 * Returns the aggregated coverage and starts over with an empty aggregate. Returns null if no dumps have been added
+	 * since the last call.
+	 */
+	public synchronized Dump takeAggregate() {
+		if (firstSessionInfo == null) {
+			return null;
+		}
+
+		ExecutionDataStore store = new ExecutionDataStore();
+		executionData.values().forEach(store::put);
+		SessionInfo info = new SessionInfo(lastSessionInfo.getId(), firstSessionInfo.getStartTimeStamp(),
+				lastSessionInfo.getDumpTimeStamp());
+
+		executionData = new HashMap<>();
+		firstSessionInfo = null;
+		lastSessionInfo = null;
+		return new Dump(info, store);
+	}
+}
@@ -0,0 +1,68 @@
+package com.teamscale.jacoco.agent;
+
+import com.teamscale.report.jacoco.dump.Dump;
+import org.jacoco.core.data.ExecutionData;
+import org.jacoco.core.data.ExecutionDataStore;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps track of all probes that have already been reported and reduces dumps to the classes that contain newly hit
+ * probes. After the warm-up phase of an application most interval dumps do not contain any new coverage, so their
+ * conversion and upload can be skipped entirely.
+ */
+public class DeltaCoverageFilter {
+
+	/** The probes that have already been reported by class ID. */
+	private final Map<Long, BitSet> reportedProbes = new HashMap<>();
+
+	/**
+	 * Returns a dump that only contains the classes of the given dump for which a probe has been hit that has not been
+	 * reported so far or null if there are no such classes. The probes are not considered reported until {@link
+	 * #markAsReported(Dump)} is called.
+	 */
+	public synchronized Dump filter(Dump dump) {
+		ExecutionDataStore store = new ExecutionDataStore();
+		for (ExecutionData data : dump.store.getContents()) {
+			if (containsNewProbes(data)) {
+				store.put(data);
+			}
+		}
+		if (store.getContents().isEmpty()) {
+			return null;
+		}
+		return new Dump(dump.info, store);
+	}
+
+	/** Returns whether the given execution data contains a hit probe that has not been reported so far. */
+	private boolean containsNewProbes(ExecutionData data) {
+		BitSet reported = reportedProbes.get(data.getId());
+		boolean[] probes = data.getProbes();
+		for (int i = 0; i < probes.length; i++) {
+			if (probes[i] && (reported == null || !reported.get(i))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/** Remembers all probes hit in the given dump as reported. */
+	public synchronized void markAsReported(Dump dump) {
+		for (ExecutionData data : dump.store.getContents()) {
+			BitSet reported = reportedProbes.computeIfAbsent(data.getId(), id -> new BitSet());
+			boolean[] probes = data.getProbes();
+			for (int i = 0; i < probes.length; i++) {
+				if (probes[i]) {
+					reported.set(i);
+				}
+			}
+		}
+	}
+
+	/** Forgets all reported probes, e.g. because subsequent coverage is reported to a different partition. */
+	public synchronized void clear() {
+		reportedProbes.clear();
+	}
+}
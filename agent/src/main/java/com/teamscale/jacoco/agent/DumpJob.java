@@ -0,0 +1,113 @@
+package com.teamscale.jacoco.agent;
+
+/**
+ * A dump whose conversion and upload is processed by the {@link DumpJobQueue}. Serialized to JSON to report the
+ * progress of the job via the agent's HTTP API.
+ */
+public class DumpJob {
+
+	/** The states of a dump job. */
+	public enum EState {
+
+		/** The coverage has been dumped and waits for its conversion. */
+		QUEUED,
+
+		/** The coverage is converted to an XML report. */
+		CONVERTING,
+
+		/** The XML report is handed to the uploader. */
+		UPLOADING,
+
+		/** The report has been written and uploaded. See {@link #uploaded} for the outcome. */
+		FINISHED,
+
+		/** No report was written, because there was no (new) coverage. */
+		SKIPPED,
+
+		/** The conversion failed. See {@link #message} for details. */
+		FAILED
+	}
+
+	/** The ID of the job. */
+	private final long id;
+
+	/** The current state of the job. */
+	private volatile EState state = EState.QUEUED;
+
+	/** Details about the state of the job or null. */
+	private volatile String message;
+
+	/** The path of the written coverage report or null if it has not been written (yet). */
+	private volatile String coverageFile;
+
+	/**
+	 * Whether the coverage report has been uploaded or handed to the upload spool for retries and deleted from disk.
+	 * Reports are kept on disk if the upload failed, if they are uploaded later on (e.g. once the commit is known) or
+	 * if no uploader is configured. Null as long as the job is not finished.
+	 */
+	private volatile Boolean uploaded;
+
+	/** Constructor. */
+	/* package */ DumpJob(long id) {
+		this.id = id;
+	}
+
+	/** @see #id */
+	public long getId() {
+		return id;
+	}
+
+	/** @see #state */
+	public EState getState() {
+		return state;
+	}
+
+	/** @see #message */
+	public String getMessage() {
+		return message;
+	}
+
+	/** @see #coverageFile */
+	public String getCoverageFile() {
+		return coverageFile;
+	}
+
+	/** @see #uploaded */
+	public Boolean getUploaded() {
+		return uploaded;
+	}
+
+	/** Returns whether the job will not change anymore. */
+	public boolean isDone() {
+		return state == EState.FINISHED || state == EState.SKIPPED || state == EState.FAILED;
+	}
+
+	/** Marks the start of the conversion. */
+	/* package */ void startConversion() {
+		state = EState.CONVERTING;
+	}
+
+	/** Marks the start of the upload of the given coverage report. */
+	/* package */ void startUpload(String coverageFile) {
+		this.coverageFile = coverageFile;
+		state = EState.UPLOADING;
+	}
+
+	/** Marks the job as finished. */
+	/* package */ void finish(boolean uploaded) {
+		this.uploaded = uploaded;
+		state = EState.FINISHED;
+	}
+
+	/** Marks the job as skipped for the given reason. */
+	/* package */ void skip(String reason) {
+		message = reason;
+		state = EState.SKIPPED;
+	}
+
+	/** Marks the job as failed with the given reason. */
+	/* package */ void fail(String reason) {
+		message = reason;
+		state = EState.FAILED;
+	}
+}
@@ -0,0 +1,134 @@
+package com.teamscale.jacoco.agent;
+
+import com.teamscale.jacoco.agent.util.DaemonThreadFactory;
+import com.teamscale.jacoco.agent.util.LoggingUtils;
+import com.teamscale.report.jacoco.dump.Dump;
+import org.slf4j.Logger;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Processes dump jobs one after the other on a single background thread, so HTTP requests that trigger a dump do not
+ * have to wait for the conversion and upload. The number of waiting jobs is bounded to limit the memory needed for
+ * the dumped execution data. The most recent submitted jobs are remembered so their state can be queried.
+ */
+public class DumpJobQueue {
+
+	/** The maximum number of jobs that may wait for their conversion. */
+	/* package */ static final int MAX_QUEUED_JOBS = 10;
+
+	/** The number of jobs whose state is remembered. */
+	/* package */ static final int MAX_REMEMBERED_JOBS = 100;
+
+	/** The ID of all jobs that are not remembered. */
+	/* package */ static final long UNREMEMBERED_JOB_ID = 0;
+
+	/** The logger. */
+	private final Logger logger = LoggingUtils.getLogger(this);
+
+	/** Runs the jobs. Its queue is not bounded itself, since {@link #trySubmit} checks the bound. */
+	private final ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+			new LinkedBlockingQueue<>(), new DaemonThreadFactory(DumpJobQueue.class, "Dump Job Worker"));
+
+	/** The remembered jobs by their ID. */
+	private final Map<Long, DumpJob> jobs = new LinkedHashMap<Long, DumpJob>() {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long, DumpJob> eldest) {
+			return size() > MAX_REMEMBERED_JOBS;
+		}
+	};
+
+	/** The number of jobs that have been submitted but are not running yet. */
+	private int queuedJobs = 0;
+
+	/** The ID of the next job. */
+	private long nextId = 1;
+
+	/** Creates a new job that is remembered, but not submitted for processing. */
+	private synchronized DumpJob createJob() {
+		DumpJob job = new DumpJob(nextId++);
+		jobs.put(job.getId(), job);
+		return job;
+	}
+
+	/**
+	 * Creates a job that is neither remembered nor submitted for processing, e.g. for dumps triggered by the timer. No
+	 * client can query such jobs, so they must not push the jobs created via the HTTP API out of the remembered jobs.
+	 */
+	public DumpJob createUnrememberedJob() {
+		return new DumpJob(UNREMEMBERED_JOB_ID);
+	}
+
+	/**
+	 * Creates a new job and runs the given processing on the worker thread. The dump supplier is called synchronously
+	 * and only if there is space in the queue, so no coverage is reset if the job cannot be accepted.
+	 *
+	 * @return the submitted job or null if there are already {@link #MAX_QUEUED_JOBS} waiting jobs.
+	 */
+	public synchronized DumpJob trySubmit(IDumpSupplier dumpSupplier,
+										  IDumpJobProcessor processor) throws JacocoRuntimeController.DumpException {
+		if (queuedJobs >= MAX_QUEUED_JOBS || executor.isShutdown()) {
+			return null;
+		}
+
+		Dump dump = dumpSupplier.get();
+		DumpJob job = createJob();
+		queuedJobs++;
+		executor.execute(() -> {
+			synchronized (this) {
+				queuedJobs--;
+			}
+			try {
+				processor.process(dump, job);
+			} catch (Throwable t) {
+				// we want to catch anything in order to keep the worker alive
+				logger.error("Dump job {} failed with an exception", job.getId(), t);
+				job.fail(t.getMessage());
+			}
+		});
+		return job;
+	}
+
+	/** Returns the job with the given ID or null if it is unknown or has been forgotten already. */
+	public synchronized DumpJob getJob(long id) {
+		return jobs.get(id);
+	}
+
+	/**
+	 * Stops accepting new jobs and waits for the submitted jobs to finish, at most for the given duration.
+	 *
+	 * @return whether all jobs have been finished in time.
+	 */
+	public boolean shutdown(Duration timeout) {
+		synchronized (this) {
+			executor.shutdown();
+		}
+		try {
+			return executor.awaitTermination(timeout.toMillis(), TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	/** Dumps the coverage. */
+	@FunctionalInterface
+	public interface IDumpSupplier {
+
+		/** Returns the dumped coverage. */
+		Dump get() throws JacocoRuntimeController.DumpException;
+	}
+
+	/** Processes the dump of a job. */
+	@FunctionalInterface
+	public interface IDumpJobProcessor {
+
+		/** Processes the dump and reports the progress to the job. */
+		void process(Dump dump, DumpJob job);
+	}
+}
@@ -5,6 +5,9 @@
 +-------------------------------------------------------------------------*/
 package com.teamscale.jacoco.agent;
 
+import com.teamscale.jacoco.agent.metrics.AgentMetrics;
+import com.teamscale.jacoco.agent.metrics.Histogram;
+import com.teamscale.jacoco.agent.util.LoggingUtils;
 import com.teamscale.report.jacoco.dump.Dump;
 import org.jacoco.agent.rt.IAgent;
 import org.jacoco.agent.rt.RT;
@@ -12,6 +15,7 @@ import org.jacoco.core.data.ExecutionDataReader;
 import org.jacoco.core.data.ExecutionDataStore;
 import org.jacoco.core.data.ISessionInfoVisitor;
 import org.jacoco.core.data.SessionInfo;
+import org.slf4j.Logger;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
@@ -37,12 +41,27 @@ public class JacocoRuntimeController {
 
 	}
 
+	/** The logger. */
+	private final Logger logger = LoggingUtils.getLogger(this);
+
 	/** JaCoCo's {@link RT} agent instance */
 	private final IAgent agent;
 
+	/**
+	 * Reads the execution data directly from the agent's runtime data. <code>null</code> if this is not possible with
+	 * the agent, in which case the execution data is serialized and parsed again.
+	 */
+	private volatile RuntimeDataCollector runtimeDataCollector;
+
 	/** Constructor. */
 	public JacocoRuntimeController(IAgent agent) {
 		this.agent = agent;
+		try {
+			this.runtimeDataCollector = RuntimeDataCollector.create(agent);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			logger.debug("Cannot access the runtime data of the JaCoCo agent directly. Falling back to serializing" +
+					" the execution data on every dump", e);
+		}
 	}
 
 	/**
@@ -52,7 +71,36 @@ public class JacocoRuntimeController {
 	 *                       should simply be retried later if this ever happens.
 	 */
 	public Dump dumpAndReset() throws DumpException {
+		Dump dump;
+		try (Histogram.Timer ignored = AgentMetrics.DUMP_DURATION.startTimer()) {
+			dump = dumpAndResetUnmeasured();
+		}
+		AgentMetrics.DUMPED_CLASSES.observe(dump.store.getContents().size());
+		return dump;
+	}
+
+	private Dump dumpAndResetUnmeasured() throws DumpException {
+		RuntimeDataCollector collector = runtimeDataCollector;
+		if (collector != null) {
+			try {
+				return collector.collect(true);
+			} catch (ReflectiveOperationException | RuntimeException e) {
+				// All reflective calls that may fail happen before the first probe array is reset
+				logger.warn("Failed to read the runtime data of the JaCoCo agent directly. Falling back to" +
+						" serializing the execution data", e);
+				runtimeDataCollector = null;
+			}
+		}
+		return dumpAndResetSerialized();
+	}
+
+	/**
+	 * Dumps execution data and resets it by letting the agent serialize it to JaCoCo's binary format and parsing it
+	 * again.
+	 */
+	/* package */ Dump dumpAndResetSerialized() throws DumpException {
 		byte[] binaryData = agent.getExecutionData(true);
+		AgentMetrics.EXEC_DATA_SIZE.observe(binaryData.length);
 
 		try (ByteArrayInputStream inputStream = new ByteArrayInputStream(binaryData)) {
 			ExecutionDataReader reader = new ExecutionDataReader(inputStream);
@@ -77,7 +125,7 @@ public class JacocoRuntimeController {
 	 *                       should simply be retried later if this ever happens.
 	 */
 	public void dump() throws DumpException {
-		try {
+		try (Histogram.Timer ignored = AgentMetrics.DUMP_DURATION.startTimer()) {
 			agent.dump(true);
 		} catch (IOException e) {
 			throw new DumpException(e.getMessage(), e);
@@ -86,6 +134,17 @@ public class JacocoRuntimeController {
 
 	/** Resets already collected coverage. */
 	public void reset() {
+		RuntimeDataCollector collector = runtimeDataCollector;
+		if (collector != null) {
+			try {
+				collector.reset();
+				return;
+			} catch (ReflectiveOperationException | RuntimeException e) {
+				logger.warn("Failed to reset the runtime data of the JaCoCo agent directly. Falling back to" +
+						" resetting all classes", e);
+				runtimeDataCollector = null;
+			}
+		}
 		agent.reset();
 	}
 
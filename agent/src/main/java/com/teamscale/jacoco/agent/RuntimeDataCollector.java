@@ -0,0 +1,205 @@
+package com.teamscale.jacoco.agent;
+
+import com.teamscale.report.jacoco.dump.Dump;
+import org.jacoco.agent.rt.IAgent;
+import org.jacoco.core.data.ExecutionData;
+import org.jacoco.core.data.ExecutionDataStore;
+import org.jacoco.core.data.SessionInfo;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Collects the execution data directly from the in-memory runtime data of JaCoCo's agent instead of letting the agent
+ * serialize it to the binary exec format and parsing it again. The probe arrays are copied straight into a new {@link
+ * ExecutionDataStore}.
+ * <p>
+ * The classes of the JaCoCo agent runtime are relocated to a version specific package, so they cannot be referenced
+ * directly but have to be accessed via reflection. The agent's <code>getData()</code> method returns its
+ * <code>RuntimeData</code>, which keeps the execution data of all loaded classes in an
+ * <code>ExecutionDataStore</code>. The probe arrays in there are written directly by the instrumented code and never
+ * replaced, so this collector keeps references to them and only asks the store for the classes that were added since
+ * the last dump.
+ * <p>
+ * Most tests only execute a small part of the loaded classes. Instead of clearing the probe arrays of all classes like
+ * JaCoCo does on every reset, only the arrays with hits are copied and cleared. Finding these arrays still requires a
+ * read-only scan of the probe arrays of all loaded classes, since the instrumented code sets the probes directly
+ * without notifying anyone. Tracking which classes were executed would require changing JaCoCo's instrumentation to
+ * record the first hit of every class. So the scan scales with the number of loaded classes, while copying and
+ * clearing probes scales with the number of classes a test executed.
+ */
+/* package */ class RuntimeDataCollector {
+
+	/** The agent. */
+	private final IAgent agent;
+
+	/** The runtime data of the agent. */
+	private final Object runtimeData;
+
+	/** The ExecutionDataStore of the runtime data. Used as lock like in the runtime data. */
+	private final Object store;
+
+	/** The entries of the {@link #store} by class ID. Must only be accessed while holding the lock on the store. */
+	private final Map<?, ?> storeEntries;
+
+	/** RuntimeData#startTimeStamp */
+	private final Field startTimeStamp;
+
+	/** ExecutionData#getId() */
+	private final Method getClassId;
+
+	/** ExecutionData#getName() */
+	private final Method getClassName;
+
+	/** ExecutionData#getProbes() */
+	private final Method getProbes;
+
+	/** The execution data of all classes in the store as of the last refresh. Guarded by the {@link #store}. */
+	private ClassProbes[] classes = new ClassProbes[0];
+
+	/** The {@link #classes} by their ID. Guarded by the {@link #store}. */
+	private final Map<Object, ClassProbes> classesById = new HashMap<>();
+
+	private RuntimeDataCollector(IAgent agent, Object runtimeData) throws ReflectiveOperationException {
+		this.agent = agent;
+		this.runtimeData = runtimeData;
+		this.store = getFieldValue(findField(runtimeData.getClass(), "store"), runtimeData);
+		this.storeEntries = (Map<?, ?>) getFieldValue(findField(store.getClass(), "entries"), store);
+		this.startTimeStamp = findField(runtimeData.getClass(), "startTimeStamp");
+
+		Class<?> executionDataType = store.getClass().getMethod("get", long.class).getReturnType();
+		this.getClassId = executionDataType.getMethod("getId");
+		this.getClassName = executionDataType.getMethod("getName");
+		this.getProbes = executionDataType.getMethod("getProbes");
+	}
+
+	/** Returns the accessible field with the given name declared in the type or one of its super types. */
+	private static Field findField(Class<?> type, String name) throws NoSuchFieldException {
+		for (Class<?> current = type; current != null; current = current.getSuperclass()) {
+			try {
+				Field field = current.getDeclaredField(name);
+				field.setAccessible(true);
+				return field;
+			} catch (NoSuchFieldException e) {
+				// continue with the super class
+			}
+		}
+		throw new NoSuchFieldException(type.getName() + "#" + name);
+	}
+
+	private static Object getFieldValue(Field field, Object object) throws ReflectiveOperationException {
+		Object value = field.get(object);
+		if (value == null) {
+			throw new NoSuchFieldException(field + " is null");
+		}
+		return value;
+	}
+
+	/**
+	 * Creates a collector for the given agent.
+	 *
+	 * @throws ReflectiveOperationException if the agent does not expose its runtime data in the expected way, e.g.
+	 *                                      because the JaCoCo version changed. The serializing dump path must be used
+	 *                                      in this case.
+	 */
+	/* package */
+	static RuntimeDataCollector create(IAgent agent) throws ReflectiveOperationException {
+		Object runtimeData = agent.getClass().getMethod("getData").invoke(agent);
+		return new RuntimeDataCollector(agent, runtimeData);
+	}
+
+	/**
+	 * Copies the execution data of all classes that have been executed into a new store and optionally resets the
+	 * runtime data afterwards. Scans the probe arrays of all loaded classes to find the executed ones.
+	 */
+	/* package */ Dump collect(boolean reset) throws ReflectiveOperationException {
+		ExecutionDataStore executionDataStore = new ExecutionDataStore();
+		SessionInfo sessionInfo;
+		synchronized (store) {
+			refreshClasses();
+			long now = System.currentTimeMillis();
+			sessionInfo = new SessionInfo(agent.getSessionId(), startTimeStamp.getLong(runtimeData), now);
+			for (ClassProbes classProbes : classes) {
+				if (!hasHits(classProbes.probes)) {
+					continue;
+				}
+				executionDataStore.put(new ExecutionData(classProbes.id, classProbes.name,
+						classProbes.probes.clone()));
+				if (reset) {
+					Arrays.fill(classProbes.probes, false);
+				}
+			}
+			if (reset) {
+				startTimeStamp.setLong(runtimeData, now);
+			}
+		}
+		return new Dump(sessionInfo, executionDataStore);
+	}
+
+	/**
+	 * Resets the probes of all classes that have been executed. Scans the probe arrays of all loaded classes to find
+	 * the executed ones.
+	 */
+	/* package */ void reset() throws ReflectiveOperationException {
+		synchronized (store) {
+			refreshClasses();
+			for (ClassProbes classProbes : classes) {
+				if (hasHits(classProbes.probes)) {
+					Arrays.fill(classProbes.probes, false);
+				}
+			}
+			startTimeStamp.setLong(runtimeData, System.currentTimeMillis());
+		}
+	}
+
+	/**
+	 * Adds the classes that were added to the store since the last refresh to the {@link #classes}. Entries are never
+	 * removed from the store and their probe arrays are never replaced, so it suffices to compare the number of
+	 * entries. Only the new entries are accessed via reflection.
+	 */
+	private void refreshClasses() throws ReflectiveOperationException {
+		if (storeEntries.size() == classes.length) {
+			return;
+		}
+		for (Map.Entry<?, ?> entry : storeEntries.entrySet()) {
+			if (classesById.containsKey(entry.getKey())) {
+				continue;
+			}
+			Object executionData = entry.getValue();
+			classesById.put(entry.getKey(), new ClassProbes((Long) getClassId.invoke(executionData),
+					(String) getClassName.invoke(executionData), (boolean[]) getProbes.invoke(executionData)));
+		}
+		classes = classesById.values().toArray(new ClassProbes[0]);
+	}
+
+	private static boolean hasHits(boolean[] probes) {
+		for (boolean probe : probes) {
+			if (probe) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/** The live probe array of a class in the runtime data. */
+	private static class ClassProbes {
+
+		/** The class ID. */
+		private final long id;
+
+		/** The VM name of the class. */
+		private final String name;
+
+		/** The probe array that is written by the instrumented code. */
+		private final boolean[] probes;
+
+		private ClassProbes(long id, String name, boolean[] probes) {
+			this.id = id;
+			this.name = name;
+			this.probes = probes;
+		}
+	}
+}
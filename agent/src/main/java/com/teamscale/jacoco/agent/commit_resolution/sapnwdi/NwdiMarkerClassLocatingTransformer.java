@@ -58,20 +58,22 @@ public class NwdiMarkerClassLocatingTransformer implements ClassFileTransformer
 			return null;
 		}
 
-		if (!this.markerClassesToApplications.containsKey(className)) {
-			// only kick off search if the marker class was found.
-			return null;
-		}
-
 		try {
 			CodeSource codeSource = protectionDomain.getCodeSource();
-			if (codeSource == null) {
+			if (codeSource == null || codeSource.getLocation() == null) {
 				// unknown when this can happen, we suspect when code is generated at runtime
 				// but there's nothing else we can do here in either case
 				return null;
 			}
 
 			URL jarOrClassFolderUrl = codeSource.getLocation();
+			// remember the location of all classes so each application only receives the coverage of its own classes
+			store.registerClass(className, jarOrClassFolderUrl);
+
+			if (!this.markerClassesToApplications.containsKey(className)) {
+				// only kick off search if the marker class was found.
+				return null;
+			}
 			logger.debug("Found " + className + " in " + jarOrClassFolderUrl);
 
 			if (jarOrClassFolderUrl.getProtocol().toLowerCase().equals("file")) {
@@ -80,7 +82,7 @@ public class NwdiMarkerClassLocatingTransformer implements ClassFileTransformer
 				SapNwdiApplications.SapNwdiApplication application = markerClassesToApplications.get(className);
 				CommitDescriptor commitDescriptor = new CommitDescriptor(
 						DTR_BRIDGE_DEFAULT_BRANCH, attr.lastModifiedTime().toMillis());
-				store.setCommitForApplication(commitDescriptor, application);
+				store.setCommitForApplication(commitDescriptor, application, jarOrClassFolderUrl);
 			}
 		} catch (Throwable e) {
 			// we catch Throwable to be sure that we log all errors as anything thrown from this method is
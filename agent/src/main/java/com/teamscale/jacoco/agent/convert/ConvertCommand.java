@@ -32,9 +32,10 @@ import java.util.stream.Collectors;
 public class ConvertCommand implements ICommand {
 
 	/** The directories and/or zips that contain all class files being profiled. */
-	@Parameter(names = {"--class-dir", "--jar", "-c"}, required = true, description = ""
+	@Parameter(names = {"--class-dir", "--jar", "-c"}, description = ""
 			+ "The directories or zip/ear/jar/war/... files that contain the compiled Java classes being profiled."
-			+ " Searches recursively, including inside zips. You may also supply a *.txt file with one path per line.")
+			+ " Searches recursively, including inside zips. You may also supply a *.txt file with one path per line."
+			+ " Required unless --convert-exec-file is given.")
 	/* package */ List<String> classDirectoriesOrZips = new ArrayList<>();
 
 	/**
@@ -82,11 +83,36 @@ public class ConvertCommand implements ICommand {
 			+ " These classes will not be part of the XML report at all, making it considerably smaller in some cases. Defaults to false.")
 	/* package */ boolean shouldIgnoreUncoveredClasses = false;
 
+	/** The number of threads used to analyze the class files. */
+	@Parameter(names = {"--analysis-threads"}, required = false, arity = 1, description = ""
+			+ "The number of threads used to analyze the class files. Defaults to the number of available processors.")
+	/* package */ int analysisThreads = Runtime.getRuntime().availableProcessors();
+
+	/** The number of threads used to convert the sessions of the execution data files to testwise coverage. */
+	@Parameter(names = {"--conversion-threads"}, required = false, arity = 1, description = ""
+			+ "The number of threads used to convert the sessions of the execution data files to testwise coverage."
+			+ " Defaults to the number of available processors.")
+	/* package */ int conversionThreads = Runtime.getRuntime().availableProcessors();
+
+	/** The file in which the analyzed class files are persisted for later conversions. */
+	@Parameter(names = {"--probes-cache"}, required = false, arity = 1, description = ""
+			+ "The file in which the analyzed class files are persisted when generating testwise coverage."
+			+ " Later conversions only analyze class files that are not contained in the file yet."
+			+ " By default, all class files are analyzed.")
+	/* package */ String probesCacheFile = null;
+
 	/** Whether testwise coverage or jacoco coverage should be generated. */
 	@Parameter(names = {"--testwise-coverage", "-t"}, required = false, arity = 0, description = "Whether testwise " +
 			"coverage or jacoco coverage should be generated.")
 	/* package */ boolean shouldGenerateTestwiseCoverage = false;
 
+	/** Whether the input file should be converted between the plain and the indexed exec file format. */
+	@Parameter(names = {"--convert-exec-file"}, required = false, arity = 0, description = "Whether to convert a"
+			+ " single input file between the binary .exec format and the indexed .iexec format instead of generating"
+			+ " a report. An .exec file is converted to an .iexec file and an .iexec file back to an .exec file."
+			+ " No class files are needed for this.")
+	/* package */ boolean shouldConvertExecFile = false;
+
 	/** After how many tests testwise coverage should be split into multiple reports. */
 	@Parameter(names = {"--split-after", "-s"}, required = false, arity = 1, description = "After how many tests " +
 			"testwise coverage should be split into multiple reports (Default is 5000).")
@@ -124,6 +150,24 @@ public class ConvertCommand implements ICommand {
 		return splitAfter;
 	}
 
+	/** @see #analysisThreads */
+	public int getAnalysisThreads() {
+		return analysisThreads;
+	}
+
+	/** @see #conversionThreads */
+	public int getConversionThreads() {
+		return conversionThreads;
+	}
+
+	/** @see #probesCacheFile */
+	public File getProbesCacheFile() {
+		if (probesCacheFile == null) {
+			return null;
+		}
+		return new File(probesCacheFile);
+	}
+
 	/** @see #duplicateClassFileBehavior */
 	public EDuplicateClassFileBehavior getDuplicateClassFileBehavior() {
 		return duplicateClassFileBehavior;
@@ -134,6 +178,11 @@ public class ConvertCommand implements ICommand {
 	public Validator validate() {
 		Validator validator = new Validator();
 
+		if (shouldConvertExecFile) {
+			validateExecFileConversion(validator);
+			return validator;
+		}
+
 		List<File> classDirectoriesOrZips = new ArrayList<>();
 		validator.ensure(() -> classDirectoriesOrZips.addAll(getClassDirectoriesOrZips()));
 		validator.isFalse(classDirectoriesOrZips.isEmpty(),
@@ -148,21 +197,40 @@ public class ConvertCommand implements ICommand {
 					"Cannot read the input file " + inputFile);
 		}
 
+		validator.isTrue(analysisThreads >= 1, "The number of analysis threads must be at least 1");
+		validator.isTrue(conversionThreads >= 1, "The number of conversion threads must be at least 1");
+
+		validateOutputFile(validator);
+
+		return validator;
+	}
+
+	/** Makes sure the arguments are valid for converting a single exec file. */
+	private void validateExecFileConversion(Validator validator) {
+		List<File> inputFiles = getInputFiles();
+		validator.isTrue(inputFiles.size() == 1, "You must specify exactly one input file to convert");
+		for (File inputFile : inputFiles) {
+			validator.isTrue(inputFile.isFile() && inputFile.canRead(), "Cannot read the input file " + inputFile);
+		}
+		validateOutputFile(validator);
+	}
+
+	private void validateOutputFile(Validator validator) {
 		validator.ensure(() -> {
 			CCSMAssert.isFalse(StringUtils.isEmpty(outputFile), "You must specify an output file");
 			File outputDir = getOutputFile().getAbsoluteFile().getParentFile();
 			FileSystemUtils.ensureDirectoryExists(outputDir);
 			CCSMAssert.isTrue(outputDir.canWrite(), "Path '" + outputDir + "' is not writable");
 		});
-
-		return validator;
 	}
 
 	/** {@inheritDoc} */
 	@Override
 	public void run() throws Exception {
 		Converter converter = new Converter(this);
-		if (this.shouldGenerateTestwiseCoverage) {
+		if (this.shouldConvertExecFile) {
+			converter.runExecFileConversion();
+		} else if (this.shouldGenerateTestwiseCoverage) {
 			converter.runTestwiseCoverageReportGeneration();
 		} else {
 			converter.runJaCoCoReportGeneration();
@@ -8,6 +8,7 @@ import com.teamscale.report.ReportUtils;
 import com.teamscale.report.jacoco.EmptyReportException;
 import com.teamscale.report.jacoco.JaCoCoXmlReportGenerator;
 import com.teamscale.report.jacoco.dump.Dump;
+import com.teamscale.report.jacoco.dump.IndexedExecFile;
 import com.teamscale.report.testwise.ETestArtifactFormat;
 import com.teamscale.report.testwise.TestwiseCoverageReportWriter;
 import com.teamscale.report.testwise.jacoco.JaCoCoTestwiseReportGenerator;
@@ -57,7 +58,7 @@ public class Converter {
 		Logger logger = LoggingUtils.getLogger(this);
 		JaCoCoXmlReportGenerator generator = new JaCoCoXmlReportGenerator(arguments.getClassDirectoriesOrZips(),
 				getWildcardIncludeExcludeFilter(), arguments.getDuplicateClassFileBehavior(), arguments.shouldIgnoreUncoveredClasses,
-				wrap(logger));
+				false, arguments.getAnalysisThreads(), wrap(logger));
 
 		try (Benchmark benchmark = new Benchmark("Generating the XML report")) {
 			generator.convert(new Dump(sessionInfo, executionDataStore), Paths.get(arguments.outputFile));
@@ -75,12 +76,16 @@ public class Converter {
 
 		List<File> jacocoExecutionDataList = ReportUtils
 				.listFiles(ETestArtifactFormat.JACOCO, arguments.getInputFiles());
+		jacocoExecutionDataList.addAll(ReportUtils
+				.listFiles(ETestArtifactFormat.JACOCO_INDEXED, arguments.getInputFiles()));
 		ILogger logger = new CommandLineLogger();
 
 		JaCoCoTestwiseReportGenerator generator = new JaCoCoTestwiseReportGenerator(
 				arguments.getClassDirectoriesOrZips(),
 				getWildcardIncludeExcludeFilter(),
 				arguments.getDuplicateClassFileBehavior(),
+				arguments.getAnalysisThreads(),
+				arguments.getProbesCacheFile(),
 				logger
 		);
 
@@ -93,12 +98,30 @@ public class Converter {
 			try (TestwiseCoverageReportWriter coverageWriter = new TestwiseCoverageReportWriter(testInfoFactory,
 					arguments.getOutputFile(), arguments.getSplitAfter())) {
 				for (File executionDataFile : jacocoExecutionDataList) {
-					generator.convertAndConsume(executionDataFile, coverageWriter);
+					generator.convertAndConsume(executionDataFile, coverageWriter, arguments.getConversionThreads());
 				}
 			}
 		}
 	}
 
+	/**
+	 * Converts a binary .exec file to an indexed .iexec file or an indexed .iexec file back to a binary .exec file,
+	 * depending on the format of the input file.
+	 */
+	public void runExecFileConversion() throws IOException {
+		File inputFile = arguments.getInputFiles().get(0);
+		File outputFile = arguments.getOutputFile();
+		try (Benchmark benchmark = new Benchmark("Converting the exec file")) {
+			if (IndexedExecFile.isIndexedExecFile(inputFile)) {
+				try (IndexedExecFile indexedExecFile = IndexedExecFile.open(inputFile)) {
+					indexedExecFile.writeExecFile(outputFile);
+				}
+			} else {
+				IndexedExecFile.convertExecFile(inputFile, outputFile);
+			}
+		}
+	}
+
 	private ClasspathWildcardIncludeFilter getWildcardIncludeExcludeFilter() {
 		return new ClasspathWildcardIncludeFilter(
 				String.join(":", arguments.getLocationIncludeFilters()),
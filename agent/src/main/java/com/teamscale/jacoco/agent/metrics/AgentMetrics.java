@@ -0,0 +1,86 @@
+package com.teamscale.jacoco.agent.metrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.DoubleSupplier;
+
+/**
+ * The metrics about the agent's own overhead. They are exposed in the Prometheus text format via the agent's HTTP
+ * server, so the agent can be monitored like the profiled application. The metrics are global, since there is only one
+ * agent per JVM.
+ */
+public class AgentMetrics {
+
+	/** The prefix of all metric names. */
+	private static final String PREFIX = "teamscale_jacoco_agent_";
+
+	/** All registered metrics by their name. */
+	private static final Map<String, MetricBase> METRICS = new ConcurrentSkipListMap<>();
+
+	/** Time needed to dump the execution data from the JaCoCo runtime. */
+	public static final Histogram DUMP_DURATION = register(new Histogram(PREFIX + "dump_duration_seconds",
+			"Time needed to dump the execution data from the JaCoCo runtime.", Histogram.DURATION_BUCKETS));
+
+	/** Time needed to convert a dump to an XML report. */
+	public static final Histogram CONVERSION_DURATION = register(new Histogram(
+			PREFIX + "conversion_duration_seconds", "Time needed to convert a dump to an XML report.",
+			Histogram.DURATION_BUCKETS));
+
+	/** Time needed to upload a report. */
+	public static final Histogram UPLOAD_DURATION = register(new Histogram(PREFIX + "upload_duration_seconds",
+			"Time needed to upload a report including failed attempts.", Histogram.DURATION_BUCKETS));
+
+	/** Time needed to handle the end of a test in testwise mode. */
+	public static final Histogram TEST_END_DURATION = register(new Histogram(PREFIX + "test_end_duration_seconds",
+			"Time needed to handle the end of a test in testwise coverage mode.", Histogram.DURATION_BUCKETS));
+
+	/** Size of the written XML reports. */
+	public static final Histogram XML_REPORT_SIZE = register(new Histogram(PREFIX + "xml_report_size_bytes",
+			"Size of the written XML reports.", Histogram.SIZE_BUCKETS));
+
+	/**
+	 * Size of the execution data in JaCoCo's binary exec format. Only recorded if the execution data cannot be read
+	 * directly from the JaCoCo runtime.
+	 */
+	public static final Histogram EXEC_DATA_SIZE = register(new Histogram(PREFIX + "exec_data_size_bytes",
+			"Size of execution data that was serialized to JaCoCo's exec format.", Histogram.SIZE_BUCKETS));
+
+	/** Number of executed classes per dump. */
+	public static final Histogram DUMPED_CLASSES = register(new Histogram(PREFIX + "dumped_classes",
+			"Number of executed classes contained in a dump.", Histogram.COUNT_BUCKETS));
+
+	/** Number of failed upload attempts. */
+	public static final Counter UPLOAD_FAILURES = register(new Counter(PREFIX + "upload_failures_total",
+			"Number of failed upload attempts including retries."));
+
+	private AgentMetrics() {
+		// only static members
+	}
+
+	private static <T extends MetricBase> T register(T metric) {
+		METRICS.put(metric.getName(), metric);
+		return metric;
+	}
+
+	/**
+	 * Registers a gauge whose value is determined by the given supplier whenever the metrics are scraped. Replaces a
+	 * previously registered gauge with the same name.
+	 */
+	public static void registerGauge(String name, String help, DoubleSupplier valueSupplier) {
+		register(new Gauge(PREFIX + name, help, valueSupplier));
+	}
+
+	/** Removes the gauge with the given name registered via {@link #registerGauge(String, String, DoubleSupplier)}. */
+	/* package */ static void unregisterGauge(String name) {
+		METRICS.remove(PREFIX + name);
+	}
+
+	/** Returns all metrics in the Prometheus text exposition format. */
+	public static String toPrometheusText() {
+		StringBuilder builder = new StringBuilder();
+		for (MetricBase metric : METRICS.values()) {
+			metric.writeTo(builder);
+		}
+		return builder.toString();
+	}
+}
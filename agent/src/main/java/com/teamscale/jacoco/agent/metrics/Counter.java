@@ -0,0 +1,35 @@
+package com.teamscale.jacoco.agent.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/** A Prometheus counter, i.e. a value that only increases. */
+public class Counter extends MetricBase {
+
+	/** The current value. */
+	private final AtomicLong value = new AtomicLong();
+
+	/** Constructor. */
+	/* package */ Counter(String name, String help) {
+		super(name, help);
+	}
+
+	/** Increments the counter by one. */
+	public void increment() {
+		value.incrementAndGet();
+	}
+
+	/** Returns the current value. */
+	public long get() {
+		return value.get();
+	}
+
+	@Override
+	protected String getType() {
+		return "counter";
+	}
+
+	@Override
+	protected void writeSamples(StringBuilder builder) {
+		writeSample(builder, "", value.get());
+	}
+}
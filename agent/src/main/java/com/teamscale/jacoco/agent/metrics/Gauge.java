@@ -0,0 +1,26 @@
+package com.teamscale.jacoco.agent.metrics;
+
+import java.util.function.DoubleSupplier;
+
+/** A Prometheus gauge whose value is determined whenever the metrics are scraped. */
+public class Gauge extends MetricBase {
+
+	/** Determines the current value. */
+	private final DoubleSupplier valueSupplier;
+
+	/** Constructor. */
+	/* package */ Gauge(String name, String help, DoubleSupplier valueSupplier) {
+		super(name, help);
+		this.valueSupplier = valueSupplier;
+	}
+
+	@Override
+	protected String getType() {
+		return "gauge";
+	}
+
+	@Override
+	protected void writeSamples(StringBuilder builder) {
+		writeSample(builder, "", valueSupplier.getAsDouble());
+	}
+}
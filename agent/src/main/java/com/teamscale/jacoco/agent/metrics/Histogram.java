@@ -0,0 +1,93 @@
+package com.teamscale.jacoco.agent.metrics;
+
+import java.util.Arrays;
+
+/** A Prometheus histogram, i.e. counts of observed values in cumulative buckets plus their sum. */
+public class Histogram extends MetricBase {
+
+	/** Bucket bounds for durations in seconds, from 1 ms to 10 minutes. */
+	/* package */ static final double[] DURATION_BUCKETS = {0.001, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5,
+			5, 10, 30, 60, 120, 300, 600};
+
+	/** Bucket bounds for sizes in bytes, from 1 KB to 1 GB. */
+	/* package */ static final double[] SIZE_BUCKETS = {1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9};
+
+	/** Bucket bounds for numbers of items, from 10 to 1 million. */
+	/* package */ static final double[] COUNT_BUCKETS = {10, 100, 1e3, 1e4, 1e5, 1e6};
+
+	/** The upper bounds of the buckets in ascending order. */
+	private final double[] upperBounds;
+
+	/** The number of observations per bucket. Not cumulative, the last one counts all values above all bounds. */
+	private final long[] bucketCounts;
+
+	/** The sum of all observed values. */
+	private double sum = 0;
+
+	/** Constructor. */
+	/* package */ Histogram(String name, String help, double[] upperBounds) {
+		super(name, help);
+		this.upperBounds = upperBounds;
+		this.bucketCounts = new long[upperBounds.length + 1];
+	}
+
+	/** Adds the given value. */
+	public synchronized void observe(double value) {
+		int bucket = Arrays.binarySearch(upperBounds, value);
+		if (bucket < 0) {
+			bucket = -bucket - 1;
+		}
+		bucketCounts[bucket]++;
+		sum += value;
+	}
+
+	/** Adds the time between the given start time from {@link System#nanoTime()} and now in seconds. */
+	public void observeSecondsSince(long startNanos) {
+		observe((System.nanoTime() - startNanos) / 1e9);
+	}
+
+	/**
+	 * Starts measuring a duration that is added in seconds once the returned object is closed. Use this in a
+	 * try-with-resources.
+	 */
+	public Timer startTimer() {
+		return new Timer(this);
+	}
+
+	@Override
+	protected String getType() {
+		return "histogram";
+	}
+
+	@Override
+	protected synchronized void writeSamples(StringBuilder builder) {
+		long cumulativeCount = 0;
+		for (int i = 0; i < upperBounds.length; i++) {
+			cumulativeCount += bucketCounts[i];
+			writeSample(builder, "_bucket{le=\"" + formatValue(upperBounds[i]) + "\"}", cumulativeCount);
+		}
+		cumulativeCount += bucketCounts[upperBounds.length];
+		writeSample(builder, "_bucket{le=\"+Inf\"}", cumulativeCount);
+		writeSample(builder, "_sum", sum);
+		writeSample(builder, "_count", cumulativeCount);
+	}
+
+	/** Measures a duration for a {@link Histogram}. */
+	public static class Timer implements AutoCloseable {
+
+		/** The histogram to add the duration to. */
+		private final Histogram histogram;
+
+		/** The start of the measurement. */
+		private final long startNanos = System.nanoTime();
+
+		private Timer(Histogram histogram) {
+			this.histogram = histogram;
+		}
+
+		@Override
+		public void close() {
+			histogram.observeSecondsSince(startNanos);
+		}
+	}
+}
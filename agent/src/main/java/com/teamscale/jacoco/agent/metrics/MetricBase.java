@@ -0,0 +1,48 @@
+package com.teamscale.jacoco.agent.metrics;
+
+/** Base class for metrics that can be written in the Prometheus text exposition format. */
+public abstract class MetricBase {
+
+	/** The name of the metric. */
+	private final String name;
+
+	/** A description of the metric. */
+	private final String help;
+
+	/** Constructor. */
+	protected MetricBase(String name, String help) {
+		this.name = name;
+		this.help = help;
+	}
+
+	/** @see #name */
+	public String getName() {
+		return name;
+	}
+
+	/** Returns the Prometheus type of the metric. */
+	protected abstract String getType();
+
+	/** Writes the samples of the metric. */
+	protected abstract void writeSamples(StringBuilder builder);
+
+	/** Writes the metric including its help and type comments. */
+	/* package */ void writeTo(StringBuilder builder) {
+		builder.append("# HELP ").append(name).append(' ').append(help).append('\n');
+		builder.append("# TYPE ").append(name).append(' ').append(getType()).append('\n');
+		writeSamples(builder);
+	}
+
+	/** Writes a single sample whose name is the metric name followed by the given suffix. */
+	protected void writeSample(StringBuilder builder, String suffix, double value) {
+		builder.append(name).append(suffix).append(' ').append(formatValue(value)).append('\n');
+	}
+
+	/** Formats the value without a fractional part if it is an integer. */
+	protected static String formatValue(double value) {
+		if (value == Math.rint(value) && !Double.isInfinite(value) && Math.abs(value) < 1e15) {
+			return String.valueOf((long) value);
+		}
+		return String.valueOf(value);
+	}
+}
@@ -12,6 +12,7 @@ import com.teamscale.jacoco.agent.commandline.Validator;
 import com.teamscale.jacoco.agent.commit_resolution.git_properties.GitPropertiesLocatingTransformer;
 import com.teamscale.jacoco.agent.commit_resolution.git_properties.GitPropertiesLocator;
 import com.teamscale.jacoco.agent.commit_resolution.sapnwdi.NwdiMarkerClassLocatingTransformer;
+import com.teamscale.jacoco.agent.metrics.AgentMetrics;
 import com.teamscale.jacoco.agent.options.sapnwdi.DelayedSapNwdiMultiUploader;
 import com.teamscale.jacoco.agent.options.sapnwdi.SapNwdiApplications;
 import com.teamscale.jacoco.agent.upload.IUploader;
@@ -22,6 +23,7 @@ import com.teamscale.jacoco.agent.upload.azure.AzureFileStorageConfig;
 import com.teamscale.jacoco.agent.upload.azure.AzureFileStorageUploader;
 import com.teamscale.jacoco.agent.upload.delay.DelayedUploader;
 import com.teamscale.jacoco.agent.upload.http.HttpUploader;
+import com.teamscale.jacoco.agent.upload.spool.UploadSpool;
 import com.teamscale.jacoco.agent.upload.teamscale.TeamscaleUploader;
 import com.teamscale.jacoco.agent.util.AgentUtils;
 import com.teamscale.jacoco.agent.util.LoggingUtils;
@@ -37,6 +39,7 @@ import java.io.File;
 import java.lang.instrument.Instrumentation;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
@@ -111,9 +114,27 @@ public class AgentOptions {
 	/* package */ EMode mode = EMode.NORMAL;
 
 	/**
-	 * The interval in minutes for dumping XML data.
+	 * The interval for dumping XML data. With an adaptive interval, this is the interval until the first dump.
 	 */
-	/* package */ int dumpIntervalInMinutes = 480;
+	/* package */ Duration dumpInterval = Duration.ofMinutes(480);
+
+	/**
+	 * The lower bound of the adaptive dump interval or null if the interval should not be shortened below {@link
+	 * #dumpInterval}.
+	 */
+	/* package */ Duration minDumpInterval = null;
+
+	/**
+	 * The upper bound of the adaptive dump interval or null if the interval should not be stretched beyond {@link
+	 * #dumpInterval}.
+	 */
+	/* package */ Duration maxDumpInterval = null;
+
+	/**
+	 * The interval for uploading the coverage aggregated from all interval dumps since the last upload. Zero if every
+	 * interval dump should be uploaded on its own.
+	 */
+	/* package */ Duration uploadInterval = Duration.ZERO;
 
 	/** Whether to dump coverage when the JVM shuts down. */
 	/* package */ boolean shouldDumpOnExit = true;
@@ -125,6 +146,12 @@ public class AgentOptions {
 	 */
 	/* package */ boolean validateSsl = false;
 
+	/** The maximum number of idle connections kept open by the HTTP connection pool shared by all uploaders. */
+	/* package */ int httpMaxIdleConnections = 5;
+
+	/** How long the HTTP connection pool keeps idle connections open for reuse by subsequent uploads. */
+	/* package */ Duration httpKeepAlive = Duration.ofMinutes(5);
+
 	/**
 	 * Whether to ignore duplicate, non-identical class files.
 	 */
@@ -167,11 +194,65 @@ public class AgentOptions {
 	 */
 	/* package */ ETestwiseCoverageMode testwiseCoverageMode = ETestwiseCoverageMode.EXEC_FILE;
 
+	/**
+	 * The number of threads that convert the coverage of finished tests in the background in the teamscale-upload
+	 * testwise coverage mode. 0 converts the coverage while handling the end of the test.
+	 */
+	/* package */ int tiaConversionThreads = 1;
+
+	/**
+	 * Whether tests may run concurrently in testwise coverage mode. If true, the coverage recorded while multiple tests
+	 * are running is attributed to all of them.
+	 */
+	/* package */ boolean tiaConcurrentTests = false;
+
+	/**
+	 * The file in which the analyzed class files are persisted in testwise coverage mode, so unchanged class files are
+	 * not analyzed again by later runs. Null if the class files are always analyzed.
+	 */
+	/* package */ File tiaProbesCacheFile = null;
+
+	/**
+	 * Whether the sessions of the tests are written to an indexed exec file instead of a plain exec file in the exec-file
+	 * testwise coverage mode.
+	 */
+	/* package */ boolean tiaIndexedExecFile = false;
+
 	/**
 	 * Whether classes without coverage should be skipped from the XML report.
 	 */
 	/* package */ boolean ignoreUncoveredClasses = false;
 
+	/**
+	 * Whether the structure of the analyzed class files should be kept in memory between dumps.
+	 */
+	/* package */ boolean cacheClassStructure = false;
+
+	/**
+	 * The number of threads used to analyze the class files when converting coverage.
+	 */
+	/* package */ int analysisThreads = 1;
+
+	/**
+	 * Whether interval dumps should only report classes with newly covered probes and be skipped if there are none.
+	 */
+	/* package */ boolean dumpDeltas = false;
+
+	/**
+	 * Whether the execution data of dumps should be cached instead of their XML reports while the commit to upload to
+	 * is searched in git.properties files.
+	 */
+	/* package */ boolean cacheExecutionDataUntilCommitFound = false;
+
+	/**
+	 * The maximum total size in MiB of the coverage files whose upload failed and is retried in the background. 0
+	 * disables retries. Disabled by default, since the oldest coverage is discarded once the limit is reached.
+	 */
+	/* package */ int uploadSpoolSizeInMb = 0;
+
+	/** Retries failed uploads. Created lazily, since the output directory is not known until all options are parsed. */
+	private UploadSpool uploadSpool;
+
 	/**
 	 * The configuration necessary to upload files to an azure file storage
 	 */
@@ -259,6 +340,31 @@ public class AgentOptions {
 				"You provided an SAP NWDI applications config and a teamscale-project. This is not allowed. " +
 						"The project must be specified via sap-nwdi-applications!");
 
+		validator.isFalse(cacheExecutionDataUntilCommitFound && (useTestwiseCoverageMode() || !usesDelayedUploader()),
+				"You use 'cache-exec-until-commit-found', but the commit is not auto-detected from a git.properties" +
+						" file. This is only the case for uploads to Teamscale or Artifactory without a configured" +
+						" commit or revision.");
+
+		validator.isTrue(analysisThreads >= 1, "'analysis-threads' must be at least 1");
+
+		validator.isTrue(uploadSpoolSizeInMb >= 0, "'upload-spool-size' must not be negative");
+
+		validator.isTrue(httpMaxIdleConnections >= 0, "'http-max-idle-connections' must not be negative");
+		validator.isFalse(httpKeepAlive.isZero() || httpKeepAlive.isNegative(), "'http-keep-alive' must be positive");
+
+		validator.isTrue(!shouldDumpInIntervals() || getMinDumpInterval().getSeconds() >= 1,
+				"The dump interval must be at least 1 second");
+		validator.isTrue(getMinDumpInterval().compareTo(dumpInterval) <= 0,
+				"'min-interval' must not be greater than 'interval'");
+		validator.isTrue(getMaxDumpInterval().compareTo(dumpInterval) >= 0,
+				"'max-interval' must not be less than 'interval'");
+		validator.isFalse(!shouldDumpInIntervals() && (minDumpInterval != null || maxDumpInterval != null),
+				"You use 'min-interval' or 'max-interval' but disabled interval dumps with 'interval=0'");
+		validator.isFalse(shouldAggregateCoverage() && !shouldDumpInIntervals(),
+				"You use 'upload-interval' but disabled interval dumps with 'interval=0'");
+		validator.isFalse(shouldAggregateCoverage() && uploadInterval.compareTo(dumpInterval) < 0,
+				"'upload-interval' must not be less than 'interval'");
+
 		appendTestwiseCoverageValidations(validator);
 
 		return validator;
@@ -283,6 +389,14 @@ public class AgentOptions {
 
 		validator.isFalse(!useTestwiseCoverageMode() && testEnvironmentVariable != null,
 				"You use 'test-env' but did not set 'mode' to 'TESTWISE'!");
+
+		validator.isTrue(tiaConversionThreads >= 0, "'tia-conversion-threads' must not be negative");
+
+		validator.isFalse(tiaIndexedExecFile && testwiseCoverageMode != ETestwiseCoverageMode.EXEC_FILE,
+				"'tia-indexed-exec' is only supported with 'tia-mode=exec-file'!");
+
+		validator.isFalse(tiaConcurrentTests && testwiseCoverageMode == ETestwiseCoverageMode.EXEC_FILE,
+				"'tia-concurrent-tests' is only supported with 'tia-mode=teamscale-upload' or 'tia-mode=http'!");
 	}
 
 
@@ -303,7 +417,7 @@ public class AgentOptions {
 	 */
 	public IUploader createUploader(Instrumentation instrumentation) throws UploaderException {
 		if (uploadUrl != null) {
-			return new HttpUploader(uploadUrl, additionalMetaDataFiles);
+			return new HttpUploader(uploadUrl, additionalMetaDataFiles, getUploadSpool());
 		}
 		if (teamscaleServer.hasAllRequiredFieldsSet()) {
 			if (!teamscaleServer.hasCommitOrRevision()) {
@@ -311,7 +425,7 @@ public class AgentOptions {
 						" auto-detect it by searching all profiled Jar/War/Ear/... files for a git.properties file.");
 				return createDelayedTeamscaleUploader(instrumentation);
 			}
-			return new TeamscaleUploader(teamscaleServer);
+			return new TeamscaleUploader(teamscaleServer, getUploadSpool());
 		}
 
 		if (artifactoryConfig.hasAllRequiredFieldsSet()) {
@@ -321,12 +435,12 @@ public class AgentOptions {
 				return createDelayedArtifactoryUploader(instrumentation);
 			}
 			return new ArtifactoryUploader(artifactoryConfig,
-					additionalMetaDataFiles);
+					additionalMetaDataFiles, getUploadSpool());
 		}
 
 		if (azureFileStorageConfig.hasAllRequiredFieldsSet()) {
 			return new AzureFileStorageUploader(azureFileStorageConfig,
-					additionalMetaDataFiles);
+					additionalMetaDataFiles, getUploadSpool());
 		}
 
 		if (sapNetWeaverJavaApplications != null && sapNetWeaverJavaApplications
@@ -339,11 +453,25 @@ public class AgentOptions {
 		return new LocalDiskUploader();
 	}
 
+	/**
+	 * Returns whether {@link #createUploader(Instrumentation)} creates a {@link DelayedUploader} that waits for the
+	 * commit to be found in a git.properties file.
+	 */
+	private boolean usesDelayedUploader() {
+		if (uploadUrl != null) {
+			return false;
+		}
+		if (teamscaleServer.hasAllRequiredFieldsSet()) {
+			return !teamscaleServer.hasCommitOrRevision();
+		}
+		return artifactoryConfig.hasAllRequiredFieldsSet() && !artifactoryConfig.hasCommitInfo();
+	}
+
 	private IUploader createDelayedTeamscaleUploader(Instrumentation instrumentation) {
 		DelayedUploader<String> uploader = new DelayedUploader<>(
 				revision -> {
 					teamscaleServer.revision = revision;
-					return new TeamscaleUploader(teamscaleServer);
+					return new TeamscaleUploader(teamscaleServer, getUploadSpool());
 				}, outputDirectory);
 		GitPropertiesLocator<?> locator = new GitPropertiesLocator<>(uploader,
 				GitPropertiesLocator::getRevisionFromGitProperties);
@@ -355,7 +483,7 @@ public class AgentOptions {
 		DelayedUploader<ArtifactoryConfig.CommitInfo> uploader = new DelayedUploader<>(
 				commitInfo -> {
 					artifactoryConfig.commitInfo = commitInfo;
-					return new ArtifactoryUploader(artifactoryConfig, additionalMetaDataFiles);
+					return new ArtifactoryUploader(artifactoryConfig, additionalMetaDataFiles, getUploadSpool());
 				}, outputDirectory);
 		GitPropertiesLocator<ArtifactoryConfig.CommitInfo> locator = new GitPropertiesLocator<>(uploader,
 				jar -> ArtifactoryConfig.parseGitProperties(
@@ -367,12 +495,27 @@ public class AgentOptions {
 	private IUploader createNwdiTeamscaleUploader(Instrumentation instrumentation) {
 		DelayedSapNwdiMultiUploader uploader = new DelayedSapNwdiMultiUploader(
 				(commit, application) -> new TeamscaleUploader(
-						teamscaleServer.withProjectAndCommit(application.getTeamscaleProject(), commit)));
+						teamscaleServer.withProjectAndCommit(application.getTeamscaleProject(), commit),
+						getUploadSpool()));
 		instrumentation.addTransformer(new NwdiMarkerClassLocatingTransformer(uploader, getLocationIncludeFilter(),
 				sapNetWeaverJavaApplications.getApplications()));
 		return uploader;
 	}
 
+	/**
+	 * Returns the spool shared by all uploaders to retry failed uploads or null if retries are disabled.
+	 */
+	private synchronized UploadSpool getUploadSpool() {
+		if (uploadSpool == null && uploadSpoolSizeInMb > 0) {
+			// Not in the output directory, which is new for every run, so spooled files survive restarts
+			uploadSpool = new UploadSpool(outputDirectory.getParent().resolve("upload-spool"),
+					uploadSpoolSizeInMb * 1024L * 1024L);
+			AgentMetrics.registerGauge("upload_spool_files", "Number of failed uploads waiting to be retried.",
+					uploadSpool::size);
+		}
+		return uploadSpool;
+	}
+
 	/**
 	 * @see #classDirectoriesOrZips
 	 */
@@ -401,10 +544,47 @@ public class AgentOptions {
 	}
 
 	/**
-	 * @see #dumpIntervalInMinutes
+	 * @see #dumpInterval
 	 */
-	public int getDumpIntervalInMinutes() {
-		return dumpIntervalInMinutes;
+	public Duration getDumpInterval() {
+		return dumpInterval;
+	}
+
+	/**
+	 * @see #minDumpInterval
+	 */
+	public Duration getMinDumpInterval() {
+		if (minDumpInterval == null) {
+			return dumpInterval;
+		}
+		return minDumpInterval;
+	}
+
+	/**
+	 * @see #maxDumpInterval
+	 */
+	public Duration getMaxDumpInterval() {
+		if (maxDumpInterval == null) {
+			return dumpInterval;
+		}
+		return maxDumpInterval;
+	}
+
+	/**
+	 * @see #uploadInterval
+	 */
+	public Duration getUploadInterval() {
+		return uploadInterval;
+	}
+
+	/** Whether the coverage of interval dumps should be aggregated and uploaded in the {@link #uploadInterval}. */
+	public boolean shouldAggregateCoverage() {
+		return !uploadInterval.isZero();
+	}
+
+	/** Whether the dump interval should adapt to how much new coverage is collected. */
+	public boolean shouldAdaptDumpInterval() {
+		return shouldDumpInIntervals() && getMinDumpInterval().compareTo(getMaxDumpInterval()) < 0;
 	}
 
 	/**
@@ -447,6 +627,16 @@ public class AgentOptions {
 		return validateSsl;
 	}
 
+	/** @see #httpMaxIdleConnections */
+	public int getHttpMaxIdleConnections() {
+		return httpMaxIdleConnections;
+	}
+
+	/** @see #httpKeepAlive */
+	public Duration getHttpKeepAlive() {
+		return httpKeepAlive;
+	}
+
 	/**
 	 * @see #jacocoIncludes
 	 * @see #jacocoExcludes
@@ -457,7 +647,7 @@ public class AgentOptions {
 
 	/** Whether coverage should be dumped in regular intervals. */
 	public boolean shouldDumpInIntervals() {
-		return dumpIntervalInMinutes > 0;
+		return !dumpInterval.isZero();
 	}
 
 	/** Whether coverage should be dumped on JVM shutdown. */
@@ -470,8 +660,48 @@ public class AgentOptions {
 		return testwiseCoverageMode;
 	}
 
+	/** @see #tiaConversionThreads */
+	public int getTiaConversionThreads() {
+		return tiaConversionThreads;
+	}
+
+	/** @see #tiaConcurrentTests */
+	public boolean shouldAllowConcurrentTests() {
+		return tiaConcurrentTests;
+	}
+
+	/** @see #tiaIndexedExecFile */
+	public boolean shouldWriteIndexedExecFile() {
+		return tiaIndexedExecFile;
+	}
+
+	/** @see #tiaProbesCacheFile */
+	public File getTiaProbesCacheFile() {
+		return tiaProbesCacheFile;
+	}
+
 	/** @see #ignoreUncoveredClasses */
 	public boolean shouldIgnoreUncoveredClasses() {
 		return ignoreUncoveredClasses;
 	}
+
+	/** @see #cacheClassStructure */
+	public boolean shouldCacheClassStructure() {
+		return cacheClassStructure;
+	}
+
+	/** @see #analysisThreads */
+	public int getAnalysisThreads() {
+		return analysisThreads;
+	}
+
+	/** @see #dumpDeltas */
+	public boolean shouldDumpDeltas() {
+		return dumpDeltas;
+	}
+
+	/** @see #cacheExecutionDataUntilCommitFound */
+	public boolean shouldCacheExecutionDataUntilCommitFound() {
+		return cacheExecutionDataUntilCommitFound;
+	}
 }
@@ -25,10 +25,13 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.nio.file.InvalidPathException;
 import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.Arrays;
 import java.util.List;
 import java.util.jar.JarInputStream;
 import java.util.jar.Manifest;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import static java.util.stream.Collectors.joining;
 
@@ -46,6 +49,9 @@ public class AgentOptionsParser {
 	/** Character which starts a comment in the config file. */
 	private static final String COMMENT_PREFIX = "#";
 
+	/** A duration like 30s, 5m or 2h. Numbers without unit are minutes. */
+	private static final Pattern DURATION_PATTERN = Pattern.compile("(\\d+)\\s*([smhSMH]?)");
+
 	private final ILogger logger;
 	private final FilePatternResolver filePatternResolver;
 
@@ -142,11 +148,26 @@ public class AgentOptionsParser {
 			options.loggingConfig = filePatternResolver.parsePath(key, value);
 			return true;
 		case "interval":
-			options.dumpIntervalInMinutes = parseInt(key, value);
+			options.dumpInterval = parseDuration(key, value);
+			return true;
+		case "min-interval":
+			options.minDumpInterval = parseDuration(key, value);
+			return true;
+		case "max-interval":
+			options.maxDumpInterval = parseDuration(key, value);
+			return true;
+		case "upload-interval":
+			options.uploadInterval = parseDuration(key, value);
 			return true;
 		case "validate-ssl":
 			options.validateSsl = Boolean.parseBoolean(value);
 			return true;
+		case "http-max-idle-connections":
+			options.httpMaxIdleConnections = parseInt(key, value);
+			return true;
+		case "http-keep-alive":
+			options.httpKeepAlive = parseDuration(key, value);
+			return true;
 		case "out":
 			options.setParentOutputDirectory(filePatternResolver.parsePath(key, value));
 			return true;
@@ -166,6 +187,21 @@ public class AgentOptionsParser {
 		case "ignore-uncovered-classes":
 			options.ignoreUncoveredClasses = Boolean.parseBoolean(value);
 			return true;
+		case "cache-class-structure":
+			options.cacheClassStructure = Boolean.parseBoolean(value);
+			return true;
+		case "analysis-threads":
+			options.analysisThreads = parseInt(key, value);
+			return true;
+		case "delta-dumps":
+			options.dumpDeltas = Boolean.parseBoolean(value);
+			return true;
+		case "cache-exec-until-commit-found":
+			options.cacheExecutionDataUntilCommitFound = Boolean.parseBoolean(value);
+			return true;
+		case "upload-spool-size":
+			options.uploadSpoolSizeInMb = parseInt(key, value);
+			return true;
 		case "dump-on-exit":
 			options.shouldDumpOnExit = Boolean.parseBoolean(value);
 			return true;
@@ -289,6 +325,18 @@ public class AgentOptionsParser {
 		case "test-env":
 			options.testEnvironmentVariable = value;
 			return true;
+		case "tia-conversion-threads":
+			options.tiaConversionThreads = parseInt(key, value);
+			return true;
+		case "tia-concurrent-tests":
+			options.tiaConcurrentTests = Boolean.parseBoolean(value);
+			return true;
+		case "tia-indexed-exec":
+			options.tiaIndexedExecFile = Boolean.parseBoolean(value);
+			return true;
+		case "tia-probes-cache":
+			options.tiaProbesCacheFile = filePatternResolver.parsePath(key, value).toFile();
+			return true;
 		default:
 			return false;
 		}
@@ -354,6 +402,34 @@ public class AgentOptionsParser {
 		}
 	}
 
+	/**
+	 * Parses a duration given as a number with one of the units <code>s</code>, <code>m</code> or <code>h</code>.
+	 * Numbers without a unit are interpreted as minutes.
+	 */
+	private Duration parseDuration(String key, String value) throws AgentOptionParseException {
+		Matcher matcher = DURATION_PATTERN.matcher(value.trim());
+		if (!matcher.matches()) {
+			throw new AgentOptionParseException("Invalid duration for option `" + key + "`: " + value +
+					". Expected a number optionally followed by one of the units s, m or h, e.g. 30s or 5m");
+		}
+
+		long amount;
+		try {
+			amount = Long.parseLong(matcher.group(1));
+		} catch (NumberFormatException e) {
+			throw new AgentOptionParseException("Invalid duration for option `" + key + "`: " + value);
+		}
+		String unit = matcher.group(2).toLowerCase();
+		switch (unit) {
+			case "s":
+				return Duration.ofSeconds(amount);
+			case "h":
+				return Duration.ofHours(amount);
+			default:
+				return Duration.ofMinutes(amount);
+		}
+	}
+
 	private int parseInt(String key, String value) throws AgentOptionParseException {
 		try {
 			return Integer.parseInt(value);
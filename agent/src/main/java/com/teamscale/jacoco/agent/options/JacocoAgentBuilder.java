@@ -2,6 +2,7 @@ package com.teamscale.jacoco.agent.options;
 
 import com.teamscale.jacoco.agent.Agent;
 import com.teamscale.jacoco.agent.AgentBase;
+import com.teamscale.jacoco.agent.metrics.AgentMetrics;
 import com.teamscale.jacoco.agent.testimpact.TestExecutionWriter;
 import com.teamscale.jacoco.agent.testimpact.TestwiseCoverageAgent;
 import com.teamscale.jacoco.agent.upload.UploaderException;
@@ -88,7 +89,8 @@ public class JacocoAgentBuilder {
 		if (agentOptions.useTestwiseCoverageMode()) {
 			JaCoCoTestwiseReportGenerator reportGenerator = new JaCoCoTestwiseReportGenerator(
 					agentOptions.getClassDirectoriesOrZips(), agentOptions.getLocationIncludeFilter(),
-					agentOptions.getDuplicateClassFileBehavior(), LoggingUtils.wrap(logger));
+					agentOptions.getDuplicateClassFileBehavior(), agentOptions.getAnalysisThreads(),
+					agentOptions.getTiaProbesCacheFile(), LoggingUtils.wrap(logger));
 			return new TestwiseCoverageAgent(agentOptions,
 					new TestExecutionWriter(getTempFile("test-execution", "json")),
 					reportGenerator);
@@ -108,8 +110,15 @@ public class JacocoAgentBuilder {
 			if (agentOptions.testEnvironmentVariable != null) {
 				sessionId = System.getenv(agentOptions.testEnvironmentVariable);
 			}
+			if (agentOptions.shouldWriteIndexedExecFile()) {
+				// the agent writes the sessions to an indexed exec file itself
+				return "sessionid=" + sessionId + ",output=none";
+			}
 			// when writing to a .exec file, we can instruct JaCoCo to do so directly
-			return "sessionid=" + sessionId + ",destfile=" + getTempFile("jacoco", "exec").getAbsolutePath();
+			File execFile = getTempFile("jacoco", "exec");
+			AgentMetrics.registerGauge("exec_file_size_bytes", "Size of the exec file JaCoCo writes the dumps to.",
+					execFile::length);
+			return "sessionid=" + sessionId + ",destfile=" + execFile.getAbsolutePath();
 
 		} else {
 			// otherwise we don't need JaCoCo to perform any output of the .exec information
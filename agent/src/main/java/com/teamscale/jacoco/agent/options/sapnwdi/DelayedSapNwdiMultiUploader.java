@@ -2,13 +2,25 @@ package com.teamscale.jacoco.agent.options.sapnwdi;
 
 import com.teamscale.client.CommitDescriptor;
 import com.teamscale.jacoco.agent.upload.IUploader;
+import com.teamscale.jacoco.agent.util.DaemonThreadFactory;
 import com.teamscale.jacoco.agent.util.LoggingUtils;
 import com.teamscale.report.jacoco.CoverageFile;
+import com.teamscale.report.jacoco.JaCoCoXmlReportFilter;
 import org.slf4j.Logger;
 
-import java.util.HashMap;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.Executor;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.function.BiFunction;
 import java.util.stream.Collectors;
 
@@ -19,17 +31,32 @@ import java.util.stream.Collectors;
  *
  * This is safe assuming that the marker class is the central entry point for the application and therefore there
  * should not be any relevant coverage for the application as long as the marker class has not been loaded.
+ *
+ * The coverage of the classes that have been loaded from the same jar or class folder as the marker class of an
+ * application is only uploaded for this application. The coverage of all other classes, e.g. of further jars of an
+ * application or of shared libraries, is uploaded for every application, since it cannot be attributed to one of them.
+ * The uploads of the applications run in parallel.
  */
 public class DelayedSapNwdiMultiUploader implements IUploader {
 
+	/** The number of applications whose coverage is uploaded in parallel. */
+	private static final int MAX_CONCURRENT_UPLOADS = 4;
+
 	private final Logger logger = LoggingUtils.getLogger(this);
 	private final BiFunction<CommitDescriptor, SapNwdiApplications.SapNwdiApplication, IUploader> uploaderFactory;
-	private final Map<SapNwdiApplications.SapNwdiApplication, IUploader> uploaders = new HashMap<>();
+	private final Map<SapNwdiApplications.SapNwdiApplication, IUploader> uploaders = new ConcurrentHashMap<>();
 
-	/**
-	 * Visible for testing. Allows tests to control the {@link Executor} to test the asynchronous functionality of this
-	 * class.
-	 */
+	/** The jar or class folder of each application's marker class. */
+	private final Map<SapNwdiApplications.SapNwdiApplication, String> applicationLocations = new ConcurrentHashMap<>();
+
+	/** The names of the loaded classes by the jar or class folder they have been loaded from. */
+	private final Map<String, Set<String>> classesByLocation = new ConcurrentHashMap<>();
+
+	/** Filters and uploads the coverage of the applications. */
+	private final ExecutorService executor = Executors.newFixedThreadPool(MAX_CONCURRENT_UPLOADS,
+			new DaemonThreadFactory(DelayedSapNwdiMultiUploader.class, "upload"));
+
+	/** Constructor. */
 	public DelayedSapNwdiMultiUploader(
 			BiFunction<CommitDescriptor, SapNwdiApplications.SapNwdiApplication, IUploader> uploaderFactory) {
 		this.uploaderFactory = uploaderFactory;
@@ -46,15 +73,81 @@ public class DelayedSapNwdiMultiUploader implements IUploader {
 		}));
 	}
 
+	/**
+	 * Uploads the coverage of each application for which a commit has been found and waits until all uploads are
+	 * done. The given file is deleted once all uploads of it succeeded.
+	 */
 	@Override
-	public synchronized void upload(CoverageFile file) {
+	public void upload(CoverageFile file) {
 		if (uploaders.isEmpty()) {
 			logger.warn("No commits have been found yet to which coverage should be uploaded. Discarding coverage");
-		} else {
-			for (IUploader wrappedUploader : uploaders.values()) {
-				wrappedUploader.upload(file.acquireReference());
+			return;
+		}
+
+		// Keeps the file until all applications have been filtered and uploaded
+		file.acquireReference();
+		List<Future<?>> uploads = new ArrayList<>();
+		for (Map.Entry<SapNwdiApplications.SapNwdiApplication, IUploader> entry : uploaders.entrySet()) {
+			uploads.add(executor.submit(() -> uploadForApplication(file, entry.getKey(), entry.getValue())));
+		}
+		for (Future<?> upload : uploads) {
+			try {
+				upload.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				logger.warn("Interrupted while waiting for the uploads of {}", file);
+				return;
+			} catch (ExecutionException e) {
+				logger.error("Failed to upload {}", file, e.getCause());
+			}
+		}
+
+		try {
+			file.delete();
+		} catch (IOException e) {
+			logger.warn("Failed to delete {}", file, e);
+		}
+	}
+
+	/**
+	 * Uploads the coverage of the given application's classes and of the classes that belong to no application. Uploads
+	 * the whole file if the classes of the application are unknown or can not be filtered.
+	 */
+	private void uploadForApplication(CoverageFile file, SapNwdiApplications.SapNwdiApplication application,
+									  IUploader uploader) {
+		String location = applicationLocations.get(application);
+		Set<String> classes = location == null ? null : classesByLocation.get(location);
+		if (classes == null) {
+			uploader.upload(file.acquireReference());
+			return;
+		}
+
+		File filteredFile = new File(file.getFile().getParentFile(),
+				file.getNameWithoutExtension() + "-" + application.getMarkerClass() + ".xml");
+		Set<String> classesOfOtherApplications = getClassesOfOtherApplications(location);
+		try {
+			int keptClasses = new JaCoCoXmlReportFilter(
+					className -> classes.contains(className) || !classesOfOtherApplications.contains(className))
+					.filter(file.getFile(), filteredFile);
+			if (keptClasses == 0) {
+				logger.debug("{} contains no coverage of {}. Skipping upload", file, application.getMarkerClass());
+				new CoverageFile(filteredFile).delete();
+				return;
 			}
+		} catch (IOException e) {
+			logger.warn("Failed to filter {} for {}. Uploading the coverage of all applications", file,
+					application.getMarkerClass(), e);
+			uploader.upload(file.acquireReference());
+			return;
 		}
+		uploader.upload(new CoverageFile(filteredFile));
+	}
+
+	/** Returns the classes loaded from the jars or class folders of the marker classes at other locations. */
+	private Set<String> getClassesOfOtherApplications(String location) {
+		return applicationLocations.values().stream().filter(otherLocation -> !otherLocation.equals(location))
+				.distinct().map(classesByLocation::get).filter(Objects::nonNull).flatMap(Set::stream)
+				.collect(Collectors.toSet());
 	}
 
 	@Override
@@ -71,4 +164,19 @@ public class DelayedSapNwdiMultiUploader implements IUploader {
 		IUploader uploader = uploaderFactory.apply(commit, application);
 		uploaders.put(application, uploader);
 	}
+
+	/**
+	 * Sets the commit info detected for the application and the jar or class folder of its marker class. The coverage
+	 * of the classes loaded from this location is not uploaded for the other applications.
+	 */
+	public void setCommitForApplication(CommitDescriptor commit, SapNwdiApplications.SapNwdiApplication application,
+										URL location) {
+		applicationLocations.put(application, location.toString());
+		setCommitForApplication(commit, application);
+	}
+
+	/** Records the jar or class folder the class with the given internal name has been loaded from. */
+	public void registerClass(String className, URL location) {
+		classesByLocation.computeIfAbsent(location.toString(), key -> ConcurrentHashMap.newKeySet()).add(className);
+	}
 }
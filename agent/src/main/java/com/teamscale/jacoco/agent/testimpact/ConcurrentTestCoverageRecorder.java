@@ -0,0 +1,109 @@
+package com.teamscale.jacoco.agent.testimpact;
+
+import com.teamscale.jacoco.agent.JacocoRuntimeController;
+import com.teamscale.jacoco.agent.util.LoggingUtils;
+import com.teamscale.report.jacoco.dump.Dump;
+import org.jacoco.core.data.ExecutionData;
+import org.jacoco.core.data.ExecutionDataStore;
+import org.jacoco.core.data.SessionInfo;
+import org.slf4j.Logger;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Records the coverage of tests whose executions overlap, e.g. because the test runner executes them in parallel.
+ * <p>
+ * JaCoCo records probe hits in one probe array per class that is shared by all threads, so a hit cannot be attributed
+ * to the thread, let alone the test, that caused it. Instead, the coverage is dumped and reset whenever a test starts
+ * or ends, and each dump is added to the coverage of all tests that were running in the meantime. The coverage of a
+ * test is thus a superset of the code it executed, which also includes code that ran on threads the test handed work
+ * to. If tests run one after another, the recorded coverage is exactly the same as without this recorder.
+ */
+/* package */ class ConcurrentTestCoverageRecorder {
+
+	private final Logger logger = LoggingUtils.getLogger(this);
+
+	/** Controls the JaCoCo runtime. */
+	private final JacocoRuntimeController controller;
+
+	/** The tests that have been started but not ended yet by their uniform path. */
+	private final Map<String, RunningTest> runningTests = new HashMap<>();
+
+	/* package */ ConcurrentTestCoverageRecorder(JacocoRuntimeController controller) {
+		this.controller = controller;
+	}
+
+	/** Starts recording the coverage of the given test. */
+	/* package */
+	synchronized void testStart(String test) throws JacocoRuntimeController.DumpException {
+		if (runningTests.isEmpty()) {
+			// Nobody needs the coverage recorded so far, so it can simply be discarded
+			controller.reset();
+		} else {
+			distribute(controller.dumpAndReset());
+		}
+		if (runningTests.put(test, new RunningTest(System.currentTimeMillis())) != null) {
+			logger.warn("Test {} has been started again before it ended. Discarding its coverage so far.", test);
+		}
+	}
+
+	/**
+	 * Stops recording the coverage of the given test and returns all coverage that was recorded while the test was
+	 * running.
+	 */
+	/* package */
+	synchronized Dump testEnd(String test) throws JacocoRuntimeController.DumpException {
+		distribute(controller.dumpAndReset());
+		long now = System.currentTimeMillis();
+		RunningTest runningTest = runningTests.remove(test);
+		if (runningTest == null) {
+			logger.warn("Test {} ended without having been started. Its coverage is empty.", test);
+			return new Dump(new SessionInfo(test, now, now), new ExecutionDataStore());
+		}
+		return new Dump(new SessionInfo(test, runningTest.startTimestamp, now), runningTest.store);
+	}
+
+	/** Returns the number of tests that are currently running. */
+	/* package */
+	synchronized int getRunningTestCount() {
+		return runningTests.size();
+	}
+
+	/** Adds the coverage of the given dump to all running tests. */
+	private void distribute(Dump dump) {
+		if (runningTests.size() == 1) {
+			runningTests.values().iterator().next().add(dump.store);
+			return;
+		}
+		for (RunningTest runningTest : runningTests.values()) {
+			// Each test needs its own copy, as the stores merge the probes into the execution data they contain
+			ExecutionDataStore copy = new ExecutionDataStore();
+			for (ExecutionData data : dump.store.getContents()) {
+				copy.put(new ExecutionData(data.getId(), data.getName(), data.getProbes().clone()));
+			}
+			runningTest.add(copy);
+		}
+	}
+
+	/** The coverage recorded for a test that has not ended yet. */
+	private static class RunningTest {
+
+		/** The time at which the test started. */
+		private final long startTimestamp;
+
+		/** The coverage recorded while the test was running. */
+		private final ExecutionDataStore store = new ExecutionDataStore();
+
+		private RunningTest(long startTimestamp) {
+			this.startTimestamp = startTimestamp;
+		}
+
+		/** Merges the given coverage into the coverage of the test. */
+		private void add(ExecutionDataStore coverage) {
+			for (ExecutionData data : coverage.getContents()) {
+				store.put(data);
+			}
+		}
+	}
+}
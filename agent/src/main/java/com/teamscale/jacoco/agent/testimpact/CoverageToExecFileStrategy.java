@@ -1,17 +1,26 @@
 package com.teamscale.jacoco.agent.testimpact;
 
 import com.teamscale.jacoco.agent.JacocoRuntimeController;
+import com.teamscale.jacoco.agent.metrics.AgentMetrics;
 import com.teamscale.jacoco.agent.options.AgentOptions;
 import com.teamscale.jacoco.agent.util.LoggingUtils;
+import com.teamscale.report.jacoco.dump.Dump;
+import com.teamscale.report.jacoco.dump.IndexedExecFile;
+import com.teamscale.report.jacoco.dump.IndexedExecFileWriter;
 import com.teamscale.report.testwise.jacoco.cache.CoverageGenerationException;
 import com.teamscale.report.testwise.model.TestExecution;
 import org.slf4j.Logger;
 
+import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 
 /**
  * Strategy for appending coverage into one exec file with one session per test. Execution data will be stored in a json
  * file side-by-side with the exec file. Test executions are also appended into a single file.
+ * <p>
+ * If {@link AgentOptions#shouldWriteIndexedExecFile()} is set, the sessions are written to an {@link IndexedExecFile}
+ * instead of letting JaCoCo append them to a plain exec file.
  */
 public class CoverageToExecFileStrategy extends TestEventHandlerStrategyBase {
 
@@ -20,10 +29,25 @@ public class CoverageToExecFileStrategy extends TestEventHandlerStrategyBase {
 	/** Helper for writing test executions to disk. */
 	private final TestExecutionWriter testExecutionWriter;
 
+	/** The indexed exec file to write the sessions to or null if JaCoCo writes them to a plain exec file. */
+	private final File indexedExecFile;
+
+	/** Writes the {@link #indexedExecFile}. Created once the first test ends. Guarded by <code>this</code>. */
+	private IndexedExecFileWriter indexedExecFileWriter;
+
 	public CoverageToExecFileStrategy(JacocoRuntimeController controller, AgentOptions agentOptions,
 									  TestExecutionWriter testExecutionWriter) {
 		super(agentOptions, controller);
 		this.testExecutionWriter = testExecutionWriter;
+		if (agentOptions.shouldWriteIndexedExecFile()) {
+			// The output directory is unique for each run of the agent
+			this.indexedExecFile = new File(agentOptions.getOutputDirectory().toFile(),
+					"jacoco." + IndexedExecFile.EXTENSION);
+			AgentMetrics.registerGauge("exec_file_size_bytes", "Size of the exec file the dumps are written to.",
+					indexedExecFile::length);
+		} else {
+			this.indexedExecFile = null;
+		}
 	}
 
 	@Override
@@ -31,7 +55,11 @@ public class CoverageToExecFileStrategy extends TestEventHandlerStrategyBase {
 						  TestExecution testExecution) throws JacocoRuntimeController.DumpException, CoverageGenerationException {
 		logger.debug("Test {} ended with execution {}. Writing exec file and test execution", test, testExecution);
 		super.testEnd(test, testExecution);
-		controller.dump();
+		if (indexedExecFile != null) {
+			appendToIndexedExecFile(collectTestCoverage(test));
+		} else {
+			controller.dump();
+		}
 		if (testExecution != null) {
 			try {
 				testExecutionWriter.append(testExecution);
@@ -42,4 +70,47 @@ public class CoverageToExecFileStrategy extends TestEventHandlerStrategyBase {
 		}
 		return null;
 	}
+
+	/** Appends the given dump as a new session to the {@link #indexedExecFile}. */
+	private synchronized void appendToIndexedExecFile(Dump dump) throws JacocoRuntimeController.DumpException {
+		try {
+			if (indexedExecFileWriter == null) {
+				Files.createDirectories(agentOptions.getOutputDirectory());
+				indexedExecFileWriter = new IndexedExecFileWriter(indexedExecFile);
+				logger.debug("Writing sessions to indexed exec file {}", indexedExecFile);
+			}
+			indexedExecFileWriter.append(dump);
+		} catch (IOException e) {
+			throw new JacocoRuntimeController.DumpException(
+					"Failed to write session " + dump.info.getId() + " to " + indexedExecFile, e);
+		}
+	}
+
+	/**
+	 * Writes the coverage that has been recorded since the last test ended and the index of the indexed exec file. Like
+	 * JaCoCo does for plain exec files on shutdown.
+	 */
+	@Override
+	public synchronized void shutdown() {
+		if (indexedExecFile == null) {
+			return;
+		}
+		try {
+			Dump dump = controller.dumpAndReset();
+			if (!dump.store.getContents().isEmpty()) {
+				appendToIndexedExecFile(dump);
+			}
+		} catch (JacocoRuntimeController.DumpException e) {
+			logger.error("Failed to write the remaining coverage to " + indexedExecFile, e);
+		}
+		if (indexedExecFileWriter == null) {
+			return;
+		}
+		try {
+			indexedExecFileWriter.close();
+		} catch (IOException e) {
+			logger.error("Failed to write the index of " + indexedExecFile + ". It will be rebuilt when reading the file.",
+					e);
+		}
+	}
 }
@@ -1,41 +1,63 @@
 package com.teamscale.jacoco.agent.testimpact;
 
-import com.squareup.moshi.JsonAdapter;
-import com.squareup.moshi.Moshi;
 import com.teamscale.client.ClusteredTestDetails;
 import com.teamscale.client.EReportFormat;
 import com.teamscale.jacoco.agent.JacocoRuntimeController;
 import com.teamscale.jacoco.agent.options.AgentOptions;
+import com.teamscale.jacoco.agent.util.DaemonThreadFactory;
 import com.teamscale.jacoco.agent.util.LoggingUtils;
 import com.teamscale.report.jacoco.dump.Dump;
 import com.teamscale.report.testwise.jacoco.JaCoCoTestwiseReportGenerator;
 import com.teamscale.report.testwise.jacoco.cache.CoverageGenerationException;
 import com.teamscale.report.testwise.model.TestExecution;
-import com.teamscale.report.testwise.model.TestwiseCoverage;
-import com.teamscale.report.testwise.model.TestwiseCoverageReport;
 import com.teamscale.report.testwise.model.builder.TestCoverageBuilder;
-import com.teamscale.report.testwise.model.builder.TestwiseCoverageReportBuilder;
 import org.slf4j.Logger;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.List;
-
-import static java.util.stream.Collectors.toList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Strategy that records test-wise coverage and uploads the resulting report to Teamscale. Also handles the {@link
  * #testRunStart(List, boolean, Long)} event by retrieving tests to run from Teamscale.
+ * <p>
+ * The coverage of finished tests is written to a {@link TestwiseCoverageStore} on disk, so the memory needed does not
+ * grow with the number of tests. Converting the probes of a test to covered lines is done by a pool of background
+ * threads, so the next test can start right after the coverage has been collected.
  */
 public class CoverageToTeamscaleStrategy extends TestEventHandlerStrategyBase {
 
 	private final Logger logger = LoggingUtils.getLogger(this);
 
-	private final JsonAdapter<TestwiseCoverageReport> testwiseCoverageReportJsonAdapter = new Moshi.Builder().build()
-			.adapter(TestwiseCoverageReport.class);
+	/**
+	 * The maximum number of dumps waiting to be converted. If it is exceeded, the dump is converted while handling the
+	 * end of the test, which slows down the tests until the conversion caught up.
+	 */
+	/* package */ static final int MAX_QUEUED_CONVERSIONS = 100;
+
+	/** Converts the dumps in the background or null if they are converted while handling the end of the test. */
+	private final ExecutorService conversionExecutor;
+
+	/** The number of tests that ended so far. Used to keep the order of the tests in the {@link #coverageStore}. */
+	private long testEndCount = 0;
+
+	/** The number of dumps that are queued or being converted. Guarded by {@link #conversionLock}. */
+	private int pendingConversions = 0;
+
+	/** Lock for {@link #pendingConversions}. */
+	private final Object conversionLock = new Object();
 
-	private final TestwiseCoverage testwiseCoverage = new TestwiseCoverage();
-	private final List<TestExecution> testExecutions = new ArrayList<>();
+	/** Stores the coverage of the finished tests. Created once the first test ends. */
+	private TestwiseCoverageStore coverageStore;
+
+	/** The tests to include in the report. Guarded by <code>this</code>, as tests may start concurrently. */
 	private List<ClusteredTestDetails> availableTests = new ArrayList<>();
 	private final JaCoCoTestwiseReportGenerator reportGenerator;
 
@@ -43,6 +65,7 @@ public class CoverageToTeamscaleStrategy extends TestEventHandlerStrategyBase {
 									   JaCoCoTestwiseReportGenerator reportGenerator) {
 		super(agentOptions, controller);
 		this.reportGenerator = reportGenerator;
+		this.conversionExecutor = createConversionExecutor(agentOptions.getTiaConversionThreads());
 
 		if (!agentOptions.getTeamscaleServerOptions().hasCommitOrRevision()) {
 			throw new UnsupportedOperationException(
@@ -55,21 +78,35 @@ public class CoverageToTeamscaleStrategy extends TestEventHandlerStrategyBase {
 		}
 	}
 
+	private static ExecutorService createConversionExecutor(int threads) {
+		if (threads == 0) {
+			return null;
+		}
+		return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<>(MAX_QUEUED_CONVERSIONS),
+				new DaemonThreadFactory(CoverageToTeamscaleStrategy.class, "coverage conversion"),
+				new ThreadPoolExecutor.CallerRunsPolicy());
+	}
+
 	@Override
 	public String testRunStart(List<ClusteredTestDetails> availableTests, boolean includeNonImpactedTests,
 							   Long baseline) throws IOException {
-		this.availableTests = availableTests;
+		synchronized (this) {
+			this.availableTests = availableTests;
+		}
 		return super.testRunStart(availableTests, includeNonImpactedTests, baseline);
 	}
 
 	@Override
-	public void testStart(String uniformPath) {
+	public void testStart(String uniformPath) throws JacocoRuntimeController.DumpException {
 		super.testStart(uniformPath);
 
-		if (availableTests.stream().noneMatch(test -> test.uniformPath.equals(uniformPath))) {
-			// ensure that we can at least generate a report for the tests that were actually run,
-			// even if the caller did not provide a list of tests up-front in testRunStart
-			availableTests.add(new ClusteredTestDetails(uniformPath, uniformPath, null, null));
+		synchronized (this) {
+			if (availableTests.stream().noneMatch(test -> test.uniformPath.equals(uniformPath))) {
+				// ensure that we can at least generate a report for the tests that were actually run,
+				// even if the caller did not provide a list of tests up-front in testRunStart
+				availableTests.add(new ClusteredTestDetails(uniformPath, uniformPath, null, null));
+			}
 		}
 	}
 
@@ -78,35 +115,112 @@ public class CoverageToTeamscaleStrategy extends TestEventHandlerStrategyBase {
 						  TestExecution testExecution) throws JacocoRuntimeController.DumpException, CoverageGenerationException {
 		super.testEnd(test, testExecution);
 
-		testExecutions.add(testExecution);
-		Dump dump = controller.dumpAndReset();
-		testwiseCoverage.add(reportGenerator.convert(dump));
+		Dump dump = collectTestCoverage(test);
+		long testEndIndex;
+		synchronized (this) {
+			testEndIndex = testEndCount++;
+		}
+
+		if (conversionExecutor == null) {
+			convertAndStore(test, testEndIndex, dump, testExecution);
+			return null;
+		}
+
+		synchronized (conversionLock) {
+			pendingConversions++;
+		}
+		conversionExecutor.execute(() -> {
+			try {
+				convertAndStore(test, testEndIndex, dump, testExecution);
+			} catch (CoverageGenerationException | RuntimeException e) {
+				logger.error("Failed to convert the coverage of test {}. The test will have no coverage.", test, e);
+			} finally {
+				synchronized (conversionLock) {
+					pendingConversions--;
+					conversionLock.notifyAll();
+				}
+			}
+		});
 		return null;
 	}
 
+	private void convertAndStore(String test, long testEndIndex, Dump dump,
+								 TestExecution testExecution) throws CoverageGenerationException {
+		TestCoverageBuilder coverage = reportGenerator.convert(dump);
+		try {
+			getCoverageStore().append(test, testEndIndex, coverage, testExecution);
+		} catch (IOException e) {
+			throw new CoverageGenerationException("Failed to store the coverage of test " + test, e);
+		}
+	}
+
+	/** Waits until the coverage of all finished tests has been converted and stored. */
+	private void awaitPendingConversions() throws InterruptedIOException {
+		synchronized (conversionLock) {
+			if (pendingConversions > 0) {
+				logger.debug("Waiting for the coverage of {} tests to be converted", pendingConversions);
+			}
+			while (pendingConversions > 0) {
+				try {
+					conversionLock.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("Interrupted while waiting for the coverage conversion");
+				}
+			}
+		}
+	}
+
+	private synchronized TestwiseCoverageStore getCoverageStore() throws IOException {
+		if (coverageStore == null) {
+			Files.createDirectories(agentOptions.getOutputDirectory());
+			coverageStore = new TestwiseCoverageStore(
+					Files.createTempFile(agentOptions.getOutputDirectory(), "testwise-coverage-", ".jsonl").toFile());
+		}
+		return coverageStore;
+	}
+
 	@Override
 	public void testRunEnd() throws IOException {
-		List<String> executionUniformPaths = testExecutions.stream().map(execution -> {
-			if (execution == null) {
-				return null;
-			} else {
-				return execution.getUniformPath();
+		awaitPendingConversions();
+		List<ClusteredTestDetails> reportedTests;
+		synchronized (this) {
+			reportedTests = new ArrayList<>(availableTests);
+		}
+		logger.debug("Creating testwise coverage for {} available tests", reportedTests.size());
+
+		File reportFile = Files.createTempFile(agentOptions.getOutputDirectory(), "testwise-coverage-", ".json")
+				.toFile();
+		try {
+			getCoverageStore().writeReport(reportedTests, reportFile);
+			teamscaleClient.uploadReport(EReportFormat.TESTWISE_COVERAGE, reportFile,
+					agentOptions.getTeamscaleServerOptions().commit,
+					agentOptions.getTeamscaleServerOptions().revision,
+					agentOptions.getTeamscaleServerOptions().partition,
+					agentOptions.getTeamscaleServerOptions().getMessage());
+		} finally {
+			if (!reportFile.delete()) {
+				logger.warn("Failed to delete the testwise coverage report {}", reportFile);
 			}
-		}).collect(toList());
-		logger.debug("Creating testwise coverage for available tests `{}`, test executions `{}` and coverage for `{}`",
-				availableTests.stream().map(test -> test.uniformPath).collect(toList()),
-				executionUniformPaths,
-				testwiseCoverage.getTests().stream().map(TestCoverageBuilder::getUniformPath).collect(toList()));
-
-		TestwiseCoverageReport report = TestwiseCoverageReportBuilder
-				.createFrom(availableTests, testwiseCoverage.getTests(), testExecutions);
-
-		String json = testwiseCoverageReportJsonAdapter.toJson(report);
-		teamscaleClient
-				.uploadReport(EReportFormat.TESTWISE_COVERAGE, json, agentOptions.getTeamscaleServerOptions().commit,
-						agentOptions.getTeamscaleServerOptions().revision,
-						agentOptions.getTeamscaleServerOptions().partition,
-						agentOptions.getTeamscaleServerOptions().getMessage());
+			deleteCoverageStore();
+		}
+	}
+
+	/** Deletes the coverage of the finished test run, so the next test run starts with an empty store. */
+	private void deleteCoverageStore() {
+		TestwiseCoverageStore store;
+		synchronized (this) {
+			store = coverageStore;
+			coverageStore = null;
+		}
+		if (store == null) {
+			return;
+		}
+		try {
+			store.delete();
+		} catch (IOException e) {
+			logger.warn("Failed to delete the stored testwise coverage", e);
+		}
 	}
 
 }
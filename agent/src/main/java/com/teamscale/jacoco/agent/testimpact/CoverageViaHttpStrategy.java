@@ -38,7 +38,7 @@ public class CoverageViaHttpStrategy extends TestEventHandlerStrategyBase {
 		super.testEnd(test, testExecution);
 
 		TestInfoBuilder builder = new TestInfoBuilder(test);
-		Dump dump = controller.dumpAndReset();
+		Dump dump = collectTestCoverage(test);
 		builder.setCoverage(reportGenerator.convert(dump));
 		if (testExecution != null) {
 			builder.setExecution(testExecution);
@@ -10,6 +10,7 @@ import com.teamscale.client.TeamscaleClient;
 import com.teamscale.jacoco.agent.JacocoRuntimeController;
 import com.teamscale.jacoco.agent.options.AgentOptions;
 import com.teamscale.jacoco.agent.util.LoggingUtils;
+import com.teamscale.report.jacoco.dump.Dump;
 import com.teamscale.report.testwise.jacoco.cache.CoverageGenerationException;
 import com.teamscale.report.testwise.model.TestExecution;
 import org.slf4j.Logger;
@@ -17,6 +18,8 @@ import retrofit2.Response;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /** Base class for strategies to handle test events. */
 public abstract class TestEventHandlerStrategyBase {
@@ -29,6 +32,15 @@ public abstract class TestEventHandlerStrategyBase {
 	/** The timestamp at which the /test/start endpoint has been called last time. */
 	private long startTimestamp = -1;
 
+	/**
+	 * Records the coverage of tests that run concurrently or null if the tests run one after another. Only used by
+	 * strategies that collect the coverage via {@link #collectTestCoverage(String)}.
+	 */
+	private final ConcurrentTestCoverageRecorder concurrentRecorder;
+
+	/** The timestamps at which the running tests started by their uniform path if tests run concurrently. */
+	private final Map<String, Long> startTimestamps = new ConcurrentHashMap<>();
+
 	/** The options the user has configured for the agent. */
 	protected final AgentOptions agentOptions;
 
@@ -43,11 +55,21 @@ public abstract class TestEventHandlerStrategyBase {
 		this.controller = controller;
 		this.agentOptions = agentOptions;
 		this.teamscaleClient = agentOptions.createTeamscaleClient();
+		if (agentOptions.shouldAllowConcurrentTests()) {
+			this.concurrentRecorder = new ConcurrentTestCoverageRecorder(controller);
+		} else {
+			this.concurrentRecorder = null;
+		}
 	}
 
 	/** Called when test test with the given name is about to start. */
-	public void testStart(String test) {
+	public void testStart(String test) throws JacocoRuntimeController.DumpException {
 		logger.debug("Test {} started", test);
+		if (concurrentRecorder != null) {
+			concurrentRecorder.testStart(test);
+			startTimestamps.put(test, System.currentTimeMillis());
+			return;
+		}
 		// Reset coverage so that we only record coverage that belongs to this particular test case.
 		controller.reset();
 		controller.setSessionId(test);
@@ -65,17 +87,34 @@ public abstract class TestEventHandlerStrategyBase {
 	 */
 	public String testEnd(String test,
 						  TestExecution testExecution) throws JacocoRuntimeController.DumpException, CoverageGenerationException {
+		long testStartTimestamp = startTimestamp;
+		if (concurrentRecorder != null) {
+			testStartTimestamp = startTimestamps.getOrDefault(test, -1L);
+			startTimestamps.remove(test);
+		}
 		if (testExecution != null) {
 			testExecution.setUniformPath(test);
-			if (startTimestamp != -1) {
+			if (testStartTimestamp != -1) {
 				long endTimestamp = System.currentTimeMillis();
-				testExecution.setDurationMillis(endTimestamp - startTimestamp);
+				testExecution.setDurationMillis(endTimestamp - testStartTimestamp);
 			}
 		}
 		logger.debug("Test {} ended with test execution {}", test, testExecution);
 		return null;
 	}
 
+	/**
+	 * Collects the coverage of the given test that just ended and resets it, so it is not included in the coverage of
+	 * the next test. If tests run concurrently, this also includes the coverage of all tests that ran at the same
+	 * time.
+	 */
+	protected Dump collectTestCoverage(String test) throws JacocoRuntimeController.DumpException {
+		if (concurrentRecorder != null) {
+			return concurrentRecorder.testEnd(test);
+		}
+		return controller.dumpAndReset();
+	}
+
 	/**
 	 * Retrieves impacted tests from Teamscale, if a {@link #teamscaleClient} has been configured.
 	 *
@@ -121,6 +160,11 @@ public abstract class TestEventHandlerStrategyBase {
 		}
 	}
 
+	/** Called when the agent shuts down. Strategies can write data that is still pending here. */
+	public void shutdown() {
+		// Template method to be overridden by subclasses.
+	}
+
 	/**
 	 * Signals that the test run has ended. Strategies that support this can upload a report via the {@link
 	 * #teamscaleClient} here.
@@ -13,6 +13,8 @@ import com.teamscale.client.StringUtils;
 import com.teamscale.client.TeamscaleServer;
 import com.teamscale.jacoco.agent.AgentBase;
 import com.teamscale.jacoco.agent.JacocoRuntimeController.DumpException;
+import com.teamscale.jacoco.agent.metrics.AgentMetrics;
+import com.teamscale.jacoco.agent.metrics.Histogram;
 import com.teamscale.jacoco.agent.options.AgentOptions;
 import com.teamscale.report.testwise.jacoco.JaCoCoTestwiseReportGenerator;
 import com.teamscale.report.testwise.jacoco.cache.CoverageGenerationException;
@@ -71,6 +73,13 @@ public class TestwiseCoverageAgent extends AgentBase {
 				testEventHandler = new CoverageToExecFileStrategy(controller, options, testExecutionWriter);
 				break;
 		}
+		AgentMetrics.registerGauge("probes_cache_classes", "Number of analyzed classes in the probes cache.",
+				reportGenerator::getCachedClassCount);
+	}
+
+	@Override
+	protected void prepareShutdown() {
+		testEventHandler.shutdown();
 	}
 
 	@Override
@@ -146,7 +155,7 @@ public class TestwiseCoverageAgent extends AgentBase {
 	}
 
 	/** Handles the start of a new test case by setting the session ID. */
-	private String handleTestStart(Request request, Response response) {
+	private String handleTestStart(Request request, Response response) throws DumpException {
 		String testId = request.params(TEST_ID_PARAMETER);
 		if (testId == null || testId.isEmpty()) {
 			logger.error("Test name missing in " + request.url() + "!");
@@ -175,7 +184,10 @@ public class TestwiseCoverageAgent extends AgentBase {
 		logger.debug("End test " + testId);
 		Optional<TestExecution> testExecution = getTestExecution(testId, request.body());
 
-		String body = testEventHandler.testEnd(testId, testExecution.orElse(null));
+		String body;
+		try (Histogram.Timer ignored = AgentMetrics.TEST_END_DURATION.startTimer()) {
+			body = testEventHandler.testEnd(testId, testExecution.orElse(null));
+		}
 		if (body == null) {
 			response.status(SC_NO_CONTENT);
 			body = "";
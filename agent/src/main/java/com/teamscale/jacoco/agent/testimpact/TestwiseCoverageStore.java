@@ -0,0 +1,260 @@
+package com.teamscale.jacoco.agent.testimpact;
+
+import com.squareup.moshi.JsonAdapter;
+import com.squareup.moshi.JsonWriter;
+import com.squareup.moshi.Moshi;
+import com.teamscale.client.TestDetails;
+import com.teamscale.jacoco.agent.util.LoggingUtils;
+import com.teamscale.report.testwise.model.FileCoverage;
+import com.teamscale.report.testwise.model.PathCoverage;
+import com.teamscale.report.testwise.model.TestExecution;
+import com.teamscale.report.testwise.model.TestInfo;
+import com.teamscale.report.testwise.model.builder.FileCoverageBuilder;
+import com.teamscale.report.testwise.model.builder.TestCoverageBuilder;
+import com.teamscale.report.testwise.model.builder.TestInfoBuilder;
+import com.teamscale.report.testwise.model.builder.TestwiseCoverageReportBuilder;
+import okio.Okio;
+import org.slf4j.Logger;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Stores the coverage and execution of every finished test in an append-only file instead of keeping it in memory until
+ * the end of the test run. Each test is written as one line of JSON. Only the positions of these lines are kept in
+ * memory, so the heap usage does not depend on the amount of recorded coverage.
+ * <p>
+ * The testwise coverage report is created test by test from this file and streamed to a report file. This is
+ * equivalent to {@link TestwiseCoverageReportBuilder#createFrom(Collection, Collection, Collection)}: Coverage of the
+ * same test is merged, the last given test execution is used and parameterized tests are mapped to their available
+ * test. If multiple parameterized tests map to the same available test, the coverage of the last one is used.
+ */
+public class TestwiseCoverageStore {
+
+	private final Logger logger = LoggingUtils.getLogger(this);
+
+	private final JsonAdapter<SpilledTest> spilledTestAdapter = new Moshi.Builder().build()
+			.adapter(SpilledTest.class);
+
+	private final JsonAdapter<TestInfo> testInfoAdapter = new Moshi.Builder().build().adapter(TestInfo.class);
+
+	/** The file the tests are appended to. */
+	private final File storeFile;
+
+	/** The stream appending to the {@link #storeFile} or null if it has not been opened yet. */
+	private OutputStream output;
+
+	/** The number of bytes written to the {@link #storeFile}. */
+	private long storeFileSize = 0;
+
+	/** The positions of all lines in the {@link #storeFile} by the uniform path of their test. */
+	private final Map<String, List<LinePosition>> linePositions = new HashMap<>();
+
+	/** Constructor. */
+	public TestwiseCoverageStore(File storeFile) {
+		this.storeFile = storeFile;
+		logger.debug("Writing testwise coverage to {}", storeFile);
+	}
+
+	/**
+	 * Appends the coverage and the optional execution of a finished test.
+	 *
+	 * @param testEndIndex The position of the test in the order in which the tests ended. Tests may be appended in a
+	 *                     different order if their coverage is converted in parallel.
+	 */
+	public synchronized void append(String uniformPath, long testEndIndex, TestCoverageBuilder coverage,
+									TestExecution execution) throws IOException {
+		List<PathCoverage> paths = Collections.emptyList();
+		if (coverage != null) {
+			paths = coverage.getPaths();
+		}
+		byte[] line = (spilledTestAdapter.toJson(new SpilledTest(uniformPath, execution, paths)) + "\n")
+				.getBytes(StandardCharsets.UTF_8);
+
+		if (output == null) {
+			output = new BufferedOutputStream(new FileOutputStream(storeFile, true));
+			storeFileSize = storeFile.length();
+		}
+		output.write(line);
+		linePositions.computeIfAbsent(uniformPath, path -> new ArrayList<>())
+				.add(new LinePosition(testEndIndex, storeFileSize, line.length));
+		storeFileSize += line.length;
+	}
+
+	/**
+	 * Writes the testwise coverage report for the given available tests and all stored tests to the given file. Stored
+	 * tests that cannot be mapped to an available test are ignored.
+	 */
+	public synchronized void writeReport(Collection<? extends TestDetails> availableTests,
+										 File reportFile) throws IOException {
+		if (output != null) {
+			output.flush();
+		}
+
+		Map<String, TestDetails> testDetailsByUniformPath = new TreeMap<>();
+		for (TestDetails testDetails : availableTests) {
+			testDetailsByUniformPath.put(testDetails.uniformPath, testDetails);
+		}
+		Map<String, List<LinePosition>> linesByAvailableTest = mapToAvailableTests(testDetailsByUniformPath);
+
+		try (RandomAccessFile store = new RandomAccessFile(storeFile, "r");
+			 JsonWriter writer = JsonWriter.of(Okio.buffer(Okio.sink(reportFile)))) {
+			writer.beginObject();
+			writer.name("tests");
+			writer.beginArray();
+			for (TestDetails testDetails : testDetailsByUniformPath.values()) {
+				List<LinePosition> lines = linesByAvailableTest.getOrDefault(testDetails.uniformPath,
+						Collections.emptyList());
+				testInfoAdapter.toJson(writer, buildTestInfo(testDetails, readTests(store, lines)));
+			}
+			writer.endArray();
+			writer.endObject();
+		}
+	}
+
+	/**
+	 * Maps the lines of all stored tests to the uniform path of the available test they belong to. The lines of each
+	 * available test are sorted by the order in which the tests ended.
+	 */
+	private Map<String, List<LinePosition>> mapToAvailableTests(Map<String, TestDetails> testDetailsByUniformPath) {
+		Map<String, List<LinePosition>> linesByAvailableTest = new HashMap<>();
+		for (Map.Entry<String, List<LinePosition>> entry : linePositions.entrySet()) {
+			String uniformPath = entry.getKey();
+			if (!testDetailsByUniformPath.containsKey(uniformPath)) {
+				uniformPath = TestwiseCoverageReportBuilder.stripParameterizedTestArguments(uniformPath);
+			}
+			if (!testDetailsByUniformPath.containsKey(uniformPath)) {
+				logger.warn("No available test found for test '{}'. Its coverage is not included in the report.",
+						entry.getKey());
+				continue;
+			}
+			linesByAvailableTest.computeIfAbsent(uniformPath, path -> new ArrayList<>()).addAll(entry.getValue());
+		}
+		for (List<LinePosition> lines : linesByAvailableTest.values()) {
+			lines.sort((first, second) -> Long.compare(first.testEndIndex, second.testEndIndex));
+		}
+		return linesByAvailableTest;
+	}
+
+	private List<SpilledTest> readTests(RandomAccessFile store, List<LinePosition> lines) throws IOException {
+		List<SpilledTest> tests = new ArrayList<>();
+		for (LinePosition line : lines) {
+			byte[] bytes = new byte[line.length];
+			store.seek(line.offset);
+			store.readFully(bytes);
+			SpilledTest test = spilledTestAdapter.fromJson(new String(bytes, StandardCharsets.UTF_8));
+			if (test != null) {
+				tests.add(test);
+			}
+		}
+		return tests;
+	}
+
+	/** Combines the details with the given stored tests, which must be sorted by the order in which they ended. */
+	private static TestInfo buildTestInfo(TestDetails testDetails, List<SpilledTest> tests) {
+		TestInfoBuilder builder = new TestInfoBuilder(testDetails.uniformPath);
+		builder.setDetails(testDetails);
+
+		String coveredUniformPath = null;
+		for (SpilledTest test : tests) {
+			// like in the report builder, the last given execution wins
+			builder.setExecution(test.execution);
+			if (!test.paths.isEmpty()) {
+				coveredUniformPath = test.uniformPath;
+			}
+		}
+
+		List<SpilledTest> coveringTests = new ArrayList<>();
+		for (SpilledTest test : tests) {
+			if (test.uniformPath.equals(coveredUniformPath) && !test.paths.isEmpty()) {
+				coveringTests.add(test);
+			}
+		}
+
+		TestInfo testInfo = builder.build();
+		if (coveringTests.size() == 1) {
+			testInfo.paths.addAll(coveringTests.get(0).paths);
+		} else if (coveringTests.size() > 1) {
+			testInfo.paths.addAll(mergeCoverage(coveredUniformPath, coveringTests));
+		}
+		return testInfo;
+	}
+
+	/** Merges the coverage of multiple runs of the same test. */
+	private static List<PathCoverage> mergeCoverage(String uniformPath, List<SpilledTest> tests) {
+		TestCoverageBuilder coverage = new TestCoverageBuilder(uniformPath);
+		for (SpilledTest test : tests) {
+			for (PathCoverage path : test.paths) {
+				for (FileCoverage file : path.getFiles()) {
+					FileCoverageBuilder fileCoverage = new FileCoverageBuilder(path.getPath(), file.fileName);
+					fileCoverage.addCompactifiedRanges(file.coveredLines);
+					coverage.add(fileCoverage);
+				}
+			}
+		}
+		return coverage.getPaths();
+	}
+
+	/** Closes the store and deletes its file. */
+	public synchronized void delete() throws IOException {
+		if (output != null) {
+			output.close();
+			output = null;
+		}
+		linePositions.clear();
+		storeFileSize = 0;
+		if (storeFile.exists() && !storeFile.delete()) {
+			throw new IOException("Failed to delete " + storeFile);
+		}
+	}
+
+	/** The position of a line in the {@link #storeFile}. */
+	private static class LinePosition {
+
+		/** The position of the test in the order in which the tests ended. */
+		private final long testEndIndex;
+
+		/** The offset of the line in bytes. */
+		private final long offset;
+
+		/** The length of the line in bytes. */
+		private final int length;
+
+		private LinePosition(long testEndIndex, long offset, int length) {
+			this.testEndIndex = testEndIndex;
+			this.offset = offset;
+			this.length = length;
+		}
+	}
+
+	/** A finished test as it is written to the {@link #storeFile}. */
+	/* package */ static class SpilledTest {
+
+		/** The uniform path of the test as given when it ended. */
+		/* package */ final String uniformPath;
+
+		/** The execution of the test or null if none was given. */
+		/* package */ final TestExecution execution;
+
+		/** The coverage of the test. */
+		/* package */ final List<PathCoverage> paths;
+
+		/* package */ SpilledTest(String uniformPath, TestExecution execution, List<PathCoverage> paths) {
+			this.uniformPath = uniformPath;
+			this.execution = execution;
+			this.paths = paths;
+		}
+	}
+}
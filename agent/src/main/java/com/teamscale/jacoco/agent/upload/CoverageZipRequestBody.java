@@ -0,0 +1,103 @@
+package com.teamscale.jacoco.agent.upload;
+
+import com.teamscale.report.jacoco.CoverageFile;
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * {@link RequestBody} that zips the coverage file together with additional meta data files while the request is
+ * written to the connection, so neither a temporary zip file nor the whole content in memory is needed. Since the size
+ * of the zip is not known up front, the request is sent with chunked transfer encoding. The body can be written
+ * multiple times, e.g. if OkHttp retries the request.
+ */
+public class CoverageZipRequestBody extends RequestBody {
+
+	/** The media type of the body. */
+	private static final MediaType ZIP_MEDIA_TYPE = MediaType.parse("application/zip");
+
+	/** The coverage file to include. */
+	private final CoverageFile coverageFile;
+
+	/** The name of the coverage file within the zip. */
+	private final String coverageFileEntryName;
+
+	/** Additional files to include in the zip. */
+	private final List<Path> additionalMetaDataFiles;
+
+	/** Constructor. */
+	public CoverageZipRequestBody(CoverageFile coverageFile, String coverageFileEntryName,
+								  List<Path> additionalMetaDataFiles) {
+		this.coverageFile = coverageFile;
+		this.coverageFileEntryName = coverageFileEntryName;
+		this.additionalMetaDataFiles = additionalMetaDataFiles;
+	}
+
+	@Override
+	public MediaType contentType() {
+		return ZIP_MEDIA_TYPE;
+	}
+
+	/** The length is unknown, which makes OkHttp use chunked transfer encoding. */
+	@Override
+	public long contentLength() {
+		return -1;
+	}
+
+	@Override
+	public void writeTo(BufferedSink sink) throws IOException {
+		// The sink is owned by OkHttp and must not be closed by us
+		try (ZipOutputStream zipOutputStream = new ZipOutputStream(new NonClosingOutputStream(sink.outputStream()))) {
+			fillZip(zipOutputStream);
+		}
+	}
+
+	/**
+	 * Writes the zip to the given file. Only intended for APIs that need to know the size of the upload in advance.
+	 */
+	public void writeTo(File zipFile) throws IOException {
+		try (ZipOutputStream zipOutputStream = new ZipOutputStream(new FileOutputStream(zipFile))) {
+			fillZip(zipOutputStream);
+		}
+	}
+
+	/** Fills the zip with the coverage file and all {@link #additionalMetaDataFiles}. */
+	private void fillZip(ZipOutputStream zipOutputStream) throws IOException {
+		zipOutputStream.putNextEntry(new ZipEntry(coverageFileEntryName));
+		coverageFile.copy(zipOutputStream);
+
+		for (Path additionalFile : additionalMetaDataFiles) {
+			zipOutputStream.putNextEntry(new ZipEntry(additionalFile.getFileName().toString()));
+			Files.copy(additionalFile, zipOutputStream);
+		}
+	}
+
+	/** Stream that only flushes the underlying stream when it is closed. */
+	private static class NonClosingOutputStream extends FilterOutputStream {
+
+		private NonClosingOutputStream(OutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+		}
+
+		@Override
+		public void close() throws IOException {
+			flush();
+		}
+	}
+}
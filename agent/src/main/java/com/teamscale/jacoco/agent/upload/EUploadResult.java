@@ -0,0 +1,25 @@
+package com.teamscale.jacoco.agent.upload;
+
+/** The result of a single upload attempt. */
+public enum EUploadResult {
+
+	/** The coverage has been uploaded. */
+	SUCCESS,
+
+	/** The upload failed, but may succeed later, e.g. after a network problem or while the server is overloaded. */
+	TEMPORARY_FAILURE,
+
+	/** The upload failed and retrying it will not help, e.g. because of wrong credentials or an invalid target. */
+	PERMANENT_FAILURE;
+
+	/**
+	 * Returns the result of an upload that was answered with the given unsuccessful HTTP status code. Server errors,
+	 * request timeouts and rate limits are temporary, all other client errors are permanent.
+	 */
+	public static EUploadResult forUnsuccessfulStatusCode(int statusCode) {
+		if (statusCode >= 500 || statusCode == 408 || statusCode == 429) {
+			return TEMPORARY_FAILURE;
+		}
+		return PERMANENT_FAILURE;
+	}
+}
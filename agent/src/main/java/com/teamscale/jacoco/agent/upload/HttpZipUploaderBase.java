@@ -1,25 +1,23 @@
 package com.teamscale.jacoco.agent.upload;
 
 import com.teamscale.client.HttpUtils;
+import com.teamscale.jacoco.agent.metrics.AgentMetrics;
+import com.teamscale.jacoco.agent.upload.spool.UploadSpool;
 import com.teamscale.jacoco.agent.util.Benchmark;
 import com.teamscale.jacoco.agent.util.LoggingUtils;
 import com.teamscale.report.jacoco.CoverageFile;
 import okhttp3.HttpUrl;
 import okhttp3.OkHttpClient;
 import okhttp3.ResponseBody;
-import org.conqat.lib.commons.filesystem.FileSystemUtils;
 import org.slf4j.Logger;
 import retrofit2.Response;
 import retrofit2.Retrofit;
 
-import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Collections;
 import java.util.List;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
+import java.util.Map;
 
 /** Base class for uploading the coverage zip to a provided url */
 public abstract class HttpZipUploaderBase<T> implements IUploader {
@@ -36,14 +34,46 @@ public abstract class HttpZipUploaderBase<T> implements IUploader {
 	/** The API class. */
 	private final Class<T> apiClass;
 
+	/** Retries failed uploads or null if failed uploads should not be retried. */
+	private final UploadSpool uploadSpool;
+
 	/** The API which performs the upload */
 	private T api;
 
 	/** Constructor. */
-	public HttpZipUploaderBase(HttpUrl uploadUrl, List<Path> additionalMetaDataFiles, Class<T> apiClass) {
+	public HttpZipUploaderBase(HttpUrl uploadUrl, List<Path> additionalMetaDataFiles, Class<T> apiClass,
+							   UploadSpool uploadSpool) {
 		this.uploadUrl = uploadUrl;
 		this.additionalMetaDataFiles = additionalMetaDataFiles;
 		this.apiClass = apiClass;
+		this.uploadSpool = uploadSpool;
+	}
+
+	/**
+	 * Resumes the upload of the files spooled for the same target in a previous run of the agent. Must be called at the
+	 * end of the constructors of subclasses, since the uploads may start right away.
+	 */
+	protected void resumeSpooledUploads() {
+		if (uploadSpool != null) {
+			uploadSpool.resume(getSpoolTarget(), this::tryUpload);
+		}
+	}
+
+	/**
+	 * Describes the upload target for the upload spool. Files spooled in a previous run of the agent are only uploaded
+	 * by an uploader with the same target.
+	 */
+	protected String getSpoolTarget() {
+		return uploadUrl.toString();
+	}
+
+	/**
+	 * Returns the parameters of an upload that may change while the agent is running or between runs of the agent,
+	 * e.g. the commit. They are passed to {@link #tryUpload(CoverageFile, Map)} and stored with spooled files, so
+	 * retries of failed uploads use the same parameters as the original upload.
+	 */
+	protected Map<String, String> getUploadParameters() {
+		return Collections.emptyMap();
 	}
 
 	/** Template method to configure the OkHttp Client. */
@@ -63,12 +93,21 @@ public abstract class HttpZipUploaderBase<T> implements IUploader {
 
 	/** Uploads the coverage zip to the server */
 	protected abstract Response<ResponseBody> uploadCoverageZip(
-			File coverageFile) throws IOException, UploaderException;
+			CoverageZipRequestBody coverageZip) throws IOException, UploaderException;
 
 	@Override
 	public void upload(CoverageFile coverageFile) {
-		try (Benchmark ignored = new Benchmark("Uploading report via HTTP")) {
-			if (tryUpload(coverageFile)) {
+		try (Benchmark ignored = new Benchmark("Uploading report via HTTP", AgentMetrics.UPLOAD_DURATION)) {
+			Map<String, String> parameters = getUploadParameters();
+			EUploadResult result = tryUpload(coverageFile, parameters);
+			if (result == EUploadResult.SUCCESS) {
+				coverageFile.delete();
+				return;
+			}
+
+			AgentMetrics.UPLOAD_FAILURES.increment();
+			if (result == EUploadResult.TEMPORARY_FAILURE && uploadSpool != null &&
+					uploadSpool.spool(coverageFile, this::tryUpload, getSpoolTarget(), parameters)) {
 				coverageFile.delete();
 			} else {
 				logger.warn("Failed to upload coverage from file {}. Will not retry the upload. " +
@@ -80,22 +119,19 @@ public abstract class HttpZipUploaderBase<T> implements IUploader {
 		}
 	}
 
-	/** Performs the upload and returns <code>true</code> if successful. */
-	protected boolean tryUpload(CoverageFile coverageFile) {
+	/**
+	 * Performs the upload with the given {@link #getUploadParameters() upload parameters} and returns whether it was
+	 * successful or whether it makes sense to retry it.
+	 */
+	protected EUploadResult tryUpload(CoverageFile coverageFile, Map<String, String> parameters) {
 		logger.debug("Uploading coverage to {}", uploadUrl);
 
-		File zipFile;
-		try {
-			zipFile = createZipFile(coverageFile);
-		} catch (IOException e) {
-			logger.error("Failed to compile coverage zip file for upload to {}", uploadUrl, e);
-			return false;
-		}
-
+		CoverageZipRequestBody coverageZip = new CoverageZipRequestBody(coverageFile,
+				getZipEntryCoverageFileName(coverageFile), additionalMetaDataFiles);
 		try {
-			Response<ResponseBody> response = uploadCoverageZip(zipFile);
+			Response<ResponseBody> response = uploadCoverageZip(coverageZip);
 			if (response.isSuccessful()) {
-				return true;
+				return EUploadResult.SUCCESS;
 			}
 
 			String errorBody = "<no server response>";
@@ -105,43 +141,13 @@ public abstract class HttpZipUploaderBase<T> implements IUploader {
 
 			logger.error("Failed to upload coverage to {}. Request failed with error code {}. Error:\n{}",
 					uploadUrl, response.code(), errorBody);
-			return false;
+			return EUploadResult.forUnsuccessfulStatusCode(response.code());
 		} catch (IOException e) {
 			logger.error("Failed to upload coverage to {}. Probably a network problem", uploadUrl, e);
-			return false;
+			return EUploadResult.TEMPORARY_FAILURE;
 		} catch (UploaderException e) {
 			logger.error("Failed to upload coverage to {}. The configuration is probably incorrect", uploadUrl, e);
-			return false;
-		} finally {
-			zipFile.delete();
-		}
-	}
-
-	/**
-	 * Creates the zip file in the system temp directory to upload which includes the given coverage XML and all {@link
-	 * #additionalMetaDataFiles}. The file is marked to be deleted on exit.
-	 */
-	private File createZipFile(CoverageFile coverageFile) throws IOException {
-		File zipFile = Files.createTempFile(coverageFile.getNameWithoutExtension(), ".zip").toFile();
-		zipFile.deleteOnExit();
-		try (FileOutputStream fileOutputStream = new FileOutputStream(zipFile);
-			 ZipOutputStream zipOutputStream = new ZipOutputStream(fileOutputStream)) {
-			fillZipFile(zipOutputStream, coverageFile);
-			return zipFile;
-		}
-	}
-
-	/**
-	 * Fills the upload zip file with the given coverage XML and all {@link #additionalMetaDataFiles}.
-	 */
-	private void fillZipFile(ZipOutputStream zipOutputStream, CoverageFile coverageFile)
-			throws IOException {
-		zipOutputStream.putNextEntry(new ZipEntry(getZipEntryCoverageFileName(coverageFile)));
-		coverageFile.copy(zipOutputStream);
-
-		for (Path additionalFile : additionalMetaDataFiles) {
-			zipOutputStream.putNextEntry(new ZipEntry(additionalFile.getFileName().toString()));
-			zipOutputStream.write(FileSystemUtils.readFileBinary(additionalFile.toFile()));
+			return EUploadResult.PERMANENT_FAILURE;
 		}
 	}
 
@@ -3,28 +3,46 @@ package com.teamscale.jacoco.agent.upload.artifactory;
 import com.teamscale.client.HttpUtils;
 import com.teamscale.client.StringUtils;
 import com.teamscale.jacoco.agent.options.ArtifactoryConfig;
+import com.teamscale.jacoco.agent.upload.CoverageZipRequestBody;
+import com.teamscale.jacoco.agent.upload.EUploadResult;
 import com.teamscale.jacoco.agent.upload.HttpZipUploaderBase;
+import com.teamscale.jacoco.agent.upload.spool.UploadSpool;
 import com.teamscale.report.jacoco.CoverageFile;
 import okhttp3.OkHttpClient;
 import okhttp3.ResponseBody;
 import retrofit2.Response;
 
-import java.io.File;
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Uploads XMLs to Artifactory.
  */
 public class ArtifactoryUploader extends HttpZipUploaderBase<IArtifactoryUploadApi> {
+
+	/** The upload parameter that contains the folder of the commit, i.e. the branch and timestamp and revision. */
+	private static final String COMMIT_FOLDER_PARAMETER = "commit-folder";
+
 	private final ArtifactoryConfig artifactoryConfig;
 	private String uploadPath;
 
 	/** Constructor. */
-	public ArtifactoryUploader(ArtifactoryConfig config, List<Path> additionalMetaDataFiles) {
-		super(config.url, additionalMetaDataFiles, IArtifactoryUploadApi.class);
+	public ArtifactoryUploader(ArtifactoryConfig config, List<Path> additionalMetaDataFiles,
+							   UploadSpool uploadSpool) {
+		super(config.url, additionalMetaDataFiles, IArtifactoryUploadApi.class, uploadSpool);
 		this.artifactoryConfig = config;
+		resumeSpooledUploads();
+	}
+
+	/** Contains the commit, since it determines the upload path. */
+	@Override
+	protected Map<String, String> getUploadParameters() {
+		return Collections.singletonMap(COMMIT_FOLDER_PARAMETER,
+				artifactoryConfig.commitInfo.commit.branchName + "/" + artifactoryConfig.commitInfo.commit.timestamp +
+						"-" + artifactoryConfig.commitInfo.revision);
 	}
 
 	@Override
@@ -33,17 +51,22 @@ public class ArtifactoryUploader extends HttpZipUploaderBase<IArtifactoryUploadA
 		builder.addInterceptor(HttpUtils.getBasicAuthInterceptor(artifactoryConfig.user, artifactoryConfig.password));
 	}
 
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * Synchronized, since the upload path is derived from the coverage file and failed uploads may be retried in the
+	 * background.
+	 */
 	@Override
-	public void upload(CoverageFile coverageFile) {
-		this.uploadPath = String.join("/", artifactoryConfig.commitInfo.commit.branchName,
-				artifactoryConfig.commitInfo.commit.timestamp + "-" + artifactoryConfig.commitInfo.revision,
+	protected synchronized EUploadResult tryUpload(CoverageFile coverageFile, Map<String, String> parameters) {
+		this.uploadPath = String.join("/", parameters.get(COMMIT_FOLDER_PARAMETER),
 				coverageFile.getNameWithoutExtension() + ".zip");
-		super.upload(coverageFile);
+		return super.tryUpload(coverageFile, parameters);
 	}
 
 	@Override
-	protected Response<ResponseBody> uploadCoverageZip(File zipFile) throws IOException {
-		return getApi().uploadCoverageZip(uploadPath, zipFile);
+	protected Response<ResponseBody> uploadCoverageZip(CoverageZipRequestBody coverageZip) throws IOException {
+		return getApi().uploadCoverageZip(uploadPath, coverageZip);
 	}
 
 	@Override
@@ -5,7 +5,6 @@
 +-------------------------------------------------------------------------*/
 package com.teamscale.jacoco.agent.upload.artifactory;
 
-import okhttp3.MediaType;
 import okhttp3.RequestBody;
 import okhttp3.ResponseBody;
 import retrofit2.Call;
@@ -15,7 +14,6 @@ import retrofit2.http.Body;
 import retrofit2.http.PUT;
 import retrofit2.http.Path;
 
-import java.io.File;
 import java.io.IOException;
 
 /** {@link Retrofit} API specification for the {@link ArtifactoryUploader}. */
@@ -28,9 +26,8 @@ public interface IArtifactoryUploadApi {
 	/**
 	 * Convenience method to perform an upload for a coverage zip.
 	 */
-	default Response<ResponseBody> uploadCoverageZip(String path, File data) throws IOException {
-		RequestBody body = RequestBody.create(MediaType.parse("application/zip"), data);
-		return upload(path, body).execute();
+	default Response<ResponseBody> uploadCoverageZip(String path, RequestBody coverageZip) throws IOException {
+		return upload(path, coverageZip).execute();
 	}
 
 }
@@ -0,0 +1,123 @@
+package com.teamscale.jacoco.agent.upload.azure;
+
+import com.teamscale.jacoco.agent.upload.UploaderException;
+import com.teamscale.jacoco.agent.util.DaemonThreadFactory;
+import okhttp3.ResponseBody;
+import retrofit2.Response;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Fills a file on an Azure file storage by uploading its content in ranges of at most {@link #MAX_RANGE_SIZE} bytes,
+ * which is the most the file storage accepts in a single request. The ranges are uploaded in parallel.
+ */
+/* package */ class AzureFileRangeUploader {
+
+	/** The maximum number of bytes that can be written with a single Put Range request. */
+	/* package */ static final int MAX_RANGE_SIZE = 4 * 1024 * 1024;
+
+	/** The number of requests that are sent in parallel. */
+	private static final int UPLOAD_THREADS = 4;
+
+	/** Sends the requests. Shared by all uploaders for the lifetime of the agent. */
+	private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(UPLOAD_THREADS,
+			new DaemonThreadFactory(AzureFileRangeUploader.class, "range upload"));
+
+	/** Uploads a single range of a file. */
+	@FunctionalInterface
+	/* package */ interface IRangeUpload {
+
+		/** Writes the given data to the file on the storage, starting at the given offset. */
+		Response<ResponseBody> upload(long offset, byte[] data) throws IOException, UploaderException;
+	}
+
+	/** Runs the given request on one of the upload threads. */
+	/* package */ static <T> Future<T> submit(Callable<T> request) {
+		return EXECUTOR.submit(request);
+	}
+
+	/**
+	 * Uploads the content of the given non-empty file in ranges. Returns the first unsuccessful response or the
+	 * response of the last range if all ranges have been uploaded successfully. The remaining ranges are cancelled
+	 * after the first failure.
+	 */
+	/* package */ static Response<ResponseBody> upload(File file,
+													   IRangeUpload rangeUpload) throws IOException, UploaderException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			long length = channel.size();
+			List<Future<Response<ResponseBody>>> rangeUploads = new ArrayList<>();
+			for (long offset = 0; offset < length; offset += MAX_RANGE_SIZE) {
+				long rangeOffset = offset;
+				int rangeLength = (int) Math.min(MAX_RANGE_SIZE, length - offset);
+				// Each range is read right before it is sent, so at most one range per thread is held in memory
+				rangeUploads.add(EXECUTOR.submit(
+						() -> rangeUpload.upload(rangeOffset, readRange(channel, rangeOffset, rangeLength))));
+			}
+
+			try {
+				Response<ResponseBody> response = null;
+				for (Future<Response<ResponseBody>> upload : rangeUploads) {
+					response = getResult(upload);
+					if (!response.isSuccessful()) {
+						return response;
+					}
+				}
+				return response;
+			} finally {
+				for (Future<Response<ResponseBody>> upload : rangeUploads) {
+					upload.cancel(true);
+				}
+			}
+		}
+	}
+
+	/** Reads the given range of the file. */
+	private static byte[] readRange(FileChannel channel, long offset, int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, offset + ((Buffer) buffer).position()) < 0) {
+				throw new EOFException("File ended while reading bytes " + offset + " to " + (offset + length));
+			}
+		}
+		return buffer.array();
+	}
+
+	/**
+	 * Waits for the given request and returns its result. Rethrows {@link IOException}s, {@link UploaderException}s
+	 * and unchecked exceptions of the request.
+	 */
+	/* package */ static <T> T getResult(Future<T> request) throws IOException, UploaderException {
+		try {
+			return request.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while uploading to the Azure file storage");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			if (cause instanceof UploaderException) {
+				throw (UploaderException) cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new IOException("Request to the Azure file storage failed", cause);
+		}
+	}
+}
@@ -1,8 +1,10 @@
 package com.teamscale.jacoco.agent.upload.azure;
 
 import com.teamscale.client.EReportFormat;
+import com.teamscale.jacoco.agent.upload.CoverageZipRequestBody;
 import com.teamscale.jacoco.agent.upload.HttpZipUploaderBase;
 import com.teamscale.jacoco.agent.upload.UploaderException;
+import com.teamscale.jacoco.agent.upload.spool.UploadSpool;
 import okhttp3.MediaType;
 import okhttp3.RequestBody;
 import okhttp3.ResponseBody;
@@ -10,10 +12,14 @@ import retrofit2.Response;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -34,6 +40,12 @@ public class AzureFileStorageUploader extends HttpZipUploaderBase<IAzureUploadAp
 	private static final Pattern AZURE_FILE_STORAGE_HOST_PATTERN = Pattern
 			.compile("^(\\w*)\\.file\\.core\\.windows\\.net$");
 
+	/**
+	 * The directories (prefixed with their account) that are known to exist on the file storage. Cached for the
+	 * lifetime of the agent so that uploaders for the same storage don't have to check them again.
+	 */
+	private static final Set<String> EXISTING_DIRECTORIES = ConcurrentHashMap.newKeySet();
+
 	/** The access key for the azure file storage */
 	private final String accessKey;
 
@@ -41,13 +53,14 @@ public class AzureFileStorageUploader extends HttpZipUploaderBase<IAzureUploadAp
 	private final String account;
 
 	/** Constructor. */
-	public AzureFileStorageUploader(AzureFileStorageConfig config, List<Path> additionalMetaDataFiles)
-			throws UploaderException {
-		super(config.url, additionalMetaDataFiles, IAzureUploadApi.class);
+	public AzureFileStorageUploader(AzureFileStorageConfig config, List<Path> additionalMetaDataFiles,
+									UploadSpool uploadSpool) throws UploaderException {
+		super(config.url, additionalMetaDataFiles, IAzureUploadApi.class, uploadSpool);
 		this.accessKey = config.accessKey;
 		this.account = getAccount();
 
 		validateUploadUrl();
+		resumeSpooledUploads();
 	}
 
 	/** Extracts and returns the account of the provided azure file storage from the URL. */
@@ -69,14 +82,30 @@ public class AzureFileStorageUploader extends HttpZipUploaderBase<IAzureUploadAp
 		return String.format("Uploading coverage to the Azure File Storage at %s", this.uploadUrl);
 	}
 
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * The Azure file storage requires the size of a file on creation, so the zip is written to a temporary file first.
+	 * Meanwhile, the storage is checked for an existing file with the same name.
+	 */
 	@Override
-	protected Response<ResponseBody> uploadCoverageZip(File zipFile) throws IOException, UploaderException {
+	protected Response<ResponseBody> uploadCoverageZip(
+			CoverageZipRequestBody coverageZip) throws IOException, UploaderException {
 		String fileName = createFileName();
-		if (checkFile(fileName).isSuccessful()) {
-			logger.warn(String.format("The file %s does already exists at %s", fileName, uploadUrl));
-		}
+		IAzureUploadApi api = getApi();
+		Future<Response<Void>> fileCheck = AzureFileRangeUploader.submit(() -> checkFile(api, fileName));
 
-		return createAndFillFile(zipFile, fileName);
+		File zipFile = Files.createTempFile("coverage", ".zip").toFile();
+		zipFile.deleteOnExit();
+		try {
+			coverageZip.writeTo(zipFile);
+			if (AzureFileRangeUploader.getResult(fileCheck).isSuccessful()) {
+				logger.warn(String.format("The file %s does already exists at %s", fileName, uploadUrl));
+			}
+			return createAndFillFile(zipFile, fileName);
+		} finally {
+			zipFile.delete();
+		}
 	}
 
 	/**
@@ -104,11 +133,15 @@ public class AzureFileStorageUploader extends HttpZipUploaderBase<IAzureUploadAp
 	}
 
 	/**
-	 * Checks the directory path in the azure url. Creates any missing directories.
+	 * Checks the directory path in the azure url. Creates any missing directories. Directories that are already known
+	 * to exist are not checked again.
 	 */
 	private void checkAndCreatePath(List<String> pathParts) throws IOException, UploaderException {
 		for (int i = 2; i <= pathParts.size() - 1; i++) {
 			String directoryPath = String.format("/%s/", String.join("/", pathParts.subList(0, i)));
+			if (EXISTING_DIRECTORIES.contains(account + directoryPath)) {
+				continue;
+			}
 			if (!checkDirectory(directoryPath).isSuccessful()) {
 				Response<ResponseBody> mkdirResponse = createDirectory(directoryPath);
 				if (!mkdirResponse.isSuccessful()) {
@@ -116,6 +149,7 @@ public class AzureFileStorageUploader extends HttpZipUploaderBase<IAzureUploadAp
 							String.format("Creation of path '/%s' was unsuccessful", directoryPath), mkdirResponse);
 				}
 			}
+			EXISTING_DIRECTORIES.add(account + directoryPath);
 		}
 	}
 
@@ -125,7 +159,7 @@ public class AzureFileStorageUploader extends HttpZipUploaderBase<IAzureUploadAp
 	}
 
 	/** Checks if the file with the given name exists */
-	private Response<Void> checkFile(String fileName) throws IOException, UploaderException {
+	private Response<Void> checkFile(IAzureUploadApi api, String fileName) throws IOException, UploaderException {
 		String filePath = uploadUrl.url().getPath() + fileName;
 
 		Map<String, String> headers = AzureFileStorageHttpUtils.getBaseHeaders();
@@ -135,7 +169,7 @@ public class AzureFileStorageUploader extends HttpZipUploaderBase<IAzureUploadAp
 				.getAuthorizationString(HEAD, account, accessKey, filePath, headers, queryParameters);
 
 		headers.put(AUTHORIZATION, auth);
-		return getApi().head(filePath, headers, queryParameters).execute();
+		return api.head(filePath, headers, queryParameters).execute();
 	}
 
 	/** Checks if the directory given by the specified path does exist. */
@@ -173,11 +207,15 @@ public class AzureFileStorageUploader extends HttpZipUploaderBase<IAzureUploadAp
 	private Response<ResponseBody> createAndFillFile(File zipFile,
 													 String fileName) throws UploaderException, IOException {
 		Response<ResponseBody> response = createFile(zipFile, fileName);
-		if (response.isSuccessful()) {
-			return fillFile(zipFile, fileName);
+		if (!response.isSuccessful()) {
+			logger.error(String.format("Creation of file '%s' was unsuccessful.", fileName));
+			return response;
+		}
+		if (zipFile.length() == 0) {
+			return response;
 		}
-		logger.error(String.format("Creation of file '%s' was unsuccessful.", fileName));
-		return response;
+		IAzureUploadApi api = getApi();
+		return AzureFileRangeUploader.upload(zipFile, (offset, data) -> fillRange(api, fileName, offset, data));
 	}
 
 	/**
@@ -201,21 +239,21 @@ public class AzureFileStorageUploader extends HttpZipUploaderBase<IAzureUploadAp
 	}
 
 	/**
-	 * Fills the file defined by the name with the given data. Should be used with {@link #createFile(File, String)},
-	 * because the request only writes exactly the length of the given data, so the file should be exactly as big as the
-	 * data, otherwise it will be partially filled or is not big enough.
+	 * Writes the given data to the file defined by the name, starting at the given offset. Should be used with
+	 * {@link #createFile(File, String)}, because the file must already be big enough to hold the data. The data must
+	 * not be larger than {@link AzureFileRangeUploader#MAX_RANGE_SIZE}.
 	 */
-	private Response<ResponseBody> fillFile(File zipFile,
-											String fileName) throws IOException, UploaderException {
+	private Response<ResponseBody> fillRange(IAzureUploadApi api, String fileName, long offset,
+											 byte[] data) throws IOException, UploaderException {
 		String filePath = uploadUrl.url().getPath() + fileName;
 
-		String range = "bytes=0-" + (zipFile.length() - 1);
+		String range = "bytes=" + offset + "-" + (offset + data.length - 1);
 		String contentType = "application/octet-stream";
 
 		Map<String, String> headers = AzureFileStorageHttpUtils.getBaseHeaders();
 		headers.put(X_MS_WRITE, "update");
 		headers.put(X_MS_RANGE, range);
-		headers.put(CONTENT_LENGTH, "" + zipFile.length());
+		headers.put(CONTENT_LENGTH, "" + data.length);
 		headers.put(CONTENT_TYPE, contentType);
 
 		Map<String, String> queryParameters = new HashMap<>();
@@ -225,7 +263,7 @@ public class AzureFileStorageUploader extends HttpZipUploaderBase<IAzureUploadAp
 				.getAuthorizationString(PUT, account, accessKey, filePath, headers, queryParameters);
 
 		headers.put(AUTHORIZATION, auth);
-		RequestBody content = RequestBody.create(MediaType.parse(contentType), zipFile);
-		return getApi().putData(filePath, headers, queryParameters, content).execute();
+		RequestBody content = RequestBody.create(MediaType.parse(contentType), data);
+		return api.putData(filePath, headers, queryParameters, content).execute();
 	}
 }
@@ -1,17 +1,37 @@
 package com.teamscale.jacoco.agent.upload.delay;
 
+import com.teamscale.jacoco.agent.CoverageAggregator;
 import com.teamscale.jacoco.agent.upload.IUploader;
 import com.teamscale.jacoco.agent.util.DaemonThreadFactory;
 import com.teamscale.jacoco.agent.util.LoggingUtils;
 import com.teamscale.report.jacoco.CoverageFile;
+import com.teamscale.report.jacoco.EmptyReportException;
+import com.teamscale.report.jacoco.JaCoCoXmlReportMerger;
+import com.teamscale.report.jacoco.dump.Dump;
+import org.jacoco.core.data.ExecutionData;
+import org.jacoco.core.data.ExecutionDataReader;
+import org.jacoco.core.data.ExecutionDataStore;
+import org.jacoco.core.data.ExecutionDataWriter;
+import org.jacoco.core.data.SessionInfo;
 import org.slf4j.Logger;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 /**
@@ -20,12 +40,35 @@ import java.util.stream.Stream;
  */
 public class DelayedUploader<T> implements IUploader {
 
+	/** The maximum number of cached XMLs that are merged into a single report when uploading the cached XMLs. */
+	/* package */ static final int MAX_XMLS_PER_MERGED_REPORT = 50;
+
+	/** The maximum number of merged reports that are uploaded at the same time. */
+	private static final int MAX_CONCURRENT_UPLOADS = 3;
+
+	/** The name of the file in the cache directory to which the execution data of all cached dumps is merged. */
+	/* package */ static final String CACHED_EXEC_FILE_NAME = "cached-coverage.exec";
+
 	private final Executor executor;
 	private final Logger logger = LoggingUtils.getLogger(this);
 	private final Function<T, IUploader> wrappedUploaderFactory;
 	private IUploader wrappedUploader = null;
 	private final Path cacheDir;
 
+	/**
+	 * Converts the cached execution data to a coverage report once the commit has been found or null if the coverage
+	 * is cached as XML reports.
+	 */
+	private IDumpConverter cachedDumpConverter = null;
+
+	/** Converts a dump to a coverage report. */
+	@FunctionalInterface
+	public interface IDumpConverter {
+
+		/** Converts the given dump to a coverage report on disk. */
+		CoverageFile convert(Dump dump) throws IOException, EmptyReportException;
+	}
+
 	public DelayedUploader(Function<T, IUploader> wrappedUploaderFactory,
 						   Path cacheDir) {
 		this(wrappedUploaderFactory, cacheDir, Executors.newSingleThreadExecutor(
@@ -87,28 +130,199 @@ public class DelayedUploader<T> implements IUploader {
 			wrappedUploader = wrappedUploaderFactory.apply(information);
 			logger.info("Commit to upload to has been found: {}. Uploading any cached XMLs now to {}", information,
 					wrappedUploader.describe());
-			executor.execute(this::uploadCachedXmls);
+			executor.execute(() -> {
+				uploadCachedXmls();
+				uploadCachedExecutionData();
+			});
 		} else {
 			logger.error("Tried to set upload commit multiple times (old uploader: {}, new commit: {})." +
 					" This is a programming error. Please report a bug.", wrappedUploader.describe(), information);
 		}
 	}
 
+	/**
+	 * Makes {@link #cacheDump(Dump)} cache the execution data of dumps instead of XML reports while the commit has not
+	 * been found. Once the commit is found, the cached execution data is converted with the given converter and
+	 * uploaded as a single report. This avoids converting coverage that may never be uploaded and keeps the cache
+	 * small, since it only grows with the number of classes and not with the number of dumps.
+	 */
+	public synchronized void cacheExecutionData(IDumpConverter converter) {
+		this.cachedDumpConverter = converter;
+	}
+
+	/**
+	 * Merges the execution data of the given dump into the cached execution data if execution data is cached and the
+	 * commit has not been found yet. Returns the file containing the cached execution data or null if the dump has not
+	 * been cached and must be converted and uploaded as usual.
+	 */
+	public synchronized Path cacheDump(Dump dump) throws IOException {
+		if (wrappedUploader != null || cachedDumpConverter == null) {
+			return null;
+		}
+
+		Path execFile = cacheDir.resolve(CACHED_EXEC_FILE_NAME);
+		CoverageAggregator aggregator = new CoverageAggregator();
+		if (Files.exists(execFile)) {
+			aggregator.add(readDump(execFile));
+		}
+		aggregator.add(dump);
+		writeDump(aggregator.takeAggregate(), execFile);
+		logger.info("The commit to upload to has not yet been found. Caching execution data in {}",
+				execFile.toAbsolutePath());
+		return execFile;
+	}
+
+	/**
+	 * Converts and uploads the cached execution data, if any. The cached execution data is kept if the conversion
+	 * fails, so it can be converted manually with the convert command.
+	 */
+	private void uploadCachedExecutionData() {
+		Path execFile = cacheDir.resolve(CACHED_EXEC_FILE_NAME);
+		if (cachedDumpConverter == null || !Files.exists(execFile)) {
+			return;
+		}
+
+		CoverageFile coverageFile;
+		try {
+			coverageFile = cachedDumpConverter.convert(readDump(execFile));
+		} catch (IOException e) {
+			logger.error("Failed to convert the cached execution data in {}. You can convert and upload it manually",
+					execFile.toAbsolutePath(), e);
+			return;
+		} catch (EmptyReportException e) {
+			logger.warn("The cached execution data in {} does not contain any coverage", execFile.toAbsolutePath(), e);
+			deleteQuietly(execFile);
+			return;
+		}
+		deleteQuietly(execFile);
+		wrappedUploader.upload(coverageFile);
+		logger.debug("Finished upload of cached execution data to {}", wrappedUploader.describe());
+	}
+
+	/** Reads the execution data written by {@link #writeDump(Dump, Path)}. */
+	private static Dump readDump(Path execFile) throws IOException {
+		ExecutionDataStore store = new ExecutionDataStore();
+		List<SessionInfo> sessions = new ArrayList<>(1);
+		try (InputStream input = new BufferedInputStream(Files.newInputStream(execFile))) {
+			ExecutionDataReader reader = new ExecutionDataReader(input);
+			reader.setSessionInfoVisitor(sessions::add);
+			reader.setExecutionDataVisitor(store::put);
+			reader.read();
+		}
+		if (sessions.isEmpty()) {
+			throw new IOException("The cached execution data in " + execFile + " does not contain a session");
+		}
+		return new Dump(sessions.get(0), store);
+	}
+
+	/**
+	 * Writes the given dump to the given file. The dump is written to a temporary file first, so the previously cached
+	 * execution data is not lost if the agent is stopped while writing.
+	 */
+	private static void writeDump(Dump dump, Path execFile) throws IOException {
+		Path tempFile = execFile.resolveSibling(execFile.getFileName() + ".tmp");
+		Files.createDirectories(execFile.getParent());
+		try (OutputStream output = new BufferedOutputStream(Files.newOutputStream(tempFile))) {
+			ExecutionDataWriter writer = new ExecutionDataWriter(output);
+			writer.visitSessionInfo(dump.info);
+			for (ExecutionData data : dump.store.getContents()) {
+				writer.visitClassExecution(data);
+			}
+		}
+		Files.move(tempFile, execFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Uploads all cached XMLs. To catch up quickly with a large backlog, the XMLs are merged into reports of up to
+	 * {@link #MAX_XMLS_PER_MERGED_REPORT} XMLs each and up to {@link #MAX_CONCURRENT_UPLOADS} of these reports are
+	 * uploaded at the same time.
+	 */
 	private void uploadCachedXmls() {
+		List<Path> xmlFiles;
 		try {
 			if (!Files.isDirectory(cacheDir)) {
 				// Found data before XML was dumped
 				return;
 			}
-			Stream<Path> xmlFilesStream = Files.list(cacheDir).filter(path -> {
-				String fileName = path.getFileName().toString();
-				return fileName.startsWith("jacoco-") && fileName.endsWith(".xml");
+			try (Stream<Path> xmlFilesStream = Files.list(cacheDir)) {
+				xmlFiles = xmlFilesStream.filter(path -> {
+					String fileName = path.getFileName().toString();
+					return fileName.startsWith("jacoco-") && fileName.endsWith(".xml");
+				}).sorted().collect(Collectors.toList());
+			}
+		} catch (IOException e) {
+			logger.error("Failed to list cached coverage XML files in {}", cacheDir.toAbsolutePath(), e);
+			return;
+		}
+		if (xmlFiles.isEmpty()) {
+			return;
+		}
+
+		List<Callable<Void>> uploads = new ArrayList<>();
+		AtomicInteger uploadedXmls = new AtomicInteger();
+		for (int i = 0; i < xmlFiles.size(); i += MAX_XMLS_PER_MERGED_REPORT) {
+			List<Path> batch = xmlFiles.subList(i, Math.min(i + MAX_XMLS_PER_MERGED_REPORT, xmlFiles.size()));
+			uploads.add(() -> {
+				uploadMerged(batch);
+				logger.info("Uploaded {} of {} cached coverage XMLs", uploadedXmls.addAndGet(batch.size()),
+						xmlFiles.size());
+				return null;
 			});
-			xmlFilesStream.forEach(path -> wrappedUploader.upload(new CoverageFile(path.toFile())));
+		}
+		logger.info("Uploading {} cached coverage XMLs as {} merged reports to {}", xmlFiles.size(), uploads.size(),
+				wrappedUploader.describe());
+
+		ExecutorService uploadExecutor = Executors.newFixedThreadPool(Math.min(MAX_CONCURRENT_UPLOADS, uploads.size()),
+				new DaemonThreadFactory(DelayedUploader.class, "Cached XML upload thread"));
+		try {
+			uploadExecutor.invokeAll(uploads);
 			logger.debug("Finished upload of cached XMLs to {}", wrappedUploader.describe());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			logger.warn("Interrupted while uploading cached XMLs. {} of {} XMLs have been uploaded", uploadedXmls.get(),
+					xmlFiles.size());
+		} finally {
+			uploadExecutor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Merges the given XMLs into a single report and uploads it. The XMLs are deleted once they have been merged, so
+	 * their coverage is retained in the merged report if the upload fails. XMLs that cannot be merged are uploaded
+	 * one by one instead.
+	 */
+	private void uploadMerged(List<Path> xmlFiles) {
+		if (xmlFiles.size() == 1) {
+			wrappedUploader.upload(new CoverageFile(xmlFiles.get(0).toFile()));
+			return;
+		}
+
+		Path mergedFile = cacheDir.resolve("merged-" + xmlFiles.get(0).getFileName());
+		try {
+			JaCoCoXmlReportMerger merger = new JaCoCoXmlReportMerger();
+			for (Path xmlFile : xmlFiles) {
+				merger.merge(xmlFile.toFile());
+			}
+			try (OutputStream output = Files.newOutputStream(mergedFile)) {
+				merger.writeTo(output);
+			}
 		} catch (IOException e) {
-			logger.error("Failed to list cached coverage XML files in {}", cacheDir.toAbsolutePath(), e);
+			logger.warn("Failed to merge {} cached coverage XMLs. Uploading them one by one", xmlFiles.size(), e);
+			deleteQuietly(mergedFile);
+			xmlFiles.forEach(xmlFile -> wrappedUploader.upload(new CoverageFile(xmlFile.toFile())));
+			return;
 		}
 
+		xmlFiles.forEach(this::deleteQuietly);
+		wrappedUploader.upload(new CoverageFile(mergedFile.toFile()));
+	}
+
+	/** Deletes the given file and logs a warning if that fails. */
+	private void deleteQuietly(Path file) {
+		try {
+			Files.deleteIfExists(file);
+		} catch (IOException e) {
+			logger.warn("Failed to delete {}. You can delete it yourself anytime - it is no longer needed.", file, e);
+		}
 	}
 }
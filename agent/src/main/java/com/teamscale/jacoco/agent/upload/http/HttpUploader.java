@@ -1,11 +1,12 @@
 package com.teamscale.jacoco.agent.upload.http;
 
+import com.teamscale.jacoco.agent.upload.CoverageZipRequestBody;
 import com.teamscale.jacoco.agent.upload.HttpZipUploaderBase;
+import com.teamscale.jacoco.agent.upload.spool.UploadSpool;
 import okhttp3.HttpUrl;
 import okhttp3.ResponseBody;
 import retrofit2.Response;
 
-import java.io.File;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.List;
@@ -15,13 +16,14 @@ import java.util.List;
  */
 public class HttpUploader extends HttpZipUploaderBase<IHttpUploadApi> {
 	/** Constructor. */
-	public HttpUploader(HttpUrl uploadUrl, List<Path> additionalMetaDataFiles) {
-		super(uploadUrl, additionalMetaDataFiles, IHttpUploadApi.class);
+	public HttpUploader(HttpUrl uploadUrl, List<Path> additionalMetaDataFiles, UploadSpool uploadSpool) {
+		super(uploadUrl, additionalMetaDataFiles, IHttpUploadApi.class, uploadSpool);
+		resumeSpooledUploads();
 	}
 
 	@Override
-	protected Response<ResponseBody> uploadCoverageZip(File zipFile) throws IOException {
-		return getApi().uploadCoverageZip(zipFile);
+	protected Response<ResponseBody> uploadCoverageZip(CoverageZipRequestBody coverageZip) throws IOException {
+		return getApi().uploadCoverageZip(coverageZip);
 	}
 
 	/** {@inheritDoc} */
@@ -5,7 +5,6 @@
 +-------------------------------------------------------------------------*/
 package com.teamscale.jacoco.agent.upload.http;
 
-import okhttp3.MediaType;
 import okhttp3.MultipartBody;
 import okhttp3.RequestBody;
 import okhttp3.ResponseBody;
@@ -16,7 +15,6 @@ import retrofit2.http.Multipart;
 import retrofit2.http.POST;
 import retrofit2.http.Part;
 
-import java.io.File;
 import java.io.IOException;
 
 /** {@link Retrofit} API specification for the {@link HttpUploader}. */
@@ -30,9 +28,8 @@ public interface IHttpUploadApi {
 	/**
 	 * Convenience method to perform an {@link #upload(okhttp3.MultipartBody.Part)} call for a coverage zip.
 	 */
-	public default Response<ResponseBody> uploadCoverageZip(File data) throws IOException {
-		RequestBody body = RequestBody.create(MediaType.parse("application/zip"), data);
-		MultipartBody.Part part = MultipartBody.Part.createFormData("file", "coverage.zip", body);
+	public default Response<ResponseBody> uploadCoverageZip(RequestBody coverageZip) throws IOException {
+		MultipartBody.Part part = MultipartBody.Part.createFormData("file", "coverage.zip", coverageZip);
 		return upload(part).execute();
 	}
 
@@ -0,0 +1,452 @@
+package com.teamscale.jacoco.agent.upload.spool;
+
+import com.teamscale.jacoco.agent.metrics.AgentMetrics;
+import com.teamscale.jacoco.agent.upload.EUploadResult;
+import com.teamscale.jacoco.agent.util.DaemonThreadFactory;
+import com.teamscale.jacoco.agent.util.LoggingUtils;
+import com.teamscale.report.jacoco.CoverageFile;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Keeps coverage files whose upload failed on disk and retries their upload in the background with exponential
+ * backoff and jitter, so coverage is not lost during short outages of the upload target. The spool is shared by all
+ * uploaders of the agent. Its total size is limited, if it is exceeded the oldest files are discarded first.
+ * <p>
+ * Only temporary failures are retried. If a retry fails permanently, e.g. because the credentials are wrong, the file
+ * is parked: It stays in the spool, but its upload is only retried after the next restart of the agent, which gives
+ * the user the chance to fix the configuration.
+ * <p>
+ * The spool survives restarts of the agent: Each spooled file is stored together with a description of its upload
+ * target and the parameters of its upload, e.g. the commit and partition. Files left by a previous run are picked up
+ * when the spool is created and their upload is resumed with their original parameters as soon as an uploader for the
+ * same target {@link #resume(String, IUploadAttempt) registers}.
+ */
+public class UploadSpool {
+
+	/** The delay before the first retry. */
+	private static final Duration DEFAULT_INITIAL_DELAY = Duration.ofSeconds(30);
+
+	/** The maximum delay between two retries. */
+	private static final Duration DEFAULT_MAX_DELAY = Duration.ofHours(1);
+
+	/**
+	 * The name of the file next to each spooled file that contains the description of its upload target and its upload
+	 * parameters. It is written after the spooled file, so entries without it are incomplete.
+	 */
+	/* package */ static final String UPLOAD_FILE_NAME = ".upload.properties";
+
+	/** The key of the upload target in the {@link #UPLOAD_FILE_NAME}. */
+	private static final String TARGET_KEY = "target";
+
+	/** The prefix of the keys of the upload parameters in the {@link #UPLOAD_FILE_NAME}. */
+	private static final String PARAMETER_KEY_PREFIX = "parameter.";
+
+	/** The logger. */
+	private final Logger logger = LoggingUtils.getLogger(this);
+
+	/** The directory in which the spooled files are stored. */
+	private final Path directory;
+
+	/** The maximum total size of all spooled files in bytes. */
+	private final long maxSizeInBytes;
+
+	/** The delay before the first retry. Doubled with every failed retry up to {@link #maxDelay}. */
+	private final Duration initialDelay;
+
+	/** The maximum delay between two retries. */
+	private final Duration maxDelay;
+
+	/** Runs the retries. */
+	private final ScheduledExecutorService executor;
+
+	/** Randomizes the retry delays, so retries of multiple files or agents do not hit the server all at once. */
+	private final Random random = new Random();
+
+	/** The spooled files, oldest first. Includes files of previous runs that have not been resumed yet. */
+	private final Deque<Entry> entries = new ArrayDeque<>();
+
+	/** The total size of all spooled files in bytes. */
+	private long totalSizeInBytes = 0;
+
+	/** Used to create a unique sub directory for every spooled file. */
+	private long nextEntryId = 1;
+
+	/** Constructor. */
+	public UploadSpool(Path directory, long maxSizeInBytes) {
+		this(directory, maxSizeInBytes, DEFAULT_INITIAL_DELAY, DEFAULT_MAX_DELAY,
+				Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory(UploadSpool.class, "Retry")));
+	}
+
+	/**
+	 * Visible for testing. Allows tests to control the delays and the {@link ScheduledExecutorService} that runs the
+	 * retries.
+	 */
+	/* package */ UploadSpool(Path directory, long maxSizeInBytes, Duration initialDelay, Duration maxDelay,
+							  ScheduledExecutorService executor) {
+		this.directory = directory;
+		this.maxSizeInBytes = maxSizeInBytes;
+		this.initialDelay = initialDelay;
+		this.maxDelay = maxDelay;
+		this.executor = executor;
+
+		recoverEntries();
+		registerShutdownHook();
+	}
+
+	/** Adds the complete files a previous run left in the spool directory and deletes incomplete ones. */
+	private synchronized void recoverEntries() {
+		if (!Files.isDirectory(directory)) {
+			return;
+		}
+
+		List<Path> entryDirectories;
+		try (Stream<Path> paths = Files.list(directory)) {
+			entryDirectories = paths.filter(path -> Files.isDirectory(path) && parseEntryId(path) > 0)
+					.sorted(Comparator.comparingLong(UploadSpool::parseEntryId)).collect(Collectors.toList());
+		} catch (IOException e) {
+			logger.error("Failed to read the upload spool {}. Files of previous runs are not uploaded.",
+					directory.toAbsolutePath(), e);
+			return;
+		}
+
+		for (Path entryDirectory : entryDirectories) {
+			nextEntryId = Math.max(nextEntryId, parseEntryId(entryDirectory) + 1);
+			try {
+				Entry entry = readEntry(entryDirectory);
+				if (entry == null) {
+					logger.debug("Deleting incomplete upload spool entry {}", entryDirectory);
+					deleteEntryDirectory(entryDirectory);
+					continue;
+				}
+				entries.addLast(entry);
+				totalSizeInBytes += entry.size;
+			} catch (IOException e) {
+				logger.warn("Failed to read {} from the upload spool. You may upload and delete it manually.",
+						entryDirectory, e);
+			}
+		}
+		if (!entries.isEmpty()) {
+			logger.info("Found {} coverage files in the upload spool {} whose upload failed in a previous run." +
+							" Their upload is retried once the agent uploads to the same target again.", entries.size(),
+					directory.toAbsolutePath());
+			evictUntilSpaceFor(0);
+		}
+	}
+
+	/** Returns the ID of the given entry directory or 0 if it is not an entry directory. */
+	private static long parseEntryId(Path entryDirectory) {
+		try {
+			return Long.parseLong(entryDirectory.getFileName().toString());
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	/** Reads the entry stored in the given directory or returns null if it is incomplete. */
+	private static Entry readEntry(Path entryDirectory) throws IOException {
+		Path uploadFile = entryDirectory.resolve(UPLOAD_FILE_NAME);
+		if (!Files.exists(uploadFile)) {
+			return null;
+		}
+		Properties properties = new Properties();
+		try (InputStream inputStream = Files.newInputStream(uploadFile)) {
+			properties.load(inputStream);
+		}
+		String target = properties.getProperty(TARGET_KEY);
+		if (target == null) {
+			return null;
+		}
+		Map<String, String> parameters = new HashMap<>();
+		for (String key : properties.stringPropertyNames()) {
+			if (key.startsWith(PARAMETER_KEY_PREFIX)) {
+				parameters.put(key.substring(PARAMETER_KEY_PREFIX.length()), properties.getProperty(key));
+			}
+		}
+
+		try (Stream<Path> paths = Files.list(entryDirectory)) {
+			Optional<Path> spooledFile = paths.filter(path -> !path.equals(uploadFile)).findFirst();
+			if (!spooledFile.isPresent()) {
+				return null;
+			}
+			return new Entry(spooledFile.get(), Files.size(spooledFile.get()), null, target, parameters);
+		}
+	}
+
+	/** Writes the description of the upload target and the upload parameters of an entry to its directory. */
+	private static void writeUploadFile(Path entryDirectory, String target,
+										Map<String, String> parameters) throws IOException {
+		Properties properties = new Properties();
+		properties.setProperty(TARGET_KEY, target);
+		parameters.forEach((key, value) -> properties.setProperty(PARAMETER_KEY_PREFIX + key, value));
+		try (OutputStream outputStream = Files.newOutputStream(entryDirectory.resolve(UPLOAD_FILE_NAME))) {
+			properties.store(outputStream, null);
+		}
+	}
+
+	/**
+	 * Resumes the upload of the files spooled in a previous run for the given upload target. Should be called by
+	 * uploaders once they are fully constructed.
+	 *
+	 * @param target        describes the upload target. Must be the same as the one passed to
+	 *                      {@link #spool(CoverageFile, IUploadAttempt, String, Map)}.
+	 * @param uploadAttempt performs a single upload attempt of a spooled file.
+	 */
+	public synchronized void resume(String target, IUploadAttempt uploadAttempt) {
+		int resumedEntries = 0;
+		for (Entry entry : entries) {
+			if (entry.uploadAttempt == null && entry.target.equals(target)) {
+				entry.uploadAttempt = uploadAttempt;
+				scheduleRetry(entry);
+				resumedEntries++;
+			}
+		}
+		if (resumedEntries > 0) {
+			logger.info("Resuming the upload of {} coverage files of a previous run to {}.", resumedEntries, target);
+		}
+	}
+
+	private void registerShutdownHook() {
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			synchronized (this) {
+				if (!entries.isEmpty()) {
+					logger.warn("{} coverage files could not be uploaded before the application was shut down." +
+							" They are kept in {} and uploaded once the agent uploads to the same target again after" +
+							" a restart. You can also upload them yourself manually.", entries.size(),
+							directory.toAbsolutePath());
+				}
+			}
+		}));
+	}
+
+	/**
+	 * Copies the given coverage file into the spool and schedules retries of its upload. The caller remains
+	 * responsible for the given file.
+	 *
+	 * @param uploadAttempt performs a single upload attempt of the spooled copy.
+	 * @param target        describes the upload target. Files spooled in a previous run are only resumed by uploaders
+	 *                      with the same target.
+	 * @param parameters    the parameters of the upload that are passed to every upload attempt, e.g. the commit.
+	 *                      Stored with the file, so a resumed upload uses the original parameters and not the ones of
+	 *                      the current run.
+	 * @return whether the file was spooled. If not, the coverage is only kept in the given file.
+	 */
+	public boolean spool(CoverageFile coverageFile, IUploadAttempt uploadAttempt, String target,
+						 Map<String, String> parameters) {
+		Entry entry;
+		synchronized (this) {
+			Path entryDirectory = null;
+			try {
+				entryDirectory = createEntryDirectory();
+				Path spooledFile = entryDirectory.resolve(coverageFile.getName());
+				try (OutputStream outputStream = Files.newOutputStream(spooledFile)) {
+					coverageFile.copy(outputStream);
+				}
+				long size = Files.size(spooledFile);
+				if (size > maxSizeInBytes) {
+					logger.warn("Coverage file {} is larger than the maximum size of the upload spool.", coverageFile);
+					deleteEntryDirectory(entryDirectory);
+					return false;
+				}
+				writeUploadFile(entryDirectory, target, parameters);
+				entry = new Entry(spooledFile, size, uploadAttempt, target, parameters);
+				evictUntilSpaceFor(size);
+			} catch (IOException e) {
+				logger.error("Failed to copy coverage file {} to the upload spool {}.", coverageFile,
+						directory.toAbsolutePath(), e);
+				if (entryDirectory != null) {
+					deleteEntryDirectory(entryDirectory);
+				}
+				return false;
+			}
+
+			entries.addLast(entry);
+			totalSizeInBytes += entry.size;
+			scheduleRetry(entry);
+		}
+		logger.warn("Failed to upload coverage to {}. Will retry the upload in the background. The coverage is kept" +
+				" in {} until then.", target, entry.file.toAbsolutePath());
+		return true;
+	}
+
+	/**
+	 * Creates the directory of a new entry. Skips IDs whose directory already exists, e.g. because another agent uses
+	 * the same spool directory.
+	 */
+	private Path createEntryDirectory() throws IOException {
+		Files.createDirectories(directory);
+		while (true) {
+			Path entryDirectory = directory.resolve(String.valueOf(nextEntryId++));
+			try {
+				return Files.createDirectory(entryDirectory);
+			} catch (FileAlreadyExistsException e) {
+				// try the next ID
+			}
+		}
+	}
+
+	/** Discards the oldest spooled files until the given number of bytes can be added without exceeding the limit. */
+	private void evictUntilSpaceFor(long size) {
+		while (!entries.isEmpty() && totalSizeInBytes + size > maxSizeInBytes) {
+			Entry oldest = entries.peekFirst();
+			logger.error("The upload spool {} is full. Discarding the oldest coverage file {} that could not be" +
+					" uploaded to {}. This coverage is lost. Increase 'upload-spool-size' to keep more coverage.",
+					directory.toAbsolutePath(), oldest.file.getFileName(), oldest.target);
+			remove(oldest);
+		}
+	}
+
+	/** Removes the entry from the spool and deletes its file. */
+	private void remove(Entry entry) {
+		if (!entries.remove(entry)) {
+			return;
+		}
+		totalSizeInBytes -= entry.size;
+		if (entry.retry != null) {
+			entry.retry.cancel(false);
+		}
+		deleteEntryDirectory(entry.file.getParent());
+		if (entries.isEmpty()) {
+			// Don't leave an empty directory behind in the output directory
+			try {
+				Files.deleteIfExists(directory);
+			} catch (IOException e) {
+				logger.debug("Failed to delete the empty upload spool {}", directory, e);
+			}
+		}
+	}
+
+	/** Deletes the directory of an entry with the spooled file and the description of its target. */
+	private void deleteEntryDirectory(Path entryDirectory) {
+		try (Stream<Path> paths = Files.list(entryDirectory)) {
+			for (Path path : paths.collect(Collectors.toList())) {
+				Files.deleteIfExists(path);
+			}
+			Files.deleteIfExists(entryDirectory);
+		} catch (IOException e) {
+			logger.warn("Failed to delete {} from the upload spool. You may delete it manually.", entryDirectory, e);
+		}
+	}
+
+	/** Schedules the next retry of the given entry with exponential backoff and jitter. */
+	private void scheduleRetry(Entry entry) {
+		long delayMillis = initialDelay.toMillis() << Math.min(entry.failedRetries, 30);
+		delayMillis = Math.min(Math.max(delayMillis, 0), maxDelay.toMillis());
+		// Randomize the second half of the delay
+		long jitteredDelayMillis = delayMillis / 2 + (long) (random.nextDouble() * (delayMillis - delayMillis / 2));
+		entry.retry = executor.schedule(() -> retry(entry), jitteredDelayMillis, TimeUnit.MILLISECONDS);
+	}
+
+	private void retry(Entry entry) {
+		synchronized (this) {
+			if (!entries.contains(entry)) {
+				// Evicted in the meantime
+				return;
+			}
+		}
+
+		EUploadResult result;
+		try {
+			result = entry.uploadAttempt.tryUpload(new CoverageFile(entry.file.toFile()), entry.parameters);
+		} catch (Throwable t) {
+			// we want to catch anything in order to keep retrying the other files. Retrying will most likely run into
+			// the same unexpected problem, so the file is parked.
+			logger.error("Retrying the upload of {} to {} failed with an exception", entry.file, entry.target, t);
+			result = EUploadResult.PERMANENT_FAILURE;
+		}
+
+		if (result != EUploadResult.SUCCESS) {
+			AgentMetrics.UPLOAD_FAILURES.increment();
+		}
+
+		synchronized (this) {
+			if (result == EUploadResult.SUCCESS) {
+				logger.info("Successfully uploaded spooled coverage file {} to {}.", entry.file.getFileName(),
+						entry.target);
+				remove(entry);
+			} else if (!entries.contains(entry)) {
+				// Evicted in the meantime
+				return;
+			} else if (result == EUploadResult.TEMPORARY_FAILURE) {
+				entry.failedRetries++;
+				scheduleRetry(entry);
+			} else {
+				entry.retry = null;
+				logger.error("The upload of {} to {} failed permanently, e.g. because of wrong credentials or an" +
+								" invalid upload target. It is not retried until the agent is restarted. Please fix" +
+								" the configuration or upload the file manually.", entry.file.toAbsolutePath(),
+						entry.target);
+			}
+		}
+	}
+
+	/** Returns the number of spooled files. */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/** A single upload attempt. */
+	@FunctionalInterface
+	public interface IUploadAttempt {
+
+		/** Uploads the given coverage file with the given upload parameters. Must not delete the file. */
+		EUploadResult tryUpload(CoverageFile coverageFile, Map<String, String> parameters);
+	}
+
+	/** A spooled coverage file. */
+	private static class Entry {
+
+		/** The spooled copy of the coverage file. */
+		private final Path file;
+
+		/** The size of the file in bytes. */
+		private final long size;
+
+		/** Uploads the file or null if the file was spooled in a previous run and has not been resumed yet. */
+		private IUploadAttempt uploadAttempt;
+
+		/** Describes the upload target. */
+		private final String target;
+
+		/** The parameters of the upload. */
+		private final Map<String, String> parameters;
+
+		/** The number of failed retries so far. */
+		private int failedRetries = 0;
+
+		/** The scheduled retry. */
+		private ScheduledFuture<?> retry;
+
+		private Entry(Path file, long size, IUploadAttempt uploadAttempt, String target,
+					  Map<String, String> parameters) {
+			this.file = file;
+			this.size = size;
+			this.uploadAttempt = uploadAttempt;
+			this.target = target;
+			this.parameters = Collections.unmodifiableMap(new HashMap<>(parameters));
+		}
+	}
+}
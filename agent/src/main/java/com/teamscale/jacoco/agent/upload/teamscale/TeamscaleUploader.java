@@ -1,35 +1,99 @@
 package com.teamscale.jacoco.agent.upload.teamscale;
 
+import com.teamscale.client.CommitDescriptor;
 import com.teamscale.client.EReportFormat;
+import com.teamscale.client.HttpStatusException;
 import com.teamscale.client.ITeamscaleService;
 import com.teamscale.client.TeamscaleServer;
 import com.teamscale.client.TeamscaleServiceGenerator;
+import com.teamscale.jacoco.agent.metrics.AgentMetrics;
+import com.teamscale.jacoco.agent.upload.EUploadResult;
 import com.teamscale.jacoco.agent.upload.IUploader;
+import com.teamscale.jacoco.agent.upload.spool.UploadSpool;
 import com.teamscale.jacoco.agent.util.Benchmark;
 import com.teamscale.jacoco.agent.util.LoggingUtils;
 import com.teamscale.report.jacoco.CoverageFile;
 import org.slf4j.Logger;
 
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
 
 /** Uploads XML Coverage to a Teamscale instance. */
 public class TeamscaleUploader implements IUploader {
 
+	/** The upload parameter that contains the partition. */
+	private static final String PARTITION_PARAMETER = "partition";
+
+	/** The upload parameter that contains the upload message. */
+	private static final String MESSAGE_PARAMETER = "message";
+
+	/** The upload parameter that contains the commit in the format of {@link CommitDescriptor#toString()}. */
+	private static final String COMMIT_PARAMETER = "commit";
+
+	/** The upload parameter that contains the revision. */
+	private static final String REVISION_PARAMETER = "revision";
+
 	/** The logger. */
 	private final Logger logger = LoggingUtils.getLogger(this);
 
 	/** Teamscale server details. */
 	private final TeamscaleServer teamscaleServer;
 
+	/** Retries failed uploads or null if failed uploads should not be retried. */
+	private final UploadSpool uploadSpool;
+
 	/** Constructor. */
-	public TeamscaleUploader(TeamscaleServer teamscaleServer) {
+	public TeamscaleUploader(TeamscaleServer teamscaleServer, UploadSpool uploadSpool) {
 		this.teamscaleServer = teamscaleServer;
+		this.uploadSpool = uploadSpool;
+
+		if (uploadSpool != null) {
+			uploadSpool.resume(getSpoolTarget(), this::tryUploading);
+		}
+	}
+
+	/**
+	 * Describes the Teamscale project for the upload spool. Does not contain the partition and commit, since they are
+	 * stored as upload parameters with each spooled file.
+	 */
+	private String getSpoolTarget() {
+		return "Teamscale " + teamscaleServer.url + " as user " + teamscaleServer.userName + " for " +
+				teamscaleServer.project;
+	}
+
+	/**
+	 * Returns the current partition, message, commit and revision. They may be changed via the HTTP API, so retries of
+	 * failed uploads must use the returned ones and not the current ones.
+	 */
+	private Map<String, String> getUploadParameters() {
+		Map<String, String> parameters = new HashMap<>();
+		if (teamscaleServer.partition != null) {
+			parameters.put(PARTITION_PARAMETER, teamscaleServer.partition);
+		}
+		parameters.put(MESSAGE_PARAMETER, teamscaleServer.getMessage());
+		if (teamscaleServer.commit != null) {
+			parameters.put(COMMIT_PARAMETER, teamscaleServer.commit.toString());
+		}
+		if (teamscaleServer.revision != null) {
+			parameters.put(REVISION_PARAMETER, teamscaleServer.revision);
+		}
+		return parameters;
 	}
 
 	@Override
 	public void upload(CoverageFile coverageFile) {
-		try (Benchmark benchmark = new Benchmark("Uploading report to Teamscale")) {
-			if (tryUploading(coverageFile)) {
+		try (Benchmark benchmark = new Benchmark("Uploading report to Teamscale", AgentMetrics.UPLOAD_DURATION)) {
+			Map<String, String> parameters = getUploadParameters();
+			EUploadResult result = tryUploading(coverageFile, parameters);
+			if (result == EUploadResult.SUCCESS) {
+				deleteCoverageFile(coverageFile);
+				return;
+			}
+
+			AgentMetrics.UPLOAD_FAILURES.increment();
+			if (result == EUploadResult.TEMPORARY_FAILURE && uploadSpool != null &&
+					uploadSpool.spool(coverageFile, this::tryUploading, getSpoolTarget(), parameters)) {
 				deleteCoverageFile(coverageFile);
 			} else {
 				logger.warn("Failed to upload coverage to Teamscale. " +
@@ -44,16 +108,25 @@ public class TeamscaleUploader implements IUploader {
 			coverageFile.delete();
 		} catch (IOException e) {
 			logger.warn(
-					"The upload to Teamscale was successful, but the file {} will be left on disk. " +
+					"The coverage has been uploaded to Teamscale or handed to the upload spool, but the file {}" +
+							" will be left on disk. " +
 							"You can delete it yourself anytime - it is no longer needed.",
 					coverageFile, e);
 		}
 	}
 
-	/** Performs the upload and returns <code>true</code> if successful. */
-	private boolean tryUploading(CoverageFile coverageFile) {
+	/**
+	 * Performs the upload with the given {@link #getUploadParameters() upload parameters} and returns whether it was
+	 * successful or whether it makes sense to retry it.
+	 */
+	private EUploadResult tryUploading(CoverageFile coverageFile, Map<String, String> parameters) {
 		logger.debug("Uploading JaCoCo artifact to {}", teamscaleServer);
 
+		CommitDescriptor commit = null;
+		if (parameters.containsKey(COMMIT_PARAMETER)) {
+			commit = CommitDescriptor.parse(parameters.get(COMMIT_PARAMETER));
+		}
+
 		try {
 			// Cannot be executed in the constructor as this causes issues in WildFly server (See #100)
 			ITeamscaleService api = TeamscaleServiceGenerator.createService(
@@ -64,17 +137,20 @@ public class TeamscaleUploader implements IUploader {
 			);
 			api.uploadReport(
 					teamscaleServer.project,
-					teamscaleServer.commit,
-					teamscaleServer.revision,
-					teamscaleServer.partition,
+					commit,
+					parameters.get(REVISION_PARAMETER),
+					parameters.get(PARTITION_PARAMETER),
 					EReportFormat.JACOCO,
-					teamscaleServer.getMessage(),
+					parameters.get(MESSAGE_PARAMETER),
 					coverageFile.createFormRequestBody()
 			);
-			return true;
+			return EUploadResult.SUCCESS;
+		} catch (HttpStatusException e) {
+			logger.error("Failed to upload coverage to {}", teamscaleServer, e);
+			return EUploadResult.forUnsuccessfulStatusCode(e.getStatusCode());
 		} catch (IOException e) {
 			logger.error("Failed to upload coverage to {}", teamscaleServer, e);
-			return false;
+			return EUploadResult.TEMPORARY_FAILURE;
 		}
 	}
 
@@ -0,0 +1,101 @@
+package com.teamscale.jacoco.agent.util;
+
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Triggers a callback in an interval that adapts to the results of the callback. The callback reports whether it found
+ * something new, e.g. new coverage. In that case the interval is halved, otherwise it is doubled, always staying within
+ * the given bounds. This way, the callback runs often while something is happening and rarely once nothing changes
+ * anymore. Note that the spawned threads are Daemon threads, i.e. they will not prevent the JVM from shutting down.
+ */
+public class AdaptiveTimer {
+
+	/** Runs the job on a background daemon thread. */
+	private final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+		Thread thread = Executors.defaultThreadFactory().newThread(runnable);
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/** The job to execute. Returns whether it found something new. */
+	private final BooleanSupplier job;
+
+	/** The lower bound of the interval. */
+	private final Duration minInterval;
+
+	/** The upper bound of the interval. */
+	private final Duration maxInterval;
+
+	/** The current interval. */
+	private Duration interval;
+
+	/** The next scheduled execution or <code>null</code> if the timer is stopped. */
+	private ScheduledFuture<?> nextExecution = null;
+
+	/** Constructor. */
+	public AdaptiveTimer(BooleanSupplier job, Duration initialInterval, Duration minInterval, Duration maxInterval) {
+		this.job = job;
+		this.minInterval = minInterval;
+		this.maxInterval = maxInterval;
+		this.interval = initialInterval;
+	}
+
+	/** Starts the job. */
+	public synchronized void start() {
+		if (nextExecution != null) {
+			return;
+		}
+
+		scheduleNextExecution();
+	}
+
+	private void scheduleNextExecution() {
+		nextExecution = executor.schedule(this::run, interval.toMillis(), TimeUnit.MILLISECONDS);
+	}
+
+	private void run() {
+		boolean foundSomethingNew = job.getAsBoolean();
+		synchronized (this) {
+			interval = computeNextInterval(interval, foundSomethingNew);
+			if (nextExecution != null) {
+				scheduleNextExecution();
+			}
+		}
+	}
+
+	/** Halves the interval if something new was found and doubles it otherwise, within the bounds. */
+	/* package */ Duration computeNextInterval(Duration currentInterval, boolean foundSomethingNew) {
+		Duration nextInterval;
+		if (foundSomethingNew) {
+			nextInterval = currentInterval.dividedBy(2);
+		} else {
+			nextInterval = currentInterval.multipliedBy(2);
+		}
+
+		if (nextInterval.compareTo(minInterval) < 0) {
+			return minInterval;
+		}
+		if (nextInterval.compareTo(maxInterval) > 0) {
+			return maxInterval;
+		}
+		return nextInterval;
+	}
+
+	/** Returns the current interval. */
+	public synchronized Duration getInterval() {
+		return interval;
+	}
+
+	/** Stops the job, possibly aborting it. */
+	public synchronized void stop() {
+		if (nextExecution != null) {
+			nextExecution.cancel(false);
+			nextExecution = null;
+		}
+	}
+}
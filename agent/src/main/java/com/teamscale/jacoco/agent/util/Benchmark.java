@@ -1,5 +1,6 @@
 package com.teamscale.jacoco.agent.util;
 
+import com.teamscale.jacoco.agent.metrics.Histogram;
 import org.slf4j.Logger;
 
 /**
@@ -19,9 +20,18 @@ public class Benchmark implements AutoCloseable {
 	/** The description to use in the log message. */
 	private String description;
 
+	/** The histogram the duration is recorded in or <code>null</code>. */
+	private final Histogram histogram;
+
 	/** Constructor. */
 	public Benchmark(String description) {
+		this(description, null);
+	}
+
+	/** Constructor that additionally records the duration in the given histogram. */
+	public Benchmark(String description, Histogram histogram) {
 		this.description = description;
+		this.histogram = histogram;
 		startTime = System.nanoTime();
 	}
 
@@ -29,6 +39,11 @@ public class Benchmark implements AutoCloseable {
 	@Override
 	public void close() {
 		long endTime = System.nanoTime();
-		logger.debug("{} took {}s", description, (endTime - startTime) / 1_000_000_000L);
+		if (histogram != null) {
+			histogram.observeSecondsSince(startTime);
+		}
+		if (logger.isDebugEnabled()) {
+			logger.debug("{} took {}s", description, String.format("%.3f", (endTime - startTime) / 1e9));
+		}
 	}
 }
@@ -67,15 +67,24 @@ public class AgentHttpServerTest {
 		assertThat(receivedMessage).isEqualTo(defaultCommitMessage);
 	}
 
-	/** Test overwriting the partition */
+	/**
+	 * Test overwriting the partition. The partition is changed in the background once the coverage of the previous
+	 * partition has been uploaded.
+	 */
 	@Test
 	public void testOverridingPartition() throws Exception {
 		String newPartition = "New Partition";
 
-		putText("/partition", newPartition);
+		Response response = putText("/partition", newPartition);
+		assertThat(response.code()).isEqualTo(202);
 
 		TeamscaleServer teamscaleServer = agent.options.getTeamscaleServerOptions();
+		long deadline = System.currentTimeMillis() + 10_000;
+		while (!newPartition.equals(teamscaleServer.partition) && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
 		assertThat(teamscaleServer.partition).isEqualTo(newPartition);
+		assertThat(getText("/partition")).isEqualTo(newPartition);
 	}
 
 	/** Test reading the partition */
@@ -87,7 +96,7 @@ public class AgentHttpServerTest {
 	}
 
 
-	private void putText(String endpointPath, String newValue) throws Exception {
+	private Response putText(String endpointPath, String newValue) throws Exception {
 		OkHttpClient client = new OkHttpClient();
 		MediaType textPlainMediaType = MediaType.parse("text/plain; charset=utf-8");
 		HttpUrl endpointUrl = HttpUrl.get(baseUri.resolve(endpointPath));
@@ -95,7 +104,7 @@ public class AgentHttpServerTest {
 				.url(endpointUrl)
 				.method("PUT", RequestBody.create(textPlainMediaType, newValue.getBytes()))
 				.build();
-		client.newCall(request).execute();
+		return client.newCall(request).execute();
 	}
 
 	private String getText(String endpointPath) throws Exception {
@@ -0,0 +1,56 @@
+package com.teamscale.jacoco.agent;
+
+import com.teamscale.report.jacoco.dump.Dump;
+import org.jacoco.core.data.ExecutionData;
+import org.jacoco.core.data.ExecutionDataStore;
+import org.jacoco.core.data.SessionInfo;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/** Tests the {@link CoverageAggregator}. */
+public class CoverageAggregatorTest {
+
+	/** Ensures that the probes of all dumps are merged per class and the aggregate starts over afterwards. */
+	@Test
+	public void testProbesAreMerged() {
+		CoverageAggregator aggregator = new CoverageAggregator();
+		boolean[] firstProbes = {true, false, false};
+		aggregator.add(createDump(new SessionInfo("first", 1, 2),
+				new ExecutionData(1, "A", firstProbes),
+				new ExecutionData(2, "B", new boolean[]{false, true})));
+		aggregator.add(createDump(new SessionInfo("second", 3, 4),
+				new ExecutionData(1, "A", new boolean[]{false, false, true})));
+
+		assertThat(aggregator.isEmpty()).isFalse();
+		Dump aggregate = aggregator.takeAggregate();
+		assertThat(aggregate.store.get(1).getProbes()).containsExactly(true, false, true);
+		assertThat(aggregate.store.get(2).getProbes()).containsExactly(false, true);
+		assertThat(aggregate.info.getId()).isEqualTo("second");
+		assertThat(aggregate.info.getStartTimeStamp()).isEqualTo(1);
+		assertThat(aggregate.info.getDumpTimeStamp()).isEqualTo(4);
+		assertThat(firstProbes).containsExactly(true, false, false);
+
+		assertThat(aggregator.isEmpty()).isTrue();
+		assertThat(aggregator.takeAggregate()).isNull();
+	}
+
+	/** Ensures that incompatible execution data replaces the previous one instead of failing. */
+	@Test
+	public void testIncompatibleExecutionData() {
+		CoverageAggregator aggregator = new CoverageAggregator();
+		aggregator.add(createDump(new SessionInfo("first", 1, 2), new ExecutionData(1, "A", new boolean[]{true})));
+		aggregator.add(createDump(new SessionInfo("second", 3, 4),
+				new ExecutionData(1, "A", new boolean[]{false, true})));
+
+		assertThat(aggregator.takeAggregate().store.get(1).getProbes()).containsExactly(false, true);
+	}
+
+	private static Dump createDump(SessionInfo info, ExecutionData... executionData) {
+		ExecutionDataStore store = new ExecutionDataStore();
+		for (ExecutionData data : executionData) {
+			store.put(data);
+		}
+		return new Dump(info, store);
+	}
+}
@@ -0,0 +1,56 @@
+package com.teamscale.jacoco.agent;
+
+import com.teamscale.report.jacoco.dump.Dump;
+import org.jacoco.core.data.ExecutionData;
+import org.jacoco.core.data.ExecutionDataStore;
+import org.jacoco.core.data.SessionInfo;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/** Tests the {@link DeltaCoverageFilter}. */
+public class DeltaCoverageFilterTest {
+
+	/** Ensures that only classes with newly hit probes are kept and dumps without new probes are skipped. */
+	@Test
+	public void testOnlyNewCoverageIsReported() {
+		DeltaCoverageFilter filter = new DeltaCoverageFilter();
+
+		Dump first = filter.filter(createDump(
+				new ExecutionData(1, "A", new boolean[]{true, false}),
+				new ExecutionData(2, "B", new boolean[]{false, false})));
+		assertThat(first.store.getContents()).extracting(ExecutionData::getName).containsExactly("A");
+		filter.markAsReported(first);
+
+		assertThat(filter.filter(createDump(new ExecutionData(1, "A", new boolean[]{true, false})))).isNull();
+
+		Dump second = filter.filter(createDump(
+				new ExecutionData(1, "A", new boolean[]{true, true}),
+				new ExecutionData(2, "B", new boolean[]{false, false})));
+		assertThat(second.store.getContents()).extracting(ExecutionData::getName).containsExactly("A");
+	}
+
+	/** Ensures that probes only count as reported once this has been confirmed. */
+	@Test
+	public void testUnconfirmedCoverageIsReportedAgain() {
+		DeltaCoverageFilter filter = new DeltaCoverageFilter();
+		Dump dump = createDump(new ExecutionData(1, "A", new boolean[]{true}));
+
+		assertThat(filter.filter(dump)).isNotNull();
+		assertThat(filter.filter(dump)).isNotNull();
+
+		filter.markAsReported(dump);
+		assertThat(filter.filter(dump)).isNull();
+
+		filter.clear();
+		assertThat(filter.filter(dump)).isNotNull();
+	}
+
+	private static Dump createDump(ExecutionData... executionData) {
+		ExecutionDataStore store = new ExecutionDataStore();
+		for (ExecutionData data : executionData) {
+			store.put(data);
+		}
+		return new Dump(new SessionInfo("session", 0, 1), store);
+	}
+}
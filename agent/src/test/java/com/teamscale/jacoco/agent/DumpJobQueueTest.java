@@ -0,0 +1,103 @@
+package com.teamscale.jacoco.agent;
+
+import com.teamscale.report.jacoco.dump.Dump;
+import org.jacoco.core.data.ExecutionDataStore;
+import org.jacoco.core.data.SessionInfo;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/** Tests the {@link DumpJobQueue}. */
+public class DumpJobQueueTest {
+
+	/** Ensures that jobs are processed in the background and their state can be queried afterwards. */
+	@Test
+	public void testJobsAreProcessedInBackground() throws Exception {
+		DumpJobQueue queue = new DumpJobQueue();
+
+		DumpJob job = queue.trySubmit(DumpJobQueueTest::createDump, (dump, dumpJob) -> {
+			dumpJob.startConversion();
+			dumpJob.startUpload("jacoco-1.xml");
+			dumpJob.finish(true);
+		});
+
+		assertThat(queue.shutdown(Duration.ofSeconds(10))).isTrue();
+		assertThat(queue.getJob(job.getId())).isSameAs(job);
+		assertThat(job.getState()).isEqualTo(DumpJob.EState.FINISHED);
+		assertThat(job.getCoverageFile()).isEqualTo("jacoco-1.xml");
+		assertThat(job.getUploaded()).isTrue();
+	}
+
+	/** Ensures that jobs that are not remembered do not push the submitted jobs out of the remembered ones. */
+	@Test
+	public void testUnrememberedJobsDoNotEvictSubmittedJobs() throws Exception {
+		DumpJobQueue queue = new DumpJobQueue();
+
+		DumpJob job = queue.trySubmit(DumpJobQueueTest::createDump, (dump, dumpJob) -> dumpJob.finish(true));
+		for (int i = 0; i < 2 * DumpJobQueue.MAX_REMEMBERED_JOBS; i++) {
+			queue.createUnrememberedJob().finish(true);
+		}
+
+		assertThat(queue.shutdown(Duration.ofSeconds(10))).isTrue();
+		assertThat(queue.getJob(job.getId())).isSameAs(job);
+		assertThat(queue.getJob(DumpJobQueue.UNREMEMBERED_JOB_ID)).isNull();
+	}
+
+	/** Ensures that no coverage is dumped if the queue is full. */
+	@Test
+	public void testQueueIsBounded() throws Exception {
+		DumpJobQueue queue = new DumpJobQueue();
+		CountDownLatch workerStarted = new CountDownLatch(1);
+		CountDownLatch releaseWorker = new CountDownLatch(1);
+		AtomicInteger dumpCount = new AtomicInteger();
+		DumpJobQueue.IDumpSupplier dumpSupplier = () -> {
+			dumpCount.incrementAndGet();
+			return createDump();
+		};
+
+		queue.trySubmit(dumpSupplier, (dump, job) -> {
+			workerStarted.countDown();
+			try {
+				releaseWorker.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			job.finish(true);
+		});
+		workerStarted.await();
+		for (int i = 0; i < DumpJobQueue.MAX_QUEUED_JOBS; i++) {
+			assertThat(queue.trySubmit(dumpSupplier, (dump, job) -> job.finish(true))).isNotNull();
+		}
+
+		assertThat(queue.trySubmit(dumpSupplier, (dump, job) -> job.finish(true))).isNull();
+		assertThat(dumpCount).hasValue(DumpJobQueue.MAX_QUEUED_JOBS + 1);
+
+		releaseWorker.countDown();
+		assertThat(queue.shutdown(Duration.ofSeconds(10))).isTrue();
+	}
+
+	/** Ensures that exceptions during the processing mark the job as failed and do not stop the worker. */
+	@Test
+	public void testFailingJob() throws Exception {
+		DumpJobQueue queue = new DumpJobQueue();
+
+		DumpJob failingJob = queue.trySubmit(DumpJobQueueTest::createDump, (dump, job) -> {
+			throw new IllegalStateException("broken");
+		});
+		DumpJob job = queue.trySubmit(DumpJobQueueTest::createDump, (dump, dumpJob) -> dumpJob.finish(false));
+
+		assertThat(queue.shutdown(Duration.ofSeconds(10))).isTrue();
+		assertThat(failingJob.getState()).isEqualTo(DumpJob.EState.FAILED);
+		assertThat(failingJob.getMessage()).isEqualTo("broken");
+		assertThat(job.getState()).isEqualTo(DumpJob.EState.FINISHED);
+		assertThat(job.isDone()).isTrue();
+	}
+
+	private static Dump createDump() {
+		return new Dump(new SessionInfo("session", 0, 1), new ExecutionDataStore());
+	}
+}
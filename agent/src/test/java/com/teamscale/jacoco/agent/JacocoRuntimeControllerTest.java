@@ -0,0 +1,190 @@
+package com.teamscale.jacoco.agent;
+
+import com.teamscale.report.jacoco.dump.Dump;
+import org.jacoco.agent.rt.IAgent;
+import org.jacoco.core.data.ExecutionData;
+import org.jacoco.core.data.ExecutionDataWriter;
+import org.jacoco.core.runtime.RuntimeData;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/** Tests the {@link JacocoRuntimeController}. */
+public class JacocoRuntimeControllerTest {
+
+	/** Ensures that reading the runtime data directly yields the same dump as the serializing path. */
+	@Test
+	public void testDirectDumpMatchesSerializedDump() throws Exception {
+		FakeAgent agent = new FakeAgent();
+		JacocoRuntimeController controller = new JacocoRuntimeController(agent);
+
+		recordCoverage(agent.getData());
+		Dump serialized = controller.dumpAndResetSerialized();
+		recordCoverage(agent.getData());
+		Dump direct = controller.dumpAndReset();
+
+		assertThat(direct.info.getId()).isEqualTo(serialized.info.getId());
+		assertThat(direct.store.getContents()).hasSameSizeAs(serialized.store.getContents());
+		for (ExecutionData data : serialized.store.getContents()) {
+			ExecutionData directData = direct.store.get(data.getId());
+			assertThat(directData.getName()).isEqualTo(data.getName());
+			assertThat(directData.getProbes()).containsExactly(data.getProbes());
+		}
+	}
+
+	/** Ensures that the dumped probes are not affected by resetting the runtime data. */
+	@Test
+	public void testDirectDumpResetsRuntimeData() throws Exception {
+		FakeAgent agent = new FakeAgent();
+		JacocoRuntimeController controller = new JacocoRuntimeController(agent);
+
+		recordCoverage(agent.getData());
+		Dump dump = controller.dumpAndReset();
+
+		assertThat(dump.store.get(1).getProbes()).containsExactly(true, false, true);
+		assertThat(controller.dumpAndReset().store.getContents()).isEmpty();
+	}
+
+	/** Ensures that resetting clears the probes of executed classes and restarts the session. */
+	@Test
+	public void testResetClearsExecutedClasses() throws Exception {
+		FakeAgent agent = new FakeAgent();
+		JacocoRuntimeController controller = new JacocoRuntimeController(agent);
+
+		recordCoverage(agent.getData());
+		controller.reset();
+		long resetTime = System.currentTimeMillis();
+
+		Dump dump = controller.dumpAndReset();
+		assertThat(dump.store.getContents()).isEmpty();
+		assertThat(dump.info.getStartTimeStamp()).isLessThanOrEqualTo(resetTime);
+		assertThat(agent.getData().getExecutionData(1L, "Class1", 3).getProbes()).containsExactly(false, false,
+				false);
+	}
+
+	/** Ensures that classes that are loaded after the first dump are included in subsequent dumps. */
+	@Test
+	public void testClassesLoadedLaterAreDumped() throws Exception {
+		FakeAgent agent = new FakeAgent();
+		JacocoRuntimeController controller = new JacocoRuntimeController(agent);
+
+		recordCoverage(agent.getData());
+		controller.dumpAndReset();
+		agent.getData().getExecutionData(4L, "Class4", 2).getProbes()[0] = true;
+		agent.getData().getExecutionData(1L, "Class1", 3).getProbes()[1] = true;
+
+		Dump dump = controller.dumpAndReset();
+		assertThat(dump.store.getContents()).hasSize(2);
+		assertThat(dump.store.get(1).getProbes()).containsExactly(false, true, false);
+		assertThat(dump.store.get(4).getProbes()).containsExactly(true, false);
+	}
+
+	/**
+	 * Simulates a test-wise coverage run in an application with many loaded classes of which each test only executes a
+	 * few: Every test is started with a reset and ended with a dump. Ensures that each dump contains exactly the probes
+	 * hit by its test and that the runtime data is cleared afterwards.
+	 */
+	@Test
+	public void testEachDumpContainsOnlyTheProbesOfItsTest() throws Exception {
+		FakeAgent agent = new FakeAgent();
+		JacocoRuntimeController controller = new JacocoRuntimeController(agent);
+		RuntimeData data = agent.getData();
+		int classCount = 1000;
+		int probeCount = 10;
+		int classesPerTest = 25;
+		for (long classId = 0; classId < classCount; classId++) {
+			data.getExecutionData(classId, "Class" + classId, probeCount);
+		}
+
+		for (int testIndex = 0; testIndex < 50; testIndex++) {
+			// coverage recorded between two tests must not be attributed to the next test
+			data.getExecutionData(0L, "Class0", probeCount).getProbes()[probeCount - 1] = true;
+			controller.reset();
+
+			long firstClass = (long) testIndex * classesPerTest % classCount;
+			for (long classId = firstClass; classId < firstClass + classesPerTest; classId++) {
+				boolean[] probes = data.getExecutionData(classId, "Class" + classId, probeCount).getProbes();
+				probes[testIndex % probeCount] = true;
+			}
+			Dump dump = controller.dumpAndReset();
+
+			assertThat(dump.store.getContents()).hasSize(classesPerTest);
+			for (long classId = firstClass; classId < firstClass + classesPerTest; classId++) {
+				ExecutionData executionData = dump.store.get(classId);
+				assertThat(executionData.getName()).isEqualTo("Class" + classId);
+				for (int probe = 0; probe < probeCount; probe++) {
+					assertThat(executionData.getProbes()[probe]).isEqualTo(probe == testIndex % probeCount);
+				}
+			}
+			for (long classId = 0; classId < classCount; classId++) {
+				boolean[] probes = data.getExecutionData(classId, "Class" + classId, probeCount).getProbes();
+				assertThat(probes).doesNotContain(true);
+			}
+		}
+	}
+
+	/** Simulates a test run that hits some probes of two classes and none of a third class. */
+	private static void recordCoverage(RuntimeData data) {
+		boolean[] probes1 = data.getExecutionData(1L, "Class1", 3).getProbes();
+		probes1[0] = true;
+		probes1[2] = true;
+		boolean[] probes2 = data.getExecutionData(2L, "Class2", 2).getProbes();
+		probes2[1] = true;
+		data.getExecutionData(3L, "Class3", 4);
+	}
+
+	/**
+	 * Minimal stand-in for JaCoCo's agent that exposes its runtime data like the real agent does. Must be public so
+	 * the runtime data can be accessed via reflection.
+	 */
+	public static class FakeAgent implements IAgent {
+
+		/** The runtime data. */
+		private final RuntimeData data = new RuntimeData();
+
+		/** Returns the runtime data. */
+		public RuntimeData getData() {
+			return data;
+		}
+
+		@Override
+		public String getVersion() {
+			return "test";
+		}
+
+		@Override
+		public String getSessionId() {
+			return data.getSessionId();
+		}
+
+		@Override
+		public void setSessionId(String id) {
+			data.setSessionId(id);
+		}
+
+		@Override
+		public void reset() {
+			data.reset();
+		}
+
+		@Override
+		public byte[] getExecutionData(boolean reset) {
+			ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+			try {
+				ExecutionDataWriter writer = new ExecutionDataWriter(buffer);
+				data.collect(writer, writer, reset);
+			} catch (IOException e) {
+				throw new AssertionError("Should never happen for the ByteArrayOutputStream", e);
+			}
+			return buffer.toByteArray();
+		}
+
+		@Override
+		public void dump(boolean reset) {
+			throw new UnsupportedOperationException("Not needed by the tests");
+		}
+	}
+}
@@ -1,6 +1,10 @@
 package com.teamscale.jacoco.agent.convert;
 
+import com.teamscale.report.jacoco.dump.IndexedExecFile;
 import org.conqat.lib.commons.filesystem.FileSystemUtils;
+import org.jacoco.core.data.ExecutionData;
+import org.jacoco.core.data.SessionInfo;
+import org.jacoco.core.tools.ExecFileLoader;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
 
@@ -9,6 +13,8 @@ import java.io.IOException;
 import java.net.URISyntaxException;
 import java.nio.file.Files;
 import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
@@ -67,6 +73,48 @@ public class ConverterTest {
 				.contains("\"result\": \"PASSED\"").contains("\"duration\": 1234").contains("\"coveredLines\": \"33,46-47");
 	}
 
+	/**
+	 * Ensures that an .exec file can be converted to an .iexec file and back without class files and without losing
+	 * any sessions or execution data.
+	 */
+	@Test
+	public void testExecFileConversion(@TempDir File tempDir) throws Exception {
+		File execFile = new File(getClass().getResource("coverage-testwise.exec").toURI());
+		File indexedExecFile = new File(tempDir, "coverage.iexec");
+		File convertedExecFile = new File(tempDir, "converted.exec");
+
+		runExecFileConversion(execFile, indexedExecFile);
+		assertThat(IndexedExecFile.isIndexedExecFile(indexedExecFile)).isTrue();
+		runExecFileConversion(indexedExecFile, convertedExecFile);
+		assertThat(IndexedExecFile.isIndexedExecFile(convertedExecFile)).isFalse();
+
+		ExecFileLoader original = new ExecFileLoader();
+		original.load(execFile);
+		ExecFileLoader converted = new ExecFileLoader();
+		converted.load(convertedExecFile);
+		assertThat(getSessionIds(converted)).isNotEmpty().isEqualTo(getSessionIds(original));
+		assertThat(converted.getExecutionDataStore().getContents())
+				.hasSameSizeAs(original.getExecutionDataStore().getContents());
+		for (ExecutionData data : original.getExecutionDataStore().getContents()) {
+			assertThat(converted.getExecutionDataStore().get(data.getId()).getProbes())
+					.containsExactly(data.getProbes());
+		}
+	}
+
+	private static void runExecFileConversion(File inputFile, File outputFile) throws Exception {
+		ConvertCommand arguments = new ConvertCommand();
+		arguments.inputFiles = Collections.singletonList(inputFile.getAbsolutePath());
+		arguments.outputFile = outputFile.getAbsolutePath();
+		arguments.shouldConvertExecFile = true;
+
+		assertThat(arguments.validate().isValid()).isTrue();
+		arguments.run();
+	}
+
+	private static List<String> getSessionIds(ExecFileLoader loader) {
+		return loader.getSessionInfoStore().getInfos().stream().map(SessionInfo::getId).collect(Collectors.toList());
+	}
+
 	private void copyResourceTo(String name, File targetDir) throws URISyntaxException, IOException {
 		File execFile = new File(getClass().getResource(name).toURI());
 		Files.copy(execFile.toPath(), new File(targetDir, name).toPath());
@@ -0,0 +1,70 @@
+package com.teamscale.jacoco.agent.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/** Tests the Prometheus text format written by the metrics. */
+public class MetricsTest {
+
+	/** Ensures that histogram buckets are cumulative and values on a bound are counted in that bucket. */
+	@Test
+	public void testHistogramBucketsAreCumulative() {
+		Histogram histogram = new Histogram("test_seconds", "Test histogram.", new double[]{0.5, 1, 2});
+		histogram.observe(0.25);
+		histogram.observe(1);
+		histogram.observe(1.5);
+		histogram.observe(10);
+
+		StringBuilder builder = new StringBuilder();
+		histogram.writeTo(builder);
+
+		assertThat(builder.toString()).isEqualTo("# HELP test_seconds Test histogram.\n" +
+				"# TYPE test_seconds histogram\n" +
+				"test_seconds_bucket{le=\"0.5\"} 1\n" +
+				"test_seconds_bucket{le=\"1\"} 2\n" +
+				"test_seconds_bucket{le=\"2\"} 3\n" +
+				"test_seconds_bucket{le=\"+Inf\"} 4\n" +
+				"test_seconds_sum 12.75\n" +
+				"test_seconds_count 4\n");
+	}
+
+	/** Ensures that counters and gauges are written with their current value. */
+	@Test
+	public void testCounterAndGauge() {
+		Counter counter = new Counter("test_total", "Test counter.");
+		counter.increment();
+		counter.increment();
+		int[] gaugeValue = {3};
+		Gauge gauge = new Gauge("test_gauge", "Test gauge.", () -> gaugeValue[0]);
+		gaugeValue[0] = 5;
+
+		StringBuilder builder = new StringBuilder();
+		counter.writeTo(builder);
+		gauge.writeTo(builder);
+
+		assertThat(builder.toString()).isEqualTo("# HELP test_total Test counter.\n" +
+				"# TYPE test_total counter\n" +
+				"test_total 2\n" +
+				"# HELP test_gauge Test gauge.\n" +
+				"# TYPE test_gauge gauge\n" +
+				"test_gauge 5\n");
+	}
+
+	/** Ensures that all agent metrics are prefixed and registered gauges are included. */
+	@Test
+	public void testAgentMetricsContainRegisteredGauges() {
+		AgentMetrics.registerGauge("test_gauge", "Test gauge.", () -> 42);
+		try {
+			String text = AgentMetrics.toPrometheusText();
+
+			assertThat(text).contains("teamscale_jacoco_agent_test_gauge 42\n");
+			assertThat(text).contains("# TYPE teamscale_jacoco_agent_dump_duration_seconds histogram\n");
+			assertThat(text).contains("teamscale_jacoco_agent_upload_failures_total ");
+		} finally {
+			AgentMetrics.unregisterGauge("test_gauge");
+		}
+
+		assertThat(AgentMetrics.toPrometheusText()).doesNotContain("teamscale_jacoco_agent_test_gauge");
+	}
+}
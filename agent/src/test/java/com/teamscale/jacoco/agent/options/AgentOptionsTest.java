@@ -12,6 +12,7 @@ import org.junit.jupiter.api.io.TempDir;
 import java.io.File;
 import java.io.IOException;
 import java.net.URISyntaxException;
+import java.time.Duration;
 import java.util.function.Predicate;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -56,12 +57,50 @@ public class AgentOptionsTest {
 	@Test
 	public void testIntervalOptions() throws AgentOptionParseException {
 		AgentOptions agentOptions = getAgentOptionsParserWithDummyLogger().parse("");
-		assertThat(agentOptions.getDumpIntervalInMinutes()).isEqualTo(480);
+		assertThat(agentOptions.getDumpInterval()).isEqualTo(Duration.ofMinutes(480));
 		agentOptions = getAgentOptionsParserWithDummyLogger().parse("interval=0");
 		assertThat(agentOptions.shouldDumpInIntervals()).isEqualTo(false);
 		agentOptions = getAgentOptionsParserWithDummyLogger().parse("interval=30");
 		assertThat(agentOptions.shouldDumpInIntervals()).isEqualTo(true);
-		assertThat(agentOptions.getDumpIntervalInMinutes()).isEqualTo(30);
+		assertThat(agentOptions.getDumpInterval()).isEqualTo(Duration.ofMinutes(30));
+		assertThat(agentOptions.shouldAdaptDumpInterval()).isEqualTo(false);
+		agentOptions = getAgentOptionsParserWithDummyLogger().parse("interval=45s");
+		assertThat(agentOptions.getDumpInterval()).isEqualTo(Duration.ofSeconds(45));
+		agentOptions = getAgentOptionsParserWithDummyLogger().parse("interval=2h");
+		assertThat(agentOptions.getDumpInterval()).isEqualTo(Duration.ofHours(2));
+		assertThatThrownBy(() -> getAgentOptionsParserWithDummyLogger().parse("interval=5d"))
+				.isInstanceOf(AgentOptionParseException.class);
+	}
+
+	/** Upload interval options test. */
+	@Test
+	public void testUploadIntervalOptions() throws AgentOptionParseException {
+		AgentOptions agentOptions = getAgentOptionsParserWithDummyLogger().parse("");
+		assertThat(agentOptions.shouldAggregateCoverage()).isEqualTo(false);
+		agentOptions = getAgentOptionsParserWithDummyLogger().parse("interval=5m,upload-interval=1h");
+		assertThat(agentOptions.shouldAggregateCoverage()).isEqualTo(true);
+		assertThat(agentOptions.getUploadInterval()).isEqualTo(Duration.ofHours(1));
+		assertThatThrownBy(() -> getAgentOptionsParserWithDummyLogger().parse("interval=1h,upload-interval=5m"))
+				.isInstanceOf(AgentOptionParseException.class);
+	}
+
+	/** Adaptive interval options test. */
+	@Test
+	public void testAdaptiveIntervalOptions() throws AgentOptionParseException {
+		AgentOptions agentOptions = getAgentOptionsParserWithDummyLogger()
+				.parse("interval=1m,min-interval=10s,max-interval=1h");
+		assertThat(agentOptions.shouldAdaptDumpInterval()).isEqualTo(true);
+		assertThat(agentOptions.getMinDumpInterval()).isEqualTo(Duration.ofSeconds(10));
+		assertThat(agentOptions.getMaxDumpInterval()).isEqualTo(Duration.ofHours(1));
+
+		agentOptions = getAgentOptionsParserWithDummyLogger().parse("interval=1m,max-interval=1h");
+		assertThat(agentOptions.shouldAdaptDumpInterval()).isEqualTo(true);
+		assertThat(agentOptions.getMinDumpInterval()).isEqualTo(Duration.ofMinutes(1));
+
+		assertThatThrownBy(() -> getAgentOptionsParserWithDummyLogger().parse("interval=1m,min-interval=2m"))
+				.isInstanceOf(AgentOptionParseException.class);
+		assertThatThrownBy(() -> getAgentOptionsParserWithDummyLogger().parse("interval=0,max-interval=2m"))
+				.isInstanceOf(AgentOptionParseException.class);
 	}
 
 	/** Tests the options for uploading coverage to teamscale. */
@@ -86,6 +125,24 @@ public class AgentOptionsTest {
 		assertThat(teamscaleServer.getMessage()).isEqualTo("This is my message");
 	}
 
+	/** Tests that caching the execution data is only allowed while the commit is auto-detected. */
+	@Test
+	public void testCacheExecUntilCommitFoundRequiresCommitAutoDetection() throws AgentOptionParseException {
+		String teamscaleOptions = "teamscale-server-url=127.0.0.1,teamscale-project=test,teamscale-user=build," +
+				"teamscale-access-token=token,teamscale-partition=p,cache-exec-until-commit-found=true";
+
+		AgentOptions agentOptions = getAgentOptionsParserWithDummyLogger().parse(teamscaleOptions);
+		assertThat(agentOptions.shouldCacheExecutionDataUntilCommitFound()).isTrue();
+
+		assertThatThrownBy(() -> getAgentOptionsParserWithDummyLogger()
+				.parse(teamscaleOptions + ",teamscale-commit=default:HEAD"))
+				.isInstanceOf(AgentOptionParseException.class)
+				.hasMessageContaining("'cache-exec-until-commit-found'");
+		assertThatThrownBy(() -> getAgentOptionsParserWithDummyLogger().parse("cache-exec-until-commit-found=true"))
+				.isInstanceOf(AgentOptionParseException.class)
+				.hasMessageContaining("'cache-exec-until-commit-found'");
+	}
+
 	/** Tests the options for the Test Impact mode. */
 	@Test
 	public void testHttpServerOptions() throws AgentOptionParseException {
@@ -118,6 +175,44 @@ public class AgentOptionsTest {
 		assertThat(agentOptions.getTestwiseCoverageMode()).isEqualTo(ETestwiseCoverageMode.HTTP);
 	}
 
+	/** Tests that concurrent tests are only allowed in modes that collect the coverage per test themselves. */
+	@Test
+	public void testConcurrentTestsOptions() throws AgentOptionParseException {
+		AgentOptions agentOptions = getAgentOptionsParserWithDummyLogger().parse("mode=TESTWISE,class-dir=.," +
+				"http-server-port=8081,tia-mode=http,tia-concurrent-tests=true");
+		assertTrue(agentOptions.shouldAllowConcurrentTests());
+
+		assertThatThrownBy(() -> getAgentOptionsParserWithDummyLogger().parse("mode=TESTWISE,class-dir=.," +
+				"http-server-port=8081,tia-concurrent-tests=true"))
+				.isInstanceOf(AgentOptionParseException.class);
+	}
+
+	/** Tests the options of the shared HTTP connection pool. */
+	@Test
+	public void testHttpConnectionPoolOptions() throws AgentOptionParseException {
+		AgentOptions agentOptions = getAgentOptionsParserWithDummyLogger().parse(
+				"http-max-idle-connections=10,http-keep-alive=30s");
+		assertThat(agentOptions.getHttpMaxIdleConnections()).isEqualTo(10);
+		assertThat(agentOptions.getHttpKeepAlive()).isEqualTo(Duration.ofSeconds(30));
+
+		assertThatThrownBy(() -> getAgentOptionsParserWithDummyLogger().parse("http-keep-alive=0s"))
+				.isInstanceOf(AgentOptionParseException.class);
+	}
+
+	/** Tests that indexed exec files are only supported in the exec-file testwise coverage mode. */
+	@Test
+	public void testIndexedExecFileOptions() throws AgentOptionParseException {
+		AgentOptions agentOptions = getAgentOptionsParserWithDummyLogger().parse("mode=TESTWISE,class-dir=.," +
+				"http-server-port=8081,tia-indexed-exec=true");
+		assertTrue(agentOptions.shouldWriteIndexedExecFile());
+		assertThat(new JacocoAgentBuilder(agentOptions).getModeSpecificOptions()).contains("output=none")
+				.doesNotContain("destfile");
+
+		assertThatThrownBy(() -> getAgentOptionsParserWithDummyLogger().parse("mode=TESTWISE,class-dir=.," +
+				"http-server-port=8081,tia-mode=http,tia-indexed-exec=true"))
+				.isInstanceOf(AgentOptionParseException.class);
+	}
+
 	/** Tests setting ignore-uncovered-classes works. */
 	@Test
 	public void testIgnoreUncoveredClasses() throws AgentOptionParseException {
@@ -0,0 +1,149 @@
+package com.teamscale.jacoco.agent.options.sapnwdi;
+
+import com.teamscale.client.CommitDescriptor;
+import com.teamscale.jacoco.agent.upload.IUploader;
+import com.teamscale.jacoco.agent.util.InMemoryUploader;
+import com.teamscale.report.jacoco.CoverageFile;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/** Tests the {@link DelayedSapNwdiMultiUploader}. */
+class DelayedSapNwdiMultiUploaderTest {
+
+	private static final String REPORT = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>" +
+			"<!DOCTYPE report PUBLIC \"-//JACOCO//DTD Report 1.1//EN\" \"report.dtd\">" +
+			"<report name=\"dummybundle\">" +
+			"<package name=\"com/app1\"><class name=\"com/app1/Foo\" sourcefilename=\"Foo.java\">" +
+			"<counter type=\"LINE\" missed=\"1\" covered=\"2\"/></class>" +
+			"<sourcefile name=\"Foo.java\"><line nr=\"3\" mi=\"0\" ci=\"2\" mb=\"0\" cb=\"0\"/></sourcefile>" +
+			"<counter type=\"LINE\" missed=\"1\" covered=\"2\"/></package>" +
+			"<package name=\"com/app2\"><class name=\"com/app2/Bar\" sourcefilename=\"Bar.java\">" +
+			"<counter type=\"LINE\" missed=\"0\" covered=\"7\"/></class>" +
+			"<sourcefile name=\"Bar.java\"><line nr=\"8\" mi=\"0\" ci=\"7\" mb=\"0\" cb=\"0\"/></sourcefile>" +
+			"<counter type=\"LINE\" missed=\"0\" covered=\"7\"/></package>" +
+			"<package name=\"com/lib\"><class name=\"com/lib/Util\" sourcefilename=\"Util.java\">" +
+			"<counter type=\"LINE\" missed=\"0\" covered=\"1\"/></class>" +
+			"<sourcefile name=\"Util.java\"><line nr=\"5\" mi=\"0\" ci=\"1\" mb=\"0\" cb=\"0\"/></sourcefile>" +
+			"<counter type=\"LINE\" missed=\"0\" covered=\"1\"/></package>" +
+			"<counter type=\"LINE\" missed=\"1\" covered=\"10\"/></report>";
+
+	@TempDir
+	File tempDir;
+
+	/**
+	 * Tests that each application only receives the coverage of the classes loaded from the location of its marker
+	 * class and that the original report is deleted afterwards.
+	 */
+	@Test
+	void uploadsCoverageOfEachApplication() throws IOException {
+		Map<String, InMemoryUploader> uploadersByProject = new HashMap<>();
+		DelayedSapNwdiMultiUploader multiUploader = new DelayedSapNwdiMultiUploader(
+				(commit, application) -> uploadersByProject.computeIfAbsent(application.getTeamscaleProject(),
+						project -> new InMemoryUploader()));
+		URL app1Location = new URL("file:/apps/app1.jar");
+		URL app2Location = new URL("file:/apps/app2.jar");
+		multiUploader.registerClass("com/app1/Foo", app1Location);
+		multiUploader.registerClass("com/app2/Bar", app2Location);
+		CommitDescriptor commit = new CommitDescriptor("master", 1234L);
+		multiUploader.setCommitForApplication(commit,
+				new SapNwdiApplications.SapNwdiApplication("com.app1.Foo", "project1"), app1Location);
+		multiUploader.setCommitForApplication(commit,
+				new SapNwdiApplications.SapNwdiApplication("com.app2.Bar", "project2"), app2Location);
+
+		File report = new File(tempDir, "jacoco.xml");
+		Files.write(report.toPath(), REPORT.getBytes(StandardCharsets.UTF_8));
+		multiUploader.upload(new CoverageFile(report));
+
+		assertThat(uploadersByProject.get("project1").getUploadedFiles()).extracting(CoverageFile::getName)
+				.containsExactly("jacoco-com.app1.Foo.xml");
+		assertThat(uploadersByProject.get("project2").getUploadedFiles()).extracting(CoverageFile::getName)
+				.containsExactly("jacoco-com.app2.Bar.xml");
+		assertThat(report).doesNotExist();
+	}
+
+	/**
+	 * Tests that the coverage of classes that have not been loaded from the location of any marker class is uploaded
+	 * for every application, while the classes of an application are not uploaded for the others.
+	 */
+	@Test
+	void uploadsCoverageOfClassesOutsideMarkerLocationsForEveryApplication() throws IOException {
+		Map<String, ContentRecordingUploader> uploadersByProject = new HashMap<>();
+		DelayedSapNwdiMultiUploader multiUploader = new DelayedSapNwdiMultiUploader(
+				(commit, application) -> uploadersByProject.computeIfAbsent(application.getTeamscaleProject(),
+						project -> new ContentRecordingUploader()));
+		URL app1Location = new URL("file:/apps/app1.jar");
+		URL app2Location = new URL("file:/apps/app2.jar");
+		multiUploader.registerClass("com/app1/Foo", app1Location);
+		multiUploader.registerClass("com/app2/Bar", app2Location);
+		multiUploader.registerClass("com/lib/Util", new URL("file:/apps/lib/util.jar"));
+		CommitDescriptor commit = new CommitDescriptor("master", 1234L);
+		multiUploader.setCommitForApplication(commit,
+				new SapNwdiApplications.SapNwdiApplication("com.app1.Foo", "project1"), app1Location);
+		multiUploader.setCommitForApplication(commit,
+				new SapNwdiApplications.SapNwdiApplication("com.app2.Bar", "project2"), app2Location);
+
+		File report = new File(tempDir, "jacoco.xml");
+		Files.write(report.toPath(), REPORT.getBytes(StandardCharsets.UTF_8));
+		multiUploader.upload(new CoverageFile(report));
+
+		assertThat(uploadersByProject.get("project1").contents).hasSize(1);
+		assertThat(uploadersByProject.get("project1").contents.get(0)).contains("com/app1/Foo", "com/lib/Util")
+				.doesNotContain("com/app2/Bar");
+		assertThat(uploadersByProject.get("project2").contents).hasSize(1);
+		assertThat(uploadersByProject.get("project2").contents.get(0)).contains("com/app2/Bar", "com/lib/Util")
+				.doesNotContain("com/app1/Foo");
+	}
+
+	/** Tests that the whole report is uploaded if the location of the application's marker class is unknown. */
+	@Test
+	void uploadsWholeReportWithoutLocation() throws IOException {
+		InMemoryUploader uploader = new InMemoryUploader();
+		DelayedSapNwdiMultiUploader multiUploader = new DelayedSapNwdiMultiUploader(
+				(commit, application) -> uploader);
+		multiUploader.setCommitForApplication(new CommitDescriptor("master", 1234L),
+				new SapNwdiApplications.SapNwdiApplication("com.app1.Foo", "project1"));
+
+		File report = new File(tempDir, "jacoco.xml");
+		Files.write(report.toPath(), REPORT.getBytes(StandardCharsets.UTF_8));
+		multiUploader.upload(new CoverageFile(report));
+
+		assertThat(uploader.getUploadedFiles()).extracting(CoverageFile::getName).containsExactly("jacoco.xml");
+		assertThat(report).doesNotExist();
+	}
+
+	/** Stores the contents of the uploaded files. */
+	private static class ContentRecordingUploader implements IUploader {
+
+		/** The contents of the uploaded files. */
+		private final List<String> contents = Collections.synchronizedList(new ArrayList<>());
+
+		@Override
+		public void upload(CoverageFile coverageFile) {
+			try {
+				contents.add(new String(Files.readAllBytes(coverageFile.getFile().toPath()), StandardCharsets.UTF_8));
+				coverageFile.delete();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		@Override
+		public String describe() {
+			return "content recording uploader";
+		}
+	}
+}
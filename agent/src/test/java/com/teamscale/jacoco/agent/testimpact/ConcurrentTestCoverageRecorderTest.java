@@ -0,0 +1,80 @@
+package com.teamscale.jacoco.agent.testimpact;
+
+import com.teamscale.jacoco.agent.JacocoRuntimeController;
+import com.teamscale.jacoco.agent.JacocoRuntimeControllerTest.FakeAgent;
+import com.teamscale.report.jacoco.dump.Dump;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/** Tests the {@link ConcurrentTestCoverageRecorder}. */
+public class ConcurrentTestCoverageRecorderTest {
+
+	private FakeAgent agent;
+	private ConcurrentTestCoverageRecorder recorder;
+
+	@BeforeEach
+	public void setUp() {
+		agent = new FakeAgent();
+		recorder = new ConcurrentTestCoverageRecorder(new JacocoRuntimeController(agent));
+	}
+
+	/** Ensures that coverage recorded before a test started is not attributed to it. */
+	@Test
+	public void testCoverageBeforeTestStartIsDiscarded() throws Exception {
+		hitProbe(1L, "Class1", 0);
+		recorder.testStart("test1");
+		hitProbe(2L, "Class2", 0);
+
+		Dump dump = recorder.testEnd("test1");
+
+		assertThat(dump.info.getId()).isEqualTo("test1");
+		assertThat(dump.store.getContents()).hasSize(1);
+		assertThat(dump.store.get(2L).getProbes()).containsExactly(true, false);
+	}
+
+	/** Ensures that the coverage recorded while tests overlap is attributed to all of them. */
+	@Test
+	public void testOverlappingTestsShareCoverage() throws Exception {
+		recorder.testStart("test1");
+		hitProbe(1L, "Class1", 0);
+		recorder.testStart("test2");
+		hitProbe(2L, "Class2", 1);
+		Dump dump1 = recorder.testEnd("test1");
+		hitProbe(3L, "Class3", 0);
+		Dump dump2 = recorder.testEnd("test2");
+
+		assertThat(dump1.store.getContents()).extracting("name").containsExactlyInAnyOrder("Class1", "Class2");
+		assertThat(dump2.store.getContents()).extracting("name").containsExactlyInAnyOrder("Class2", "Class3");
+		assertThat(recorder.getRunningTestCount()).isEqualTo(0);
+	}
+
+	/** Ensures that the probes of tests that overlap are independent of each other. */
+	@Test
+	public void testProbesAreMergedPerTest() throws Exception {
+		recorder.testStart("test1");
+		recorder.testStart("test2");
+		hitProbe(1L, "Class1", 0);
+		Dump dump2 = recorder.testEnd("test2");
+		hitProbe(1L, "Class1", 1);
+		Dump dump1 = recorder.testEnd("test1");
+
+		assertThat(dump2.store.get(1L).getProbes()).containsExactly(true, false);
+		assertThat(dump1.store.get(1L).getProbes()).containsExactly(true, true);
+	}
+
+	/** Ensures that ending a test that has not been started yields empty coverage. */
+	@Test
+	public void testEndWithoutStart() throws Exception {
+		hitProbe(1L, "Class1", 0);
+		Dump dump = recorder.testEnd("test1");
+
+		assertThat(dump.info.getId()).isEqualTo("test1");
+		assertThat(dump.store.getContents()).isEmpty();
+	}
+
+	private void hitProbe(long classId, String className, int probe) {
+		agent.getData().getExecutionData(classId, className, 2).getProbes()[probe] = true;
+	}
+}
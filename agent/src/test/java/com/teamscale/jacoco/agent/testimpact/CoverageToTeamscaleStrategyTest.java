@@ -20,19 +20,25 @@ import org.jacoco.core.data.ExecutionDataStore;
 import org.jacoco.core.data.SessionInfo;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import retrofit2.Response;
 
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Collections;
 import java.util.List;
+import java.util.stream.Stream;
 
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyBoolean;
 import static org.mockito.ArgumentMatchers.eq;
-import static org.mockito.ArgumentMatchers.matches;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
-import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @ExtendWith(MockitoExtension.class)
@@ -47,6 +53,12 @@ public class CoverageToTeamscaleStrategyTest {
 	@Mock
 	private JacocoRuntimeController controller;
 
+	@TempDir
+	Path outputDirectory;
+
+	/** The content of the last uploaded report. */
+	private String uploadedReport;
+
 	@Test
 	public void shouldRecordCoverageForTestsEvenIfNotProvidedAsAvailableTest() throws Exception {
 		when(controller.dumpAndReset()).thenReturn(new Dump(new SessionInfo("mytest", 0, 0), new ExecutionDataStore()));
@@ -65,9 +77,7 @@ public class CoverageToTeamscaleStrategyTest {
 		strategy.testEnd("mytest", new TestExecution("mytest", 0L, ETestExecutionResult.PASSED));
 		strategy.testRunEnd();
 
-		verify(client).uploadReport(eq(EReportFormat.TESTWISE_COVERAGE),
-				matches("\\Q{\"tests\":[{\"duration\":\\E[^,]*\\Q,\"paths\":[{\"files\":[{\"coveredLines\":\"1-4\",\"fileName\":\"Main.java\"}],\"path\":\"src/main/java\"}],\"result\":\"PASSED\",\"sourcePath\":\"mytest\",\"uniformPath\":\"mytest\"}]}\\E"),
-				any(), any(), any(), any());
+		assertThat(uploadedReport).matches("\\Q{\"tests\":[{\"duration\":\\E[^,]*\\Q,\"paths\":[{\"files\":[{\"coveredLines\":\"1-4\",\"fileName\":\"Main.java\"}],\"path\":\"src/main/java\"}],\"result\":\"PASSED\",\"sourcePath\":\"mytest\",\"uniformPath\":\"mytest\"}]}\\E");
 	}
 
 	@Test
@@ -94,9 +104,78 @@ public class CoverageToTeamscaleStrategyTest {
 		strategy.testEnd("mytest", new TestExecution("mytest", 0L, ETestExecutionResult.PASSED));
 		strategy.testRunEnd();
 
-		verify(client).uploadReport(eq(EReportFormat.TESTWISE_COVERAGE),
-				matches("\\Q{\"tests\":[{\"content\":\"content\",\"duration\":\\E[^,]*\\Q,\"paths\":[{\"files\":[{\"coveredLines\":\"1-4\",\"fileName\":\"Main.java\"}],\"path\":\"src/main/java\"}],\"result\":\"PASSED\",\"sourcePath\":\"mytest\",\"uniformPath\":\"mytest\"}]}\\E"),
-				any(), any(), any(), any());
+		assertThat(uploadedReport).matches("\\Q{\"tests\":[{\"content\":\"content\",\"duration\":\\E[^,]*\\Q,\"paths\":[{\"files\":[{\"coveredLines\":\"1-4\",\"fileName\":\"Main.java\"}],\"path\":\"src/main/java\"}],\"result\":\"PASSED\",\"sourcePath\":\"mytest\",\"uniformPath\":\"mytest\"}]}\\E");
+	}
+
+	@Test
+	public void shouldWaitForBackgroundConversionBeforeUploading() throws Exception {
+		when(controller.dumpAndReset()).thenReturn(
+				new Dump(new SessionInfo("test1", 0, 0), new ExecutionDataStore()),
+				new Dump(new SessionInfo("test2", 0, 0), new ExecutionDataStore()));
+		when(reportGenerator.convert(any(Dump.class))).thenAnswer(invocation -> {
+			// simulate a slow conversion so the upload has to wait for it
+			Thread.sleep(100);
+			TestCoverageBuilder testCoverageBuilder = new TestCoverageBuilder(
+					invocation.<Dump>getArgument(0).info.getId());
+			FileCoverageBuilder fileCoverageBuilder = new FileCoverageBuilder("src/main/java", "Main.java");
+			fileCoverageBuilder.addLine(1);
+			testCoverageBuilder.add(fileCoverageBuilder);
+			return testCoverageBuilder;
+		});
+
+		AgentOptions options = mockOptions();
+		when(options.getTiaConversionThreads()).thenReturn(2);
+		CoverageToTeamscaleStrategy strategy = new CoverageToTeamscaleStrategy(controller, options, reportGenerator);
+
+		strategy.testStart("test1");
+		strategy.testEnd("test1", null);
+		strategy.testStart("test2");
+		strategy.testEnd("test2", null);
+		strategy.testRunEnd();
+
+		assertThat(uploadedReport).isEqualTo("{\"tests\":[" +
+				"{\"paths\":[{\"files\":[{\"coveredLines\":\"1\",\"fileName\":\"Main.java\"}],\"path\":\"src/main/java\"}]," +
+				"\"sourcePath\":\"test1\",\"uniformPath\":\"test1\"}," +
+				"{\"paths\":[{\"files\":[{\"coveredLines\":\"1\",\"fileName\":\"Main.java\"}],\"path\":\"src/main/java\"}]," +
+				"\"sourcePath\":\"test2\",\"uniformPath\":\"test2\"}]}");
+	}
+
+	@Test
+	public void shouldDeleteStoredCoverageAfterTestRun() throws Exception {
+		when(controller.dumpAndReset()).thenReturn(
+				new Dump(new SessionInfo("test1", 0, 0), new ExecutionDataStore()),
+				new Dump(new SessionInfo("test2", 0, 0), new ExecutionDataStore()));
+		when(reportGenerator.convert(any(Dump.class))).thenAnswer(invocation -> {
+			TestCoverageBuilder testCoverageBuilder = new TestCoverageBuilder(
+					invocation.<Dump>getArgument(0).info.getId());
+			FileCoverageBuilder fileCoverageBuilder = new FileCoverageBuilder("src/main/java", "Main.java");
+			fileCoverageBuilder.addLine(1);
+			testCoverageBuilder.add(fileCoverageBuilder);
+			return testCoverageBuilder;
+		});
+
+		AgentOptions options = mockOptions();
+		CoverageToTeamscaleStrategy strategy = new CoverageToTeamscaleStrategy(controller, options, reportGenerator);
+
+		strategy.testStart("test1");
+		strategy.testEnd("test1", null);
+		strategy.testRunEnd();
+		try (Stream<Path> files = Files.list(outputDirectory)) {
+			assertThat(files).isEmpty();
+		}
+
+		strategy.testRunStart(Collections.singletonList(new ClusteredTestDetails("test2", "test2", null, null)),
+				false, null);
+		strategy.testStart("test2");
+		strategy.testEnd("test2", null);
+		strategy.testRunEnd();
+
+		assertThat(uploadedReport).isEqualTo("{\"tests\":[" +
+				"{\"paths\":[{\"files\":[{\"coveredLines\":\"1\",\"fileName\":\"Main.java\"}],\"path\":\"src/main/java\"}]," +
+				"\"sourcePath\":\"test2\",\"uniformPath\":\"test2\"}]}");
+		try (Stream<Path> files = Files.list(outputDirectory)) {
+			assertThat(files).isEmpty();
+		}
 	}
 
 	private JacocoRuntimeController mockController() throws JacocoRuntimeController.DumpException {
@@ -116,6 +195,12 @@ public class CoverageToTeamscaleStrategyTest {
 		server.userAccessToken = "token";
 		server.partition = "partition";
 		when(options.getTeamscaleServerOptions()).thenReturn(server);
+		when(options.getOutputDirectory()).thenReturn(outputDirectory);
+		doAnswer(invocation -> {
+			uploadedReport = new String(Files.readAllBytes(invocation.<File>getArgument(1).toPath()),
+					StandardCharsets.UTF_8);
+			return null;
+		}).when(client).uploadReport(eq(EReportFormat.TESTWISE_COVERAGE), any(File.class), any(), any(), any(), any());
 
 		when(options.createTeamscaleClient()).thenReturn(client);
 		return options;
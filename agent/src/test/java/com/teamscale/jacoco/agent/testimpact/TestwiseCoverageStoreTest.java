@@ -0,0 +1,88 @@
+package com.teamscale.jacoco.agent.testimpact;
+
+import com.teamscale.client.TestDetails;
+import com.teamscale.report.testwise.model.ETestExecutionResult;
+import com.teamscale.report.testwise.model.TestExecution;
+import com.teamscale.report.testwise.model.builder.FileCoverageBuilder;
+import com.teamscale.report.testwise.model.builder.TestCoverageBuilder;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/** Tests the {@link TestwiseCoverageStore}. */
+public class TestwiseCoverageStoreTest {
+
+	/** Ensures that the report contains all available tests sorted by uniform path with their stored coverage. */
+	@Test
+	public void testReportIsCreatedFromStoredTests(@TempDir Path tempDir) throws Exception {
+		TestwiseCoverageStore store = new TestwiseCoverageStore(tempDir.resolve("store.jsonl").toFile());
+		store.append("b", 0, createCoverage("b", 1, 4), new TestExecution("b", 1000, ETestExecutionResult.PASSED));
+		store.append("c", 1, createCoverage("c", 7, 7), null);
+
+		String report = writeReport(store, tempDir, new TestDetails("c", "c", null), new TestDetails("a", "a", null),
+				new TestDetails("b", "b", "content"));
+
+		assertThat(report).isEqualTo("{\"tests\":[" +
+				"{\"paths\":[],\"sourcePath\":\"a\",\"uniformPath\":\"a\"}," +
+				"{\"content\":\"content\",\"duration\":1.0,\"paths\":[{\"files\":[{\"coveredLines\":\"1-4\"," +
+				"\"fileName\":\"Main.java\"}],\"path\":\"src\"}],\"result\":\"PASSED\",\"sourcePath\":\"b\"," +
+				"\"uniformPath\":\"b\"}," +
+				"{\"paths\":[{\"files\":[{\"coveredLines\":\"7\",\"fileName\":\"Main.java\"}],\"path\":\"src\"}]," +
+				"\"sourcePath\":\"c\",\"uniformPath\":\"c\"}]}");
+	}
+
+	/**
+	 * Ensures that the coverage of a test that ended multiple times is merged and the execution of the test that ended
+	 * last is used, even if it was appended earlier.
+	 */
+	@Test
+	public void testCoverageOfSameTestIsMerged(@TempDir Path tempDir) throws Exception {
+		TestwiseCoverageStore store = new TestwiseCoverageStore(tempDir.resolve("store.jsonl").toFile());
+		store.append("a", 1, createCoverage("a", 3, 5), new TestExecution("a", 2000, ETestExecutionResult.PASSED));
+		store.append("a", 0, createCoverage("a", 1, 2), new TestExecution("a", 1000, ETestExecutionResult.FAILURE));
+		store.append("a", 2, createCoverage("a", 10, 10), null);
+
+		String report = writeReport(store, tempDir, new TestDetails("a", "a", null));
+
+		assertThat(report).isEqualTo("{\"tests\":[" +
+				"{\"duration\":2.0,\"paths\":[{\"files\":[{\"coveredLines\":\"1-5,10\",\"fileName\":\"Main.java\"}]," +
+				"\"path\":\"src\"}],\"result\":\"PASSED\",\"sourcePath\":\"a\",\"uniformPath\":\"a\"}]}");
+	}
+
+	/** Ensures that parameterized tests are mapped to their available test. */
+	@Test
+	public void testParameterizedTestsAreMappedToAvailableTest(@TempDir Path tempDir) throws Exception {
+		TestwiseCoverageStore store = new TestwiseCoverageStore(tempDir.resolve("store.jsonl").toFile());
+		store.append("a()[1]", 0, createCoverage("a()[1]", 1, 1), null);
+		store.append("a()[2]", 1, createCoverage("a()[2]", 2, 2), null);
+		store.append("unknown", 2, createCoverage("unknown", 3, 3), null);
+
+		String report = writeReport(store, tempDir, new TestDetails("a()", "a()", null));
+
+		assertThat(report).isEqualTo("{\"tests\":[" +
+				"{\"paths\":[{\"files\":[{\"coveredLines\":\"2\",\"fileName\":\"Main.java\"}],\"path\":\"src\"}]," +
+				"\"sourcePath\":\"a()\",\"uniformPath\":\"a()\"}]}");
+	}
+
+	private static TestCoverageBuilder createCoverage(String uniformPath, int firstLine, int lastLine) {
+		TestCoverageBuilder coverage = new TestCoverageBuilder(uniformPath);
+		FileCoverageBuilder fileCoverage = new FileCoverageBuilder("src", "Main.java");
+		fileCoverage.addLineRange(firstLine, lastLine);
+		coverage.add(fileCoverage);
+		return coverage;
+	}
+
+	private static String writeReport(TestwiseCoverageStore store, Path tempDir,
+									  TestDetails... availableTests) throws Exception {
+		File reportFile = tempDir.resolve("report.json").toFile();
+		store.writeReport(Arrays.asList(availableTests), reportFile);
+		return new String(Files.readAllBytes(reportFile.toPath()), StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,67 @@
+package com.teamscale.jacoco.agent.upload;
+
+import com.teamscale.report.jacoco.CoverageFile;
+import okio.Buffer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+
+/** Tests the {@link CoverageZipRequestBody}. */
+public class CoverageZipRequestBodyTest {
+
+	@TempDir
+	public File testFolder;
+
+	/** Ensures that coverage and meta data end up in the streamed zip and that the body can be written twice. */
+	@Test
+	public void testStreamedZipContainsAllFiles() throws IOException {
+		File coverage = new File(testFolder, "jacoco-1.xml");
+		Files.write(coverage.toPath(), "<report/>".getBytes(StandardCharsets.UTF_8));
+		Path metaData = new File(testFolder, "version.txt").toPath();
+		Files.write(metaData, "1.2.3".getBytes(StandardCharsets.UTF_8));
+
+		CoverageZipRequestBody body = new CoverageZipRequestBody(new CoverageFile(coverage), "coverage.xml",
+				Collections.singletonList(metaData));
+
+		assertThat(body.contentLength()).isEqualTo(-1);
+		for (int i = 0; i < 2; i++) {
+			Buffer buffer = new Buffer();
+			body.writeTo(buffer);
+
+			assertThat(readZip(buffer)).containsExactly(
+					entry("coverage.xml", "<report/>"),
+					entry("version.txt", "1.2.3"));
+		}
+	}
+
+	private static Map<String, String> readZip(Buffer buffer) throws IOException {
+		Map<String, String> entries = new LinkedHashMap<>();
+		try (ZipInputStream zipInputStream = new ZipInputStream(buffer.inputStream())) {
+			ZipEntry entry;
+			while ((entry = zipInputStream.getNextEntry()) != null) {
+				ByteArrayOutputStream content = new ByteArrayOutputStream();
+				byte[] chunk = new byte[1024];
+				int read;
+				while ((read = zipInputStream.read(chunk)) != -1) {
+					content.write(chunk, 0, read);
+				}
+				entries.put(entry.getName(), content.toString(StandardCharsets.UTF_8.name()));
+			}
+		}
+		return entries;
+	}
+}
@@ -0,0 +1,73 @@
+package com.teamscale.jacoco.agent.upload.azure;
+
+import okhttp3.ResponseBody;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import retrofit2.Response;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/** Tests the {@link AzureFileRangeUploader}. */
+class AzureFileRangeUploaderTest {
+
+	@TempDir
+	File tempDir;
+
+	/** Tests that the file is split into ranges the Azure file storage accepts and that all ranges are uploaded. */
+	@Test
+	void uploadsAllRanges() throws Exception {
+		byte[] content = new byte[2 * AzureFileRangeUploader.MAX_RANGE_SIZE + 123];
+		new Random(42).nextBytes(content);
+		File file = new File(tempDir, "coverage.zip");
+		Files.write(file.toPath(), content);
+
+		byte[] uploadedContent = new byte[content.length];
+		ConcurrentMap<Long, Integer> ranges = new ConcurrentHashMap<>();
+		Response<ResponseBody> response = AzureFileRangeUploader.upload(file, (offset, data) -> {
+			ranges.put(offset, data.length);
+			System.arraycopy(data, 0, uploadedContent, (int) offset, data.length);
+			return Response.success(ResponseBody.create(null, ""));
+		});
+
+		assertThat(response.isSuccessful()).isTrue();
+		assertThat(ranges).containsOnlyKeys(0L, (long) AzureFileRangeUploader.MAX_RANGE_SIZE,
+				2L * AzureFileRangeUploader.MAX_RANGE_SIZE);
+		assertThat(ranges.get(2L * AzureFileRangeUploader.MAX_RANGE_SIZE)).isEqualTo(123);
+		assertThat(uploadedContent).isEqualTo(content);
+	}
+
+	/** Tests that the response of a failed range is returned. */
+	@Test
+	void returnsFailedRange() throws Exception {
+		File file = new File(tempDir, "coverage.zip");
+		Files.write(file.toPath(), new byte[AzureFileRangeUploader.MAX_RANGE_SIZE + 1]);
+
+		Response<ResponseBody> response = AzureFileRangeUploader.upload(file, (offset, data) -> {
+			if (offset > 0) {
+				return Response.error(413, ResponseBody.create(null, "Request body too large"));
+			}
+			return Response.success(ResponseBody.create(null, ""));
+		});
+
+		assertThat(response.code()).isEqualTo(413);
+	}
+
+	/** Tests that exceptions of a range are rethrown. */
+	@Test
+	void rethrowsExceptions() throws IOException {
+		File file = new File(tempDir, "coverage.zip");
+		Files.write(file.toPath(), new byte[10]);
+
+		assertThatThrownBy(() -> AzureFileRangeUploader.upload(file, (offset, data) -> {
+			throw new IOException("Connection reset");
+		})).isInstanceOf(IOException.class).hasMessage("Connection reset");
+	}
+}
@@ -2,13 +2,20 @@ package com.teamscale.jacoco.agent.upload.delay;
 
 import com.teamscale.jacoco.agent.util.InMemoryUploader;
 import com.teamscale.report.jacoco.CoverageFile;
+import com.teamscale.report.jacoco.dump.Dump;
+import org.jacoco.core.data.ExecutionData;
+import org.jacoco.core.data.ExecutionDataStore;
+import org.jacoco.core.data.SessionInfo;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
@@ -71,4 +78,62 @@ public class DelayedUploaderTest {
 				.doesNotContain(coverageFilePath);
 		assertThat(destination.getUploadedFiles()).contains(coverageFile);
 	}
-}
\ No newline at end of file
+
+	@Test
+	public void shouldMergeCachedXmlsOnceCommitIsKnown(@TempDir Path outputPath) throws Exception {
+		for (int i = 0; i < DelayedUploader.MAX_XMLS_PER_MERGED_REPORT + 1; i++) {
+			Files.write(outputPath.resolve(String.format("jacoco-%03d.xml", i)), ("<report name=\"dummybundle\">" +
+					"<package name=\"com/example\"><sourcefile name=\"Example.java\">" +
+					"<line nr=\"" + (i + 1) + "\" mi=\"0\" ci=\"2\" mb=\"0\" cb=\"0\"/>" +
+					"</sourcefile></package></report>").getBytes(StandardCharsets.UTF_8));
+		}
+
+		InMemoryUploader destination = new InMemoryUploader();
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		DelayedUploader<String> store = new DelayedUploader<>(commit -> destination, outputPath, executor);
+
+		store.setCommitAndTriggerAsynchronousUpload("a2afb54566aaa");
+		executor.shutdown();
+		executor.awaitTermination(5, TimeUnit.SECONDS);
+
+		assertThat(Files.list(outputPath).collect(Collectors.toList())).isEmpty();
+		assertThat(destination.getUploadedFiles()).extracting(CoverageFile::getName)
+				.containsExactlyInAnyOrder("merged-jacoco-000.xml", String.format("jacoco-%03d.xml",
+						DelayedUploader.MAX_XMLS_PER_MERGED_REPORT));
+	}
+
+	@Test
+	public void shouldCacheExecutionDataUntilCommitIsKnown(@TempDir Path outputPath) throws Exception {
+		InMemoryUploader destination = new InMemoryUploader();
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		DelayedUploader<String> store = new DelayedUploader<>(commit -> destination, outputPath, executor);
+		List<Dump> convertedDumps = new ArrayList<>();
+		store.cacheExecutionData(dump -> {
+			convertedDumps.add(dump);
+			return new CoverageFile(Files.createFile(outputPath.resolve("converted.xml")).toFile());
+		});
+
+		Path execFile = store.cacheDump(createDump(new SessionInfo("first", 1, 2), new boolean[]{true, false}));
+		assertThat(store.cacheDump(createDump(new SessionInfo("second", 3, 4), new boolean[]{false, true})))
+				.isEqualTo(execFile);
+		assertThat(execFile).exists();
+		assertThat(convertedDumps).isEmpty();
+
+		store.setCommitAndTriggerAsynchronousUpload("a2afb54566aaa");
+		executor.shutdown();
+		executor.awaitTermination(5, TimeUnit.SECONDS);
+
+		assertThat(convertedDumps).hasSize(1);
+		assertThat(convertedDumps.get(0).store.get(1).getProbes()).containsExactly(true, true);
+		assertThat(convertedDumps.get(0).info.getStartTimeStamp()).isEqualTo(1);
+		assertThat(destination.getUploadedFiles()).extracting(CoverageFile::getName).containsExactly("converted.xml");
+		assertThat(Files.list(outputPath).collect(Collectors.toList())).isEmpty();
+		assertThat(store.cacheDump(createDump(new SessionInfo("third", 5, 6), new boolean[]{true, true}))).isNull();
+	}
+
+	private static Dump createDump(SessionInfo info, boolean[] probes) {
+		ExecutionDataStore store = new ExecutionDataStore();
+		store.put(new ExecutionData(1, "Foo", probes));
+		return new Dump(info, store);
+	}
+}
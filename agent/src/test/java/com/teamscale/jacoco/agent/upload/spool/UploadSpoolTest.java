@@ -0,0 +1,198 @@
+package com.teamscale.jacoco.agent.upload.spool;
+
+import com.teamscale.jacoco.agent.upload.EUploadResult;
+import com.teamscale.report.jacoco.CoverageFile;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/** Tests the {@link UploadSpool}. */
+public class UploadSpoolTest {
+
+	/** The upload parameters of all spooled files in this test, unless the test is about the parameters. */
+	private static final Map<String, String> NO_PARAMETERS = Collections.emptyMap();
+
+	@TempDir
+	public File testFolder;
+
+	/** Ensures that failed uploads are retried until they succeed and the spooled file is deleted afterwards. */
+	@Test
+	public void testUploadIsRetriedUntilSuccessful() throws Exception {
+		ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+		UploadSpool spool = new UploadSpool(testFolder.toPath().resolve("spool"), 1024, Duration.ofMillis(1),
+				Duration.ofMillis(10), executor);
+		AtomicInteger attempts = new AtomicInteger();
+		CountDownLatch uploaded = new CountDownLatch(1);
+		List<String> uploadedContents = new ArrayList<>();
+
+		CoverageFile coverageFile = createCoverageFile("jacoco-1.xml", "<report/>");
+		assertThat(spool.spool(coverageFile, (spooledFile, parameters) -> {
+			if (attempts.incrementAndGet() < 3) {
+				return EUploadResult.TEMPORARY_FAILURE;
+			}
+			uploadedContents.add(readContent(spooledFile));
+			uploaded.countDown();
+			return EUploadResult.SUCCESS;
+		}, "server", NO_PARAMETERS)).isTrue();
+
+		assertThat(uploaded.await(10, TimeUnit.SECONDS)).isTrue();
+		executor.shutdown();
+		assertThat(executor.awaitTermination(10, TimeUnit.SECONDS)).isTrue();
+
+		assertThat(attempts).hasValue(3);
+		assertThat(uploadedContents).containsExactly("<report/>");
+		assertThat(spool.size()).isEqualTo(0);
+		assertThat(testFolder.toPath().resolve("spool")).doesNotExist();
+	}
+
+	/** Ensures that the oldest files are discarded if the spool would exceed its maximum size. */
+	@Test
+	public void testOldestFilesAreEvicted() throws Exception {
+		ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+		UploadSpool spool = new UploadSpool(testFolder.toPath().resolve("spool"), 20, Duration.ofHours(1),
+				Duration.ofHours(1), executor);
+
+		UploadSpool.IUploadAttempt upload = (file, parameters) -> EUploadResult.SUCCESS;
+		assertThat(spool.spool(createCoverageFile("jacoco-1.xml", "0123456789"), upload, "server", NO_PARAMETERS))
+				.isTrue();
+		assertThat(spool.spool(createCoverageFile("jacoco-2.xml", "0123456789"), upload, "server", NO_PARAMETERS))
+				.isTrue();
+		assertThat(spool.spool(createCoverageFile("jacoco-3.xml", "0123456789"), upload, "server", NO_PARAMETERS))
+				.isTrue();
+		assertThat(spool.spool(createCoverageFile("jacoco-4.xml", "012345678901234567890"), upload, "server",
+				NO_PARAMETERS)).isFalse();
+		executor.shutdownNow();
+
+		assertThat(spool.size()).isEqualTo(2);
+		assertThat(testFolder.toPath().resolve("spool/1")).doesNotExist();
+		assertThat(testFolder.toPath().resolve("spool/2/jacoco-2.xml")).exists();
+		assertThat(testFolder.toPath().resolve("spool/3/jacoco-3.xml")).exists();
+	}
+
+	/**
+	 * Ensures that files spooled before a restart are kept and that their upload is resumed with their original upload
+	 * parameters by an uploader for the same target.
+	 */
+	@Test
+	public void testFilesOfPreviousRunAreResumed() throws Exception {
+		ScheduledExecutorService previousExecutor = Executors.newSingleThreadScheduledExecutor();
+		UploadSpool previousSpool = new UploadSpool(testFolder.toPath().resolve("spool"), 1024, Duration.ofHours(1),
+				Duration.ofHours(1), previousExecutor);
+		UploadSpool.IUploadAttempt failingUpload = (file, parameters) -> EUploadResult.TEMPORARY_FAILURE;
+		Map<String, String> originalParameters = new HashMap<>();
+		originalParameters.put("partition", "Unit Tests");
+		originalParameters.put("commit", "master:1234");
+		assertThat(previousSpool.spool(createCoverageFile("jacoco-1.xml", "<report1/>"), failingUpload, "server A",
+				originalParameters)).isTrue();
+		assertThat(previousSpool.spool(createCoverageFile("jacoco-2.xml", "<report2/>"), failingUpload, "server B",
+				NO_PARAMETERS)).isTrue();
+		previousExecutor.shutdownNow();
+		// an entry whose copy did not finish before the restart
+		Files.createDirectories(testFolder.toPath().resolve("spool/3"));
+		Files.write(testFolder.toPath().resolve("spool/3/jacoco-3.xml"), "<rep".getBytes(StandardCharsets.UTF_8));
+
+		ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+		UploadSpool spool = new UploadSpool(testFolder.toPath().resolve("spool"), 1024, Duration.ofMillis(1),
+				Duration.ofMillis(10), executor);
+		assertThat(spool.size()).isEqualTo(2);
+		assertThat(testFolder.toPath().resolve("spool/3")).doesNotExist();
+
+		CountDownLatch uploaded = new CountDownLatch(1);
+		List<String> uploadedContents = new ArrayList<>();
+		List<Map<String, String>> uploadedParameters = new ArrayList<>();
+		spool.resume("server A", (spooledFile, parameters) -> {
+			uploadedContents.add(readContent(spooledFile));
+			uploadedParameters.add(parameters);
+			uploaded.countDown();
+			return EUploadResult.SUCCESS;
+		});
+		assertThat(uploaded.await(10, TimeUnit.SECONDS)).isTrue();
+		assertThat(spool.spool(createCoverageFile("jacoco-4.xml", "<report4/>"), failingUpload, "server B",
+				NO_PARAMETERS)).isTrue();
+		executor.shutdown();
+		assertThat(executor.awaitTermination(10, TimeUnit.SECONDS)).isTrue();
+
+		assertThat(uploadedContents).containsExactly("<report1/>");
+		assertThat(uploadedParameters).containsExactly(originalParameters);
+		assertThat(spool.size()).isEqualTo(2);
+		assertThat(testFolder.toPath().resolve("spool/1")).doesNotExist();
+		assertThat(testFolder.toPath().resolve("spool/2/jacoco-2.xml")).exists();
+		assertThat(testFolder.toPath().resolve("spool/4/jacoco-4.xml")).exists();
+	}
+
+	/**
+	 * Ensures that permanently failing uploads are not retried, but kept in the spool and resumed after a restart, e.g.
+	 * once the credentials have been fixed.
+	 */
+	@Test
+	public void testPermanentlyFailedUploadIsParkedUntilRestart() throws Exception {
+		ScheduledExecutorService previousExecutor = Executors.newSingleThreadScheduledExecutor();
+		UploadSpool previousSpool = new UploadSpool(testFolder.toPath().resolve("spool"), 1024, Duration.ofMillis(1),
+				Duration.ofMillis(10), previousExecutor);
+		AtomicInteger attempts = new AtomicInteger();
+		CountDownLatch firstAttempt = new CountDownLatch(1);
+		CountDownLatch secondAttempt = new CountDownLatch(1);
+		assertThat(previousSpool.spool(createCoverageFile("jacoco-1.xml", "<report/>"), (file, parameters) -> {
+			if (attempts.incrementAndGet() == 1) {
+				firstAttempt.countDown();
+			} else {
+				secondAttempt.countDown();
+			}
+			return EUploadResult.PERMANENT_FAILURE;
+		}, "server", NO_PARAMETERS)).isTrue();
+
+		assertThat(firstAttempt.await(10, TimeUnit.SECONDS)).isTrue();
+		assertThat(secondAttempt.await(500, TimeUnit.MILLISECONDS)).isFalse();
+		previousExecutor.shutdownNow();
+		assertThat(attempts).hasValue(1);
+		assertThat(previousSpool.size()).isEqualTo(1);
+		assertThat(testFolder.toPath().resolve("spool/1/jacoco-1.xml")).exists();
+
+		ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+		UploadSpool spool = new UploadSpool(testFolder.toPath().resolve("spool"), 1024, Duration.ofMillis(1),
+				Duration.ofMillis(10), executor);
+		CountDownLatch uploaded = new CountDownLatch(1);
+		spool.resume("server", (file, parameters) -> {
+			uploaded.countDown();
+			return EUploadResult.SUCCESS;
+		});
+		assertThat(uploaded.await(10, TimeUnit.SECONDS)).isTrue();
+		executor.shutdown();
+		assertThat(executor.awaitTermination(10, TimeUnit.SECONDS)).isTrue();
+		assertThat(spool.size()).isEqualTo(0);
+	}
+
+	private CoverageFile createCoverageFile(String name, String content) throws IOException {
+		File file = new File(testFolder, name);
+		Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+		return new CoverageFile(file);
+	}
+
+	private static String readContent(CoverageFile coverageFile) {
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		try {
+			coverageFile.copy(outputStream);
+		} catch (IOException e) {
+			throw new AssertionError(e);
+		}
+		return new String(outputStream.toByteArray(), StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,47 @@
+package com.teamscale.jacoco.agent.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/** Tests the {@link AdaptiveTimer}. */
+public class AdaptiveTimerTest {
+
+	/** Ensures that the interval shrinks with new findings and grows without, but stays within its bounds. */
+	@Test
+	public void testIntervalStaysWithinBounds() {
+		AdaptiveTimer timer = new AdaptiveTimer(() -> true, Duration.ofMinutes(1), Duration.ofSeconds(20),
+				Duration.ofMinutes(5));
+
+		assertThat(timer.computeNextInterval(Duration.ofMinutes(1), true)).isEqualTo(Duration.ofSeconds(30));
+		assertThat(timer.computeNextInterval(Duration.ofSeconds(30), true)).isEqualTo(Duration.ofSeconds(20));
+		assertThat(timer.computeNextInterval(Duration.ofSeconds(20), false)).isEqualTo(Duration.ofSeconds(40));
+		assertThat(timer.computeNextInterval(Duration.ofMinutes(4), false)).isEqualTo(Duration.ofMinutes(5));
+		assertThat(timer.computeNextInterval(Duration.ofMinutes(5), false)).isEqualTo(Duration.ofMinutes(5));
+	}
+
+	/** Ensures that the job is run repeatedly and the interval adapts to its results. */
+	@Test
+	public void testJobAdaptsInterval() throws InterruptedException {
+		int[] runs = {0};
+		AdaptiveTimer timer = new AdaptiveTimer(() -> {
+			synchronized (runs) {
+				runs[0]++;
+				runs.notifyAll();
+			}
+			return false;
+		}, Duration.ofMillis(10), Duration.ofMillis(10), Duration.ofMillis(40));
+		timer.start();
+
+		synchronized (runs) {
+			while (runs[0] < 3) {
+				runs.wait(10_000);
+			}
+		}
+		timer.stop();
+
+		assertThat(timer.getInterval()).isEqualTo(Duration.ofMillis(40));
+	}
+}
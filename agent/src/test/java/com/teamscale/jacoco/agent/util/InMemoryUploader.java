@@ -6,6 +6,7 @@ import com.teamscale.report.jacoco.CoverageFile;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -13,7 +14,7 @@ import java.util.List;
  * {@link InMemoryUploader#getUploadedFiles()}
  */
 public class InMemoryUploader implements IUploader {
-	private final List<CoverageFile> coverageFiles = new ArrayList<>();
+	private final List<CoverageFile> coverageFiles = Collections.synchronizedList(new ArrayList<>());
 
 	@Override
 	public void upload(CoverageFile coverageFile) {
@@ -34,7 +34,7 @@ public class CoverageFile {
 	 * Marks the file as being used by an additional uploader. This ensures that the file is not deleted until all users
 	 * have signed via {@link #delete()} that they no longer intend to access the file.
 	 */
-	public CoverageFile acquireReference() {
+	public synchronized CoverageFile acquireReference() {
 		referenceCounter++;
 		return this;
 	}
@@ -44,8 +44,9 @@ public class CoverageFile {
 	 * into memory.
 	 */
 	public void copy(OutputStream outputStream) throws IOException {
-		FileInputStream inputStream = new FileInputStream(coverageFile);
-		FileSystemUtils.copy(inputStream, outputStream);
+		try (FileInputStream inputStream = new FileInputStream(coverageFile)) {
+			FileSystemUtils.copy(inputStream, outputStream);
+		}
 	}
 
 	/**
@@ -55,6 +56,11 @@ public class CoverageFile {
 		return FileSystemUtils.getFilenameWithoutExtension(coverageFile);
 	}
 
+	/** Get the coverage file on disk. */
+	public File getFile() {
+		return coverageFile;
+	}
+
 	/** Get the filename of the coverage file. */
 	public String getName() {
 		return coverageFile.getName();
@@ -63,7 +69,7 @@ public class CoverageFile {
 	/**
 	 * Delete the coverage file from disk
 	 */
-	public void delete() throws IOException {
+	public synchronized void delete() throws IOException {
 		referenceCounter--;
 		if (referenceCounter <= 0) {
 			Files.delete(coverageFile.toPath());
@@ -0,0 +1,240 @@
+package com.teamscale.report.jacoco;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * Writes a copy of a JaCoCo XML report that only contains the classes accepted by a filter, e.g. to upload only the
+ * coverage of the classes that belong to a certain application. Source files are kept if one of their classes is kept.
+ * The counters of packages, groups and the report are recomputed from the kept classes. The report is processed one
+ * package at a time, so only a single package is held in memory.
+ */
+public class JaCoCoXmlReportFilter {
+
+	/** The document type of JaCoCo XML reports. */
+	private static final String DOCTYPE = "<!DOCTYPE report PUBLIC \"-//JACOCO//DTD Report 1.1//EN\" \"report.dtd\">";
+
+	/** Accepts the internal names of the classes to keep, e.g. <code>com/example/Foo$Bar</code>. */
+	private final Predicate<String> classFilter;
+
+	public JaCoCoXmlReportFilter(Predicate<String> classFilter) {
+		this.classFilter = classFilter;
+	}
+
+	/**
+	 * Writes the classes of the given report that are accepted by the filter to the given output file. Returns the
+	 * number of classes that have been kept.
+	 */
+	public int filter(File report, File output) throws IOException {
+		try (InputStream input = new BufferedInputStream(new FileInputStream(report));
+			 OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(output))) {
+			XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+			inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+			inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+			XMLStreamReader reader = inputFactory.createXMLStreamReader(input);
+			XMLStreamWriter writer = XMLOutputFactory.newInstance().createXMLStreamWriter(outputStream, "UTF-8");
+			try {
+				return filter(reader, writer);
+			} finally {
+				reader.close();
+				writer.close();
+			}
+		} catch (XMLStreamException e) {
+			throw new IOException("Failed to filter JaCoCo XML report " + report, e);
+		}
+	}
+
+	/** Copies the report from the reader to the writer and returns the number of kept classes. */
+	private int filter(XMLStreamReader reader, XMLStreamWriter writer) throws XMLStreamException, IOException {
+		// Skips the prolog including the document type
+		while (reader.hasNext() && reader.next() != XMLStreamConstants.START_ELEMENT) {
+			// nothing to do
+		}
+		if (!reader.isStartElement() || !"report".equals(reader.getLocalName())) {
+			throw new IOException("Not a JaCoCo XML report");
+		}
+
+		writer.writeStartDocument("UTF-8", "1.0");
+		writer.writeDTD(DOCTYPE);
+		Element report = Element.readStart(reader);
+		report.writeStart(writer);
+
+		Counters reportCounters = new Counters();
+		int keptClasses = 0;
+		while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+			Element child = Element.read(reader);
+			switch (child.name) {
+				case "sessioninfo":
+					child.write(writer);
+					break;
+				case "package":
+				case "group":
+					Element filteredChild = filterContainer(child);
+					if (filteredChild != null) {
+						filteredChild.write(writer);
+						reportCounters.add(filteredChild);
+						keptClasses += filteredChild.countClasses();
+					}
+					break;
+				default:
+					// counters are replaced by the ones of the kept classes
+					break;
+			}
+		}
+		reportCounters.write(writer);
+
+		writer.writeEndElement();
+		writer.writeEndDocument();
+		return keptClasses;
+	}
+
+	/**
+	 * Returns a copy of the given package or group with only the kept classes and the counters of these classes or null
+	 * if no class is kept.
+	 */
+	private Element filterContainer(Element container) {
+		Element filtered = new Element(container.name, container.attributes);
+		Counters counters = new Counters();
+		Set<String> keptSourceFiles = new HashSet<>();
+		for (Element child : container.children) {
+			if ("class".equals(child.name) && classFilter.test(child.attributes.get("name"))) {
+				filtered.children.add(child);
+				counters.add(child);
+				keptSourceFiles.add(child.attributes.get("sourcefilename"));
+			} else if ("package".equals(child.name) || "group".equals(child.name)) {
+				Element filteredChild = filterContainer(child);
+				if (filteredChild != null) {
+					filtered.children.add(filteredChild);
+					counters.add(filteredChild);
+				}
+			}
+		}
+		if (filtered.children.isEmpty()) {
+			return null;
+		}
+
+		for (Element child : container.children) {
+			if ("sourcefile".equals(child.name) && keptSourceFiles.contains(child.attributes.get("name"))) {
+				filtered.children.add(child);
+			}
+		}
+		filtered.children.addAll(counters.toElements());
+		return filtered;
+	}
+
+	/** An XML element with its attributes and child elements. */
+	private static class Element {
+
+		private final String name;
+		private final Map<String, String> attributes;
+		private final List<Element> children = new ArrayList<>();
+
+		private Element(String name, Map<String, String> attributes) {
+			this.name = name;
+			this.attributes = attributes;
+		}
+
+		/** Creates the element the reader is positioned at without reading its children. */
+		private static Element readStart(XMLStreamReader reader) {
+			Map<String, String> attributes = new LinkedHashMap<>();
+			for (int i = 0; i < reader.getAttributeCount(); i++) {
+				attributes.put(reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+			}
+			return new Element(reader.getLocalName(), attributes);
+		}
+
+		/** Reads the element the reader is positioned at including all of its children. */
+		private static Element read(XMLStreamReader reader) throws XMLStreamException {
+			Element element = readStart(reader);
+			while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+				element.children.add(read(reader));
+			}
+			return element;
+		}
+
+		/** Returns the number of classes in this element. */
+		private int countClasses() {
+			if ("class".equals(name)) {
+				return 1;
+			}
+			return children.stream().mapToInt(Element::countClasses).sum();
+		}
+
+		private void writeStart(XMLStreamWriter writer) throws XMLStreamException {
+			writer.writeStartElement(name);
+			for (Map.Entry<String, String> attribute : attributes.entrySet()) {
+				writer.writeAttribute(attribute.getKey(), attribute.getValue());
+			}
+		}
+
+		private void write(XMLStreamWriter writer) throws XMLStreamException {
+			if (children.isEmpty()) {
+				writer.writeEmptyElement(name);
+				for (Map.Entry<String, String> attribute : attributes.entrySet()) {
+					writer.writeAttribute(attribute.getKey(), attribute.getValue());
+				}
+				return;
+			}
+			writeStart(writer);
+			for (Element child : children) {
+				child.write(writer);
+			}
+			writer.writeEndElement();
+		}
+	}
+
+	/** Sums up counters of the same type in the order in which the types occur. */
+	private static class Counters {
+
+		/** The missed and covered items by counter type. */
+		private final Map<String, long[]> counters = new LinkedHashMap<>();
+
+		/** Adds the counters that are direct children of the given element. */
+		private void add(Element element) {
+			for (Element child : element.children) {
+				if ("counter".equals(child.name)) {
+					long[] counter = counters.computeIfAbsent(child.attributes.get("type"), type -> new long[2]);
+					counter[0] += Long.parseLong(child.attributes.get("missed"));
+					counter[1] += Long.parseLong(child.attributes.get("covered"));
+				}
+			}
+		}
+
+		private List<Element> toElements() {
+			List<Element> elements = new ArrayList<>();
+			for (Map.Entry<String, long[]> counter : counters.entrySet()) {
+				Map<String, String> attributes = new LinkedHashMap<>();
+				attributes.put("type", counter.getKey());
+				attributes.put("missed", String.valueOf(counter.getValue()[0]));
+				attributes.put("covered", String.valueOf(counter.getValue()[1]));
+				elements.add(new Element("counter", attributes));
+			}
+			return elements;
+		}
+
+		private void write(XMLStreamWriter writer) throws XMLStreamException {
+			for (Element element : toElements()) {
+				element.write(writer);
+			}
+		}
+	}
+}
@@ -1,6 +1,7 @@
 package com.teamscale.report.jacoco;
 
 import com.teamscale.report.EDuplicateClassFileBehavior;
+import com.teamscale.report.jacoco.cache.ClassStructureCache;
 import com.teamscale.report.jacoco.dump.Dump;
 import com.teamscale.report.util.ClasspathWildcardIncludeFilter;
 import com.teamscale.report.util.ILogger;
@@ -8,6 +9,7 @@ import com.teamscale.report.util.ILogger;
 import org.jacoco.core.analysis.Analyzer;
 import org.jacoco.core.analysis.CoverageBuilder;
 import org.jacoco.core.analysis.IBundleCoverage;
+import org.jacoco.core.analysis.IClassCoverage;
 import org.jacoco.core.data.ExecutionDataStore;
 import org.jacoco.core.data.SessionInfo;
 import org.jacoco.report.IReportVisitor;
@@ -17,6 +19,7 @@ import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
@@ -39,6 +42,15 @@ public class JaCoCoXmlReportGenerator {
 
 	/** Whether to remove uncovered classes from the report. */
 	private final boolean ignoreUncoveredClasses;
+
+	/**
+	 * Cache for the structure of the analyzed class files or null if the class files should be analyzed from scratch
+	 * for every conversion.
+	 */
+	private final ClassStructureCache classStructureCache;
+
+	/** The number of threads used to analyze the class files. */
+	private final int analysisThreads;
 	
 	/** Part of the error message logged when validating the coverage report fails. */
 	private static final String MOST_LIKELY_CAUSE_MESSAGE = "Most likely you did not configure the agent correctly." +
@@ -50,11 +62,34 @@ public class JaCoCoXmlReportGenerator {
 	public JaCoCoXmlReportGenerator(List<File> codeDirectoriesOrArchives,
 									ClasspathWildcardIncludeFilter locationIncludeFilter,
 									EDuplicateClassFileBehavior duplicateClassFileBehavior, boolean ignoreUncoveredClasses, ILogger logger) {
+		this(codeDirectoriesOrArchives, locationIncludeFilter, duplicateClassFileBehavior, ignoreUncoveredClasses,
+				false, 1, logger);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param cacheClassStructure Whether to keep the structure of the analyzed class files in memory between
+	 *                            conversions. This speeds up repeated conversions (e.g. interval dumps) since only
+	 *                            class files that changed since the last conversion need to be analyzed again.
+	 * @param analysisThreads     The number of threads used to analyze the class files. With more than one thread the
+	 *                            class files are analyzed with a {@link ParallelClassFileAnalyzer}.
+	 */
+	public JaCoCoXmlReportGenerator(List<File> codeDirectoriesOrArchives,
+									ClasspathWildcardIncludeFilter locationIncludeFilter,
+									EDuplicateClassFileBehavior duplicateClassFileBehavior, boolean ignoreUncoveredClasses,
+									boolean cacheClassStructure, int analysisThreads, ILogger logger) {
 		this.codeDirectoriesOrArchives = codeDirectoriesOrArchives;
 		this.duplicateClassFileBehavior = duplicateClassFileBehavior;
 		this.locationIncludeFilter = locationIncludeFilter;
 		this.ignoreUncoveredClasses = ignoreUncoveredClasses;
 		this.logger = logger;
+		this.analysisThreads = analysisThreads;
+		if (cacheClassStructure) {
+			this.classStructureCache = new ClassStructureCache(locationIncludeFilter, logger);
+		} else {
+			this.classStructureCache = null;
+		}
 	}
 
 
@@ -109,6 +144,19 @@ public class JaCoCoXmlReportGenerator {
 		CoverageBuilder coverageBuilder = new TeamscaleCoverageBuilder(this.logger,
 				duplicateClassFileBehavior, ignoreUncoveredClasses);
 
+		if (classStructureCache != null) {
+			classStructureCache.analyzeAndAnnotate(codeDirectoriesOrArchives, store, coverageBuilder);
+			return coverageBuilder.getBundle("dummybundle");
+		}
+
+		if (analysisThreads > 1) {
+			ParallelClassFileAnalyzer<IClassCoverage> analyzer = new ParallelClassFileAnalyzer<>(analysisThreads,
+					locationIncludeFilter, logger,
+					(classId, classFile, location) -> analyzeClassCoverage(store, classFile, location));
+			analyzer.analyzeAll(codeDirectoriesOrArchives, (classId, coverage) -> coverageBuilder.visitCoverage(coverage));
+			return coverageBuilder.getBundle("dummybundle");
+		}
+
 		Analyzer analyzer = new FilteringAnalyzer(store, coverageBuilder, locationIncludeFilter, logger);
 
 		for (File file : codeDirectoriesOrArchives) {
@@ -118,4 +166,18 @@ public class JaCoCoXmlReportGenerator {
 		return coverageBuilder.getBundle("dummybundle");
 	}
 
+	/**
+	 * Analyzes a single class file with the coverage in the given store. Returns null if the class is skipped by
+	 * JaCoCo (e.g. synthetic classes).
+	 */
+	private static IClassCoverage analyzeClassCoverage(ExecutionDataStore store, byte[] classFile,
+													   String location) throws IOException {
+		List<IClassCoverage> coverage = new ArrayList<>(1);
+		new Analyzer(store, coverage::add).analyzeClass(classFile, location);
+		if (coverage.isEmpty()) {
+			return null;
+		}
+		return coverage.get(0);
+	}
+
 }
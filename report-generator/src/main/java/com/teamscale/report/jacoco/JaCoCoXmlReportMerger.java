@@ -0,0 +1,275 @@
+package com.teamscale.report.jacoco;
+
+import org.jacoco.core.data.SessionInfo;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Merges JaCoCo XML reports of the same code into a single report, e.g. to upload the reports of many dumps at once.
+ * <p>
+ * The lines of the reports are merged by taking the maximum of their covered instructions and branches, so a line is
+ * covered in the merged report if it is covered in any of the reports. Since the coverage of classes and methods can
+ * not be merged without the execution data, the merged report only contains the packages and source files with their
+ * lines and counters. This is all Teamscale needs to import the coverage.
+ */
+public class JaCoCoXmlReportMerger {
+
+	/** The document type of JaCoCo XML reports. */
+	private static final String DOCTYPE = "<!DOCTYPE report PUBLIC \"-//JACOCO//DTD Report 1.1//EN\" \"report.dtd\">";
+
+	/** The name of the merged report. Taken from the first merged report. */
+	private String reportName = null;
+
+	/** The sessions of all merged reports by their ID. */
+	private final Map<String, SessionInfo> sessions = new LinkedHashMap<>();
+
+	/** The merged lines by line number by source file name by package name. */
+	private final Map<String, Map<String, Map<Integer, LineCoverage>>> packages = new TreeMap<>();
+
+	/** Adds the coverage of the given report to the merged report. */
+	public void merge(File report) throws IOException {
+		try (InputStream input = new BufferedInputStream(new FileInputStream(report))) {
+			XMLStreamReader reader = createInputFactory().createXMLStreamReader(input);
+			try {
+				merge(reader);
+			} finally {
+				reader.close();
+			}
+		} catch (XMLStreamException e) {
+			throw new IOException("Failed to parse JaCoCo XML report " + report, e);
+		}
+	}
+
+	/** Adds the coverage of the report read by the given reader to the merged report. */
+	private void merge(XMLStreamReader reader) throws XMLStreamException, IOException {
+		// Skips the prolog including the document type
+		while (reader.hasNext() && reader.next() != XMLStreamConstants.START_ELEMENT) {
+			// nothing to do
+		}
+		if (!reader.isStartElement() || !"report".equals(reader.getLocalName())) {
+			throw new IOException("Not a JaCoCo XML report");
+		}
+		if (reportName == null) {
+			reportName = reader.getAttributeValue(null, "name");
+		}
+
+		Map<String, Map<Integer, LineCoverage>> currentPackage = null;
+		Map<Integer, LineCoverage> currentSourceFile = null;
+		while (reader.hasNext()) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.END_ELEMENT) {
+				if ("sourcefile".equals(reader.getLocalName())) {
+					currentSourceFile = null;
+				} else if ("package".equals(reader.getLocalName())) {
+					currentPackage = null;
+				}
+				continue;
+			}
+			if (event != XMLStreamConstants.START_ELEMENT) {
+				continue;
+			}
+
+			switch (reader.getLocalName()) {
+				case "sessioninfo":
+					String id = reader.getAttributeValue(null, "id");
+					sessions.putIfAbsent(id,
+							new SessionInfo(id, parseLong(reader, "start"), parseLong(reader, "dump")));
+					break;
+				case "package":
+					currentPackage = packages.computeIfAbsent(reader.getAttributeValue(null, "name"),
+							name -> new TreeMap<>());
+					break;
+				case "sourcefile":
+					if (currentPackage != null) {
+						currentSourceFile = currentPackage.computeIfAbsent(reader.getAttributeValue(null, "name"),
+								name -> new TreeMap<>());
+					}
+					break;
+				case "line":
+					if (currentSourceFile != null) {
+						LineCoverage line = new LineCoverage(parseInt(reader, "mi"), parseInt(reader, "ci"),
+								parseInt(reader, "mb"), parseInt(reader, "cb"));
+						currentSourceFile.merge(parseInt(reader, "nr"), line, LineCoverage::merge);
+					}
+					break;
+				default:
+					break;
+			}
+		}
+	}
+
+	/** Writes the merged report to the given stream and closes it. */
+	public void writeTo(OutputStream output) throws IOException {
+		try (OutputStream bufferedOutput = new BufferedOutputStream(output)) {
+			XMLStreamWriter writer = XMLOutputFactory.newInstance().createXMLStreamWriter(bufferedOutput, "UTF-8");
+			writer.writeStartDocument("UTF-8", "1.0");
+			writer.writeDTD(DOCTYPE);
+			writer.writeStartElement("report");
+			writer.writeAttribute("name", reportName == null ? "merged" : reportName);
+			for (SessionInfo session : sessions.values()) {
+				writer.writeEmptyElement("sessioninfo");
+				writer.writeAttribute("id", session.getId());
+				writer.writeAttribute("start", String.valueOf(session.getStartTimeStamp()));
+				writer.writeAttribute("dump", String.valueOf(session.getDumpTimeStamp()));
+			}
+
+			Counters reportCounters = new Counters();
+			for (Map.Entry<String, Map<String, Map<Integer, LineCoverage>>> packageEntry : packages.entrySet()) {
+				writer.writeStartElement("package");
+				writer.writeAttribute("name", packageEntry.getKey());
+				Counters packageCounters = new Counters();
+				for (Map.Entry<String, Map<Integer, LineCoverage>> sourceFileEntry : packageEntry.getValue()
+						.entrySet()) {
+					packageCounters.add(writeSourceFile(writer, sourceFileEntry.getKey(), sourceFileEntry.getValue()));
+				}
+				packageCounters.writeTo(writer);
+				writer.writeEndElement();
+				reportCounters.add(packageCounters);
+			}
+			reportCounters.writeTo(writer);
+
+			writer.writeEndElement();
+			writer.writeEndDocument();
+			writer.close();
+		} catch (XMLStreamException e) {
+			throw new IOException("Failed to write merged JaCoCo XML report", e);
+		}
+	}
+
+	/** Writes the given source file and returns its counters. */
+	private static Counters writeSourceFile(XMLStreamWriter writer, String name,
+											Map<Integer, LineCoverage> lines) throws XMLStreamException {
+		writer.writeStartElement("sourcefile");
+		writer.writeAttribute("name", name);
+		Counters counters = new Counters();
+		for (Map.Entry<Integer, LineCoverage> lineEntry : lines.entrySet()) {
+			LineCoverage line = lineEntry.getValue();
+			writer.writeEmptyElement("line");
+			writer.writeAttribute("nr", String.valueOf(lineEntry.getKey()));
+			writer.writeAttribute("mi", String.valueOf(line.missedInstructions));
+			writer.writeAttribute("ci", String.valueOf(line.coveredInstructions));
+			writer.writeAttribute("mb", String.valueOf(line.missedBranches));
+			writer.writeAttribute("cb", String.valueOf(line.coveredBranches));
+			counters.add(line);
+		}
+		counters.writeTo(writer);
+		writer.writeEndElement();
+		return counters;
+	}
+
+	/** Creates a factory that neither loads the DTD referenced by the reports nor any other external entity. */
+	private static XMLInputFactory createInputFactory() {
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		return factory;
+	}
+
+	private static int parseInt(XMLStreamReader reader, String attribute) throws IOException {
+		return (int) parseLong(reader, attribute);
+	}
+
+	private static long parseLong(XMLStreamReader reader, String attribute) throws IOException {
+		String value = reader.getAttributeValue(null, attribute);
+		try {
+			return Long.parseLong(value);
+		} catch (NumberFormatException e) {
+			throw new IOException("Invalid value for attribute " + attribute + " of element " +
+					reader.getLocalName() + ": " + value, e);
+		}
+	}
+
+	/** The coverage of a single line. */
+	private static class LineCoverage {
+
+		private final int missedInstructions;
+		private final int coveredInstructions;
+		private final int missedBranches;
+		private final int coveredBranches;
+
+		private LineCoverage(int missedInstructions, int coveredInstructions, int missedBranches,
+							 int coveredBranches) {
+			this.missedInstructions = missedInstructions;
+			this.coveredInstructions = coveredInstructions;
+			this.missedBranches = missedBranches;
+			this.coveredBranches = coveredBranches;
+		}
+
+		/** Returns the coverage of the line in both reports. */
+		private static LineCoverage merge(LineCoverage first, LineCoverage second) {
+			int instructions = Math.max(first.missedInstructions + first.coveredInstructions,
+					second.missedInstructions + second.coveredInstructions);
+			int coveredInstructions = Math.max(first.coveredInstructions, second.coveredInstructions);
+			int branches = Math.max(first.missedBranches + first.coveredBranches,
+					second.missedBranches + second.coveredBranches);
+			int coveredBranches = Math.max(first.coveredBranches, second.coveredBranches);
+			return new LineCoverage(instructions - coveredInstructions, coveredInstructions,
+					branches - coveredBranches, coveredBranches);
+		}
+	}
+
+	/** The instruction, branch and line counters of a source file, package or report. */
+	private static class Counters {
+
+		private long missedInstructions = 0;
+		private long coveredInstructions = 0;
+		private long missedBranches = 0;
+		private long coveredBranches = 0;
+		private long missedLines = 0;
+		private long coveredLines = 0;
+
+		private void add(LineCoverage line) {
+			missedInstructions += line.missedInstructions;
+			coveredInstructions += line.coveredInstructions;
+			missedBranches += line.missedBranches;
+			coveredBranches += line.coveredBranches;
+			if (line.coveredInstructions > 0) {
+				coveredLines++;
+			} else if (line.missedInstructions > 0) {
+				missedLines++;
+			}
+		}
+
+		private void add(Counters counters) {
+			missedInstructions += counters.missedInstructions;
+			coveredInstructions += counters.coveredInstructions;
+			missedBranches += counters.missedBranches;
+			coveredBranches += counters.coveredBranches;
+			missedLines += counters.missedLines;
+			coveredLines += counters.coveredLines;
+		}
+
+		/** Writes the counters like JaCoCo, which omits counters without any items. */
+		private void writeTo(XMLStreamWriter writer) throws XMLStreamException {
+			writeCounter(writer, "INSTRUCTION", missedInstructions, coveredInstructions);
+			writeCounter(writer, "BRANCH", missedBranches, coveredBranches);
+			writeCounter(writer, "LINE", missedLines, coveredLines);
+		}
+
+		private static void writeCounter(XMLStreamWriter writer, String type, long missed,
+										 long covered) throws XMLStreamException {
+			if (missed + covered == 0) {
+				return;
+			}
+			writer.writeEmptyElement("counter");
+			writer.writeAttribute("type", type);
+			writer.writeAttribute("missed", String.valueOf(missed));
+			writer.writeAttribute("covered", String.valueOf(covered));
+		}
+	}
+}
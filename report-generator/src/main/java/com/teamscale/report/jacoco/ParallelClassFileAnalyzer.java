@@ -0,0 +1,259 @@
+package com.teamscale.report.jacoco;
+
+import com.teamscale.report.util.ClasspathWildcardIncludeFilter;
+import com.teamscale.report.util.ILogger;
+import org.jacoco.core.analysis.Analyzer;
+import org.jacoco.core.internal.data.CRC64;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Analyzes the class files in directories and (nested) archives on a {@link ForkJoinPool}. Directories, archives and
+ * the class files inside of archives are processed by different worker threads. The results are however passed to the
+ * consumer on the calling thread in exactly the order in which {@link Analyzer#analyzeAll(File)} would encounter the
+ * class files. Everything that depends on the order of the classes, e.g. the handling of duplicate classes, is
+ * therefore independent of the thread scheduling.
+ */
+public class ParallelClassFileAnalyzer<T> {
+
+	/** Analyzes a single class file. Is called concurrently and must therefore be thread-safe. */
+	@FunctionalInterface
+	public interface IClassFileAnalysis<T> {
+
+		/** Returns the result for the given class file or null if the class should be skipped. */
+		T analyze(long classId, byte[] classFile, String location) throws IOException;
+	}
+
+	/** Consumes the analysis results in traversal order. */
+	@FunctionalInterface
+	public interface IResultConsumer<T> {
+
+		/** Consumes the result of the class with the given ID. */
+		void accept(long classId, T result);
+	}
+
+	/** The number of worker threads. */
+	private final int threads;
+
+	/** The filter for the analyzed class files. */
+	private final ClasspathWildcardIncludeFilter locationIncludeFilter;
+
+	/** The logger. */
+	private final ILogger logger;
+
+	/** The analysis that is applied to every class file. */
+	private final IClassFileAnalysis<T> analysis;
+
+	/** Constructor. */
+	public ParallelClassFileAnalyzer(int threads, ClasspathWildcardIncludeFilter locationIncludeFilter,
+									 ILogger logger, IClassFileAnalysis<T> analysis) {
+		this.threads = threads;
+		this.locationIncludeFilter = locationIncludeFilter;
+		this.logger = logger;
+		this.analysis = analysis;
+	}
+
+	/**
+	 * Analyzes all given directories or archives and passes the results to the consumer in traversal order. Like
+	 * {@link Analyzer#analyzeAll(File)} the first error aborts the consumption and is rethrown.
+	 */
+	public void analyzeAll(Collection<File> files, IResultConsumer<T> consumer) throws IOException {
+		for (Results<T> results : analyze(files)) {
+			results.consume(consumer);
+		}
+	}
+
+	/**
+	 * Analyzes all given directories or archives in parallel.
+	 *
+	 * @return the results for each of the given files in the same order as the given files.
+	 */
+	public List<Results<T>> analyze(Collection<File> files) {
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			return pool.invoke(new RecursiveTask<List<Results<T>>>() {
+				@Override
+				protected List<Results<T>> compute() {
+					List<FileTask> tasks = new ArrayList<>();
+					for (File file : files) {
+						FileTask task = new FileTask(file);
+						task.fork();
+						tasks.add(task);
+					}
+					List<Results<T>> results = new ArrayList<>();
+					for (FileTask task : tasks) {
+						results.add(new Results<>(task.join()));
+					}
+					return results;
+				}
+			});
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/** The analysis results of all class files found in one of the analyzed directories or archives. */
+	public static class Results<T> {
+
+		/** The outcomes in traversal order. */
+		private final List<Outcome<T>> outcomes;
+
+		private Results(List<Outcome<T>> outcomes) {
+			this.outcomes = outcomes;
+		}
+
+		/**
+		 * Passes the results to the given consumer in traversal order. Stops at the first error, which is rethrown.
+		 * Exceptions thrown by the consumer are wrapped in an {@link IOException} that names the affected location.
+		 */
+		public void consume(IResultConsumer<T> consumer) throws IOException {
+			for (Outcome<T> outcome : outcomes) {
+				if (outcome.error != null) {
+					throw outcome.error;
+				}
+				if (outcome.result == null) {
+					continue;
+				}
+				try {
+					consumer.accept(outcome.classId, outcome.result);
+				} catch (RuntimeException e) {
+					throw analyzerError(outcome.location, e);
+				}
+			}
+		}
+	}
+
+	/** The outcome of analyzing a single class file or traversing a file. */
+	private static class Outcome<T> {
+
+		/** The location of the class file. */
+		private final String location;
+
+		/** The ID of the class. */
+		private final long classId;
+
+		/** The analysis result or null. */
+		private final T result;
+
+		/** The error that occurred or null. */
+		private final IOException error;
+
+		private Outcome(String location, long classId, T result, IOException error) {
+			this.location = location;
+			this.classId = classId;
+			this.result = result;
+			this.error = error;
+		}
+	}
+
+	/** Copied from Analyzer.analyzerError */
+	private static IOException analyzerError(String location, Exception cause) {
+		return new IOException(String.format("Error while analyzing %s.", location), cause);
+	}
+
+	/** Traverses a single directory or file and forks the analysis of all contained class files. */
+	private class FileTask extends RecursiveTask<List<Outcome<T>>> {
+
+		/** The directory or file to traverse. */
+		private final File file;
+
+		private FileTask(File file) {
+			this.file = file;
+		}
+
+		@Override
+		protected List<Outcome<T>> compute() {
+			if (file.isDirectory()) {
+				return computeDirectory();
+			}
+
+			List<ForkJoinTask<Outcome<T>>> classTasks = new ArrayList<>();
+			IOException error = null;
+			try (InputStream input = new FileInputStream(file)) {
+				new TraversingAnalyzer(classTasks).analyzeAll(input, file.getPath());
+			} catch (IOException e) {
+				error = e;
+			}
+
+			List<Outcome<T>> outcomes = new ArrayList<>(classTasks.size() + 1);
+			for (ForkJoinTask<Outcome<T>> classTask : classTasks) {
+				outcomes.add(classTask.join());
+			}
+			if (error != null) {
+				outcomes.add(new Outcome<>(file.getPath(), 0, null, error));
+			}
+			return outcomes;
+		}
+
+		/** Traverses the children of a directory in the same order as {@link Analyzer#analyzeAll(File)}. */
+		private List<Outcome<T>> computeDirectory() {
+			List<FileTask> tasks = new ArrayList<>();
+			for (File child : file.listFiles()) {
+				FileTask task = new FileTask(child);
+				task.fork();
+				tasks.add(task);
+			}
+			List<Outcome<T>> outcomes = new ArrayList<>();
+			for (FileTask task : tasks) {
+				outcomes.addAll(task.join());
+			}
+			return outcomes;
+		}
+	}
+
+	/** Analyzes a single class file. */
+	private class ClassTask extends RecursiveTask<Outcome<T>> {
+
+		/** The content of the class file. */
+		private final byte[] classFile;
+
+		/** The location of the class file. */
+		private final String location;
+
+		private ClassTask(byte[] classFile, String location) {
+			this.classFile = classFile;
+			this.location = location;
+		}
+
+		@Override
+		protected Outcome<T> compute() {
+			try {
+				long classId = CRC64.classId(classFile);
+				return new Outcome<>(location, classId, analysis.analyze(classId, classFile, location), null);
+			} catch (IOException e) {
+				return new Outcome<>(location, 0, null, e);
+			} catch (RuntimeException e) {
+				return new Outcome<>(location, 0, null, analyzerError(location, e));
+			}
+		}
+	}
+
+	/**
+	 * Reuses the archive traversal of {@link FilteringAnalyzer}, but forks the analysis of every class file instead of
+	 * analyzing it directly.
+	 */
+	private class TraversingAnalyzer extends FilteringAnalyzer {
+
+		/** The forked class analyses in traversal order. */
+		private final List<ForkJoinTask<Outcome<T>>> classTasks;
+
+		private TraversingAnalyzer(List<ForkJoinTask<Outcome<T>>> classTasks) {
+			super(null, null, locationIncludeFilter, logger);
+			this.classTasks = classTasks;
+		}
+
+		@Override
+		public void analyzeClass(byte[] buffer, String location) {
+			classTasks.add(new ClassTask(buffer, location).fork());
+		}
+	}
+}
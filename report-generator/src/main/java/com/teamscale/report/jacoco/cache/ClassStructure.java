@@ -0,0 +1,84 @@
+package com.teamscale.report.jacoco.cache;
+
+import org.jacoco.core.analysis.IClassCoverage;
+import org.jacoco.core.data.ExecutionData;
+import org.jacoco.core.data.ExecutionDataStore;
+import org.jacoco.core.internal.analysis.ClassCoverageImpl;
+
+import java.util.List;
+
+/**
+ * Probe-independent structure of a single class file as produced by {@link ClassStructureAnalyzer}. Annotating it with
+ * the probes of a dump yields the same {@link IClassCoverage} that {@link org.jacoco.core.analysis.Analyzer} would
+ * produce, without having to parse the class file again.
+ */
+public class ClassStructure {
+
+	/** The CRC64 ID of the class file. */
+	private final long classId;
+
+	/** The VM name of the class. */
+	private final String name;
+
+	/** The generic signature of the class or null. */
+	private final String signature;
+
+	/** The VM name of the super class or null. */
+	private final String superName;
+
+	/** The VM names of the implemented interfaces. */
+	private final String[] interfaces;
+
+	/** The name of the source file or null. */
+	private final String sourceFileName;
+
+	/** The structure of all methods of the class that contain code. */
+	private final List<MethodStructure> methods;
+
+	/** Constructor. */
+	public ClassStructure(long classId, String name, String signature, String superName, String[] interfaces,
+						  String sourceFileName, List<MethodStructure> methods) {
+		this.classId = classId;
+		this.name = name;
+		this.signature = signature;
+		this.superName = superName;
+		this.interfaces = interfaces;
+		this.sourceFileName = sourceFileName;
+		this.methods = methods;
+	}
+
+	/** @see #classId */
+	public long getClassId() {
+		return classId;
+	}
+
+	/** @see #name */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Creates the coverage of the class based on the probes contained in the given store. Mirrors the behaviour of
+	 * {@link org.jacoco.core.analysis.Analyzer} for classes without execution data.
+	 */
+	public IClassCoverage annotate(ExecutionDataStore store) {
+		ExecutionData data = store.get(classId);
+		boolean[] probes = null;
+		boolean noMatch = false;
+		if (data == null) {
+			noMatch = store.contains(name);
+		} else {
+			probes = data.getProbes();
+		}
+
+		ClassCoverageImpl coverage = new ClassCoverageImpl(name, classId, noMatch);
+		coverage.setSignature(signature);
+		coverage.setSuperName(superName);
+		coverage.setInterfaces(interfaces);
+		coverage.setSourceFileName(sourceFileName);
+		for (MethodStructure method : methods) {
+			coverage.addMethod(method.annotate(probes));
+		}
+		return coverage;
+	}
+}
@@ -0,0 +1,105 @@
+package com.teamscale.report.jacoco.cache;
+
+import com.teamscale.report.jacoco.FilteringAnalyzer;
+import com.teamscale.report.util.ClasspathWildcardIncludeFilter;
+import com.teamscale.report.util.ILogger;
+import org.jacoco.core.analysis.Analyzer;
+import org.jacoco.core.internal.analysis.ClassCoverageImpl;
+import org.jacoco.core.internal.analysis.StringPool;
+import org.jacoco.core.internal.analysis.StructureClassAnalyzer;
+import org.jacoco.core.internal.data.CRC64;
+import org.jacoco.core.internal.flow.ClassProbesAdapter;
+import org.jacoco.core.internal.instr.InstrSupport;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Opcodes;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Analyzes class files and stores their {@link ClassStructure} in a map keyed by class ID. Classes whose ID is already
+ * contained in the map are not analyzed again.
+ * <p>
+ * The class basically needs to override {@link Analyzer#analyzeClass(byte[])}. Since the method is private we need to
+ * override and copy the implementations of all methods that call this method, which is {@link
+ * Analyzer#analyzeClass(byte[], String)}.
+ */
+/* package */ class ClassStructureAnalyzer extends FilteringAnalyzer {
+
+	/** The structures of all known classes by class ID. */
+	private final Map<Long, ClassStructure> classStructures;
+
+	/** Shared pool to minimize the number of {@link String} instances. */
+	private final StringPool stringPool = new StringPool();
+
+	/** The IDs of the classes found in the file that is currently analyzed in traversal order. */
+	private List<Long> analyzedClassIds = new ArrayList<>();
+
+	/** Constructor. */
+	/* package */ ClassStructureAnalyzer(Map<Long, ClassStructure> classStructures,
+										 ClasspathWildcardIncludeFilter locationIncludeFilter, ILogger logger) {
+		super(null, null, locationIncludeFilter, logger);
+		this.classStructures = classStructures;
+	}
+
+	/**
+	 * Analyzes all classes contained in the given file (i.e. a class file or an archive).
+	 *
+	 * @return the IDs of all included classes in the file in traversal order.
+	 */
+	/* package */ List<Long> analyzeFile(File file) throws IOException {
+		analyzedClassIds = new ArrayList<>();
+		try (InputStream input = new FileInputStream(file)) {
+			analyzeAll(input, file.getPath());
+		}
+		return analyzedClassIds;
+	}
+
+	/**
+	 * Analyses the given class. Instead of the original implementation in {@link Analyzer#analyzeClass(byte[])} we
+	 * don't use concrete execution data, but instead build the structure of the class so it can be annotated with the
+	 * probes of any dump later on.
+	 */
+	private void analyzeClass(final byte[] source) {
+		long classId = CRC64.classId(source);
+		if (classStructures.containsKey(classId)) {
+			analyzedClassIds.add(classId);
+			return;
+		}
+
+		final ClassReader reader = InstrSupport.classReaderFor(source);
+		if ((reader.getAccess() & Opcodes.ACC_MODULE) != 0) {
+			return;
+		}
+		if ((reader.getAccess() & Opcodes.ACC_SYNTHETIC) != 0) {
+			return;
+		}
+
+		// Dummy class coverage object that allows us to subclass ClassAnalyzer with StructureClassAnalyzer and reuse
+		// its IFilterContext implementation
+		final ClassCoverageImpl dummyClassCoverage = new ClassCoverageImpl(reader.getClassName(), classId, false);
+		StructureClassAnalyzer classAnalyzer = new StructureClassAnalyzer(dummyClassCoverage, stringPool);
+		reader.accept(new ClassProbesAdapter(classAnalyzer, false), 0);
+
+		classStructures.put(classId, classAnalyzer.getClassStructure());
+		analyzedClassIds.add(classId);
+	}
+
+	/**
+	 * @inheritDoc <p> Copy of the method from {@link Analyzer#analyzeClass(byte[], String)}, because it calls the
+	 * private {@link Analyzer#analyzeClass(byte[])} method, which we therefore cannot override.
+	 */
+	@Override
+	public void analyzeClass(final byte[] buffer, final String location) throws IOException {
+		try {
+			analyzeClass(buffer);
+		} catch (RuntimeException cause) {
+			throw new IOException(String.format("Error while analyzing %s.", location), cause);
+		}
+	}
+}
@@ -0,0 +1,131 @@
+package com.teamscale.report.jacoco.cache;
+
+import com.teamscale.report.util.ClasspathWildcardIncludeFilter;
+import com.teamscale.report.util.ILogger;
+import org.jacoco.core.analysis.ICoverageVisitor;
+import org.jacoco.core.data.ExecutionDataStore;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Caches the {@link ClassStructure} of all classes in a set of class directories and archives across multiple report
+ * generations. A file is only analyzed again if its size or modification time changed since it was last analyzed, so
+ * repeated conversions (e.g. interval dumps) only need to annotate the cached structure with the probes of the current
+ * dump instead of parsing all class files again.
+ * <p>
+ * The classes are reported to the coverage visitor in the same order in which {@link org.jacoco.core.analysis.Analyzer}
+ * would encounter them, so the handling of duplicate classes is the same as without the cache.
+ */
+public class ClassStructureCache {
+
+	/** The structures of all known classes by class ID. */
+	private final Map<Long, ClassStructure> classStructures = new HashMap<>();
+
+	/** The analyzed files by path. */
+	private Map<File, AnalyzedFile> analyzedFiles = new HashMap<>();
+
+	/** The analyzer used for new or changed files. */
+	private final ClassStructureAnalyzer analyzer;
+
+	/** Constructor. */
+	public ClassStructureCache(ClasspathWildcardIncludeFilter locationIncludeFilter, ILogger logger) {
+		this.analyzer = new ClassStructureAnalyzer(classStructures, locationIncludeFilter, logger);
+	}
+
+	/**
+	 * Updates the cache for the given class directories and archives and passes the coverage of all classes based on
+	 * the probes in the given store to the given visitor.
+	 */
+	public synchronized void analyzeAndAnnotate(List<File> codeDirectoriesOrArchives, ExecutionDataStore store,
+												ICoverageVisitor coverageVisitor) throws IOException {
+		List<AnalyzedFile> files = update(codeDirectoriesOrArchives);
+		for (AnalyzedFile file : files) {
+			for (Long classId : file.classIds) {
+				try {
+					coverageVisitor.visitCoverage(classStructures.get(classId).annotate(store));
+				} catch (RuntimeException cause) {
+					throw new IOException(String.format("Error while analyzing %s.", file.file.getPath()), cause);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Analyzes all new or changed files and drops the structure of classes that are no longer contained in any file.
+	 *
+	 * @return the analyzed files in traversal order.
+	 */
+	private List<AnalyzedFile> update(List<File> codeDirectoriesOrArchives) throws IOException {
+		Map<File, AnalyzedFile> previouslyAnalyzedFiles = analyzedFiles;
+		Map<File, AnalyzedFile> currentFiles = new HashMap<>();
+		List<AnalyzedFile> files = new ArrayList<>();
+		for (File file : codeDirectoriesOrArchives) {
+			collectFiles(file, previouslyAnalyzedFiles, currentFiles, files);
+		}
+		analyzedFiles = currentFiles;
+
+		Set<Long> referencedClassIds = new HashSet<>();
+		for (AnalyzedFile file : files) {
+			referencedClassIds.addAll(file.classIds);
+		}
+		classStructures.keySet().retainAll(referencedClassIds);
+		return files;
+	}
+
+	/** Recursively traverses the given file the same way {@link org.jacoco.core.analysis.Analyzer#analyzeAll(File)} does. */
+	private void collectFiles(File file, Map<File, AnalyzedFile> previouslyAnalyzedFiles,
+							  Map<File, AnalyzedFile> currentFiles, List<AnalyzedFile> files) throws IOException {
+		if (file.isDirectory()) {
+			File[] children = file.listFiles();
+			if (children == null) {
+				return;
+			}
+			for (File child : children) {
+				collectFiles(child, previouslyAnalyzedFiles, currentFiles, files);
+			}
+			return;
+		}
+
+		AnalyzedFile analyzedFile = previouslyAnalyzedFiles.get(file);
+		if (analyzedFile == null || !analyzedFile.isUpToDate()) {
+			analyzedFile = new AnalyzedFile(file);
+			analyzedFile.classIds = analyzer.analyzeFile(file);
+		}
+		currentFiles.put(file, analyzedFile);
+		files.add(analyzedFile);
+	}
+
+	/** A class file or archive for which the contained classes are known. */
+	private static class AnalyzedFile {
+
+		/** The file. */
+		private final File file;
+
+		/** The size of the file at the time of the analysis. */
+		private final long length;
+
+		/** The modification time of the file at the time of the analysis. */
+		private final long lastModified;
+
+		/** The IDs of the classes contained in the file in traversal order. */
+		private List<Long> classIds;
+
+		private AnalyzedFile(File file) {
+			this.file = file;
+			this.length = file.length();
+			this.lastModified = file.lastModified();
+		}
+
+		/** Whether the file has not changed since it was analyzed. */
+		private boolean isUpToDate() {
+			return file.length() == length && file.lastModified() == lastModified;
+		}
+	}
+}
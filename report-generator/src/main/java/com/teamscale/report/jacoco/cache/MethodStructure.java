@@ -0,0 +1,118 @@
+package com.teamscale.report.jacoco.cache;
+
+import org.jacoco.core.analysis.ICounter;
+import org.jacoco.core.internal.analysis.CounterImpl;
+import org.jacoco.core.internal.analysis.MethodCoverageImpl;
+
+/**
+ * Probe-independent structure of a single method, i.e. its instructions grouped by line together with the probes that
+ * cover their branches. Can be annotated with the probes of any dump to obtain the same {@link MethodCoverageImpl}
+ * that JaCoCo's analyzer would have produced.
+ */
+public class MethodStructure {
+
+	/** The name of the method. */
+	private final String name;
+
+	/** The descriptor of the method. */
+	private final String desc;
+
+	/** The generic signature of the method or null. */
+	private final String signature;
+
+	/** The first line of the method. */
+	private final int firstLine;
+
+	/** The last line of the method. */
+	private final int lastLine;
+
+	/**
+	 * The distinct probe sets of the method. The first entry holds the number of sets, followed by the size and probe
+	 * IDs of each set.
+	 */
+	private final int[] probeSets;
+
+	/**
+	 * The instruction groups of the method. Each group consists of line, instruction count, number of branches, number
+	 * of probe sets and the indices of the probe sets that cover a branch.
+	 */
+	private final int[] instructions;
+
+	/** Constructor. */
+	public MethodStructure(String name, String desc, String signature, int firstLine, int lastLine, int[] probeSets,
+						   int[] instructions) {
+		this.name = name;
+		this.desc = desc;
+		this.signature = signature;
+		this.firstLine = firstLine;
+		this.lastLine = lastLine;
+		this.probeSets = probeSets;
+		this.instructions = instructions;
+	}
+
+	/** Whether the method contains any instructions, i.e. whether JaCoCo reports it at all. */
+	public boolean containsCode() {
+		return instructions.length > 0;
+	}
+
+	/**
+	 * Creates the coverage of the method for the given probes.
+	 *
+	 * @param probes The probes of the class or null if the class has not been executed.
+	 */
+	/* package */ MethodCoverageImpl annotate(boolean[] probes) {
+		boolean[] executedProbeSets = evaluateProbeSets(probes);
+
+		MethodCoverageImpl coverage = new MethodCoverageImpl(name, desc, signature);
+		coverage.ensureCapacity(firstLine, lastLine);
+		int i = 0;
+		while (i < instructions.length) {
+			int line = instructions[i];
+			int count = instructions[i + 1];
+			int branches = instructions[i + 2];
+			int probeSetCount = instructions[i + 3];
+			int coveredBranches = 0;
+			for (int j = 0; j < probeSetCount; j++) {
+				if (executedProbeSets[instructions[i + 4 + j]]) {
+					coveredBranches++;
+				}
+			}
+			i += 4 + probeSetCount;
+
+			ICounter instructionCounter = CounterImpl.COUNTER_1_0;
+			if (coveredBranches > 0) {
+				instructionCounter = CounterImpl.COUNTER_0_1;
+			}
+			ICounter branchCounter = CounterImpl.COUNTER_0_0;
+			if (branches >= 2) {
+				branchCounter = CounterImpl.getInstance(branches - coveredBranches, coveredBranches);
+			}
+			for (int j = 0; j < count; j++) {
+				coverage.increment(instructionCounter, branchCounter, line);
+			}
+		}
+		coverage.incrementMethodCounter();
+		return coverage;
+	}
+
+	/** Determines for each probe set whether at least one of its probes has been executed. */
+	private boolean[] evaluateProbeSets(boolean[] probes) {
+		boolean[] executed = new boolean[probeSets[0]];
+		if (probes == null) {
+			return executed;
+		}
+		int i = 1;
+		for (int set = 0; set < executed.length; set++) {
+			int size = probeSets[i];
+			for (int j = i + 1; j <= i + size; j++) {
+				int probe = probeSets[j];
+				if (probe < probes.length && probes[probe]) {
+					executed[set] = true;
+					break;
+				}
+			}
+			i += size + 1;
+		}
+		return executed;
+	}
+}
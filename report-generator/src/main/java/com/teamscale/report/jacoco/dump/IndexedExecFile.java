@@ -0,0 +1,345 @@
+package com.teamscale.report.jacoco.dump;
+
+import org.jacoco.core.data.ExecutionData;
+import org.jacoco.core.data.ExecutionDataReader;
+import org.jacoco.core.data.ExecutionDataStore;
+import org.jacoco.core.data.ExecutionDataWriter;
+import org.jacoco.core.data.SessionInfo;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Container for the execution data of many tests with random access to the sessions of individual tests. In contrast to
+ * a plain *.exec file, which has to be read completely to find the session of a single test, the sessions are stored
+ * in separately compressed blocks and an index maps the uniform path of each test to the position of its sessions.
+ * <p>
+ * The file consists of
+ * <ul>
+ * <li> a header with a magic number and the version of the format,
+ * <li> one block per session consisting of the uniform path of the test and the session in the *.exec format
+ * compressed with {@link java.util.zip.Deflater}, and
+ * <li> an index with the uniform path, the offset and the length of every session, followed by the offset of the index
+ * and another magic number.
+ * </ul>
+ * Since the index is only written when the {@link IndexedExecFileWriter} is closed, a file without an index is not
+ * considered broken. The index is then rebuilt by skipping through the blocks.
+ * <p>
+ * Sessions may be read by multiple threads at once.
+ */
+public class IndexedExecFile implements Closeable {
+
+	/** The file extension of indexed exec files. */
+	public static final String EXTENSION = "iexec";
+
+	/** Magic number at the start of the file. */
+	/* package */ static final int MAGIC = 0x54534958;
+
+	/** The version of the format. */
+	/* package */ static final int VERSION = 1;
+
+	/** The size of the header at the start of the file. */
+	/* package */ static final int HEADER_SIZE = 2 * Integer.BYTES;
+
+	/** Marks a block that contains a session. */
+	/* package */ static final byte BLOCK_SESSION = 1;
+
+	/** Marks the start of the index. */
+	/* package */ static final byte BLOCK_INDEX = 2;
+
+	/** Magic number at the end of a file whose index has been written. */
+	/* package */ static final int INDEX_MAGIC = 0x58495354;
+
+	/** The size of the trailer consisting of the offset of the index and {@link #INDEX_MAGIC}. */
+	private static final int TRAILER_SIZE = Long.BYTES + Integer.BYTES;
+
+	/** The file. */
+	private final File file;
+
+	/** The channel to read the sessions. Positional reads are thread-safe. */
+	private final FileChannel channel;
+
+	/** All sessions in the order in which they have been written. */
+	private final List<Entry> entries;
+
+	/** The sessions of each test in the order in which the tests have been written. */
+	private final Map<String, List<Entry>> entriesByTestId = new LinkedHashMap<>();
+
+	private IndexedExecFile(File file, FileChannel channel, List<Entry> entries) {
+		this.file = file;
+		this.channel = channel;
+		this.entries = entries;
+		for (Entry entry : entries) {
+			entriesByTestId.computeIfAbsent(entry.testId, testId -> new ArrayList<>(1)).add(entry);
+		}
+	}
+
+	/** Returns whether the given file is an indexed exec file, judging by its header. */
+	public static boolean isIndexedExecFile(File file) throws IOException {
+		try (RandomAccessFile input = new RandomAccessFile(file, "r")) {
+			return input.length() >= HEADER_SIZE && input.readInt() == MAGIC;
+		}
+	}
+
+	/** Opens the given file and reads its index. */
+	public static IndexedExecFile open(File file) throws IOException {
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			ByteBuffer header = read(channel, 0, HEADER_SIZE);
+			if (header.getInt() != MAGIC) {
+				throw new IOException(file + " is not an indexed exec file");
+			}
+			int version = header.getInt();
+			if (version != VERSION) {
+				throw new IOException(
+						"Unsupported version " + version + " of indexed exec file " + file + ". Expected " + VERSION);
+			}
+			List<Entry> entries = readIndex(channel);
+			if (entries == null) {
+				entries = rebuildIndex(channel);
+			}
+			return new IndexedExecFile(file, channel, entries);
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/** Reads the index at the end of the file or returns null if the file does not end with an index. */
+	private static List<Entry> readIndex(FileChannel channel) throws IOException {
+		long size = channel.size();
+		if (size < HEADER_SIZE + 1 + Integer.BYTES + TRAILER_SIZE) {
+			return null;
+		}
+		ByteBuffer trailer = read(channel, size - TRAILER_SIZE, TRAILER_SIZE);
+		long indexOffset = trailer.getLong();
+		if (trailer.getInt() != INDEX_MAGIC || indexOffset < HEADER_SIZE || indexOffset >= size - TRAILER_SIZE) {
+			return null;
+		}
+
+		ByteBuffer index = read(channel, indexOffset, (int) (size - TRAILER_SIZE - indexOffset));
+		if (index.get() != BLOCK_INDEX) {
+			return null;
+		}
+		int count = index.getInt();
+		List<Entry> entries = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			byte[] testId = new byte[index.getInt()];
+			index.get(testId);
+			entries.add(new Entry(new String(testId, StandardCharsets.UTF_8), index.getLong(), index.getInt()));
+		}
+		return entries;
+	}
+
+	/**
+	 * Rebuilds the index by skipping through the blocks of a file whose index has not been written, e.g. because the
+	 * profiled application has been killed. A truncated last block is ignored.
+	 */
+	private static List<Entry> rebuildIndex(FileChannel channel) throws IOException {
+		List<Entry> entries = new ArrayList<>();
+		long size = channel.size();
+		long position = HEADER_SIZE;
+		ByteBuffer blockHeader = ByteBuffer.allocate(1 + Integer.BYTES);
+		while (position + blockHeader.capacity() <= size) {
+			// Cast to Buffer, as ByteBuffer#clear() does not exist in Java 8
+			((Buffer) blockHeader).clear();
+			readFully(channel, position, blockHeader);
+			if (blockHeader.get() != BLOCK_SESSION) {
+				break;
+			}
+			int testIdLength = blockHeader.getInt();
+			long dataOffset = position + blockHeader.capacity() + testIdLength + Integer.BYTES;
+			if (testIdLength < 0 || dataOffset > size) {
+				break;
+			}
+			ByteBuffer testIdAndLength = read(channel, position + blockHeader.capacity(),
+					testIdLength + Integer.BYTES);
+			byte[] testId = new byte[testIdLength];
+			testIdAndLength.get(testId);
+			int length = testIdAndLength.getInt();
+			if (length < 0 || dataOffset + length > size) {
+				break;
+			}
+			entries.add(new Entry(new String(testId, StandardCharsets.UTF_8), dataOffset, length));
+			position = dataOffset + length;
+		}
+		return entries;
+	}
+
+	/** Returns the file. */
+	public File getFile() {
+		return file;
+	}
+
+	/** Returns the uniform paths of all tests in the order in which their first session has been written. */
+	public List<String> getTestIds() {
+		return Collections.unmodifiableList(new ArrayList<>(entriesByTestId.keySet()));
+	}
+
+	/** Returns the number of sessions, which is larger than the number of tests if a test has been executed again. */
+	public int getSessionCount() {
+		return entries.size();
+	}
+
+	/**
+	 * Reads the coverage of the given test or returns null if the file does not contain the test. If the test has
+	 * multiple sessions, their coverage is merged.
+	 */
+	public Dump readDump(String testId) throws IOException {
+		List<Entry> testEntries = entriesByTestId.get(testId);
+		if (testEntries == null) {
+			return null;
+		}
+		ExecutionDataStore store = new ExecutionDataStore();
+		SessionInfo sessionInfo = null;
+		for (Entry entry : testEntries) {
+			sessionInfo = readSession(entry, store);
+		}
+		return new Dump(sessionInfo, store);
+	}
+
+	/** Reads all sessions in the order in which they have been written and passes them to the given consumer. */
+	public void readDumps(Consumer<Dump> dumpConsumer) throws IOException {
+		for (Entry entry : entries) {
+			ExecutionDataStore store = new ExecutionDataStore();
+			SessionInfo sessionInfo = readSession(entry, store);
+			dumpConsumer.accept(new Dump(sessionInfo, store));
+		}
+	}
+
+	/** Reads the given session into the given store and returns the session info. */
+	private SessionInfo readSession(Entry entry, ExecutionDataStore store) throws IOException {
+		ByteBuffer compressed = read(channel, entry.offset, entry.length);
+		SessionInfo[] sessionInfo = new SessionInfo[1];
+		try (InputStream input = new InflaterInputStream(
+				new ByteArrayInputStream(compressed.array(), 0, compressed.limit()))) {
+			ExecutionDataReader reader = new ExecutionDataReader(new BufferedInputStream(input));
+			reader.setSessionInfoVisitor(info -> sessionInfo[0] = info);
+			reader.setExecutionDataVisitor(store::put);
+			reader.read();
+		}
+		if (sessionInfo[0] == null) {
+			throw new IOException("Session of test " + entry.testId + " in " + file + " is incomplete");
+		}
+		return sessionInfo[0];
+	}
+
+	/** Writes all sessions to the given file in the plain *.exec format. */
+	public void writeExecFile(File execFile) throws IOException {
+		try (OutputStream output = new BufferedOutputStream(new FileOutputStream(execFile))) {
+			ExecutionDataWriter writer = new ExecutionDataWriter(output);
+			for (Entry entry : entries) {
+				ExecutionDataStore store = new ExecutionDataStore();
+				writer.visitSessionInfo(readSession(entry, store));
+				for (ExecutionData data : store.getContents()) {
+					writer.visitClassExecution(data);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Converts the given file in the plain *.exec format to an indexed exec file. Each session becomes a separate
+	 * session of the test with the session's ID as uniform path. Execution data that does not belong to any session is
+	 * ignored.
+	 */
+	public static void convertExecFile(File execFile, File indexedExecFile) throws IOException {
+		try (InputStream input = new BufferedInputStream(new FileInputStream(execFile));
+			 IndexedExecFileWriter writer = new IndexedExecFileWriter(indexedExecFile)) {
+			ExecutionDataReader reader = new ExecutionDataReader(input);
+			Dump[] currentDump = new Dump[1];
+			IOException[] writeError = new IOException[1];
+			reader.setSessionInfoVisitor(info -> {
+				appendSafely(writer, currentDump[0], writeError);
+				currentDump[0] = new Dump(info, new ExecutionDataStore());
+			});
+			reader.setExecutionDataVisitor(data -> {
+				if (currentDump[0] != null) {
+					currentDump[0].store.put(data);
+				}
+			});
+			reader.read();
+			appendSafely(writer, currentDump[0], writeError);
+			if (writeError[0] != null) {
+				throw writeError[0];
+			}
+		}
+	}
+
+	/** Appends the given dump unless it is null or an error occurred already, which is stored in the given array. */
+	private static void appendSafely(IndexedExecFileWriter writer, Dump dump, IOException[] error) {
+		if (dump == null || error[0] != null) {
+			return;
+		}
+		try {
+			writer.append(dump);
+		} catch (IOException e) {
+			error[0] = e;
+		}
+	}
+
+	/** Reads the given number of bytes at the given position. */
+	private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		readFully(channel, position, buffer);
+		return buffer;
+	}
+
+	/** Fills the given buffer with the bytes at the given position and flips it. */
+	private static void readFully(FileChannel channel, long position, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			int read = channel.read(buffer, position + buffer.position());
+			if (read < 0) {
+				throw new EOFException("Unexpected end of file at position " + (position + buffer.position()));
+			}
+		}
+		// Cast to Buffer, as ByteBuffer#flip() does not exist in Java 8
+		((Buffer) buffer).flip();
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	/** The position of a session in the file. */
+	/* package */ static class Entry {
+
+		/** The uniform path of the test. */
+		/* package */ final String testId;
+
+		/** The offset of the compressed session in the file. */
+		/* package */ final long offset;
+
+		/** The number of bytes of the compressed session. */
+		/* package */ final int length;
+
+		/* package */ Entry(String testId, long offset, int length) {
+			this.testId = testId;
+			this.offset = offset;
+			this.length = length;
+		}
+	}
+}
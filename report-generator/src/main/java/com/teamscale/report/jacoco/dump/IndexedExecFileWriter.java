@@ -0,0 +1,126 @@
+package com.teamscale.report.jacoco.dump;
+
+import org.jacoco.core.data.ExecutionData;
+import org.jacoco.core.data.ExecutionDataWriter;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Writes {@link Dump}s to an {@link IndexedExecFile}. Each dump is compressed and appended as a separate block
+ * directly, so at most the dump that is currently written is lost if the process is killed. The index is written when
+ * the writer is {@link #close() closed}. Thread-safe.
+ */
+public class IndexedExecFileWriter implements Closeable {
+
+	/** The file that is written. */
+	private final File file;
+
+	/** The stream to the {@link #file}. */
+	private final DataOutputStream output;
+
+	/** The number of bytes written to the {@link #output}. */
+	private long position = 0;
+
+	/** The index entries of all written sessions in the order they were written. */
+	private final List<IndexedExecFile.Entry> entries = new ArrayList<>();
+
+	/** Compresses the sessions. Reused for all sessions. */
+	private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+
+	/** Buffer for the uncompressed execution data of a session. Reused for all sessions. */
+	private final ByteArrayOutputStream uncompressedSession = new ByteArrayOutputStream();
+
+	/** Buffer for the compressed execution data of a session. Reused for all sessions. */
+	private final ByteArrayOutputStream compressedSession = new ByteArrayOutputStream();
+
+	/** Whether the writer has been closed. */
+	private boolean closed = false;
+
+	/** Creates the given file, replacing any existing file. */
+	public IndexedExecFileWriter(File file) throws IOException {
+		this.file = file;
+		this.output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		output.writeInt(IndexedExecFile.MAGIC);
+		output.writeInt(IndexedExecFile.VERSION);
+		position = IndexedExecFile.HEADER_SIZE;
+		output.flush();
+	}
+
+	/** Returns the file that is written. */
+	public File getFile() {
+		return file;
+	}
+
+	/** Appends the given dump as a new session and flushes it to the file. */
+	public synchronized void append(Dump dump) throws IOException {
+		if (closed) {
+			throw new IOException("Cannot append session " + dump.info.getId() + " to closed file " + file);
+		}
+		compress(dump);
+
+		byte[] testId = dump.info.getId().getBytes(StandardCharsets.UTF_8);
+		output.writeByte(IndexedExecFile.BLOCK_SESSION);
+		output.writeInt(testId.length);
+		output.write(testId);
+		output.writeInt(compressedSession.size());
+		long dataOffset = position + 1 + Integer.BYTES + testId.length + Integer.BYTES;
+		compressedSession.writeTo(output);
+		output.flush();
+
+		position = dataOffset + compressedSession.size();
+		entries.add(new IndexedExecFile.Entry(dump.info.getId(), dataOffset, compressedSession.size()));
+	}
+
+	/** Writes the execution data of the given dump to the {@link #compressedSession} buffer. */
+	private void compress(Dump dump) throws IOException {
+		uncompressedSession.reset();
+		ExecutionDataWriter writer = new ExecutionDataWriter(uncompressedSession);
+		writer.visitSessionInfo(dump.info);
+		for (ExecutionData data : dump.store.getContents()) {
+			writer.visitClassExecution(data);
+		}
+
+		compressedSession.reset();
+		deflater.reset();
+		DeflaterOutputStream compressor = new DeflaterOutputStream(compressedSession, deflater);
+		uncompressedSession.writeTo(compressor);
+		compressor.finish();
+	}
+
+	/** Writes the index and closes the file. Further calls have no effect. */
+	@Override
+	public synchronized void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		try {
+			long indexOffset = position;
+			output.writeByte(IndexedExecFile.BLOCK_INDEX);
+			output.writeInt(entries.size());
+			for (IndexedExecFile.Entry entry : entries) {
+				byte[] testId = entry.testId.getBytes(StandardCharsets.UTF_8);
+				output.writeInt(testId.length);
+				output.write(testId);
+				output.writeLong(entry.offset);
+				output.writeInt(entry.length);
+			}
+			output.writeLong(indexOffset);
+			output.writeInt(IndexedExecFile.INDEX_MAGIC);
+		} finally {
+			output.close();
+			deflater.end();
+		}
+	}
+}
@@ -12,6 +12,9 @@ public enum ETestArtifactFormat {
 	/** Binary jacoco test coverage (.exec file). */
 	JACOCO("Jacoco", "", "exec"),
 
+	/** Binary jacoco test coverage with an index of the tests (.iexec file). */
+	JACOCO_INDEXED("Indexed Jacoco", "", "iexec"),
+
 	/** Google closure coverage files with additional uniformPath entries. */
 	CLOSURE("Closure Coverage", "closure-coverage", "json");
 
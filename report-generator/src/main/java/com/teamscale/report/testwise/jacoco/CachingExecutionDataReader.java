@@ -1,10 +1,13 @@
 package com.teamscale.report.testwise.jacoco;
 
 import com.teamscale.report.EDuplicateClassFileBehavior;
+import com.teamscale.report.jacoco.ParallelClassFileAnalyzer;
 import com.teamscale.report.jacoco.dump.Dump;
 import com.teamscale.report.testwise.jacoco.cache.AnalyzerCache;
+import com.teamscale.report.testwise.jacoco.cache.ClassCoverageLookup;
 import com.teamscale.report.testwise.jacoco.cache.CoverageGenerationException;
 import com.teamscale.report.testwise.jacoco.cache.ProbesCache;
+import com.teamscale.report.testwise.jacoco.cache.ProbesCacheFile;
 import com.teamscale.report.testwise.model.builder.TestCoverageBuilder;
 import com.teamscale.report.util.ClasspathWildcardIncludeFilter;
 import com.teamscale.report.util.ILogger;
@@ -14,6 +17,7 @@ import org.jacoco.core.data.ExecutionDataStore;
 import java.io.File;
 import java.io.IOException;
 import java.util.Collection;
+import java.util.List;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
@@ -26,43 +30,117 @@ class CachingExecutionDataReader {
 	private final Collection<File> classesDirectories;
 	private final ClasspathWildcardIncludeFilter locationIncludeFilter;
 	private final EDuplicateClassFileBehavior duplicateClassFileBehavior;
-	private ProbesCache probesCache;
+	/** The number of threads used to analyze the class files. */
+	private final int analysisThreads;
+	/** The file in which the analyzed classes are persisted or null if they are always analyzed. */
+	private final File probesCacheFile;
+
+	/**
+	 * The lookups of all analyzed classes. Volatile, since it is read for monitoring while the analysis is running. It
+	 * is not modified anymore once {@link #analyzeClassDirs()} returned, so the converting threads share it without
+	 * locking.
+	 */
+	private volatile ProbesCache probesCache;
 
 	public CachingExecutionDataReader(ILogger logger, Collection<File> classesDirectories,
 									  ClasspathWildcardIncludeFilter locationIncludeFilter,
-									  EDuplicateClassFileBehavior duplicateClassFileBehavior) {
+									  EDuplicateClassFileBehavior duplicateClassFileBehavior, int analysisThreads,
+									  File probesCacheFile) {
 		this.logger = logger;
 		this.classesDirectories = classesDirectories;
 		this.locationIncludeFilter = locationIncludeFilter;
 		this.duplicateClassFileBehavior = duplicateClassFileBehavior;
+		this.analysisThreads = analysisThreads;
+		this.probesCacheFile = probesCacheFile;
 	}
 
 	/**
-	 * Analyzes the class/jar/war/... files and creates a lookup of which probes belong to which method.
+	 * Returns the number of classes in the probes cache or 0 if the class files have not been analyzed yet. Only meant
+	 * for monitoring, so the result may be slightly outdated while the analysis is running.
 	 */
-	private void analyzeClassDirs() throws CoverageGenerationException {
+	public int getCachedClassCount() {
+		ProbesCache cache = probesCache;
+		if (cache == null) {
+			return 0;
+		}
+		return cache.size();
+	}
+
+	/**
+	 * Analyzes the class/jar/war/... files and creates a lookup of which probes belong to which method. Synchronized,
+	 * since the first dumps may be converted by multiple threads at once.
+	 */
+	private synchronized void analyzeClassDirs() throws CoverageGenerationException {
 		if (probesCache != null) {
 			return;
 		}
 		probesCache = new ProbesCache(logger, duplicateClassFileBehavior);
-		AnalyzerCache analyzer = new AnalyzerCache(probesCache, locationIncludeFilter, logger);
-		for (File classDir : classesDirectories) {
-			if (classDir.exists()) {
-				try {
-					analyzer.analyzeAll(classDir);
-				} catch (IOException e) {
-					logger.error("Failed to analyze class files in " + classDir + "! " +
-							"Maybe the folder contains incompatible class files. " +
-							"Coverage for class files in this folder will be ignored.", e);
+		ProbesCacheFile persistedLookups = null;
+		if (probesCacheFile != null) {
+			persistedLookups = ProbesCacheFile.open(probesCacheFile, logger);
+		}
+		if (analysisThreads > 1) {
+			analyzeClassDirsInParallel(persistedLookups);
+		} else {
+			AnalyzerCache analyzer = new AnalyzerCache(probesCache, persistedLookups, locationIncludeFilter, logger);
+			for (File classDir : classesDirectories) {
+				if (classDir.exists()) {
+					try {
+						analyzer.analyzeAll(classDir);
+					} catch (IOException e) {
+						logAnalysisError(classDir, e);
+					}
 				}
 			}
 		}
+		probesCache.finishAnalysis();
+		if (persistedLookups != null) {
+			persistedLookups.update(probesCache);
+		}
 		if (probesCache.isEmpty()) {
 			String directoryList = classesDirectories.stream().map(File::getPath).collect(Collectors.joining(","));
 			throw new CoverageGenerationException("No class files found in the given directories! " + directoryList);
 		}
 	}
 
+	/**
+	 * Analyzes the class/jar/war/... files with multiple threads. The lookups are added to the {@link #probesCache} in
+	 * the same order as in the sequential analysis, so duplicate classes are handled the same way. Classes contained in
+	 * the given persisted lookups, which may be null, are not analyzed again.
+	 */
+	private void analyzeClassDirsInParallel(ProbesCacheFile persistedLookups) {
+		List<File> existingClassDirs = classesDirectories.stream().filter(File::exists).collect(Collectors.toList());
+		List<ParallelClassFileAnalyzer.Results<ClassCoverageLookup>> results = new ParallelClassFileAnalyzer<>(
+				analysisThreads, locationIncludeFilter, logger,
+				(classId, classFile, location) -> {
+					if (persistedLookups != null) {
+						ClassCoverageLookup persistedLookup = persistedLookups.get(classId);
+						if (persistedLookup != null) {
+							return persistedLookup;
+						}
+					}
+					return AnalyzerCache.createLookup(classId, classFile);
+				})
+				.analyze(existingClassDirs);
+		for (int i = 0; i < existingClassDirs.size(); i++) {
+			try {
+				results.get(i).consume((classId, classCoverageLookup) -> {
+					if (!probesCache.containsClassId(classId)) {
+						probesCache.addClass(classId, classCoverageLookup);
+					}
+				});
+			} catch (IOException e) {
+				logAnalysisError(existingClassDirs.get(i), e);
+			}
+		}
+	}
+
+	private void logAnalysisError(File classDir, IOException e) {
+		logger.error("Failed to analyze class files in " + classDir + "! " +
+				"Maybe the folder contains incompatible class files. " +
+				"Coverage for class files in this folder will be ignored.", e);
+	}
+
 	/**
 	 * Converts the given store to coverage data. The coverage will only contain line range coverage information.
 	 */
@@ -96,18 +174,29 @@ class CachingExecutionDataReader {
 
 		@Override
 		public void accept(Dump dump) {
+			TestCoverageBuilder testCoverage = convert(dump);
+			if (testCoverage != null) {
+				nextConsumer.accept(testCoverage);
+			}
+		}
+
+		/**
+		 * Converts the given dump without passing it to the nextConsumer. Returns null if the dump does not belong to
+		 * a test or could not be converted. Thread-safe, so multiple dumps may be converted in parallel.
+		 */
+		public TestCoverageBuilder convert(Dump dump) {
 			String testId = dump.info.getId();
 			if (testId.isEmpty()) {
 				// Ignore intermediate coverage that does not belong to any specific test
 				logger.debug("Found a session with empty name! This could indicate that coverage is dumped also for " +
 						"coverage in between tests or that the given test name was empty!");
-				return;
+				return null;
 			}
 			try {
-				TestCoverageBuilder testCoverage = buildCoverage(testId, dump.store, locationIncludeFilter);
-				nextConsumer.accept(testCoverage);
+				return buildCoverage(testId, dump.store, locationIncludeFilter);
 			} catch (CoverageGenerationException e) {
 				logger.error("Failed to generate coverage for test " + testId + "! Skipping to the next test.", e);
+				return null;
 			}
 		}
 
@@ -116,11 +205,12 @@ class CachingExecutionDataReader {
 		 */
 		private TestCoverageBuilder buildCoverage(String testId, ExecutionDataStore executionDataStore,
 												  ClasspathWildcardIncludeFilter locationIncludeFilter) throws CoverageGenerationException {
+			ProbesCache cache = probesCache;
 			TestCoverageBuilder testCoverage = new TestCoverageBuilder(testId);
 			for (ExecutionData executionData : executionDataStore.getContents()) {
-				testCoverage.add(probesCache.getCoverage(executionData, locationIncludeFilter));
+				testCoverage.add(cache.getCoverage(executionData, locationIncludeFilter));
 			}
-			probesCache.flushLogger();
+			cache.flushLogger();
 			return testCoverage;
 		}
 	}
@@ -2,6 +2,7 @@ package com.teamscale.report.testwise.jacoco;
 
 import com.teamscale.report.EDuplicateClassFileBehavior;
 import com.teamscale.report.jacoco.dump.Dump;
+import com.teamscale.report.jacoco.dump.IndexedExecFile;
 import com.teamscale.report.testwise.jacoco.cache.CoverageGenerationException;
 import com.teamscale.report.testwise.model.TestwiseCoverage;
 import com.teamscale.report.testwise.model.builder.TestCoverageBuilder;
@@ -48,17 +49,54 @@ public class JaCoCoTestwiseReportGenerator {
 										 ClasspathWildcardIncludeFilter locationIncludeFilter,
 										 EDuplicateClassFileBehavior duplicateClassFileBehavior,
 										 ILogger logger) {
+		this(codeDirectoriesOrArchives, locationIncludeFilter, duplicateClassFileBehavior, 1, logger);
+	}
+
+	/**
+	 * Create a new generator with a collection of class directories.
+	 *
+	 * @param codeDirectoriesOrArchives Root directory that contains the projects class files.
+	 * @param locationIncludeFilter     Filter for class files
+	 * @param analysisThreads           The number of threads used to analyze the class files
+	 * @param logger                    The logger
+	 */
+	public JaCoCoTestwiseReportGenerator(Collection<File> codeDirectoriesOrArchives,
+										 ClasspathWildcardIncludeFilter locationIncludeFilter,
+										 EDuplicateClassFileBehavior duplicateClassFileBehavior,
+										 int analysisThreads, ILogger logger) {
+		this(codeDirectoriesOrArchives, locationIncludeFilter, duplicateClassFileBehavior, analysisThreads, null,
+				logger);
+	}
+
+	/**
+	 * Create a new generator with a collection of class directories.
+	 *
+	 * @param codeDirectoriesOrArchives Root directory that contains the projects class files.
+	 * @param locationIncludeFilter     Filter for class files
+	 * @param analysisThreads           The number of threads used to analyze the class files
+	 * @param probesCacheFile           The file in which the analyzed class files are persisted for later runs or null
+	 *                                  if the class files should always be analyzed
+	 * @param logger                    The logger
+	 */
+	public JaCoCoTestwiseReportGenerator(Collection<File> codeDirectoriesOrArchives,
+										 ClasspathWildcardIncludeFilter locationIncludeFilter,
+										 EDuplicateClassFileBehavior duplicateClassFileBehavior,
+										 int analysisThreads, File probesCacheFile, ILogger logger) {
 		this.locationIncludeFilter = locationIncludeFilter;
 		this.executionDataReader = new CachingExecutionDataReader(logger, codeDirectoriesOrArchives,
-				locationIncludeFilter, duplicateClassFileBehavior);
+				locationIncludeFilter, duplicateClassFileBehavior, analysisThreads, probesCacheFile);
 	}
 
 	/** Converts the given dumps to a report. */
 	public TestwiseCoverage convert(File executionDataFile) throws IOException, CoverageGenerationException {
+		return convert(executionDataFile, 1);
+	}
+
+	/** Converts the given dumps to a report with the given number of conversion threads. */
+	public TestwiseCoverage convert(File executionDataFile,
+									int conversionThreads) throws IOException, CoverageGenerationException {
 		TestwiseCoverage testwiseCoverage = new TestwiseCoverage();
-		CachingExecutionDataReader.DumpConsumer dumpConsumer = executionDataReader
-				.buildCoverageConsumer(locationIncludeFilter, testwiseCoverage::add);
-		readAndConsumeDumps(executionDataFile, dumpConsumer);
+		convertAndConsume(executionDataFile, testwiseCoverage::add, conversionThreads);
 		return testwiseCoverage;
 	}
 
@@ -78,13 +116,39 @@ public class JaCoCoTestwiseReportGenerator {
 	/** Converts the given dumps to a report. */
 	public void convertAndConsume(File executionDataFile,
 								  Consumer<TestCoverageBuilder> consumer) throws IOException, CoverageGenerationException {
+		convertAndConsume(executionDataFile, consumer, 1);
+	}
+
+	/**
+	 * Converts the given dumps to a report. With more than one conversion thread, the sessions are read, converted and
+	 * consumed in a {@link PipelinedDumpConverter pipeline}. The consumer is always called on the calling thread and
+	 * in the order of the sessions in the file.
+	 */
+	public void convertAndConsume(File executionDataFile, Consumer<TestCoverageBuilder> consumer,
+								  int conversionThreads) throws IOException, CoverageGenerationException {
 		CachingExecutionDataReader.DumpConsumer dumpConsumer = executionDataReader
 				.buildCoverageConsumer(locationIncludeFilter, consumer);
-		readAndConsumeDumps(executionDataFile, dumpConsumer);
+		if (conversionThreads <= 1) {
+			readAndConsumeDumps(executionDataFile, dumpConsumer);
+			return;
+		}
+		new PipelinedDumpConverter(conversionThreads, dumpConsumer::convert)
+				.convert(dumps -> readAndConsumeDumps(executionDataFile, dumps), consumer);
 	}
 
-	/** Reads the dumps from the given *.exec file. */
+	/** Returns the number of analyzed classes whose probe lookups are cached. */
+	public int getCachedClassCount() {
+		return executionDataReader.getCachedClassCount();
+	}
+
+	/** Reads the dumps from the given *.exec file or {@link IndexedExecFile}. */
 	private void readAndConsumeDumps(File executionDataFile, Consumer<Dump> dumpConsumer) throws IOException {
+		if (IndexedExecFile.isIndexedExecFile(executionDataFile)) {
+			try (IndexedExecFile indexedExecFile = IndexedExecFile.open(executionDataFile)) {
+				indexedExecFile.readDumps(dumpConsumer);
+			}
+			return;
+		}
 		try (InputStream input = new BufferedInputStream(new FileInputStream(executionDataFile))) {
 			ExecutionDataReader executionDataReader = new ExecutionDataReader(input);
 			DumpCallback dumpCallback = new DumpCallback(dumpConsumer);
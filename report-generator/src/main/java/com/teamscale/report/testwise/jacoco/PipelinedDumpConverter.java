@@ -0,0 +1,146 @@
+package com.teamscale.report.testwise.jacoco;
+
+import com.teamscale.report.jacoco.dump.Dump;
+import com.teamscale.report.testwise.model.builder.TestCoverageBuilder;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Converts the dumps of an *.exec file in a pipeline:
+ * <ul>
+ * <li> A reader thread parses the sessions of the file into {@link Dump}s.
+ * <li> A pool of conversion threads converts the dumps to {@link TestCoverageBuilder}s.
+ * <li> The calling thread passes the converted dumps to the consumer in the order of the sessions in the file, so the
+ * consumer does not need to be thread-safe and the result is the same as when converting sequentially.
+ * </ul>
+ * The reader blocks while more than two dumps per conversion thread are waiting to be converted or consumed, so only a
+ * few dumps are held in memory regardless of the size of the file.
+ */
+/* package */ class PipelinedDumpConverter {
+
+	/** Reads dumps and passes them to the given consumer. */
+	@FunctionalInterface
+	/* package */ interface IDumpReader {
+
+		/** Reads all dumps and passes them to the given consumer one after the other. */
+		void readDumps(Consumer<Dump> dumpConsumer) throws IOException;
+	}
+
+	/** Marks the end of the dumps in the {@link #convert(IDumpReader, Consumer) pipeline}. */
+	private static final Future<TestCoverageBuilder> END_OF_DUMPS = CompletableFuture.completedFuture(null);
+
+	/** Counts the pipelines to give their threads unique names. */
+	private static final AtomicInteger PIPELINE_COUNTER = new AtomicInteger();
+
+	/** The number of threads that convert the dumps. */
+	private final int conversionThreads;
+
+	/** Converts a dump. Returns null for dumps that should be skipped. Must be thread-safe. */
+	private final Function<Dump, TestCoverageBuilder> conversion;
+
+	/* package */ PipelinedDumpConverter(int conversionThreads, Function<Dump, TestCoverageBuilder> conversion) {
+		this.conversionThreads = conversionThreads;
+		this.conversion = conversion;
+	}
+
+	/**
+	 * Converts all dumps of the given reader and passes the results to the given consumer in the order in which the
+	 * dumps have been read. Like the sequential conversion, all dumps read before an error are still converted and
+	 * consumed before the error is rethrown.
+	 */
+	/* package */ void convert(IDumpReader reader,
+							   Consumer<TestCoverageBuilder> consumer) throws IOException {
+		String threadName = "Testwise coverage conversion " + PIPELINE_COUNTER.incrementAndGet();
+		ExecutorService readerExecutor = Executors.newSingleThreadExecutor(daemonThreads(threadName + " reader"));
+		ExecutorService conversionExecutor = Executors.newFixedThreadPool(conversionThreads,
+				daemonThreads(threadName + " worker"));
+		BlockingQueue<Future<TestCoverageBuilder>> pendingConversions = new ArrayBlockingQueue<>(
+				2 * conversionThreads);
+		try {
+			Future<?> reading = readerExecutor.submit(() -> {
+				try {
+					reader.readDumps(dump -> enqueue(pendingConversions,
+							conversionExecutor.submit(() -> conversion.apply(dump))));
+				} finally {
+					enqueue(pendingConversions, END_OF_DUMPS);
+				}
+				return null;
+			});
+
+			Future<TestCoverageBuilder> pendingConversion = pendingConversions.take();
+			while (pendingConversion != END_OF_DUMPS) {
+				TestCoverageBuilder testCoverage = getResult(pendingConversion);
+				if (testCoverage != null) {
+					consumer.accept(testCoverage);
+				}
+				pendingConversion = pendingConversions.take();
+			}
+			getResult(reading);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while converting the testwise coverage");
+		} finally {
+			// Stops the reader in case the consumer failed
+			readerExecutor.shutdownNow();
+			conversionExecutor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Adds the given conversion to the queue and waits for free space if necessary. Stops the reader by throwing an
+	 * unchecked exception if the pipeline is aborted.
+	 */
+	private static void enqueue(BlockingQueue<Future<TestCoverageBuilder>> pendingConversions,
+								Future<TestCoverageBuilder> conversion) {
+		try {
+			pendingConversions.put(conversion);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Conversion of the testwise coverage has been aborted", e);
+		}
+	}
+
+	/**
+	 * Waits for the given future and returns its result. {@link IOException}s and unchecked exceptions of the future are
+	 * rethrown as they are, other exceptions are wrapped in an {@link IOException}.
+	 */
+	private static <T> T getResult(Future<T> future) throws IOException, InterruptedException {
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new IOException("Failed to convert the testwise coverage", cause);
+		}
+	}
+
+	/** Returns a factory for daemon threads with the given name. */
+	private static ThreadFactory daemonThreads(String name) {
+		AtomicInteger threadCounter = new AtomicInteger();
+		return runnable -> {
+			Thread thread = new Thread(runnable, name + " " + threadCounter.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+}
@@ -33,14 +33,26 @@ public class AnalyzerCache extends FilteringAnalyzer {
 	/** The probes cache. */
 	private final ProbesCache probesCache;
 
+	/** The lookups persisted by earlier analyses or null if they are not persisted. */
+	private final ProbesCacheFile probesCacheFile;
 
 	private final StringPool stringPool = new StringPool();
 
 	/** Creates a new analyzer filling the given cache. */
 	public AnalyzerCache(ProbesCache probesCache, ClasspathWildcardIncludeFilter locationIncludeFilter,
 						 ILogger logger) {
+		this(probesCache, null, locationIncludeFilter, logger);
+	}
+
+	/**
+	 * Creates a new analyzer filling the given cache. Classes whose lookup is contained in the given cache file are
+	 * not analyzed again.
+	 */
+	public AnalyzerCache(ProbesCache probesCache, ProbesCacheFile probesCacheFile,
+						 ClasspathWildcardIncludeFilter locationIncludeFilter, ILogger logger) {
 		super(null, null, locationIncludeFilter, logger);
 		this.probesCache = probesCache;
+		this.probesCacheFile = probesCacheFile;
 	}
 
 	/**
@@ -52,9 +64,32 @@ public class AnalyzerCache extends FilteringAnalyzer {
 		if (probesCache.containsClassId(classId)) {
 			return;
 		}
+		if (probesCacheFile != null) {
+			ClassCoverageLookup persistedLookup = probesCacheFile.get(classId);
+			if (persistedLookup != null) {
+				probesCache.addClass(classId, persistedLookup);
+				return;
+			}
+		}
 		final ClassReader reader = InstrSupport.classReaderFor(source);
 		ClassCoverageLookup classCoverageLookup = probesCache.createClass(classId, reader.getClassName());
+		fillLookup(classId, reader, classCoverageLookup, stringPool);
+	}
+
+	/**
+	 * Analyzes the given class into a new {@link ClassCoverageLookup} without adding it to any cache. In contrast to
+	 * the other methods of this class this method can be called concurrently from multiple threads.
+	 */
+	public static ClassCoverageLookup createLookup(long classId, byte[] source) {
+		final ClassReader reader = InstrSupport.classReaderFor(source);
+		ClassCoverageLookup classCoverageLookup = new ClassCoverageLookup(reader.getClassName());
+		fillLookup(classId, reader, classCoverageLookup, new StringPool());
+		return classCoverageLookup;
+	}
 
+	/** Fills the given lookup with the probes of the class read by the given reader. */
+	private static void fillLookup(long classId, ClassReader reader, ClassCoverageLookup classCoverageLookup,
+								   StringPool stringPool) {
 		// Dummy class coverage object that allows us to subclass ClassAnalyzer with CachingClassAnalyzer and reuse its
 		// IFilterContext implementation
 		final ClassCoverageImpl dummyClassCoverage = new ClassCoverageImpl(reader.getClassName(),
@@ -64,6 +99,7 @@ public class AnalyzerCache extends FilteringAnalyzer {
 				stringPool);
 		final ClassVisitor visitor = new ClassProbesAdapter(classAnalyzer, false);
 		reader.accept(visitor, 0);
+		classCoverageLookup.finishAnalysis();
 	}
 
 	/**
@@ -3,12 +3,17 @@ package com.teamscale.report.testwise.jacoco.cache;
 import com.teamscale.client.StringUtils;
 import com.teamscale.report.testwise.model.builder.FileCoverageBuilder;
 import com.teamscale.report.util.ILogger;
-import com.teamscale.report.util.SortedIntList;
+import com.teamscale.report.util.IntRangeSet;
 import org.jacoco.core.data.ExecutionData;
 
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Set;
 
 /**
  * Holds information about a class' probes and to which line ranges they refer.
@@ -16,13 +21,22 @@ import java.util.Set;
  * <ul>
  * <li> Create an instance of this class for every analyzed java class.
  * <li> Set the file name of the java source file from which the class has been created.
- * <li> Then call {@link #addProbe(int, Set)} for all probes and lines that belong to that probe.
+ * <li> Then call {@link #addProbe(int, IntRangeSet)} for all probes and lines that belong to that probe.
+ * <li> Call {@link #finishAnalysis()} once all probes have been added.
  * <li> Afterwards call {@link #getFileCoverage(ExecutionData, ILogger)} to transform probes ({@link
  * ExecutionData}) for this class into covered lines ({@link FileCoverageBuilder}).
  * </ul>
+ * <p>
+ * Once the analysis is finished, the lines of the probes are stored as bitmasks over the sorted distinct lines of the
+ * class. The lines of a probe usually belong to a single method, so each mask only spans the 64 bit words between the
+ * first and the last line of the probe. The lines covered by a test are then the word-wise OR of the masks of the
+ * executed probes. After {@link #finishAnalysis()}, the lookup is immutable and may be used by multiple threads.
  */
 public class ClassCoverageLookup {
 
+	/** Marks a probe in {@link #probeFirstWords} that does not belong to any method. */
+	private static final int NO_METHOD = -1;
+
 	/** Fully qualified name of the class (with / as separators). */
 	private String className;
 
@@ -30,9 +44,31 @@ public class ClassCoverageLookup {
 	private String sourceFileName;
 
 	/**
-	 * Mapping from probe IDs to sets of covered lines. The index in this list corresponds to the probe ID.
+	 * Mapping from probe IDs to sets of covered lines. The index in this list corresponds to the probe ID. Only used
+	 * during the analysis and null afterwards.
+	 */
+	private List<IntRangeSet> probes = new ArrayList<>();
+
+	/** The sorted distinct lines of all probes. Bit i of the line masks refers to the i-th line. */
+	private int[] lines;
+
+	/**
+	 * The index of the first word of the line mask of each probe or {@link #NO_METHOD} if the probe does not belong to
+	 * any method.
 	 */
-	private final List<SortedIntList> probes = new ArrayList<>();
+	private int[] probeFirstWords;
+
+	/**
+	 * The offsets of the line masks of the probes in {@link #probeMasks}. The mask of probe i ends at the offset of
+	 * probe i + 1, so this array contains one more element than there are probes.
+	 */
+	private int[] probeMaskOffsets;
+
+	/** The words of the line masks of all probes. */
+	private long[] probeMasks;
+
+	/** Whether {@link #finishAnalysis()} has been called. */
+	private volatile boolean analysisFinished = false;
 
 	/**
 	 * Constructor.
@@ -43,6 +79,11 @@ public class ClassCoverageLookup {
 		this.className = className;
 	}
 
+	/** @see #className */
+	public String getClassName() {
+		return className;
+	}
+
 	/** Sets the file name of the currently analyzed class (without path). */
 	public void setSourceFileName(String sourceFileName) {
 		this.sourceFileName = sourceFileName;
@@ -54,7 +95,7 @@ public class ClassCoverageLookup {
 	}
 
 	/** Adds the probe with the given id to the method. */
-	public void addProbe(int probeId, SortedIntList lines) {
+	public void addProbe(int probeId, IntRangeSet lines) {
 		ensureArraySize(probeId);
 		probes.set(probeId, lines);
 	}
@@ -69,6 +110,176 @@ public class ClassCoverageLookup {
 		}
 	}
 
+	/**
+	 * Converts the lines of the probes into line masks. Must be called after all probes have been added. Calling it
+	 * again has no effect.
+	 */
+	public synchronized void finishAnalysis() {
+		if (analysisFinished) {
+			return;
+		}
+
+		IntRangeSet allLines = new IntRangeSet();
+		for (IntRangeSet probeLines : probes) {
+			if (probeLines != null) {
+				allLines.addAll(probeLines);
+			}
+		}
+		lines = allLines.toArray();
+
+		probeFirstWords = new int[probes.size()];
+		probeMaskOffsets = new int[probes.size() + 1];
+		int wordCount = 0;
+		for (int i = 0; i < probes.size(); i++) {
+			IntRangeSet probeLines = probes.get(i);
+			probeMaskOffsets[i] = wordCount;
+			if (probeLines == null) {
+				probeFirstWords[i] = NO_METHOD;
+			} else if (!probeLines.isEmpty()) {
+				int lastLine = probeLines.getRangeEnd(probeLines.getRangeCount() - 1);
+				probeFirstWords[i] = getLineIndex(probeLines.getRangeStart(0)) / Long.SIZE;
+				wordCount += getLineIndex(lastLine) / Long.SIZE - probeFirstWords[i] + 1;
+			}
+		}
+		probeMaskOffsets[probes.size()] = wordCount;
+
+		probeMasks = new long[wordCount];
+		for (int i = 0; i < probes.size(); i++) {
+			IntRangeSet probeLines = probes.get(i);
+			if (probeLines == null) {
+				continue;
+			}
+			// adding the index of a line yields its bit in the probe masks
+			int maskStart = (probeMaskOffsets[i] - probeFirstWords[i]) * Long.SIZE;
+			for (int range = 0; range < probeLines.getRangeCount(); range++) {
+				// the lines of a range are consecutive in the sorted distinct lines as well
+				int firstBit = maskStart + getLineIndex(probeLines.getRangeStart(range));
+				int lastBit = firstBit + probeLines.getRangeEnd(range) - probeLines.getRangeStart(range);
+				for (int bit = firstBit; bit <= lastBit; bit++) {
+					probeMasks[bit / Long.SIZE] |= 1L << bit;
+				}
+			}
+		}
+
+		probes = null;
+		analysisFinished = true;
+	}
+
+	/** Returns the index of the given line in {@link #lines}. */
+	private int getLineIndex(int line) {
+		return Arrays.binarySearch(lines, line);
+	}
+
+	/** Returns the number of bytes {@link #writeTo(DataOutput)} writes. */
+	/* package */ int getEncodedSize() {
+		finishAnalysis();
+		return getEncodedSize(className) + getEncodedSize(sourceFileName) + Integer.BYTES * (1 + probeFirstWords.length)
+				+ Integer.BYTES * (1 + probeMaskOffsets.length) + Integer.BYTES * (1 + lines.length)
+				+ Integer.BYTES + Long.BYTES * probeMasks.length;
+	}
+
+	private static int getEncodedSize(String string) {
+		if (string == null) {
+			return Integer.BYTES;
+		}
+		return Integer.BYTES + string.getBytes(StandardCharsets.UTF_8).length;
+	}
+
+	/**
+	 * Writes the analyzed lookup in a binary format that can be read by {@link #readFrom(ByteBuffer)}. All arrays are
+	 * prefixed with their length and strings are written as UTF-8 bytes prefixed with their length or -1 for null.
+	 */
+	/* package */ void writeTo(DataOutput output) throws IOException {
+		finishAnalysis();
+		writeString(output, className);
+		writeString(output, sourceFileName);
+		writeInts(output, probeFirstWords);
+		writeInts(output, probeMaskOffsets);
+		writeInts(output, lines);
+		output.writeInt(probeMasks.length);
+		for (long mask : probeMasks) {
+			output.writeLong(mask);
+		}
+	}
+
+	private static void writeString(DataOutput output, String string) throws IOException {
+		if (string == null) {
+			output.writeInt(-1);
+			return;
+		}
+		byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+		output.writeInt(bytes.length);
+		output.write(bytes);
+	}
+
+	private static void writeInts(DataOutput output, int[] values) throws IOException {
+		output.writeInt(values.length);
+		for (int value : values) {
+			output.writeInt(value);
+		}
+	}
+
+	/**
+	 * Reads a lookup written by {@link #writeTo(DataOutput)} from the current position of the given buffer. The read
+	 * lookup is finished and does not reference the buffer.
+	 *
+	 * @throws IllegalArgumentException if a length in the buffer is negative or exceeds the remaining bytes, e.g.
+	 *                                  because the buffer is corrupt. Checked before allocating the array, so a corrupt
+	 *                                  length cannot cause an {@link OutOfMemoryError}.
+	 */
+	/* package */
+	static ClassCoverageLookup readFrom(ByteBuffer buffer) {
+		ClassCoverageLookup lookup = new ClassCoverageLookup(readString(buffer));
+		lookup.sourceFileName = readString(buffer);
+		lookup.probeFirstWords = readInts(buffer);
+		lookup.probeMaskOffsets = readInts(buffer);
+		lookup.lines = readInts(buffer);
+		lookup.probeMasks = new long[checkLength(buffer, buffer.getInt(), Long.BYTES)];
+		buffer.asLongBuffer().get(lookup.probeMasks);
+		skip(buffer, Long.BYTES * lookup.probeMasks.length);
+		if (lookup.probeMaskOffsets.length != lookup.probeFirstWords.length + 1) {
+			throw new IllegalArgumentException("Inconsistent probe lookup for class " + lookup.className);
+		}
+		lookup.probes = null;
+		lookup.analysisFinished = true;
+		return lookup;
+	}
+
+	private static String readString(ByteBuffer buffer) {
+		int length = buffer.getInt();
+		if (length == -1) {
+			return null;
+		}
+		byte[] bytes = new byte[checkLength(buffer, length, Byte.BYTES)];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static int[] readInts(ByteBuffer buffer) {
+		int[] values = new int[checkLength(buffer, buffer.getInt(), Integer.BYTES)];
+		buffer.asIntBuffer().get(values);
+		skip(buffer, Integer.BYTES * values.length);
+		return values;
+	}
+
+	/**
+	 * Checks that an array with the given length whose elements have the given size in bytes fits into the remaining
+	 * bytes of the buffer and returns the length.
+	 */
+	private static int checkLength(ByteBuffer buffer, int length, int elementSize) {
+		if (length < 0 || length > buffer.remaining() / elementSize) {
+			throw new IllegalArgumentException("Invalid length " + length + " with " + buffer.remaining() +
+					" bytes remaining");
+		}
+		return length;
+	}
+
+	/** Advances the position of the buffer by the given number of bytes, which have been read via a view buffer. */
+	private static void skip(ByteBuffer buffer, int bytes) {
+		// Cast to Buffer, as ByteBuffer#position(int) does not exist in Java 8
+		((Buffer) buffer).position(buffer.position() + bytes);
+	}
+
 	/**
 	 * Generates {@link FileCoverageBuilder} from an {@link ExecutionData}. {@link ExecutionData} holds coverage of
 	 * exactly one class (whereby inner classes are a separate class). This method returns a {@link FileCoverageBuilder}
@@ -76,12 +287,15 @@ public class ClassCoverageLookup {
 	 */
 	public FileCoverageBuilder getFileCoverage(ExecutionData executionData,
 											   ILogger logger) throws CoverageGenerationException {
+		if (!analysisFinished) {
+			finishAnalysis();
+		}
 		boolean[] executedProbes = executionData.getProbes();
 
 		if (checkProbeInvariant(executedProbes)) {
 			throw new CoverageGenerationException("Probe lookup does not match with actual probe size for " +
-					sourceFileName + " " + className + " (" + probes.size() + " vs " + executedProbes.length + ")! " +
-					"This is a bug in the profiler tooling. Please report it back to CQSE.");
+					sourceFileName + " " + className + " (" + probeFirstWords.length + " vs " +
+					executedProbes.length + ")! This is a bug in the profiler tooling. Please report it back to CQSE.");
 		}
 		if (sourceFileName == null) {
 			logger.warn(
@@ -102,32 +316,45 @@ public class ClassCoverageLookup {
 	}
 
 	private void fillFileCoverage(FileCoverageBuilder fileCoverage, boolean[] executedProbes, ILogger logger) {
-		for (int i = 0; i < probes.size(); i++) {
-			SortedIntList coveredLines = probes.get(i);
+		long[] coveredLines = new long[(lines.length + Long.SIZE - 1) / Long.SIZE];
+		for (int i = 0; i < probeFirstWords.length; i++) {
 			if (!executedProbes[i]) {
 				continue;
 			}
-			// coveredLines is null if the probe is outside of a method
+			int firstWord = probeFirstWords[i];
+			// firstWord is NO_METHOD if the probe is outside of a method
 			// Happens e.g. for methods generated by Lombok
-			if (coveredLines == null) {
+			if (firstWord == NO_METHOD) {
 				logger.info(sourceFileName + " " + className + " did contain a covered probe " + i + "(of " +
 						executedProbes.length + ") that could not be " +
 						"matched to any method. This could be a bug in the profiler tooling. Please report it back " +
 						"to CQSE.");
 				continue;
 			}
-			if (coveredLines.isEmpty()) {
+			int maskStart = probeMaskOffsets[i];
+			int maskEnd = probeMaskOffsets[i + 1];
+			if (maskStart == maskEnd) {
 				logger.debug(
 						sourceFileName + " " + className + " did contain a method with no line information. " +
 								"Does the class contain debug information?");
 				continue;
 			}
-			fileCoverage.addLines(coveredLines);
+			for (int j = maskStart; j < maskEnd; j++) {
+				coveredLines[firstWord + j - maskStart] |= probeMasks[j];
+			}
+		}
+
+		for (int word = 0; word < coveredLines.length; word++) {
+			long bits = coveredLines[word];
+			while (bits != 0) {
+				fileCoverage.addLine(lines[word * Long.SIZE + Long.numberOfTrailingZeros(bits)]);
+				bits &= bits - 1;
+			}
 		}
 	}
 
 	/** Checks that the executed probes is not smaller than the cached probes. */
 	private boolean checkProbeInvariant(boolean[] executedProbes) {
-		return probes.size() > executedProbes.length;
+		return probeFirstWords.length > executedProbes.length;
 	}
 }
@@ -10,4 +10,9 @@ public class CoverageGenerationException extends Exception {
 		super(message);
 	}
 
+	/** Constructor. */
+	public CoverageGenerationException(String message, Throwable cause) {
+		super(message, cause);
+	}
+
 }
@@ -4,15 +4,20 @@ import com.teamscale.report.EDuplicateClassFileBehavior;
 import com.teamscale.report.testwise.model.builder.FileCoverageBuilder;
 import com.teamscale.report.util.ClasspathWildcardIncludeFilter;
 import com.teamscale.report.util.ILogger;
+import com.teamscale.report.util.LongObjectHashMap;
 import org.jacoco.core.data.ExecutionData;
 import org.jacoco.report.JavaNames;
 
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.function.ObjLongConsumer;
 
 /**
  * Holds {@link ClassCoverageLookup}s for all analyzed classes.
+ * <p>
+ * The cache is filled by a single thread. Once {@link #finishAnalysis()} has been called, the cache is read-only and
+ * {@link #getCoverage(ExecutionData, ClasspathWildcardIncludeFilter)} may be called by multiple threads at once without
+ * any locking, provided that the cache has been published safely to these threads.
  */
 public class ProbesCache {
 
@@ -20,10 +25,13 @@ public class ProbesCache {
 	private final ILogger logger;
 
 	/** A mapping from class ID (CRC64 of the class file) to {@link ClassCoverageLookup}. */
-	private final HashMap<Long, ClassCoverageLookup> classCoverageLookups = new HashMap<>();
+	private final LongObjectHashMap<ClassCoverageLookup> classCoverageLookups = new LongObjectHashMap<>();
 
-	/** Holds all fully-qualified class names that are already contained in the cache. */
-	private final Set<String> containedClasses = new HashSet<>();
+	/**
+	 * Holds all fully-qualified class names that are already contained in the cache. Only needed during the analysis
+	 * and null afterwards.
+	 */
+	private Set<String> containedClasses = new HashSet<>();
 
 	/** Whether to ignore non-identical duplicates of class files. */
 	private final EDuplicateClassFileBehavior duplicateClassFileBehavior;
@@ -39,6 +47,21 @@ public class ProbesCache {
 
 	/** Adds a new class entry to the cache and returns its {@link ClassCoverageLookup}. */
 	public ClassCoverageLookup createClass(long classId, String className) {
+		ClassCoverageLookup classCoverageLookup = new ClassCoverageLookup(className);
+		addClass(classId, classCoverageLookup);
+		return classCoverageLookup;
+	}
+
+	/**
+	 * Adds an already filled {@link ClassCoverageLookup} to the cache. Performs the same duplicate checks as {@link
+	 * #createClass(long, String)}.
+	 */
+	public void addClass(long classId, ClassCoverageLookup classCoverageLookup) {
+		if (containedClasses == null) {
+			throw new IllegalStateException("Cannot add class " + classCoverageLookup.getClassName() +
+					" after the analysis has been finished");
+		}
+		String className = classCoverageLookup.getClassName();
 		if (containedClasses.contains(className)) {
 			if (duplicateClassFileBehavior != EDuplicateClassFileBehavior.IGNORE) {
 				logger.warn("Non-identical class file for class " + className + "."
@@ -53,9 +76,7 @@ public class ProbesCache {
 			}
 		}
 		containedClasses.add(className);
-		ClassCoverageLookup classCoverageLookup = new ClassCoverageLookup(className);
 		classCoverageLookups.put(classId, classCoverageLookup);
-		return classCoverageLookup;
 	}
 
 	/** Returns whether a class with the given class ID has already been analyzed. */
@@ -69,8 +90,8 @@ public class ProbesCache {
 	 */
 	public FileCoverageBuilder getCoverage(ExecutionData executionData,
 										   ClasspathWildcardIncludeFilter locationIncludeFilter) throws CoverageGenerationException {
-		long classId = executionData.getId();
-		if (!containsClassId(classId)) {
+		ClassCoverageLookup classCoverageLookup = classCoverageLookups.get(executionData.getId());
+		if (classCoverageLookup == null) {
 			String fullyQualifiedClassName = new JavaNames().getQualifiedClassName(executionData.getName());
 			if (locationIncludeFilter.isIncluded(fullyQualifiedClassName + ".class")) {
 				classNotFoundLogger.log(fullyQualifiedClassName);
@@ -81,7 +102,20 @@ public class ProbesCache {
 			return null;
 		}
 
-		return classCoverageLookups.get(classId).getFileCoverage(executionData, logger);
+		return classCoverageLookup.getFileCoverage(executionData, logger);
+	}
+
+	/**
+	 * Marks the analysis as finished. Afterwards, no more classes can be added and the cache may be read by multiple
+	 * threads.
+	 */
+	public void finishAnalysis() {
+		containedClasses = null;
+	}
+
+	/** Passes all cached lookups together with their class IDs to the given consumer. */
+	public void forEachClass(ObjLongConsumer<ClassCoverageLookup> consumer) {
+		classCoverageLookups.forEach(consumer);
 	}
 
 	/** Returns true if the cache does not contain coverage for any class. */
@@ -89,6 +123,11 @@ public class ProbesCache {
 		return classCoverageLookups.isEmpty();
 	}
 
+	/** Returns the number of analyzed classes. */
+	public int size() {
+		return classCoverageLookups.size();
+	}
+
 	/** Prints a the collected class not found messages. */
 	public void flushLogger() {
 		classNotFoundLogger.flush();
@@ -0,0 +1,256 @@
+package com.teamscale.report.testwise.jacoco.cache;
+
+import com.teamscale.report.util.ILogger;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Persists the analyzed {@link ClassCoverageLookup}s of a {@link ProbesCache} in a file, so class files that have
+ * already been analyzed by an earlier run do not need to be analyzed again. The lookups are identified by their class
+ * ID, which is the CRC64 checksum of the class file, so a lookup in the file never becomes invalid. Class files whose
+ * ID is missing in the file are analyzed as usual.
+ * <p>
+ * The file is memory-mapped and consists of a header, an index of all class IDs sorted in ascending order together
+ * with the offsets of their lookups and the lookups themselves. A lookup is only read from the file when its class is
+ * found during the analysis. Reading lookups is thread-safe.
+ * <p>
+ * The file is replaced atomically, so multiple processes may use the same file. Lookups of classes that have not been
+ * found during the analysis are kept, so e.g. different projects can share the file, unless they make up more than
+ * half of the file.
+ */
+public class ProbesCacheFile {
+
+	/** Identifies the file format. */
+	private static final int MAGIC = 0x54535043;
+
+	/** The version of the file format. Must be increased whenever the format of the lookups changes. */
+	private static final int VERSION = 1;
+
+	/** The size of the header consisting of the magic number, the version and the number of lookups. */
+	private static final int HEADER_SIZE = 3 * Integer.BYTES;
+
+	/** The size of an index entry consisting of the class ID and the offset of the lookup. */
+	private static final int INDEX_ENTRY_SIZE = Long.BYTES + Integer.BYTES;
+
+	/** The cache file. */
+	private final File file;
+
+	private final ILogger logger;
+
+	/** The content of the {@link #file} or an empty buffer if it does not exist or could not be read. */
+	private final ByteBuffer content;
+
+	/** The number of lookups in the {@link #content}. */
+	private final int lookupCount;
+
+	private ProbesCacheFile(File file, ILogger logger, ByteBuffer content, int lookupCount) {
+		this.file = file;
+		this.logger = logger;
+		this.content = content;
+		this.lookupCount = lookupCount;
+	}
+
+	/**
+	 * Opens the given cache file. If the file does not exist or is not a valid cache file, an empty cache is returned
+	 * and the file is replaced when the cache is {@link #update(ProbesCache) updated}.
+	 */
+	public static ProbesCacheFile open(File file, ILogger logger) {
+		if (!file.exists()) {
+			logger.debug("Probes cache " + file + " does not exist yet. All class files will be analyzed.");
+			return new ProbesCacheFile(file, logger, ByteBuffer.allocate(0), 0);
+		}
+
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			ByteBuffer content = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (content.limit() < HEADER_SIZE || content.getInt(0) != MAGIC
+					|| content.getInt(Integer.BYTES) != VERSION) {
+				logger.warn("Ignoring probes cache " + file + " since it has been written by a different version.");
+				return new ProbesCacheFile(file, logger, ByteBuffer.allocate(0), 0);
+			}
+			int lookupCount = content.getInt(2 * Integer.BYTES);
+			if (lookupCount < 0 || HEADER_SIZE + (long) lookupCount * INDEX_ENTRY_SIZE > content.limit()) {
+				throw new IOException("Index exceeds the size of the file");
+			}
+			return new ProbesCacheFile(file, logger, content, lookupCount);
+		} catch (IOException e) {
+			logger.warn("Failed to read probes cache " + file + ". All class files will be analyzed.", e);
+			return new ProbesCacheFile(file, logger, ByteBuffer.allocate(0), 0);
+		}
+	}
+
+	/**
+	 * Reads the lookup of the class with the given ID or returns null if the file does not contain the class or the
+	 * lookup could not be read, e.g. because the file is corrupt.
+	 */
+	public ClassCoverageLookup get(long classId) {
+		int index = findIndex(classId);
+		if (index < 0) {
+			return null;
+		}
+		try {
+			// Limited to the lookup, so corrupt lengths in the lookup are detected before anything is allocated
+			ByteBuffer view = viewAt(getOffset(index));
+			((Buffer) view).limit(getOffset(index) + getLength(index));
+			return ClassCoverageLookup.readFrom(view);
+		} catch (RuntimeException e) {
+			logger.warn("Failed to read class " + classId + " from probes cache " + file + ". Analyzing it again.", e);
+			return null;
+		}
+	}
+
+	/** Returns a view of the {@link #content} starting at the given offset. Thread-safe, as the content is read-only. */
+	private ByteBuffer viewAt(int offset) {
+		ByteBuffer view = content.duplicate();
+		// Cast to Buffer, as ByteBuffer#position(int) does not exist in Java 8
+		((Buffer) view).position(offset);
+		return view;
+	}
+
+	/** Returns the index of the given class ID in the index of the file or -1 if it is not contained. */
+	private int findIndex(long classId) {
+		int low = 0;
+		int high = lookupCount - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			long middleClassId = getClassId(middle);
+			if (middleClassId < classId) {
+				low = middle + 1;
+			} else if (middleClassId > classId) {
+				high = middle - 1;
+			} else {
+				return middle;
+			}
+		}
+		return -1;
+	}
+
+	private long getClassId(int index) {
+		return content.getLong(HEADER_SIZE + index * INDEX_ENTRY_SIZE);
+	}
+
+	private int getOffset(int index) {
+		return content.getInt(HEADER_SIZE + index * INDEX_ENTRY_SIZE + Long.BYTES);
+	}
+
+	/** Returns the number of bytes of the lookup at the given index. The lookups are in the same order as the index. */
+	private int getLength(int index) {
+		if (index + 1 < lookupCount) {
+			return getOffset(index + 1) - getOffset(index);
+		}
+		return content.limit() - getOffset(index);
+	}
+
+	/**
+	 * Writes all lookups of the given cache to the file unless they are contained in it already. Lookups of classes
+	 * that are in the file but not in the cache are kept unless they are more than those in the cache. Failing to write
+	 * the file is only logged, since the cache is just an optimization.
+	 */
+	public void update(ProbesCache probesCache) {
+		List<Entry> entries = new ArrayList<>();
+		probesCache.forEachClass((lookup, classId) -> {
+			if (findIndex(classId) < 0) {
+				entries.add(new Entry(classId, lookup, -1, lookup.getEncodedSize()));
+			}
+		});
+		int newLookups = entries.size();
+		int unusedLookups = 0;
+		for (int i = 0; i < lookupCount; i++) {
+			if (!probesCache.containsClassId(getClassId(i))) {
+				unusedLookups++;
+			}
+		}
+		boolean dropUnusedLookups = unusedLookups > probesCache.size();
+		if (newLookups == 0 && !dropUnusedLookups) {
+			return;
+		}
+
+		for (int i = 0; i < lookupCount; i++) {
+			long classId = getClassId(i);
+			if (!dropUnusedLookups || probesCache.containsClassId(classId)) {
+				entries.add(new Entry(classId, null, getOffset(i), getLength(i)));
+			}
+		}
+		entries.sort(Comparator.comparingLong(entry -> entry.classId));
+
+		try {
+			write(entries);
+			logger.debug("Added " + newLookups + " classes to probes cache " + file +
+					(dropUnusedLookups ? " and removed " + unusedLookups + " unused classes" : ""));
+		} catch (IOException e) {
+			logger.warn("Failed to update probes cache " + file + ". The classes will be analyzed again next time.",
+					e);
+		}
+	}
+
+	/** Writes the given entries to a temporary file, which then replaces the {@link #file}. */
+	private void write(List<Entry> entries) throws IOException {
+		Path directory = file.getAbsoluteFile().getParentFile().toPath();
+		Files.createDirectories(directory);
+		Path tempFile = Files.createTempFile(directory, file.getName(), ".tmp");
+		try {
+			try (DataOutputStream output = new DataOutputStream(
+					new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+				output.writeInt(MAGIC);
+				output.writeInt(VERSION);
+				output.writeInt(entries.size());
+				long offset = HEADER_SIZE + (long) entries.size() * INDEX_ENTRY_SIZE;
+				for (Entry entry : entries) {
+					if (offset > Integer.MAX_VALUE) {
+						throw new IOException("The probes cache exceeds the maximum size of 2 GiB");
+					}
+					output.writeLong(entry.classId);
+					output.writeInt((int) offset);
+					offset += entry.length;
+				}
+				for (Entry entry : entries) {
+					if (entry.lookup != null) {
+						entry.lookup.writeTo(output);
+					} else {
+						byte[] bytes = new byte[entry.length];
+						viewAt(entry.offset).get(bytes);
+						output.write(bytes);
+					}
+				}
+			}
+			Files.move(tempFile, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(tempFile);
+		}
+	}
+
+	/** A lookup to write to the file. */
+	private static class Entry {
+
+		/** The class ID. */
+		private final long classId;
+
+		/** The lookup to write or null if it is copied from the current file. */
+		private final ClassCoverageLookup lookup;
+
+		/** The offset of the lookup in the current file if it is copied from there. */
+		private final int offset;
+
+		/** The number of bytes of the lookup. */
+		private final int length;
+
+		private Entry(long classId, ClassCoverageLookup lookup, int offset, int length) {
+			this.classId = classId;
+			this.lookup = lookup;
+			this.offset = offset;
+			this.length = length;
+		}
+	}
+}
@@ -2,7 +2,7 @@ package com.teamscale.report.testwise.model.builder;
 
 import com.teamscale.report.testwise.model.FileCoverage;
 import com.teamscale.report.testwise.model.LineRange;
-import com.teamscale.report.util.SortedIntList;
+import com.teamscale.report.util.IntRangeSet;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -18,9 +18,9 @@ public class FileCoverageBuilder {
 	private final String fileName;
 
 	/**
-	 * A list of line numbers that have been covered. Using a set here is too memory intensive.
+	 * The line numbers that have been covered. Using a set of boxed integers here is too memory intensive.
 	 */
-	private final SortedIntList coveredLines = new SortedIntList();
+	private final IntRangeSet coveredLines = new IntRangeSet();
 
 	/** Constructor. */
 	public FileCoverageBuilder(String path, String fileName) {
@@ -45,13 +45,11 @@ public class FileCoverageBuilder {
 
 	/** Adds a line range as covered. */
 	public void addLineRange(int start, int end) {
-		for (int i = start; i <= end; i++) {
-			coveredLines.add(i);
-		}
+		coveredLines.addRange(start, end);
 	}
 
 	/** Adds set of lines as covered. */
-	public void addLines(SortedIntList range) {
+	public void addLines(IntRangeSet range) {
 		coveredLines.addAll(range);
 	}
 
@@ -67,25 +65,11 @@ public class FileCoverageBuilder {
 	 * Merges all neighboring line numbers to ranges. E.g. a list of [[1-5],[3-7],[8-10],[12-14]] becomes
 	 * [[1-10],[12-14]]
 	 */
-	public static List<LineRange> compactifyToRanges(SortedIntList lines) {
-		if (lines.size() == 0) {
-			return new ArrayList<>();
-		}
-
-		int firstLine = lines.get(0);
-		LineRange currentRange = new LineRange(firstLine, firstLine);
-
-		List<LineRange> compactifiedRanges = new ArrayList<>();
-		compactifiedRanges.add(currentRange);
-
-		for (int i = 0; i < lines.size(); i++) {
-			int currentLine = lines.get(i);
-			if (currentRange.getEnd() == currentLine || currentRange.getEnd() == currentLine - 1) {
-				currentRange.setEnd(currentLine);
-			} else {
-				currentRange = new LineRange(currentLine, currentLine);
-				compactifiedRanges.add(currentRange);
-			}
+	public static List<LineRange> compactifyToRanges(IntRangeSet lines) {
+		// the set already stores its values as ranges of neighboring lines
+		List<LineRange> compactifiedRanges = new ArrayList<>(lines.getRangeCount());
+		for (int i = 0; i < lines.getRangeCount(); i++) {
+			compactifiedRanges.add(new LineRange(lines.getRangeStart(i), lines.getRangeEnd(i)));
 		}
 		return compactifiedRanges;
 	}
@@ -99,9 +83,28 @@ public class FileCoverageBuilder {
 		return coveredRanges.stream().map(LineRange::toReportString).collect(Collectors.joining(","));
 	}
 
+	/**
+	 * Adds the lines of a compact string representation as created by {@link #computeCompactifiedRangesAsString()} as
+	 * covered.
+	 */
+	public void addCompactifiedRanges(String ranges) {
+		if (ranges.isEmpty()) {
+			return;
+		}
+		for (String range : ranges.split(",")) {
+			int separatorIndex = range.indexOf('-');
+			if (separatorIndex < 0) {
+				addLine(Integer.parseInt(range));
+			} else {
+				addLineRange(Integer.parseInt(range.substring(0, separatorIndex)),
+						Integer.parseInt(range.substring(separatorIndex + 1)));
+			}
+		}
+	}
+
 	/** Returns true if there is no coverage for the file yet. */
 	public boolean isEmpty() {
-		return coveredLines.size() == 0;
+		return coveredLines.isEmpty();
 	}
 
 	/** Builds the {@link FileCoverage} object, which is serialized into the report. */
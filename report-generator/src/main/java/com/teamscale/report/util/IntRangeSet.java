@@ -0,0 +1,204 @@
+package com.teamscale.report.util;
+
+import java.util.Arrays;
+
+/**
+ * Run-length encoded set of integers, e.g. covered line numbers. The values are stored as sorted, disjoint and
+ * non-adjacent ranges, so consecutive values as they are typical for covered lines need only two integers per range.
+ * <p>
+ * Adding values in ascending order appends to the last range or after it without searching. Other values and ranges
+ * are inserted after a binary search over the ranges, and sets are united by a linear merge of their ranges. An empty
+ * set does not allocate any storage.
+ */
+public class IntRangeSet {
+
+	/** Shared storage of empty sets. */
+	private static final int[] EMPTY = new int[0];
+
+	/**
+	 * The start and end (inclusive) of each range in ascending order, i.e. the start of the i-th range is at index 2i
+	 * and its end at index 2i + 1. The array might be bigger than needed for the ranges.
+	 */
+	private int[] bounds = EMPTY;
+
+	/** The number of ranges in the set. */
+	private int rangeCount = 0;
+
+	/** Adds the given value to the set. */
+	public void add(int value) {
+		addRange(value, value);
+	}
+
+	/** Adds all values from start to end (inclusive) to the set. Does nothing if start is greater than end. */
+	public void addRange(int start, int end) {
+		if (start > end) {
+			return;
+		}
+		if (rangeCount == 0 || start > (long) getRangeEnd(rangeCount - 1) + 1) {
+			// Fast path for ascending input
+			ensureCapacity(rangeCount + 1);
+			bounds[2 * rangeCount] = start;
+			bounds[2 * rangeCount + 1] = end;
+			rangeCount++;
+			return;
+		}
+		if (start >= getRangeStart(rangeCount - 1)) {
+			// Fast path for ascending input that extends the last range
+			bounds[2 * rangeCount - 1] = Math.max(end, getRangeEnd(rangeCount - 1));
+			return;
+		}
+
+		// The ranges from first to last (exclusive) overlap with or are adjacent to the new range
+		int first = findFirstRangeEndingAtOrAfter(start - 1L);
+		int last = findFirstRangeStartingAfter(end + 1L);
+		if (first == last) {
+			insertRange(first, start, end);
+			return;
+		}
+
+		int mergedStart = Math.min(start, getRangeStart(first));
+		int mergedEnd = Math.max(end, getRangeEnd(last - 1));
+		bounds[2 * first] = mergedStart;
+		bounds[2 * first + 1] = mergedEnd;
+		int removedRanges = last - first - 1;
+		if (removedRanges > 0) {
+			System.arraycopy(bounds, 2 * last, bounds, 2 * (first + 1), 2 * (rangeCount - last));
+			rangeCount -= removedRanges;
+		}
+	}
+
+	/** Returns the index of the first range whose end is greater than or equal to the given value. */
+	private int findFirstRangeEndingAtOrAfter(long value) {
+		int low = 0;
+		int high = rangeCount;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (getRangeEnd(middle) < value) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/** Returns the index of the first range whose start is greater than the given value. */
+	private int findFirstRangeStartingAfter(long value) {
+		int low = 0;
+		int high = rangeCount;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (getRangeStart(middle) <= value) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/** Inserts a new range at the given index. */
+	private void insertRange(int index, int start, int end) {
+		ensureCapacity(rangeCount + 1);
+		System.arraycopy(bounds, 2 * index, bounds, 2 * (index + 1), 2 * (rangeCount - index));
+		bounds[2 * index] = start;
+		bounds[2 * index + 1] = end;
+		rangeCount++;
+	}
+
+	private void ensureCapacity(int ranges) {
+		if (bounds.length < 2 * ranges) {
+			bounds = Arrays.copyOf(bounds, Math.max(2 * ranges, 2 * bounds.length));
+		}
+	}
+
+	/** Adds all values of the given set to this set. */
+	public void addAll(IntRangeSet other) {
+		if (other.rangeCount == 0) {
+			return;
+		}
+		if (rangeCount == 0 || other.getRangeStart(0) > (long) getRangeEnd(rangeCount - 1) + 1) {
+			// Fast path for sets that lie completely after this one
+			ensureCapacity(rangeCount + other.rangeCount);
+			System.arraycopy(other.bounds, 0, bounds, 2 * rangeCount, 2 * other.rangeCount);
+			rangeCount += other.rangeCount;
+			return;
+		}
+
+		int[] merged = new int[2 * (rangeCount + other.rangeCount)];
+		int mergedCount = 0;
+		int index = 0;
+		int otherIndex = 0;
+		while (index < rangeCount || otherIndex < other.rangeCount) {
+			int start;
+			int end;
+			if (otherIndex == other.rangeCount || (index < rangeCount && getRangeStart(index) <= other
+					.getRangeStart(otherIndex))) {
+				start = getRangeStart(index);
+				end = getRangeEnd(index);
+				index++;
+			} else {
+				start = other.getRangeStart(otherIndex);
+				end = other.getRangeEnd(otherIndex);
+				otherIndex++;
+			}
+
+			if (mergedCount > 0 && start <= (long) merged[2 * mergedCount - 1] + 1) {
+				merged[2 * mergedCount - 1] = Math.max(merged[2 * mergedCount - 1], end);
+			} else {
+				merged[2 * mergedCount] = start;
+				merged[2 * mergedCount + 1] = end;
+				mergedCount++;
+			}
+		}
+		bounds = merged;
+		rangeCount = mergedCount;
+	}
+
+	/** Returns whether the set contains the given value. */
+	public boolean contains(int value) {
+		int index = findFirstRangeEndingAtOrAfter(value);
+		return index < rangeCount && getRangeStart(index) <= value;
+	}
+
+	/** Returns the number of values in the set. */
+	public int size() {
+		int size = 0;
+		for (int i = 0; i < rangeCount; i++) {
+			size += getRangeEnd(i) - getRangeStart(i) + 1;
+		}
+		return size;
+	}
+
+	/** Returns whether the set is empty. */
+	public boolean isEmpty() {
+		return rangeCount == 0;
+	}
+
+	/** Returns the number of disjoint, non-adjacent ranges the values of the set form. */
+	public int getRangeCount() {
+		return rangeCount;
+	}
+
+	/** Returns the smallest value of the i-th range. */
+	public int getRangeStart(int i) {
+		return bounds[2 * i];
+	}
+
+	/** Returns the largest value of the i-th range. */
+	public int getRangeEnd(int i) {
+		return bounds[2 * i + 1];
+	}
+
+	/** Returns all values of the set in ascending order. */
+	public int[] toArray() {
+		int[] values = new int[size()];
+		int index = 0;
+		for (int i = 0; i < rangeCount; i++) {
+			for (long value = getRangeStart(i); value <= getRangeEnd(i); value++) {
+				values[index++] = (int) value;
+			}
+		}
+		return values;
+	}
+}
@@ -0,0 +1,129 @@
+package com.teamscale.report.util;
+
+import java.util.function.ObjLongConsumer;
+
+/**
+ * Hash map from primitive long keys to non-null values. In contrast to a {@link java.util.HashMap} with {@link Long}
+ * keys, neither lookups nor insertions box the key or allocate any entry objects. The entries are stored in two
+ * parallel arrays with open addressing and linear probing.
+ * <p>
+ * The map is not synchronized. Once it is not modified anymore and has been published safely, e.g. via a synchronized
+ * block or a volatile field, it may be read by multiple threads at once.
+ */
+public class LongObjectHashMap<V> {
+
+	/** The maximum ratio of used slots before the arrays are enlarged. */
+	private static final double MAX_LOAD_FACTOR = 0.5;
+
+	/** The keys of the entries. Only valid at the indices for which {@link #values} is not null. */
+	private long[] keys;
+
+	/** The values of the entries or null for empty slots. */
+	private Object[] values;
+
+	/** The number of entries in the map. */
+	private int size = 0;
+
+	/** Creates an empty map. */
+	public LongObjectHashMap() {
+		this(16);
+	}
+
+	/** Creates an empty map that can hold the given number of entries without being enlarged. */
+	public LongObjectHashMap(int expectedSize) {
+		int capacity = Integer.highestOneBit((int) Math.max(2, Math.ceil(expectedSize / MAX_LOAD_FACTOR)) * 2 - 1);
+		keys = new long[capacity];
+		values = new Object[capacity];
+	}
+
+	/** Returns the value of the given key or null if the map does not contain the key. */
+	@SuppressWarnings("unchecked")
+	public V get(long key) {
+		int mask = values.length - 1;
+		for (int index = hash(key) & mask; values[index] != null; index = (index + 1) & mask) {
+			if (keys[index] == key) {
+				return (V) values[index];
+			}
+		}
+		return null;
+	}
+
+	/** Returns whether the map contains the given key. */
+	public boolean containsKey(long key) {
+		return get(key) != null;
+	}
+
+	/**
+	 * Associates the given value with the given key.
+	 *
+	 * @return the value previously associated with the key or null if there was none.
+	 */
+	@SuppressWarnings("unchecked")
+	public V put(long key, V value) {
+		if (value == null) {
+			throw new NullPointerException("The map does not support null values");
+		}
+		int mask = values.length - 1;
+		int index = hash(key) & mask;
+		for (; values[index] != null; index = (index + 1) & mask) {
+			if (keys[index] == key) {
+				V previousValue = (V) values[index];
+				values[index] = value;
+				return previousValue;
+			}
+		}
+		keys[index] = key;
+		values[index] = value;
+		size++;
+		if (size > values.length * MAX_LOAD_FACTOR) {
+			resize(values.length * 2);
+		}
+		return null;
+	}
+
+	/** Moves all entries to arrays of the given capacity, which must be a power of two. */
+	private void resize(int capacity) {
+		long[] oldKeys = keys;
+		Object[] oldValues = values;
+		keys = new long[capacity];
+		values = new Object[capacity];
+		int mask = capacity - 1;
+		for (int i = 0; i < oldValues.length; i++) {
+			if (oldValues[i] == null) {
+				continue;
+			}
+			int index = hash(oldKeys[i]) & mask;
+			while (values[index] != null) {
+				index = (index + 1) & mask;
+			}
+			keys[index] = oldKeys[i];
+			values[index] = oldValues[i];
+		}
+	}
+
+	/** Spreads the bits of the key, so keys that only differ in their upper bits do not collide. */
+	private static int hash(long key) {
+		long hash = key * 0x9E3779B97F4A7C15L;
+		return (int) (hash ^ (hash >>> 32));
+	}
+
+	/** Passes all values together with their keys to the given consumer in no particular order. */
+	@SuppressWarnings("unchecked")
+	public void forEach(ObjLongConsumer<? super V> consumer) {
+		for (int i = 0; i < values.length; i++) {
+			if (values[i] != null) {
+				consumer.accept((V) values[i], keys[i]);
+			}
+		}
+	}
+
+	/** Returns the number of entries in the map. */
+	public int size() {
+		return size;
+	}
+
+	/** Returns whether the map is empty. */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+}
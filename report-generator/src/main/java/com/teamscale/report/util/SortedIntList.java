@@ -3,7 +3,10 @@ package com.teamscale.report.util;
 /**
  * Performant implementation of a deduplicated sorted integer list that assumes that insertions mainly happen at the end
  * and that input is already sorted.
+ *
+ * @deprecated Use {@link IntRangeSet}, which stores consecutive values as ranges and unites sets by a linear merge.
  */
+@Deprecated
 public class SortedIntList {
 
 	/**
@@ -29,8 +32,13 @@ public class SortedIntList {
 			return true;
 		}
 
+		if (value > list[count - 1]) {
+			// Fast path for sorted input, which is appended without searching
+			low = count;
+		}
+
 		// Perform binary search to find target location
-		do {
+		while (low < high) {
 			int p = (low + high) >>> 1;
 			if (value < list[p]) {
 				high = p;
@@ -40,7 +48,7 @@ public class SortedIntList {
 			} else {
 				low = p + 1;
 			}
-		} while (low < high);
+		}
 
 		if (count == list.length) {
 			int[] n = new int[list.length * 2];
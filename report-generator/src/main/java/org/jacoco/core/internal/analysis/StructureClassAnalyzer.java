@@ -0,0 +1,84 @@
+package org.jacoco.core.internal.analysis;
+
+import com.teamscale.report.jacoco.cache.ClassStructure;
+import com.teamscale.report.jacoco.cache.MethodStructure;
+import org.jacoco.core.internal.analysis.filter.Filters;
+import org.jacoco.core.internal.analysis.filter.IFilter;
+import org.jacoco.core.internal.flow.MethodProbesVisitor;
+import org.jacoco.core.internal.instr.InstrSupport;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.tree.MethodNode;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Analyzes a class to reconstruct its probe-independent {@link ClassStructure}.
+ * <p>
+ * The class header (name, signature, super class, interfaces and source file) is collected in the given dummy {@link
+ * ClassCoverageImpl} by {@link ClassAnalyzer}. The methods are analyzed with a {@link StructureInstructionsBuilder} and
+ * filtered with the same filters JaCoCo applies during normal analysis.
+ */
+public class StructureClassAnalyzer extends ClassAnalyzer {
+
+	/** Dummy coverage node that collects the class header. */
+	private final ClassCoverageImpl coverage;
+
+	/** Shared pool to minimize the number of {@link String} instances. */
+	private final StringPool stringPool;
+
+	/** The filters applied to all methods. */
+	private final IFilter filter;
+
+	/** The structure of all methods that contain code. */
+	private final List<MethodStructure> methods = new ArrayList<>();
+
+	/**
+	 * Creates a new analyzer that builds the structure of a class.
+	 *
+	 * @param coverage   dummy coverage node for the analyzed class data
+	 * @param stringPool shared pool to minimize the number of {@link String} instances
+	 */
+	public StructureClassAnalyzer(ClassCoverageImpl coverage, StringPool stringPool) {
+		super(coverage, null, stringPool);
+		this.coverage = coverage;
+		this.stringPool = stringPool;
+		this.filter = Filters.all();
+	}
+
+	@Override
+	public MethodProbesVisitor visitMethod(final int access, final String name,
+										   final String desc, final String signature, final String[] exceptions) {
+		InstrSupport.assertNotInstrumented(name, coverage.getName());
+
+		final StructureInstructionsBuilder builder = new StructureInstructionsBuilder();
+
+		return new MethodAnalyzer(builder) {
+
+			@Override
+			public void accept(final MethodNode methodNode,
+							   final MethodVisitor methodVisitor) {
+				super.accept(methodNode, methodVisitor);
+				addMethodStructure(stringPool.get(name), stringPool.get(desc), stringPool.get(signature), builder,
+						methodNode);
+			}
+		};
+	}
+
+	/** Filters the instructions of the method and stores the resulting structure. */
+	private void addMethodStructure(String name, String desc, String signature, StructureInstructionsBuilder builder,
+									MethodNode methodNode) {
+		StructureCoverageCalculator calculator = new StructureCoverageCalculator(builder.getStructureInstructions());
+		filter.filter(methodNode, this, calculator);
+		MethodStructure method = calculator.calculate(name, desc, signature);
+		if (method.containsCode()) {
+			methods.add(method);
+		}
+	}
+
+	/** Returns the structure of the class. Must only be called after the class has been visited completely. */
+	public ClassStructure getClassStructure() {
+		return new ClassStructure(coverage.getId(), coverage.getName(), coverage.getSignature(),
+				coverage.getSuperName(), coverage.getInterfaceNames(), coverage.getSourceFileName(), methods);
+	}
+}
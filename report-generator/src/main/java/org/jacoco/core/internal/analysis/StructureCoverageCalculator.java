@@ -0,0 +1,203 @@
+package org.jacoco.core.internal.analysis;
+
+import com.teamscale.report.jacoco.cache.MethodStructure;
+import org.jacoco.core.analysis.ISourceNode;
+import org.jacoco.core.internal.analysis.filter.IFilterOutput;
+import org.objectweb.asm.tree.AbstractInsnNode;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+/**
+ * Calculates the filtered structure of a method. It's core is a copy of {@link MethodCoverageCalculator} that works on
+ * {@link StructureInstruction}s and produces a {@link MethodStructure} instead of filling a {@link
+ * MethodCoverageImpl}.
+ * <p>
+ * Changes that have been applied to the original class are marked with ADDED and REMOVED comments to make it as easy as
+ * possible to adjust the implementation to new versions of JaCoCo.
+ */
+public class StructureCoverageCalculator implements IFilterOutput {
+
+	/**
+	 * Instructions that should be considered for coverage calculation. Initially contains all instructions of the
+	 * method. Merged or replaced instructions are replaced with new instances.
+	 */
+	private final Map<AbstractInsnNode, StructureInstruction> instructions;
+
+	/** Instructions that should be ignored for coverage calculation. */
+	private final Set<AbstractInsnNode> ignored;
+
+	/**
+	 * Instructions which should be merged form a disjoint set. The set is represented by the representative element.
+	 */
+	private final Map<AbstractInsnNode, AbstractInsnNode> merged;
+
+	/** Instructions whose branches should be replaced by the given instructions. */
+	private final Map<AbstractInsnNode, Set<AbstractInsnNode>> replacements;
+
+	/** Creates a calculator for the given instructions of a method. */
+	public StructureCoverageCalculator(final Map<AbstractInsnNode, StructureInstruction> instructions) {
+		this.instructions = new HashMap<>(instructions);
+		this.ignored = new HashSet<>();
+		this.merged = new HashMap<>();
+		this.replacements = new HashMap<>();
+	}
+
+	/**
+	 * Applies all specified filtering commands and calculates the resulting structure.
+	 * <p>
+	 * ADDED returns a {@link MethodStructure} REMOVED final MethodCoverageImpl coverage
+	 */
+	public MethodStructure calculate(String name, String desc, String signature) {
+		applyMerges();
+		applyReplacements();
+
+		// ADDED group identical instructions and deduplicate the probe sets
+		Map<BitSet, Integer> probeSetIndices = new LinkedHashMap<>();
+		Map<List<Integer>, Integer> instructionCounts = new LinkedHashMap<>();
+		int firstLine = ISourceNode.UNKNOWN_LINE;
+		int lastLine = ISourceNode.UNKNOWN_LINE;
+		for (final Entry<AbstractInsnNode, StructureInstruction> entry : instructions.entrySet()) {
+			if (ignored.contains(entry.getKey())) {
+				continue;
+			}
+			final StructureInstruction instruction = entry.getValue();
+			final int line = instruction.getLine();
+			if (line != ISourceNode.UNKNOWN_LINE) {
+				if (firstLine > line || lastLine == ISourceNode.UNKNOWN_LINE) {
+					firstLine = line;
+				}
+				if (lastLine < line) {
+					lastLine = line;
+				}
+			}
+
+			List<BitSet> probeSets = instruction.getCoveringProbeSets();
+			List<Integer> key = new ArrayList<>(3 + probeSets.size());
+			key.add(line);
+			key.add(instruction.getBranches());
+			key.add(probeSets.size());
+			for (BitSet probeSet : probeSets) {
+				Integer index = probeSetIndices.get(probeSet);
+				if (index == null) {
+					index = probeSetIndices.size();
+					probeSetIndices.put(probeSet, index);
+				}
+				key.add(index);
+			}
+			instructionCounts.merge(key, 1, Integer::sum);
+		}
+
+		return new MethodStructure(name, desc, signature, firstLine, lastLine,
+				encodeProbeSets(probeSetIndices.keySet()), encodeInstructions(instructionCounts));
+	}
+
+	/**
+	 * ADDED Encodes the probe sets as a flat array. The first entry holds the number of sets, followed by the size and
+	 * probe IDs of each set.
+	 */
+	private static int[] encodeProbeSets(Set<BitSet> probeSets) {
+		List<Integer> encoded = new ArrayList<>();
+		encoded.add(probeSets.size());
+		for (BitSet probeSet : probeSets) {
+			encoded.add(probeSet.cardinality());
+			for (int probe = probeSet.nextSetBit(0); probe >= 0; probe = probeSet.nextSetBit(probe + 1)) {
+				encoded.add(probe);
+			}
+		}
+		return toArray(encoded);
+	}
+
+	/**
+	 * ADDED Encodes the instruction groups as a flat array. Each group consists of line, instruction count, number of
+	 * branches, number of probe sets and the indices of the probe sets.
+	 */
+	private static int[] encodeInstructions(Map<List<Integer>, Integer> instructionCounts) {
+		List<Integer> encoded = new ArrayList<>();
+		for (Entry<List<Integer>, Integer> entry : instructionCounts.entrySet()) {
+			List<Integer> key = entry.getKey();
+			encoded.add(key.get(0));
+			encoded.add(entry.getValue());
+			encoded.addAll(key.subList(1, key.size()));
+		}
+		return toArray(encoded);
+	}
+
+	/** ADDED Converts the list to a primitive array. */
+	private static int[] toArray(List<Integer> list) {
+		int[] result = new int[list.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = list.get(i);
+		}
+		return result;
+	}
+
+	private void applyMerges() {
+		// Merge to the representative:
+		for (final Entry<AbstractInsnNode, AbstractInsnNode> entry : merged.entrySet()) {
+			final AbstractInsnNode node = entry.getKey();
+			final StructureInstruction instruction = instructions.get(node);
+			final AbstractInsnNode representativeNode = findRepresentative(node);
+			ignored.add(node);
+			instructions.put(representativeNode, instructions.get(representativeNode).mergeStructure(instruction));
+			entry.setValue(representativeNode);
+		}
+
+		// Get merged value back from representative
+		for (final Entry<AbstractInsnNode, AbstractInsnNode> entry : merged.entrySet()) {
+			instructions.put(entry.getKey(), instructions.get(entry.getValue()));
+		}
+	}
+
+	private void applyReplacements() {
+		for (final Entry<AbstractInsnNode, Set<AbstractInsnNode>> entry : replacements.entrySet()) {
+			final Set<AbstractInsnNode> replacements = entry.getValue();
+			final List<StructureInstruction> newBranches = new ArrayList<>(replacements.size());
+			for (final AbstractInsnNode b : replacements) {
+				newBranches.add(instructions.get(b));
+			}
+			final AbstractInsnNode node = entry.getKey();
+			instructions.put(node, instructions.get(node).replaceStructureBranches(newBranches));
+		}
+	}
+
+	private AbstractInsnNode findRepresentative(AbstractInsnNode i) {
+		AbstractInsnNode r;
+		while ((r = merged.get(i)) != null) {
+			i = r;
+		}
+		return i;
+	}
+
+	// === IFilterOutput API ===
+
+	@Override
+	public void ignore(final AbstractInsnNode fromInclusive, final AbstractInsnNode toInclusive) {
+		for (AbstractInsnNode i = fromInclusive; i != toInclusive; i = i.getNext()) {
+			ignored.add(i);
+		}
+		ignored.add(toInclusive);
+	}
+
+	@Override
+	public void merge(AbstractInsnNode i1, AbstractInsnNode i2) {
+		i1 = findRepresentative(i1);
+		i2 = findRepresentative(i2);
+		if (i1 != i2) {
+			merged.put(i2, i1);
+		}
+	}
+
+	@Override
+	public void replaceBranches(final AbstractInsnNode source, final Set<AbstractInsnNode> newTargets) {
+		replacements.put(source, newTargets);
+	}
+
+}
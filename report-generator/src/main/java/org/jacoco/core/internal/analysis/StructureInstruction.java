@@ -0,0 +1,140 @@
+package org.jacoco.core.internal.analysis;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Symbolic counterpart of {@link Instruction}. Instead of tracking which branches of the instruction have been
+ * executed for one concrete probe array, it tracks for every branch the set of probes of which at least one must have
+ * been executed for the branch to count as covered. Evaluating these conditions against a probe array yields the same
+ * result as running {@link InstructionsBuilder} with that probe array.
+ * <p>
+ * The propagation logic is a copy of the one in {@link Instruction} (0.8.5) with the covered flags replaced by probe
+ * sets. When updating JaCoCo make a diff of the previous {@link Instruction} implementation and the new implementation
+ * and update this class accordingly.
+ */
+public class StructureInstruction extends Instruction {
+
+	/** Number of branches of this instruction. */
+	private int branches;
+
+	/** For each branch index the probes that cover the branch. */
+	private final List<BitSet> branchProbes = new ArrayList<>(2);
+
+	/** Control flow predecessor of this instruction. */
+	private StructureInstruction predecessor;
+
+	/** Branch index of the predecessor that leads to this instruction. */
+	private int predecessorBranch;
+
+	/** Creates a new instruction for the given line. */
+	StructureInstruction(int line) {
+		super(line);
+	}
+
+	/**
+	 * Adds a branch to the given instruction. Copy of {@link Instruction#addBranch(Instruction, int)}.
+	 */
+	void addStructureBranch(StructureInstruction target, int branch) {
+		branches++;
+		target.predecessor = this;
+		target.predecessorBranch = branch;
+		BitSet targetProbes = target.getAnyBranchProbes();
+		if (!targetProbes.isEmpty()) {
+			propagateProbes(this, branch, targetProbes);
+		}
+	}
+
+	/**
+	 * Adds a branch that is covered by the given probe. Copy of {@link Instruction#addBranch(boolean, int)}.
+	 */
+	void addProbe(int probeId, int branch) {
+		branches++;
+		BitSet probes = new BitSet();
+		probes.set(probeId);
+		propagateProbes(this, branch, probes);
+	}
+
+	/**
+	 * Adds the given probes to the branch of the instruction and all its control flow predecessors. Propagation can
+	 * stop as soon as an instruction already knows all probes, because its predecessors then know them as well.
+	 */
+	private static void propagateProbes(StructureInstruction insn, int branch, BitSet probes) {
+		while (insn != null) {
+			BitSet covering = insn.getBranchProbes(branch);
+			BitSet missing = (BitSet) probes.clone();
+			missing.andNot(covering);
+			if (missing.isEmpty()) {
+				break;
+			}
+			covering.or(missing);
+			branch = insn.predecessorBranch;
+			insn = insn.predecessor;
+		}
+	}
+
+	/** Returns the (modifiable) probe set of the given branch. */
+	private BitSet getBranchProbes(int branch) {
+		while (branchProbes.size() <= branch) {
+			branchProbes.add(new BitSet());
+		}
+		return branchProbes.get(branch);
+	}
+
+	/** Returns the union of the probes of all branches. */
+	private BitSet getAnyBranchProbes() {
+		BitSet result = new BitSet();
+		for (BitSet probes : branchProbes) {
+			result.or(probes);
+		}
+		return result;
+	}
+
+	/** Copy of {@link Instruction#merge(Instruction)}. */
+	StructureInstruction mergeStructure(StructureInstruction other) {
+		StructureInstruction result = new StructureInstruction(getLine());
+		result.branches = this.branches;
+		for (int i = 0; i < Math.max(branchProbes.size(), other.branchProbes.size()); i++) {
+			BitSet probes = result.getBranchProbes(i);
+			if (i < branchProbes.size()) {
+				probes.or(branchProbes.get(i));
+			}
+			if (i < other.branchProbes.size()) {
+				probes.or(other.branchProbes.get(i));
+			}
+		}
+		return result;
+	}
+
+	/** Copy of {@link Instruction#replaceBranches(Collection)}. */
+	StructureInstruction replaceStructureBranches(Collection<StructureInstruction> newBranches) {
+		StructureInstruction result = new StructureInstruction(getLine());
+		result.branches = newBranches.size();
+		int index = 0;
+		for (StructureInstruction branch : newBranches) {
+			result.getBranchProbes(index++).or(branch.getAnyBranchProbes());
+		}
+		return result;
+	}
+
+	/** Returns the number of branches. */
+	int getBranches() {
+		return branches;
+	}
+
+	/**
+	 * Returns the non-empty probe sets of all branches. A branch is covered if one of the probes of its set has been
+	 * executed. Branches without probes can never be covered and are omitted.
+	 */
+	List<BitSet> getCoveringProbeSets() {
+		List<BitSet> result = new ArrayList<>(branchProbes.size());
+		for (BitSet probes : branchProbes) {
+			if (!probes.isEmpty()) {
+				result.add(probes);
+			}
+		}
+		return result;
+	}
+}
@@ -0,0 +1,179 @@
+package org.jacoco.core.internal.analysis;
+
+import org.jacoco.core.analysis.ISourceNode;
+import org.jacoco.core.internal.flow.LabelInfo;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.tree.AbstractInsnNode;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stateful builder for the {@link StructureInstruction}s of a method. All instructions of a method must be added in
+ * their original sequence along with additional information like line numbers. Afterwards the instructions can be
+ * obtained with the {@link #getStructureInstructions()} method.
+ * <p>
+ * It's core is a copy of {@link org.jacoco.core.internal.analysis.InstructionsBuilder} that records which probes cover
+ * which branches instead of evaluating a concrete probe array. This allows to analyze a class once and annotate the
+ * result with the probes of many different dumps.
+ * <p>
+ * Changes that have been applied to the original class are marked with ADDED and REMOVED comments to make it as easy as
+ * possible to adjust the implementation to new versions of JaCoCo.
+ * <p>
+ * When updating JaCoCo make a diff of the previous {@link org.jacoco.core.internal.analysis.InstructionsBuilder}
+ * implementation and the new implementation and update this class accordingly.
+ */
+public class StructureInstructionsBuilder extends InstructionsBuilder {
+
+	/** Probe array of the class the analyzed method belongs to. */
+	// REMOVED private final boolean[] probes;
+
+	/** The line which belong to subsequently added instructions. */
+	private int currentLine;
+
+	/** The last instruction which has been added. */
+	private StructureInstruction currentInsn;
+
+	/**
+	 * All instructions of a method mapped from the ASM node to the corresponding {@link StructureInstruction}
+	 * instance.
+	 */
+	private final Map<AbstractInsnNode, StructureInstruction> instructions;
+
+	/**
+	 * The labels which mark the subsequent instructions.
+	 * <p>
+	 * Due to ASM issue #315745 there can be more than one label per instruction
+	 */
+	private final List<Label> currentLabel;
+
+	/**
+	 * List of all jumps within the control flow. We need to store jumps temporarily as the target {@link Instruction}
+	 * may not been known yet.
+	 */
+	private final List<Jump> jumps;
+
+	/**
+	 * Creates a new builder instance which can be used to analyze a single method.
+	 * <p>
+	 * REMOVED final boolean[] probes
+	 */
+	public StructureInstructionsBuilder() {
+		super(null);
+		this.currentLine = ISourceNode.UNKNOWN_LINE;
+		this.currentInsn = null;
+		this.instructions = new HashMap<>();
+		this.currentLabel = new ArrayList<>(2);
+		this.jumps = new ArrayList<>();
+	}
+
+	/**
+	 * Sets the current source line. All subsequently added instructions will be assigned to this line. If no line is
+	 * set (e.g. for classes compiled without debug information) {@link ISourceNode#UNKNOWN_LINE} is assigned to the
+	 * instructions.
+	 */
+	void setCurrentLine(final int line) {
+		currentLine = line;
+	}
+
+	/**
+	 * Adds a label which applies to the subsequently added instruction. Due to ASM internals multiple {@link Label}s
+	 * can be added to an instruction.
+	 */
+	void addLabel(final Label label) {
+		currentLabel.add(label);
+		if (!LabelInfo.isSuccessor(label)) {
+			noSuccessor();
+		}
+	}
+
+	/**
+	 * Adds a new instruction. Instructions are by default linked with the previous instruction unless specified
+	 * otherwise.
+	 */
+	void addInstruction(final AbstractInsnNode node) {
+		// ADDED use StructureInstruction instead of Instruction
+		final StructureInstruction insn = new StructureInstruction(currentLine);
+		final int labelCount = currentLabel.size();
+		if (labelCount > 0) {
+			for (int i = labelCount; --i >= 0; ) {
+				LabelInfo.setInstruction(currentLabel.get(i), insn);
+			}
+			currentLabel.clear();
+		}
+		if (currentInsn != null) {
+			currentInsn.addStructureBranch(insn, 0);
+		}
+		currentInsn = insn;
+		instructions.put(node, insn);
+	}
+
+	/**
+	 * Declares that the next instruction will not be a successor of the current instruction. This is the case with an
+	 * unconditional jump or technically when a probe was inserted before.
+	 */
+	void noSuccessor() {
+		currentInsn = null;
+	}
+
+	/**
+	 * Adds a jump from the last added instruction.
+	 *
+	 * @param target jump target
+	 * @param branch unique branch number
+	 */
+	void addJump(final Label target, final int branch) {
+		jumps.add(new Jump(currentInsn, target, branch));
+	}
+
+	/**
+	 * Adds a new probe for the last instruction.
+	 *
+	 * @param probeId index in the probe array
+	 * @param branch  unique branch number for the last instruction
+	 */
+	void addProbe(final int probeId, final int branch) {
+		// REMOVED check of probes array and instead record the probe symbolically
+		// final boolean executed = probes != null && probes[probeId];
+		// currentInsn.addBranch(executed, branch);
+
+		// ADDED
+		currentInsn.addProbe(probeId, branch);
+	}
+
+	/**
+	 * Returns the structure of all instructions of this method. This method must be called exactly once after the
+	 * instructions have been added.
+	 * <p>
+	 * ADDED returns {@link StructureInstruction}s instead of {@link Instruction}s
+	 */
+	public Map<AbstractInsnNode, StructureInstruction> getStructureInstructions() {
+		// Wire jumps:
+		for (final Jump j : jumps) {
+			j.wire();
+		}
+
+		return instructions;
+	}
+
+	private static class Jump {
+
+		private final StructureInstruction source;
+		private final Label target;
+		private final int branch;
+
+		Jump(final StructureInstruction source, final Label target, final int branch) {
+			this.source = source;
+			this.target = target;
+			this.branch = branch;
+		}
+
+		void wire() {
+			source.addStructureBranch((StructureInstruction) LabelInfo.getInstruction(target), branch);
+		}
+
+	}
+
+}
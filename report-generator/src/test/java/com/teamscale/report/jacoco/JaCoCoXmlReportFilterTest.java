@@ -0,0 +1,96 @@
+package com.teamscale.report.jacoco;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/** Tests the {@link JaCoCoXmlReportFilter}. */
+class JaCoCoXmlReportFilterTest {
+
+	private static final String HEADER = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>" +
+			"<!DOCTYPE report PUBLIC \"-//JACOCO//DTD Report 1.1//EN\" \"report.dtd\">";
+
+	private static final String REPORT = "<report name=\"dummybundle\">" +
+			"<sessioninfo id=\"session\" start=\"1\" dump=\"2\"/>" +
+			"<package name=\"com/app1\">" +
+			"<class name=\"com/app1/Foo\" sourcefilename=\"Foo.java\">" +
+			"<counter type=\"LINE\" missed=\"1\" covered=\"2\"/><counter type=\"CLASS\" missed=\"0\" covered=\"1\"/>" +
+			"</class>" +
+			"<class name=\"com/app1/Bar\" sourcefilename=\"Bar.java\">" +
+			"<counter type=\"LINE\" missed=\"3\" covered=\"0\"/><counter type=\"CLASS\" missed=\"1\" covered=\"0\"/>" +
+			"</class>" +
+			"<sourcefile name=\"Foo.java\"><line nr=\"3\" mi=\"0\" ci=\"2\" mb=\"0\" cb=\"0\"/>" +
+			"<counter type=\"LINE\" missed=\"1\" covered=\"2\"/></sourcefile>" +
+			"<sourcefile name=\"Bar.java\"><line nr=\"5\" mi=\"3\" ci=\"0\" mb=\"0\" cb=\"0\"/>" +
+			"<counter type=\"LINE\" missed=\"3\" covered=\"0\"/></sourcefile>" +
+			"<counter type=\"LINE\" missed=\"4\" covered=\"2\"/><counter type=\"CLASS\" missed=\"1\" covered=\"1\"/>" +
+			"</package>" +
+			"<package name=\"com/app2\">" +
+			"<class name=\"com/app2/Baz\" sourcefilename=\"Baz.java\">" +
+			"<counter type=\"LINE\" missed=\"0\" covered=\"7\"/><counter type=\"CLASS\" missed=\"0\" covered=\"1\"/>" +
+			"</class>" +
+			"<sourcefile name=\"Baz.java\"><line nr=\"8\" mi=\"0\" ci=\"7\" mb=\"0\" cb=\"0\"/>" +
+			"<counter type=\"LINE\" missed=\"0\" covered=\"7\"/></sourcefile>" +
+			"<counter type=\"LINE\" missed=\"0\" covered=\"7\"/><counter type=\"CLASS\" missed=\"0\" covered=\"1\"/>" +
+			"</package>" +
+			"<counter type=\"LINE\" missed=\"4\" covered=\"9\"/><counter type=\"CLASS\" missed=\"1\" covered=\"2\"/>" +
+			"</report>";
+
+	@TempDir
+	File tempDir;
+
+	/** Tests that only the accepted classes and their source files are kept and that the counters are recomputed. */
+	@Test
+	void keepsOnlyAcceptedClasses() throws IOException {
+		File report = writeReport(REPORT);
+		File output = new File(tempDir, "filtered.xml");
+
+		int keptClasses = new JaCoCoXmlReportFilter(name -> name.equals("com/app1/Foo")).filter(report, output);
+
+		String filteredReport = new String(Files.readAllBytes(output.toPath()), StandardCharsets.UTF_8);
+		assertThat(keptClasses).isEqualTo(1);
+		assertThat(filteredReport).contains("<sessioninfo id=\"session\" start=\"1\" dump=\"2\"/>",
+				"<class name=\"com/app1/Foo\" sourcefilename=\"Foo.java\">",
+				"<line nr=\"3\" mi=\"0\" ci=\"2\" mb=\"0\" cb=\"0\"/>",
+				"<counter type=\"LINE\" missed=\"1\" covered=\"2\"/>" +
+						"<counter type=\"CLASS\" missed=\"0\" covered=\"1\"/>" +
+						"</package><counter type=\"LINE\" missed=\"1\" covered=\"2\"/>" +
+						"<counter type=\"CLASS\" missed=\"0\" covered=\"1\"/></report>")
+				.doesNotContain("com/app1/Bar", "Bar.java", "com/app2");
+	}
+
+	/** Tests that the report of all classes is equivalent to the original report. */
+	@Test
+	void keepsAllClasses() throws IOException {
+		File report = writeReport(REPORT);
+		File output = new File(tempDir, "filtered.xml");
+
+		int keptClasses = new JaCoCoXmlReportFilter(name -> true).filter(report, output);
+
+		String filteredReport = new String(Files.readAllBytes(output.toPath()), StandardCharsets.UTF_8);
+		assertThat(keptClasses).isEqualTo(3);
+		assertThat(filteredReport).endsWith(REPORT);
+	}
+
+	/** Tests that files that are not JaCoCo XML reports are rejected. */
+	@Test
+	void rejectsOtherFiles() throws IOException {
+		File output = new File(tempDir, "filtered.xml");
+
+		assertThatThrownBy(() -> new JaCoCoXmlReportFilter(name -> true).filter(writeReport("<coverage/>"), output))
+				.isInstanceOf(IOException.class);
+	}
+
+	private File writeReport(String content) throws IOException {
+		File file = new File(tempDir, "report.xml");
+		Files.write(file.toPath(), (HEADER + content).getBytes(StandardCharsets.UTF_8));
+		return file;
+	}
+}
@@ -125,6 +125,86 @@ public class JaCoCoXmlReportGeneratorTest extends TestDataBase {
 		assertThat(xmlString).contains("TestClassTwo");
 	}
 
+	/** Ensures that the class structure cache produces the same report as a full analysis, also when reused. */
+	@Test
+	void testClassStructureCacheProducesIdenticalReport() throws Exception {
+		String testFolderName = "ignore-uncovered-classes";
+		long classId = calculateClassId(testFolderName, "TestClass.class");
+		Dump dump = createDummyDump(classId);
+
+		String uncachedXml = convertToString(createGenerator(testFolderName, false, 1), dump);
+		JaCoCoXmlReportGenerator cachingGenerator = createGenerator(testFolderName, true, 1);
+
+		assertThat(convertToString(cachingGenerator, dump)).isEqualTo(uncachedXml);
+		assertThat(convertToString(cachingGenerator, dump)).isEqualTo(uncachedXml);
+	}
+
+	/**
+	 * Ensures that the class structure cache produces the same reports as a full analysis when it is reused for dumps
+	 * that cover different lines.
+	 */
+	@Test
+	void testReusedClassStructureCacheProducesIdenticalReportsForDifferentDumps() throws Exception {
+		String testFolderName = "ignore-uncovered-classes";
+		long classId = calculateClassId(testFolderName, "TestClass.class");
+		// covers the constructor
+		Dump firstDump = createDummyDump(classId, true, false, false);
+		// covers foo() and main()
+		Dump secondDump = createDummyDump(classId, false, true, true);
+
+		String firstUncachedXml = convertToString(createGenerator(testFolderName, false, 1), firstDump);
+		String secondUncachedXml = convertToString(createGenerator(testFolderName, false, 1), secondDump);
+		assertThat(firstUncachedXml).isNotEqualTo(secondUncachedXml);
+
+		JaCoCoXmlReportGenerator cachingGenerator = createGenerator(testFolderName, true, 1);
+		assertThat(convertToString(cachingGenerator, firstDump)).isEqualTo(firstUncachedXml);
+		assertThat(convertToString(cachingGenerator, secondDump)).isEqualTo(secondUncachedXml);
+		assertThat(convertToString(cachingGenerator, firstDump)).isEqualTo(firstUncachedXml);
+	}
+
+	/** Ensures that the class structure cache reports duplicate classes the same way as a full analysis. */
+	@Test
+	void testClassStructureCacheWithDifferentClassesWithTheSameNameShouldThrowException() {
+		assertThatThrownBy(() -> convertToString(createGenerator("different-duplicate-classes", true, 1),
+				createDummyDump())).isExactlyInstanceOf(IOException.class)
+				.hasCauseExactlyInstanceOf(IllegalStateException.class);
+	}
+
+	/** Ensures that the parallel analysis produces the same report as the sequential one. */
+	@Test
+	void testParallelAnalysisProducesIdenticalReport() throws Exception {
+		String testFolderName = "ignore-uncovered-classes";
+		long classId = calculateClassId(testFolderName, "TestClass.class");
+		Dump dump = createDummyDump(classId);
+
+		String sequentialXml = convertToString(createGenerator(testFolderName, false, 1), dump);
+
+		assertThat(convertToString(createGenerator(testFolderName, false, 4), dump)).isEqualTo(sequentialXml);
+	}
+
+	/** Ensures that the parallel analysis reports duplicate classes the same way as the sequential one. */
+	@Test
+	void testParallelAnalysisWithDifferentClassesWithTheSameNameShouldThrowException() {
+		assertThatThrownBy(() -> convertToString(createGenerator("different-duplicate-classes", false, 4),
+				createDummyDump())).isExactlyInstanceOf(IOException.class)
+				.hasCauseExactlyInstanceOf(IllegalStateException.class);
+	}
+
+	private JaCoCoXmlReportGenerator createGenerator(String testDataFolder, boolean cacheClassStructure,
+													 int analysisThreads) {
+		return new JaCoCoXmlReportGenerator(Collections.singletonList(useTestFile(testDataFolder)),
+				new ClasspathWildcardIncludeFilter("*", null), EDuplicateClassFileBehavior.FAIL, false,
+				cacheClassStructure, analysisThreads, mock(ILogger.class));
+	}
+
+	private static String convertToString(JaCoCoXmlReportGenerator generator,
+										  Dump dump) throws IOException, EmptyReportException {
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		String outputFilePath = "test-coverage-" + System.currentTimeMillis() + ".xml";
+		generator.convert(dump, Paths.get(outputFilePath)).copy(stream);
+		return stream.toString(StandardCharsets.UTF_8.name());
+	}
+
 	/**
 	 * Creates a dummy dump with the specified class ID. The class ID can currently be calculated with {@link
 	 * org.jacoco.core.internal.data.CRC64#classId(byte[])}. This might change in the future, as it's considered an
@@ -132,8 +212,13 @@ public class JaCoCoXmlReportGeneratorTest extends TestDataBase {
 	 * https://www.jacoco.org/jacoco/trunk/doc/classids.html</a>)
 	 */
 	private static Dump createDummyDump(long classId) {
+		return createDummyDump(classId, true, true, true);
+	}
+
+	/** Creates a dummy dump with the specified class ID and probes. See {@link #createDummyDump(long)}. */
+	private static Dump createDummyDump(long classId, boolean... probes) {
 		ExecutionDataStore store = new ExecutionDataStore();
-		store.put(new ExecutionData(classId, "TestClass", new boolean[]{true, true, true}));
+		store.put(new ExecutionData(classId, "TestClass", probes));
 		SessionInfo info = new SessionInfo("session-id", 124L, 125L);
 		return new Dump(info, store);
 	}
@@ -0,0 +1,93 @@
+package com.teamscale.report.jacoco;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/** Tests the {@link JaCoCoXmlReportMerger}. */
+class JaCoCoXmlReportMergerTest {
+
+	private static final String HEADER = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>" +
+			"<!DOCTYPE report PUBLIC \"-//JACOCO//DTD Report 1.1//EN\" \"report.dtd\">";
+
+	@TempDir
+	File tempDir;
+
+	/** Tests that a line is covered in the merged report if it is covered in any of the reports. */
+	@Test
+	void mergesLines() throws IOException {
+		JaCoCoXmlReportMerger merger = new JaCoCoXmlReportMerger();
+		merger.merge(writeReport("first.xml", "<report name=\"dummybundle\">" +
+				"<sessioninfo id=\"first\" start=\"1\" dump=\"2\"/>" +
+				"<package name=\"com/example\"><class name=\"com/example/Foo\" sourcefilename=\"Foo.java\">" +
+				"<method name=\"bar\" desc=\"()V\" line=\"3\">" +
+				"<counter type=\"INSTRUCTION\" missed=\"4\" covered=\"2\"/></method></class>" +
+				"<sourcefile name=\"Foo.java\"><line nr=\"3\" mi=\"0\" ci=\"2\" mb=\"1\" cb=\"1\"/>" +
+				"<line nr=\"4\" mi=\"4\" ci=\"0\" mb=\"0\" cb=\"0\"/>" +
+				"</sourcefile></package></report>"));
+		merger.merge(writeReport("second.xml", "<report name=\"dummybundle\">" +
+				"<sessioninfo id=\"second\" start=\"3\" dump=\"4\"/>" +
+				"<package name=\"com/example\"><sourcefile name=\"Foo.java\">" +
+				"<line nr=\"3\" mi=\"2\" ci=\"0\" mb=\"0\" cb=\"2\"/>" +
+				"<line nr=\"4\" mi=\"1\" ci=\"3\" mb=\"0\" cb=\"0\"/>" +
+				"</sourcefile></package></report>"));
+
+		String mergedReport = write(merger);
+
+		assertThat(mergedReport).contains("<sessioninfo id=\"first\" start=\"1\" dump=\"2\"/>",
+				"<sessioninfo id=\"second\" start=\"3\" dump=\"4\"/>",
+				"<line nr=\"3\" mi=\"0\" ci=\"2\" mb=\"0\" cb=\"2\"/>",
+				"<line nr=\"4\" mi=\"1\" ci=\"3\" mb=\"0\" cb=\"0\"/>",
+				"<counter type=\"LINE\" missed=\"0\" covered=\"2\"/>")
+				.doesNotContain("<class");
+	}
+
+	/** Tests that the merged report can be merged again. */
+	@Test
+	void mergedReportCanBeMerged() throws IOException {
+		JaCoCoXmlReportMerger merger = new JaCoCoXmlReportMerger();
+		merger.merge(writeReport("report.xml", "<report name=\"dummybundle\"><package name=\"com/example\">" +
+				"<sourcefile name=\"Foo.java\"><line nr=\"3\" mi=\"1\" ci=\"2\" mb=\"0\" cb=\"0\"/></sourcefile>" +
+				"</package></report>"));
+		String mergedReport = write(merger);
+
+		JaCoCoXmlReportMerger secondMerger = new JaCoCoXmlReportMerger();
+		File mergedFile = new File(tempDir, "merged.xml");
+		Files.write(mergedFile.toPath(), mergedReport.getBytes(StandardCharsets.UTF_8));
+		secondMerger.merge(mergedFile);
+
+		assertThat(write(secondMerger)).isEqualTo(mergedReport);
+	}
+
+	/** Tests that files that are not JaCoCo XML reports are rejected. */
+	@Test
+	void rejectsOtherFiles() throws IOException {
+		JaCoCoXmlReportMerger merger = new JaCoCoXmlReportMerger();
+
+		assertThatThrownBy(() -> merger.merge(writeReport("other.xml", "<coverage/>")))
+				.isInstanceOf(IOException.class);
+		File emptyFile = new File(tempDir, "empty.xml");
+		Files.createFile(emptyFile.toPath());
+		assertThatThrownBy(() -> merger.merge(emptyFile)).isInstanceOf(IOException.class);
+	}
+
+	private File writeReport(String name, String content) throws IOException {
+		File file = new File(tempDir, name);
+		Files.write(file.toPath(), (HEADER + content).getBytes(StandardCharsets.UTF_8));
+		return file;
+	}
+
+	private static String write(JaCoCoXmlReportMerger merger) throws IOException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		merger.writeTo(output);
+		return new String(output.toByteArray(), StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,113 @@
+package com.teamscale.report.jacoco.dump;
+
+import org.jacoco.core.data.ExecutionData;
+import org.jacoco.core.data.ExecutionDataStore;
+import org.jacoco.core.data.SessionInfo;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/** Tests the {@link IndexedExecFile} and the {@link IndexedExecFileWriter}. */
+class IndexedExecFileTest {
+
+	@TempDir
+	File tempDir;
+
+	/** Tests that the sessions of a test can be read without reading the other sessions. */
+	@Test
+	void readSingleTest() throws IOException {
+		File file = writeFile(true);
+
+		try (IndexedExecFile indexedExecFile = IndexedExecFile.open(file)) {
+			assertThat(indexedExecFile.getTestIds()).containsExactly("test1", "test2", "test3");
+			assertThat(indexedExecFile.getSessionCount()).isEqualTo(4);
+
+			Dump dump = indexedExecFile.readDump("test2");
+			assertThat(dump.info.getId()).isEqualTo("test2");
+			assertThat(probesOf(dump, 1)).containsExactly(false, true, true);
+			assertThat(dump.store.get(2)).isNull();
+			assertThat(indexedExecFile.readDump("unknown")).isNull();
+		}
+	}
+
+	/** Tests that multiple sessions of the same test are merged. */
+	@Test
+	void mergesSessionsOfSameTest() throws IOException {
+		try (IndexedExecFile indexedExecFile = IndexedExecFile.open(writeFile(true))) {
+			Dump dump = indexedExecFile.readDump("test1");
+			assertThat(probesOf(dump, 1)).containsExactly(true, false, true);
+			assertThat(probesOf(dump, 2)).containsExactly(true);
+		}
+	}
+
+	/** Tests that a file whose index has not been written, e.g. because the JVM crashed, can still be read. */
+	@Test
+	void rebuildsMissingIndex() throws IOException {
+		File file = writeFile(false);
+		try (RandomAccessFile truncated = new RandomAccessFile(file, "rw")) {
+			// simulates a session that has only been written partially
+			truncated.setLength(truncated.length() - 3);
+		}
+
+		try (IndexedExecFile indexedExecFile = IndexedExecFile.open(file)) {
+			assertThat(indexedExecFile.getTestIds()).containsExactly("test1", "test2", "test3");
+			assertThat(indexedExecFile.getSessionCount()).isEqualTo(3);
+			assertThat(probesOf(indexedExecFile.readDump("test1"), 1)).containsExactly(true, false, false);
+		}
+	}
+
+	/** Tests the conversion to a plain exec file and back. */
+	@Test
+	void convertToExecFileAndBack() throws IOException {
+		File execFile = new File(tempDir, "coverage.exec");
+		File convertedFile = new File(tempDir, "converted.iexec");
+		try (IndexedExecFile indexedExecFile = IndexedExecFile.open(writeFile(true))) {
+			indexedExecFile.writeExecFile(execFile);
+		}
+		assertThat(IndexedExecFile.isIndexedExecFile(execFile)).isFalse();
+
+		IndexedExecFile.convertExecFile(execFile, convertedFile);
+
+		assertThat(IndexedExecFile.isIndexedExecFile(convertedFile)).isTrue();
+		try (IndexedExecFile indexedExecFile = IndexedExecFile.open(convertedFile)) {
+			List<String> sessions = new ArrayList<>();
+			indexedExecFile.readDumps(dump -> sessions.add(dump.info.getId()));
+			assertThat(sessions).containsExactly("test1", "test2", "test3", "test1");
+			assertThat(probesOf(indexedExecFile.readDump("test3"), 2)).containsExactly(true);
+		}
+	}
+
+	/** Writes four sessions of three tests. */
+	private File writeFile(boolean writeIndex) throws IOException {
+		File file = new File(tempDir, "coverage.iexec");
+		IndexedExecFileWriter writer = new IndexedExecFileWriter(file);
+		writer.append(dump("test1", new ExecutionData(1, "Foo", new boolean[]{true, false, false})));
+		writer.append(dump("test2", new ExecutionData(1, "Foo", new boolean[]{false, true, true})));
+		writer.append(dump("test3", new ExecutionData(2, "Bar", new boolean[]{true})));
+		writer.append(dump("test1", new ExecutionData(1, "Foo", new boolean[]{false, false, true}),
+				new ExecutionData(2, "Bar", new boolean[]{true})));
+		if (writeIndex) {
+			writer.close();
+		}
+		return file;
+	}
+
+	private static Dump dump(String testId, ExecutionData... executionData) {
+		ExecutionDataStore store = new ExecutionDataStore();
+		for (ExecutionData data : executionData) {
+			store.put(data);
+		}
+		return new Dump(new SessionInfo(testId, 1, 2), store);
+	}
+
+	private static boolean[] probesOf(Dump dump, long classId) {
+		return dump.store.get(classId).getProbes();
+	}
+}
@@ -3,6 +3,7 @@ package com.teamscale.report.testwise.jacoco;
 import com.teamscale.client.TestDetails;
 import com.teamscale.report.EDuplicateClassFileBehavior;
 import com.teamscale.report.ReportUtils;
+import com.teamscale.report.jacoco.dump.IndexedExecFile;
 import com.teamscale.report.testwise.model.ETestExecutionResult;
 import com.teamscale.report.testwise.model.TestExecution;
 import com.teamscale.report.testwise.model.TestwiseCoverage;
@@ -14,6 +15,7 @@ import com.teamscale.report.util.ILogger;
 import com.teamscale.test.TestDataBase;
 import org.conqat.lib.commons.filesystem.FileSystemUtils;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.skyscreamer.jsonassert.JSONAssert;
 import org.skyscreamer.jsonassert.JSONCompareMode;
 
@@ -21,6 +23,7 @@ import java.io.File;
 import java.util.ArrayList;
 import java.util.Collections;
 
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Mockito.mock;
 
 /** Tests for the {@link JaCoCoTestwiseReportGenerator} class. */
@@ -47,12 +50,84 @@ public class JaCoCoTestwiseReportGeneratorTest extends TestDataBase {
 		JSONAssert.assertEquals(expected, report, JSONCompareMode.STRICT);
 	}
 
+	/** Tests that converting the sessions in parallel yields the same report. */
+	@Test
+	void parallelConversionYieldsSameReport() throws Exception {
+		ClasspathWildcardIncludeFilter includeFilter = new ClasspathWildcardIncludeFilter(null, null);
+		TestwiseCoverage testwiseCoverage = new JaCoCoTestwiseReportGenerator(
+				Collections.singletonList(useTestFile("jacoco/cqddl/classes.zip")),
+				includeFilter, EDuplicateClassFileBehavior.IGNORE,
+				mock(ILogger.class)).convert(useTestFile("jacoco/cqddl/coverage.exec"), 4);
+		String report = ReportUtils.getTestwiseCoverageReportAsString(generateDummyReportFrom(testwiseCoverage));
+
+		String expected = FileSystemUtils.readFileUTF8(useTestFile("jacoco/cqddl/report.json.expected"));
+		JSONAssert.assertEquals(expected, report, JSONCompareMode.STRICT);
+	}
+
+	/** Tests that indexed exec files yield the same report as the plain exec file they have been converted from. */
+	@Test
+	void indexedExecFileYieldsSameReport(@TempDir File tempDir) throws Exception {
+		File indexedExecFile = new File(tempDir, "coverage.iexec");
+		IndexedExecFile.convertExecFile(useTestFile("jacoco/cqddl/coverage.exec"), indexedExecFile);
+
+		ClasspathWildcardIncludeFilter includeFilter = new ClasspathWildcardIncludeFilter(null, null);
+		TestwiseCoverage testwiseCoverage = new JaCoCoTestwiseReportGenerator(
+				Collections.singletonList(useTestFile("jacoco/cqddl/classes.zip")),
+				includeFilter, EDuplicateClassFileBehavior.IGNORE,
+				mock(ILogger.class)).convert(indexedExecFile);
+		String report = ReportUtils.getTestwiseCoverageReportAsString(generateDummyReportFrom(testwiseCoverage));
+
+		String expected = FileSystemUtils.readFileUTF8(useTestFile("jacoco/cqddl/report.json.expected"));
+		JSONAssert.assertEquals(expected, report, JSONCompareMode.STRICT);
+	}
+
+	/** Tests that lookups read from the probes cache yield the same report as freshly analyzed class files. */
+	@Test
+	void probesCacheIsReusedByLaterRuns(@TempDir File tempDir) throws Exception {
+		File probesCacheFile = new File(tempDir, "probes-cache.bin");
+		String expected = FileSystemUtils.readFileUTF8(useTestFile("jacoco/cqddl/report.json.expected"));
+
+		String firstReport = runReportGenerator("jacoco/cqddl/classes.zip", "jacoco/cqddl/coverage.exec", 1,
+				probesCacheFile);
+		assertThat(probesCacheFile).exists();
+		long lastModified = probesCacheFile.lastModified();
+		String secondReport = runReportGenerator("jacoco/cqddl/classes.zip", "jacoco/cqddl/coverage.exec", 1,
+				probesCacheFile);
+		String parallelReport = runReportGenerator("jacoco/cqddl/classes.zip", "jacoco/cqddl/coverage.exec", 4,
+				probesCacheFile);
+
+		JSONAssert.assertEquals(expected, firstReport, JSONCompareMode.STRICT);
+		JSONAssert.assertEquals(expected, secondReport, JSONCompareMode.STRICT);
+		JSONAssert.assertEquals(expected, parallelReport, JSONCompareMode.STRICT);
+		assertThat(probesCacheFile.lastModified()).describedAs("Unchanged cache must not be rewritten")
+				.isEqualTo(lastModified);
+	}
+
+	/** Tests that a corrupt probes cache is ignored and replaced. */
+	@Test
+	void corruptProbesCacheIsReplaced(@TempDir File tempDir) throws Exception {
+		File probesCacheFile = new File(tempDir, "probes-cache.bin");
+		FileSystemUtils.writeFileUTF8(probesCacheFile, "not a probes cache");
+
+		String report = runReportGenerator("jacoco/cqddl/classes.zip", "jacoco/cqddl/coverage.exec", 1,
+				probesCacheFile);
+
+		String expected = FileSystemUtils.readFileUTF8(useTestFile("jacoco/cqddl/report.json.expected"));
+		JSONAssert.assertEquals(expected, report, JSONCompareMode.STRICT);
+		assertThat(probesCacheFile.length()).isGreaterThan(100);
+	}
+
 	private String runReportGenerator(String testDataFolder, String execFileName) throws Exception {
+		return runReportGenerator(testDataFolder, execFileName, 1, null);
+	}
+
+	private String runReportGenerator(String testDataFolder, String execFileName, int analysisThreads,
+									  File probesCacheFile) throws Exception {
 		File classFileFolder = useTestFile(testDataFolder);
 		ClasspathWildcardIncludeFilter includeFilter = new ClasspathWildcardIncludeFilter(null, null);
 		TestwiseCoverage testwiseCoverage = new JaCoCoTestwiseReportGenerator(
 				Collections.singletonList(classFileFolder),
-				includeFilter, EDuplicateClassFileBehavior.IGNORE,
+				includeFilter, EDuplicateClassFileBehavior.IGNORE, analysisThreads, probesCacheFile,
 				mock(ILogger.class)).convert(useTestFile(execFileName));
 		return ReportUtils.getTestwiseCoverageReportAsString(generateDummyReportFrom(testwiseCoverage));
 	}
@@ -0,0 +1,87 @@
+package com.teamscale.report.testwise.jacoco;
+
+import com.teamscale.report.jacoco.dump.Dump;
+import com.teamscale.report.testwise.model.builder.TestCoverageBuilder;
+import org.jacoco.core.data.ExecutionDataStore;
+import org.jacoco.core.data.SessionInfo;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/** Tests the {@link PipelinedDumpConverter}. */
+class PipelinedDumpConverterTest {
+
+	/** Tests that the converted dumps are consumed in the order in which they have been read. */
+	@Test
+	void preservesOrderOfDumps() throws IOException {
+		Random random = new Random(42);
+		List<String> consumed = new ArrayList<>();
+
+		new PipelinedDumpConverter(4, dump -> {
+			sleep(random.nextInt(3));
+			if (dump.info.getId().endsWith("0")) {
+				return null;
+			}
+			return new TestCoverageBuilder(dump.info.getId());
+		}).convert(dumpConsumer -> {
+			for (int i = 1; i <= 100; i++) {
+				dumpConsumer.accept(dump("test" + i));
+			}
+		}, testCoverage -> consumed.add(testCoverage.getUniformPath()));
+
+		List<String> expected = new ArrayList<>();
+		for (int i = 1; i <= 100; i++) {
+			if (i % 10 != 0) {
+				expected.add("test" + i);
+			}
+		}
+		assertThat(consumed).containsExactlyElementsOf(expected);
+	}
+
+	/** Tests that all dumps read before an error are consumed before the error is rethrown. */
+	@Test
+	void consumesDumpsReadBeforeError() {
+		List<String> consumed = new ArrayList<>();
+
+		assertThatThrownBy(() -> new PipelinedDumpConverter(4, dump -> new TestCoverageBuilder(dump.info.getId()))
+				.convert(dumpConsumer -> {
+					dumpConsumer.accept(dump("test1"));
+					dumpConsumer.accept(dump("test2"));
+					throw new IOException("Truncated file");
+				}, testCoverage -> consumed.add(testCoverage.getUniformPath())))
+				.isInstanceOf(IOException.class).hasMessage("Truncated file");
+		assertThat(consumed).containsExactly("test1", "test2");
+	}
+
+	/** Tests that the reader is stopped if the consumer fails. */
+	@Test
+	void stopsReaderIfConsumerFails() {
+		assertThatThrownBy(() -> new PipelinedDumpConverter(2, dump -> new TestCoverageBuilder(dump.info.getId()))
+				.convert(dumpConsumer -> {
+					while (true) {
+						dumpConsumer.accept(dump("test"));
+					}
+				}, testCoverage -> {
+					throw new IllegalStateException("Disk full");
+				}))
+				.isInstanceOf(IllegalStateException.class).hasMessage("Disk full");
+	}
+
+	private static Dump dump(String testId) {
+		return new Dump(new SessionInfo(testId, 0, 0), new ExecutionDataStore());
+	}
+
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
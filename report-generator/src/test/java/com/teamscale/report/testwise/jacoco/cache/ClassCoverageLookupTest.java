@@ -0,0 +1,111 @@
+package com.teamscale.report.testwise.jacoco.cache;
+
+import com.teamscale.report.testwise.model.builder.FileCoverageBuilder;
+import com.teamscale.report.util.ILogger;
+import com.teamscale.report.util.IntRangeSet;
+import org.jacoco.core.data.ExecutionData;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.nio.ByteBuffer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+
+/** Tests the {@link ClassCoverageLookup}. */
+class ClassCoverageLookupTest {
+
+	private ClassCoverageLookup lookup;
+
+	@BeforeEach
+	void setUp() {
+		lookup = new ClassCoverageLookup("com/example/Foo");
+		lookup.setSourceFileName("Foo.java");
+		lookup.setTotalProbeCount(5);
+		lookup.addProbe(0, linesOf(3, 4, 5));
+		lookup.addProbe(1, linesOf(5, 6));
+		// lines far apart, so the masks span multiple words
+		lookup.addProbe(2, linesOf(10, 200, 1000));
+		lookup.addProbe(3, linesOf());
+		lookup.finishAnalysis();
+	}
+
+	/** Tests that the lines of all executed probes are combined. */
+	@Test
+	void combinesLinesOfExecutedProbes() throws CoverageGenerationException {
+		FileCoverageBuilder coverage = getFileCoverage(true, true, false, false, false);
+
+		assertThat(coverage.getPath()).isEqualTo("com/example");
+		assertThat(coverage.computeCompactifiedRangesAsString()).isEqualTo("3-6");
+	}
+
+	/** Tests probes whose lines span multiple words of the line masks. */
+	@Test
+	void probeSpanningMultipleWords() throws CoverageGenerationException {
+		FileCoverageBuilder coverage = getFileCoverage(false, true, true, false, false);
+
+		assertThat(coverage.computeCompactifiedRangesAsString()).isEqualTo("5-6,10,200,1000");
+	}
+
+	/** Tests that probes without lines or outside of any method do not contribute any lines. */
+	@Test
+	void probesWithoutLines() throws CoverageGenerationException {
+		FileCoverageBuilder coverage = getFileCoverage(false, false, false, true, true);
+
+		assertThat(coverage.isEmpty()).isTrue();
+	}
+
+	/** Tests that execution data with fewer probes than the analyzed class is rejected. */
+	@Test
+	void tooFewProbes() {
+		assertThatThrownBy(() -> getFileCoverage(true, true))
+				.isInstanceOf(CoverageGenerationException.class);
+	}
+
+	/** Tests that a lookup read from its binary encoding yields the same coverage. */
+	@Test
+	void readLookupYieldsSameCoverage() throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream output = new DataOutputStream(bytes)) {
+			lookup.writeTo(output);
+		}
+		assertThat(bytes.size()).isEqualTo(lookup.getEncodedSize());
+
+		ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+		lookup = ClassCoverageLookup.readFrom(buffer);
+
+		assertThat(buffer.hasRemaining()).isFalse();
+		assertThat(lookup.getClassName()).isEqualTo("com/example/Foo");
+		assertThat(getFileCoverage(false, true, true, false, false).computeCompactifiedRangesAsString())
+				.isEqualTo("5-6,10,200,1000");
+	}
+
+	/** Tests that a length exceeding the encoded lookup is rejected before the array is allocated. */
+	@Test
+	void readLookupWithCorruptLength() throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream output = new DataOutputStream(bytes)) {
+			lookup.writeTo(output);
+		}
+		ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+		// the length of the class name
+		buffer.putInt(0, Integer.MAX_VALUE);
+
+		assertThatThrownBy(() -> ClassCoverageLookup.readFrom(buffer)).isInstanceOf(IllegalArgumentException.class);
+	}
+
+	private FileCoverageBuilder getFileCoverage(boolean... probes) throws CoverageGenerationException {
+		return lookup.getFileCoverage(new ExecutionData(1, "com/example/Foo", probes), mock(ILogger.class));
+	}
+
+	private static IntRangeSet linesOf(int... lines) {
+		IntRangeSet set = new IntRangeSet();
+		for (int line : lines) {
+			set.add(line);
+		}
+		return set;
+	}
+}
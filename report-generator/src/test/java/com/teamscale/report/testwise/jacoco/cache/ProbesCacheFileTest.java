@@ -0,0 +1,69 @@
+package com.teamscale.report.testwise.jacoco.cache;
+
+import com.teamscale.report.EDuplicateClassFileBehavior;
+import com.teamscale.report.util.ILogger;
+import com.teamscale.report.util.IntRangeSet;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+/** Tests the {@link ProbesCacheFile}. */
+class ProbesCacheFileTest {
+
+	/** The class ID of the only class in the cache file. */
+	private static final long CLASS_ID = 42;
+
+	/** The offset of the lookup of the only class in the cache file, i.e. the size of the header and the index. */
+	private static final int LOOKUP_OFFSET = 3 * Integer.BYTES + Long.BYTES + Integer.BYTES;
+
+	@TempDir
+	File tempDir;
+
+	private File cacheFile;
+
+	@BeforeEach
+	void setUp() {
+		ProbesCache probesCache = new ProbesCache(mock(ILogger.class), EDuplicateClassFileBehavior.IGNORE);
+		ClassCoverageLookup lookup = probesCache.createClass(CLASS_ID, "com/example/Foo");
+		lookup.setSourceFileName("Foo.java");
+		lookup.setTotalProbeCount(1);
+		IntRangeSet lines = new IntRangeSet();
+		lines.addRange(3, 5);
+		lookup.addProbe(0, lines);
+		probesCache.finishAnalysis();
+
+		cacheFile = new File(tempDir, "probes.cache");
+		ProbesCacheFile.open(cacheFile, mock(ILogger.class)).update(probesCache);
+	}
+
+	/** Tests that the lookups written to the file are read again. */
+	@Test
+	void readsWrittenLookup() {
+		ProbesCacheFile probesCacheFile = ProbesCacheFile.open(cacheFile, mock(ILogger.class));
+
+		assertThat(probesCacheFile.get(CLASS_ID).getClassName()).isEqualTo("com/example/Foo");
+		assertThat(probesCacheFile.get(CLASS_ID + 1)).isNull();
+	}
+
+	/**
+	 * Tests that a lookup with a corrupt length is treated as a cache miss instead of allocating an array of that
+	 * length.
+	 */
+	@Test
+	void corruptLengthIsCacheMiss() throws IOException {
+		try (RandomAccessFile file = new RandomAccessFile(cacheFile, "rw")) {
+			// the length of the class name
+			file.seek(LOOKUP_OFFSET);
+			file.writeInt(Integer.MAX_VALUE - 8);
+		}
+
+		assertThat(ProbesCacheFile.open(cacheFile, mock(ILogger.class)).get(CLASS_ID)).isNull();
+	}
+}
@@ -1,7 +1,7 @@
 package com.teamscale.report.testwise.model.builder;
 
 import com.teamscale.report.testwise.model.LineRange;
-import com.teamscale.report.util.SortedIntList;
+import com.teamscale.report.util.IntRangeSet;
 import org.junit.jupiter.api.Test;
 
 import java.util.List;
@@ -16,14 +16,14 @@ class FileCoverageBuilderTest {
 	/** Tests the compactification algorithm for line ranges. */
 	@Test
 	void compactifyRanges() {
-		SortedIntList sortedIntList = new SortedIntList();
-		sortedIntList.add(1);
-		sortedIntList.add(3);
-		sortedIntList.add(4);
-		sortedIntList.add(6);
-		sortedIntList.add(7);
-		sortedIntList.add(10);
-		List<LineRange> result = FileCoverageBuilder.compactifyToRanges(sortedIntList);
+		IntRangeSet lines = new IntRangeSet();
+		lines.add(1);
+		lines.add(3);
+		lines.add(4);
+		lines.add(6);
+		lines.add(7);
+		lines.add(10);
+		List<LineRange> result = FileCoverageBuilder.compactifyToRanges(lines);
 		assertThat(result).hasToString("[1, 3-4, 6-7, 10]");
 	}
 
@@ -0,0 +1,147 @@
+package com.teamscale.report.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class IntRangeSetTest {
+
+	@Test
+	void emptySet() {
+		IntRangeSet set = new IntRangeSet();
+		assertThat(set.isEmpty()).isTrue();
+		assertThat(set.size()).isEqualTo(0);
+		assertThat(set.toArray()).isEmpty();
+	}
+
+	@Test
+	void addSorted() {
+		IntRangeSet set = setOf(1, 3, 4, 7, 10);
+		assertThat(set.toArray()).containsExactly(1, 3, 4, 7, 10);
+		assertThat(set.getRangeCount()).isEqualTo(4);
+	}
+
+	@Test
+	void addReversed() {
+		IntRangeSet set = setOf(6, 5, 2, 0);
+		assertThat(set.toArray()).containsExactly(0, 2, 5, 6);
+		assertThat(set.getRangeCount()).isEqualTo(3);
+	}
+
+	@Test
+	void addDuplicates() {
+		IntRangeSet set = setOf(7, 4, 9, 4, 11, 1, 9);
+		assertThat(set.toArray()).containsExactly(1, 4, 7, 9, 11);
+		assertThat(set.size()).isEqualTo(5);
+	}
+
+	@Test
+	void addValueJoiningTwoRanges() {
+		IntRangeSet set = setOf(1, 2, 4, 5);
+		set.add(3);
+		assertThat(set.getRangeCount()).isEqualTo(1);
+		assertThat(set.getRangeStart(0)).isEqualTo(1);
+		assertThat(set.getRangeEnd(0)).isEqualTo(5);
+	}
+
+	@Test
+	void addRangeSpanningMultipleRanges() {
+		IntRangeSet set = setOf(1, 4, 7, 10, 20);
+		set.addRange(3, 11);
+		assertThat(set.toArray()).containsExactly(1, 3, 4, 5, 6, 7, 8, 9, 10, 11, 20);
+		assertThat(set.getRangeCount()).isEqualTo(3);
+	}
+
+	@Test
+	void addEmptyRange() {
+		IntRangeSet set = setOf(1);
+		set.addRange(5, 4);
+		assertThat(set.toArray()).containsExactly(1);
+	}
+
+	@Test
+	void mergeIntoEmptySet() {
+		IntRangeSet set = setOf();
+		set.addAll(setOf(1, 2, 5, 8, 9));
+		assertThat(set.toArray()).containsExactly(1, 2, 5, 8, 9);
+	}
+
+	@Test
+	void mergeWithEmptySet() {
+		IntRangeSet set = setOf(1, 2, 5, 8, 9);
+		set.addAll(setOf());
+		assertThat(set.toArray()).containsExactly(1, 2, 5, 8, 9);
+	}
+
+	@Test
+	void mergeWithOverlap() {
+		IntRangeSet set = setOf(1, 2, 5, 8, 9);
+		set.addAll(setOf(3, 4, 5, 12));
+		assertThat(set.toArray()).containsExactly(1, 2, 3, 4, 5, 8, 9, 12);
+		assertThat(set.getRangeCount()).isEqualTo(3);
+	}
+
+	@Test
+	void contains() {
+		IntRangeSet set = setOf(1, 2, 5, 8, 9);
+		assertThat(set.contains(2)).isTrue();
+		assertThat(set.contains(9)).isTrue();
+		assertThat(set.contains(0)).isFalse();
+		assertThat(set.contains(6)).isFalse();
+		assertThat(set.contains(10)).isFalse();
+	}
+
+	/**
+	 * Performs the operations of the report builders with random values and compares the result with a {@link TreeSet}:
+	 * Adding the lines of a probe in descending order, adding line ranges and merging the lines of many probes.
+	 */
+	@Test
+	void randomOperationsMatchTreeSet() {
+		Random random = new Random(42);
+		for (int iteration = 0; iteration < 100; iteration++) {
+			IntRangeSet set = new IntRangeSet();
+			TreeSet<Integer> expected = new TreeSet<>();
+			for (int probe = 0; probe < 20; probe++) {
+				int start = random.nextInt(200);
+				int end = start + random.nextInt(15);
+				IntRangeSet probeLines = new IntRangeSet();
+				if (random.nextBoolean()) {
+					for (int line = end; line >= start; line--) {
+						probeLines.add(line);
+					}
+				} else {
+					probeLines.addRange(start, end);
+				}
+				for (int line = start; line <= end; line++) {
+					expected.add(line);
+				}
+
+				if (random.nextBoolean()) {
+					set.addAll(probeLines);
+				} else {
+					set.addRange(start, end);
+				}
+				assertMatches(set, expected);
+			}
+		}
+	}
+
+	private static void assertMatches(IntRangeSet set, TreeSet<Integer> expected) {
+		assertThat(set.toArray()).containsExactly(expected.stream().mapToInt(Integer::intValue).toArray());
+		assertThat(set.size()).isEqualTo(expected.size());
+		for (int value = -1; value <= expected.last() + 1; value++) {
+			assertThat(set.contains(value)).isEqualTo(expected.contains(value));
+		}
+	}
+
+	private IntRangeSet setOf(int... values) {
+		IntRangeSet set = new IntRangeSet();
+		for (int value : values) {
+			set.add(value);
+		}
+		return set;
+	}
+}
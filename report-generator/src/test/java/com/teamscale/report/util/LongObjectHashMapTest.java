@@ -0,0 +1,60 @@
+package com.teamscale.report.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class LongObjectHashMapTest {
+
+	@Test
+	void emptyMap() {
+		LongObjectHashMap<String> map = new LongObjectHashMap<>();
+		assertThat(map.isEmpty()).isTrue();
+		assertThat(map.get(0)).isNull();
+		assertThat(map.containsKey(42)).isFalse();
+	}
+
+	@Test
+	void putAndGet() {
+		LongObjectHashMap<String> map = new LongObjectHashMap<>();
+		assertThat(map.put(0, "zero")).isNull();
+		assertThat(map.put(-1, "minus one")).isNull();
+		assertThat(map.put(Long.MAX_VALUE, "max")).isNull();
+
+		assertThat(map.size()).isEqualTo(3);
+		assertThat(map.get(0)).isEqualTo("zero");
+		assertThat(map.get(-1)).isEqualTo("minus one");
+		assertThat(map.get(Long.MAX_VALUE)).isEqualTo("max");
+		assertThat(map.get(1)).isNull();
+	}
+
+	@Test
+	void putReplacesValue() {
+		LongObjectHashMap<String> map = new LongObjectHashMap<>();
+		map.put(7, "old");
+		assertThat(map.put(7, "new")).isEqualTo("old");
+		assertThat(map.get(7)).isEqualTo("new");
+		assertThat(map.size()).isEqualTo(1);
+	}
+
+	@Test
+	void growsBeyondExpectedSize() {
+		LongObjectHashMap<Long> map = new LongObjectHashMap<>(1);
+		for (long key = 0; key < 10_000; key++) {
+			// keys that only differ in their upper bits
+			map.put(key << 40, key);
+		}
+		assertThat(map.size()).isEqualTo(10_000);
+		for (long key = 0; key < 10_000; key++) {
+			assertThat(map.get(key << 40)).isEqualTo(key);
+		}
+		assertThat(map.containsKey(10_000L << 40)).isFalse();
+	}
+
+	@Test
+	void rejectsNullValues() {
+		LongObjectHashMap<String> map = new LongObjectHashMap<>();
+		assertThatThrownBy(() -> map.put(1, null)).isInstanceOf(NullPointerException.class);
+	}
+}
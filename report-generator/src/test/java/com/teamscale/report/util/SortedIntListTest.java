@@ -57,6 +57,17 @@ class SortedIntListTest {
 		assertThat(sortedIntList.size()).isEqualTo(7);
 	}
 
+	@Test
+	void appendBeyondInitialCapacity() {
+		SortedIntList sortedIntList = new SortedIntList();
+		for (int i = 0; i < 100; i++) {
+			sortedIntList.add(i);
+		}
+		sortedIntList.add(99);
+		assertThat(sortedIntList.size()).isEqualTo(100);
+		assertThat(sortedIntList.get(99)).isEqualTo(99);
+	}
+
 	private SortedIntList listOf(int... values) {
 		SortedIntList sortedIntList = new SortedIntList();
 		for (int value : values) {
@@ -1,9 +1,14 @@
 package com.teamscale.tia.client;
 
+import com.squareup.moshi.JsonAdapter;
+import com.squareup.moshi.Moshi;
+import okhttp3.ResponseBody;
 import org.junit.jupiter.api.Test;
 import retrofit2.Call;
 import retrofit2.Retrofit;
+import retrofit2.http.GET;
 import retrofit2.http.POST;
+import retrofit2.http.Path;
 import systemundertest.SystemUnderTest;
 
 import java.io.IOException;
@@ -19,7 +24,17 @@ public class DefaultExcludesSystemTest {
 	private interface AgentService {
 		/** Dumps coverage */
 		@POST("/dump")
-		Call<Void> dump();
+		Call<ResponseBody> dump();
+
+		/** Returns the state of a dump job */
+		@GET("/dump/{id}")
+		Call<ResponseBody> getDumpJob(@Path("id") long id);
+	}
+
+	/** The state of a dump job as returned by the agent. */
+	private static class DumpJob {
+		long id;
+		String state;
 	}
 
 	/** These ports must match what is configured for the -javaagent line in this project's build.gradle. */
@@ -49,9 +64,19 @@ public class DefaultExcludesSystemTest {
 		assertThat(report).contains("NotExcludedClass");
 	}
 
-	private void dumpCoverage() throws IOException {
-		new Retrofit.Builder().baseUrl("http://localhost:" + AGENT_PORT).build()
-				.create(AgentService.class).dump().execute();
+	/** Triggers a dump and waits until the agent has converted and uploaded it in the background. */
+	private void dumpCoverage() throws IOException, InterruptedException {
+		AgentService agentService = new Retrofit.Builder().baseUrl("http://localhost:" + AGENT_PORT).build()
+				.create(AgentService.class);
+		JsonAdapter<DumpJob> dumpJobAdapter = new Moshi.Builder().build().adapter(DumpJob.class);
+
+		DumpJob job = dumpJobAdapter.fromJson(agentService.dump().execute().body().string());
+		for (int i = 0; i < 100 && (job.state.equals("QUEUED") || job.state.equals("CONVERTING") ||
+				job.state.equals("UPLOADING")); i++) {
+			Thread.sleep(100);
+			job = dumpJobAdapter.fromJson(agentService.getDumpJob(job.id).execute().body().string());
+		}
+		assertThat(job.state).isEqualTo("FINISHED");
 	}
 
 }
@@ -0,0 +1,24 @@
+package com.teamscale.client;
+
+import java.io.IOException;
+
+/** Thrown if a request to Teamscale was answered with an unsuccessful HTTP status code. */
+public class HttpStatusException extends IOException {
+
+	/** Serialization ID. */
+	private static final long serialVersionUID = 1L;
+
+	/** The HTTP status code of the response. */
+	private final int statusCode;
+
+	/** Constructor. */
+	public HttpStatusException(String message, int statusCode) {
+		super(message);
+		this.statusCode = statusCode;
+	}
+
+	/** @see #statusCode */
+	public int getStatusCode() {
+		return statusCode;
+	}
+}
@@ -1,7 +1,9 @@
 package com.teamscale.client;
 
+import okhttp3.ConnectionPool;
 import okhttp3.Interceptor;
 import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
 import okhttp3.Request;
 import okhttp3.ResponseBody;
 import org.slf4j.Logger;
@@ -18,12 +20,18 @@ import java.io.IOException;
 import java.security.GeneralSecurityException;
 import java.security.SecureRandom;
 import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.util.Arrays;
 import java.util.Base64;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 
 /**
  * Utility functions to set up {@link Retrofit} and {@link OkHttpClient}.
+ * <p>
+ * All clients created by this class are derived from a single {@link #getSharedClient() shared client}, so they share
+ * its connection pool, dispatcher threads and TLS sessions. Connections to the same server are therefore reused across
+ * uploaders and services instead of paying for a new TLS handshake on every upload.
  */
 public class HttpUtils {
 
@@ -32,9 +40,53 @@ public class HttpUtils {
 	/** Controls whether {@link OkHttpClient}s built with this class will validate SSL certificates. */
 	private static boolean shouldValidateSsl = false;
 
-	/** @see #shouldValidateSsl */
-	public static void setShouldValidateSsl(boolean shouldValidateSsl) {
+	/** The maximum number of idle connections the connection pool of the {@link #sharedClient} keeps open. */
+	private static int maxIdleConnections = 5;
+
+	/** How long the connection pool of the {@link #sharedClient} keeps idle connections open. */
+	private static Duration keepAliveDuration = Duration.ofMinutes(5);
+
+	/**
+	 * The client from which all other clients are derived. Created lazily with the current settings and discarded
+	 * whenever a setting changes.
+	 */
+	private static OkHttpClient sharedClient = null;
+
+	/**
+	 * Sets whether SSL certificates are validated. Only affects clients created afterwards.
+	 *
+	 * @see #shouldValidateSsl
+	 */
+	public static synchronized void setShouldValidateSsl(boolean shouldValidateSsl) {
 		HttpUtils.shouldValidateSsl = shouldValidateSsl;
+		sharedClient = null;
+	}
+
+	/**
+	 * Configures the connection pool that is shared by all clients. Only affects clients created afterwards.
+	 *
+	 * @see #maxIdleConnections
+	 * @see #keepAliveDuration
+	 */
+	public static synchronized void setConnectionPool(int maxIdleConnections, Duration keepAliveDuration) {
+		HttpUtils.maxIdleConnections = maxIdleConnections;
+		HttpUtils.keepAliveDuration = keepAliveDuration;
+		sharedClient = null;
+	}
+
+	/**
+	 * Returns the client from which all clients created by this class are derived. Use
+	 * {@link OkHttpClient#newBuilder()} to derive a client with a custom configuration that still shares the connection
+	 * pool, dispatcher and TLS sessions of this client.
+	 */
+	public static synchronized OkHttpClient getSharedClient() {
+		if (sharedClient == null) {
+			OkHttpClient.Builder builder = new OkHttpClient.Builder();
+			setDefaults(builder);
+			setUpSslValidation(builder);
+			sharedClient = builder.build();
+		}
+		return sharedClient;
 	}
 
 	/** Creates a new {@link Retrofit} with proper defaults. The instance can be customized with the given action. */
@@ -50,9 +102,7 @@ public class HttpUtils {
 	 */
 	public static Retrofit createRetrofit(Consumer<Retrofit.Builder> retrofitBuilderAction,
 										  Consumer<OkHttpClient.Builder> okHttpBuilderAction) {
-		OkHttpClient.Builder httpClientBuilder = new OkHttpClient.Builder();
-		setDefaults(httpClientBuilder);
-		setUpSslValidation(httpClientBuilder);
+		OkHttpClient.Builder httpClientBuilder = getSharedClient().newBuilder();
 		okHttpBuilderAction.accept(httpClientBuilder);
 
 		Retrofit.Builder builder = new Retrofit.Builder().client(httpClientBuilder.build());
@@ -61,12 +111,16 @@ public class HttpUtils {
 	}
 
 	/**
-	 * Sets sensible defaults for the {@link OkHttpClient}.
+	 * Sets sensible defaults for the {@link OkHttpClient}. HTTP/2 is used for servers that support it, which allows to
+	 * send parallel requests over a single connection.
 	 */
 	private static void setDefaults(OkHttpClient.Builder builder) {
 		builder.connectTimeout(60, TimeUnit.SECONDS);
 		builder.readTimeout(60, TimeUnit.SECONDS);
 		builder.writeTimeout(60, TimeUnit.SECONDS);
+		builder.connectionPool(
+				new ConnectionPool(maxIdleConnections, keepAliveDuration.toMillis(), TimeUnit.MILLISECONDS));
+		builder.protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1));
 	}
 
 	/**
@@ -93,6 +93,7 @@ public interface ITeamscaleService {
 	 * movetolastcommit set to false.
 	 *
 	 * @return Returns the request body if successful, otherwise throws an IOException.
+	 * @throws HttpStatusException if Teamscale responded with an unsuccessful status code.
 	 */
 	default String uploadReport(
 			String projectName,
@@ -131,8 +132,10 @@ public interface ITeamscaleService {
 			}
 
 			String errorBody = HttpUtils.getErrorBodyStringSafe(response);
-			throw new IOException(
-					"Request failed with error code " + response.code() + ". Response body: " + errorBody);
+			throw new HttpStatusException("Failed to upload report. Request failed with error code " +
+					response.code() + ". Response body: " + errorBody, response.code());
+		} catch (HttpStatusException e) {
+			throw e;
 		} catch (IOException e) {
 			throw new IOException("Failed to upload report. " + e.getMessage(), e);
 		}
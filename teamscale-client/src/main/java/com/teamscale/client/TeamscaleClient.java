@@ -133,4 +133,11 @@ public class TeamscaleClient {
 		RequestBody requestBody = RequestBody.create(MultipartBody.FORM, report);
 		service.uploadReport(projectId, commitDescriptor, revision, partition, reportFormat, message, requestBody);
 	}
+
+	/** Uploads one report that is streamed from the given file to Teamscale. */
+	public void uploadReport(EReportFormat reportFormat, File report, CommitDescriptor commitDescriptor,
+							 String revision, String partition, String message) throws IOException {
+		RequestBody requestBody = RequestBody.create(MultipartBody.FORM, report);
+		service.uploadReport(projectId, commitDescriptor, revision, partition, reportFormat, message, requestBody);
+	}
 }
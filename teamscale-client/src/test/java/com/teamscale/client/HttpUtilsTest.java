@@ -0,0 +1,53 @@
+package com.teamscale.client;
+
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import retrofit2.Retrofit;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/** Tests the {@link HttpUtils}. */
+class HttpUtilsTest {
+
+	private static final HttpUrl BASE_URL = HttpUrl.get("http://localhost:8080/");
+
+	/** Restores the default settings. */
+	@AfterEach
+	void resetSettings() {
+		HttpUtils.setConnectionPool(5, Duration.ofMinutes(5));
+	}
+
+	/** Tests that all created clients share the connection pool, the dispatcher and the SSL socket factory. */
+	@Test
+	void clientsShareConnectionPool() {
+		OkHttpClient first = clientOf(HttpUtils.createRetrofit(builder -> builder.baseUrl(BASE_URL)));
+		OkHttpClient second = clientOf(HttpUtils.createRetrofit(builder -> builder.baseUrl(BASE_URL),
+				builder -> builder.readTimeout(5, TimeUnit.MINUTES)));
+
+		assertThat(second.readTimeoutMillis()).isNotEqualTo(first.readTimeoutMillis());
+		assertThat(second.connectionPool()).isSameAs(first.connectionPool());
+		assertThat(second.dispatcher()).isSameAs(first.dispatcher());
+		assertThat(second.sslSocketFactory()).isSameAs(first.sslSocketFactory());
+	}
+
+	/** Tests that changing the settings only affects clients created afterwards. */
+	@Test
+	void settingsApplyToNewClients() {
+		OkHttpClient before = HttpUtils.getSharedClient();
+		HttpUtils.setConnectionPool(10, Duration.ofSeconds(30));
+		OkHttpClient after = HttpUtils.getSharedClient();
+
+		assertThat(after).isNotSameAs(before);
+		assertThat(after.connectionPool()).isNotSameAs(before.connectionPool());
+		assertThat(HttpUtils.getSharedClient()).isSameAs(after);
+	}
+
+	private static OkHttpClient clientOf(Retrofit retrofit) {
+		return (OkHttpClient) retrofit.callFactory();
+	}
+}
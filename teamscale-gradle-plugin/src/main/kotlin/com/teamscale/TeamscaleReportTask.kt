@@ -99,6 +99,8 @@ open class TeamscaleReportTask : DefaultTask() {
             classDirs.flatMap { it.files },
             agentFilter.getPredicate(),
             EDuplicateClassFileBehavior.IGNORE,
+            1,
+            File(project.rootProject.buildDir, "teamscale/probes-cache.bin"),
             project.logger.wrapInILogger()
         )
 
@@ -149,7 +151,9 @@ open class TeamscaleReportTask : DefaultTask() {
 
         val testwiseCoverage = TestwiseCoverage()
         for (file in jacocoExecutionData) {
-            testwiseCoverage.add(jaCoCoTestwiseReportGenerator.convert(file))
+            testwiseCoverage.add(
+                jaCoCoTestwiseReportGenerator.convert(file, Runtime.getRuntime().availableProcessors())
+            )
         }
 
         val jsCoverageData = ReportUtils.listFiles(ETestArtifactFormat.CLOSURE, artifacts)
@@ -56,6 +56,8 @@ public interface ITestwiseCoverageAgentApi {
 	 * and which sets the Accept header to JSON.
 	 */
 	static ITestwiseCoverageAgentApi createService(HttpUrl baseUrl) {
+		// Not derived from HttpUtils' shared client, which trusts all certificates unless the agent enables validation.
+		// This client runs in the test JVM, so it keeps OkHttp's validating defaults.
 		Retrofit retrofit = new Retrofit.Builder()
 				.baseUrl(baseUrl)
 				.addConverterFactory(MoshiConverterFactory.create())